@@ -2,9 +2,6 @@ package twitter;
 
 import java.time.Instant;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
  * Extract consists of methods that extract information from a list of tweets.
@@ -42,6 +39,26 @@ public class Extract {
         return new Timespan(start, end);
     }
 
+    /**
+     * Get the time period spanned by tweets whose timestamps are given as a column of
+     * epoch milliseconds, for corpora too large to be held as Tweet objects.
+     * The minimum and maximum are found in a single parallel pass over the column.
+     * 
+     * @param epochMillis
+     *            timestamps of the tweets, as milliseconds since 1970-01-01T00:00:00Z,
+     *            not modified by this method.
+     * @return a minimum-length time interval that contains every timestamp of
+     *         the column, or null if the column is empty.
+     */
+    public static Timespan getTimespan(long[] epochMillis) {
+        if (epochMillis.length == 0) {
+            return null;
+        }
+
+        LongSummaryStatistics statistics = Arrays.stream(epochMillis).parallel().summaryStatistics();
+        return new Timespan(Instant.ofEpochMilli(statistics.getMin()), Instant.ofEpochMilli(statistics.getMax()));
+    }
+
     /**
      * Get usernames mentioned in a list of tweets.
      * 
@@ -63,25 +80,36 @@ public class Extract {
         }
 
         Set<String> mentionedUsers = new HashSet<>();
-        // Pattern that only matches a sequence of valid user name characters
-        Pattern userPattern = Pattern.compile("(([0-9]|[a-zA-Z]|-|_)+)");
 
         for (Tweet tweet : tweets) {
             String text = tweet.getText();
-            List<String> mentions = Arrays.stream(text.split(" ")).filter(word -> word.startsWith("@"))
-                    .map(candidate -> getRegexFirstMatch(candidate, userPattern)).filter(optional -> optional.isPresent())
-                    .map(presentOptional -> presentOptional.get()).collect(Collectors.toList());
-            mentions.forEach(mention -> mentionedUsers.add(mention.toLowerCase(Locale.ROOT)));
+            if (text.indexOf('@') < 0) {
+                continue;
+            }
+            Tokenizer.forEachWord(text, (start, end) -> {
+                if (text.charAt(start) == '@') {
+                    getFirstUsername(text, start, end)
+                            .ifPresent(mention -> mentionedUsers.add(mention.toLowerCase(Locale.ROOT)));
+                }
+                return true;
+            });
         }
 
         return mentionedUsers;
     }
 
-    // Helper that optionally returns the first substring in str that matches the pattern
-    private static Optional<String> getRegexFirstMatch(String str, Pattern pattern) {
-        Matcher matcher = pattern.matcher(str);
-        if (matcher.find()) {
-            return Optional.of(matcher.group());
+    // Helper that optionally returns the first run of valid user name characters in text[start, end)
+    private static Optional<String> getFirstUsername(String text, int start, int end) {
+        int runStart = start;
+        while (runStart < end && !Tokenizer.isUsernameChar(text.charAt(runStart))) {
+            runStart++;
+        }
+        int runEnd = runStart;
+        while (runEnd < end && Tokenizer.isUsernameChar(text.charAt(runEnd))) {
+            runEnd++;
+        }
+        if (runEnd > runStart) {
+            return Optional.of(text.substring(runStart, runEnd));
         } else {
             return Optional.empty();
         }
@@ -61,13 +61,14 @@ public class Filter {
      *         same order as in the input list.
      */
     public static List<Tweet> containing(List<Tweet> tweets, List<String> words) {
-        Set<String> wordsAsLowerCase = words.stream().map(word -> word.toLowerCase(Locale.ROOT))
-                .collect(Collectors.toSet());
-        return tweets.stream().filter(tweet -> {
-            Set<String> tweetWordsLowerCase = Arrays.stream(tweet.getText().split(" "))
-                    .map(word -> word.toLowerCase(Locale.ROOT)).collect(Collectors.toSet());
-            return wordsAsLowerCase.stream().anyMatch(word -> tweetWordsLowerCase.contains(word));
-        }).collect(Collectors.toList());
+        WordMatcher matcher = new WordMatcher(words);
+        return tweets.stream().filter(tweet -> containsAnyWord(tweet.getText(), matcher))
+                .collect(Collectors.toList());
+    }
+
+    // Helper that tells whether one of the space-separated words of text is accepted by the matcher
+    private static boolean containsAnyWord(String text, WordMatcher matcher) {
+        return !Tokenizer.forEachWord(text, (start, end) -> !matcher.matches(text, start, end));
     }
 
     /* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
@@ -0,0 +1,335 @@
+package twitter;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LabelPropagation clusters the users of a UserGraph into communities, ignoring the direction of follows.
+ *
+ * Every user starts in its own community (labelled by its id). At each iteration, users are visited in a random
+ * order and each one adopts the label carried by most of its neighbors. The visit is split between the threads
+ * of a ForkJoinPool, and labels are updated in place as soon as they are computed (asynchronous propagation),
+ * so later users of the same iteration already see the new labels. Iterations stop once the fraction of users
+ * changing label falls to the convergence threshold, or after a maximum number of iterations.
+ *
+ * The visiting order of each iteration and the tie-breaking between equally frequent labels are derived from
+ * the seed, so runs with a pool of one thread are fully deterministic. With several threads, the interleaving
+ * of label updates may still change the result from one run to the next.
+ */
+public class LabelPropagation {
+
+    private static final int SEQUENTIAL_THRESHOLD = 4096;
+
+    // Rep
+    private final UserGraph graph;
+
+    private final long seed;
+
+    private final int maxIterations;
+
+    private final double convergenceThreshold;
+
+    // Rep invariant
+    // maxIterations >= 1, 0 <= convergenceThreshold <= 1
+
+    // Abstraction function
+    // Represents the configuration of a label propagation run over graph
+
+    // Safety from rep exposure argument
+    // All fields are private and final, and graph is immutable.
+
+    /**
+     * Make a LabelPropagation.
+     *
+     * @param graph
+     *            graph whose users to cluster
+     * @param seed
+     *            seed of the visiting orders and tie-breaking
+     * @param maxIterations
+     *            maximum number of iterations, must be positive
+     * @param convergenceThreshold
+     *            iterations stop once the fraction of users changing label in an iteration is at most this
+     *            threshold, must be between 0 and 1
+     */
+    public LabelPropagation(UserGraph graph, long seed, int maxIterations, double convergenceThreshold) {
+        if (maxIterations < 1) {
+            throw new IllegalArgumentException("maxIterations must be positive");
+        }
+        if (convergenceThreshold < 0 || convergenceThreshold > 1) {
+            throw new IllegalArgumentException("convergenceThreshold must be between 0 and 1");
+        }
+        this.graph = graph;
+        this.seed = seed;
+        this.maxIterations = maxIterations;
+        this.convergenceThreshold = convergenceThreshold;
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert this.graph != null;
+        assert this.maxIterations >= 1;
+        assert this.convergenceThreshold >= 0 && this.convergenceThreshold <= 1;
+    }
+
+    /**
+     * Run label propagation.
+     *
+     * @param pool
+     *            pool running the iterations
+     * @return the communities found, and metrics of each iteration
+     */
+    public Result run(ForkJoinPool pool) {
+        int size = this.graph.size();
+        int[] labels = new int[size];
+        int[] order = new int[size];
+        for (int id = 0; id < size; id++) {
+            labels[id] = id;
+            order[id] = id;
+        }
+
+        List<IterationMetrics> iterations = new ArrayList<>();
+        boolean converged = size == 0;
+        for (int iteration = 0; iteration < this.maxIterations && !converged; iteration++) {
+            long startNanos = System.nanoTime();
+            shuffle(order, new Random(this.seed + iteration));
+            LongAdder changes = new LongAdder();
+            pool.invoke(new PropagationTask(order, 0, size, labels, changes));
+            long changed = changes.sum();
+            iterations.add(new IterationMetrics(iteration, System.nanoTime() - startNanos, changed));
+            converged = changed <= this.convergenceThreshold * size;
+        }
+        return new Result(this.graph, labels, iterations, converged);
+    }
+
+    private static void shuffle(int[] order, Random random) {
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swapped = order[i];
+            order[i] = order[j];
+            order[j] = swapped;
+        }
+    }
+
+    // Mixes a label with the seed, so that ties are not always broken in favor of the same ids
+    private long tieBreaker(int label) {
+        long mixed = (label + this.seed) * 0x9E3779B97F4A7C15L;
+        return mixed ^ (mixed >>> 32);
+    }
+
+    // Returns the most frequent label among the neighbors of user, or its current label if it has no neighbor.
+    // The current label wins ties, other ties go to the smallest tieBreaker().
+    private int dominantLabel(int user, int[] labels, int[] buffer) {
+        int followedCount = this.graph.followedCount(user);
+        int degree = followedCount + this.graph.followerCount(user);
+        if (degree == 0) {
+            return labels[user];
+        }
+        for (int i = 0; i < followedCount; i++) {
+            buffer[i] = labels[this.graph.followed(user, i)];
+        }
+        for (int i = followedCount; i < degree; i++) {
+            buffer[i] = labels[this.graph.follower(user, i - followedCount)];
+        }
+        Arrays.sort(buffer, 0, degree);
+
+        int current = labels[user];
+        int bestLabel = current;
+        int bestCount = 0;
+        for (int i = 0; i < degree;) {
+            int label = buffer[i];
+            int runEnd = i;
+            while (runEnd < degree && buffer[runEnd] == label) {
+                runEnd++;
+            }
+            int count = runEnd - i;
+            if (count > bestCount || (count == bestCount && bestLabel != current
+                    && (label == current || tieBreaker(label) < tieBreaker(bestLabel)))) {
+                bestLabel = label;
+                bestCount = count;
+            }
+            i = runEnd;
+        }
+        return bestLabel;
+    }
+
+    /**
+     * PropagationTask updates the labels of a range of the visiting order, splitting the range in halves until
+     * it is small enough to be handled by one thread.
+     *
+     * Labels are read and written without synchronization: a thread may read a neighbor's label from before or
+     * after its update, which asynchronous label propagation tolerates, and int writes are never torn.
+     * Joining the tasks of an iteration makes every update visible to the next iteration.
+     */
+    private class PropagationTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] order;
+
+        private final int start;
+
+        private final int end;
+
+        private final int[] labels;
+
+        private final LongAdder changes;
+
+        PropagationTask(int[] order, int start, int end, int[] labels, LongAdder changes) {
+            this.order = order;
+            this.start = start;
+            this.end = end;
+            this.labels = labels;
+            this.changes = changes;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start > SEQUENTIAL_THRESHOLD) {
+                int middle = (this.start + this.end) >>> 1;
+                invokeAll(new PropagationTask(this.order, this.start, middle, this.labels, this.changes),
+                        new PropagationTask(this.order, middle, this.end, this.labels, this.changes));
+                return;
+            }
+
+            int[] buffer = new int[16];
+            int changed = 0;
+            for (int i = this.start; i < this.end; i++) {
+                int user = this.order[i];
+                int degree = graph.followedCount(user) + graph.followerCount(user);
+                if (degree > buffer.length) {
+                    buffer = new int[Math.max(degree, buffer.length * 2)];
+                }
+                int label = dominantLabel(user, this.labels, buffer);
+                if (label != this.labels[user]) {
+                    this.labels[user] = label;
+                    changed++;
+                }
+            }
+            this.changes.add(changed);
+        }
+    }
+
+    /**
+     * IterationMetrics is an immutable type holding measurements of one label propagation iteration.
+     */
+    public static class IterationMetrics {
+
+        private final int iteration;
+
+        private final long durationNanos;
+
+        private final long changedLabels;
+
+        /**
+         * Make IterationMetrics.
+         *
+         * @param iteration
+         *            index of the iteration, starting at 0
+         * @param durationNanos
+         *            wall-clock duration of the iteration in nanoseconds
+         * @param changedLabels
+         *            number of users whose label changed during the iteration
+         */
+        public IterationMetrics(int iteration, long durationNanos, long changedLabels) {
+            this.iteration = iteration;
+            this.durationNanos = durationNanos;
+            this.changedLabels = changedLabels;
+        }
+
+        /**
+         * @return index of the iteration, starting at 0
+         */
+        public int getIteration() {
+            return this.iteration;
+        }
+
+        /**
+         * @return wall-clock duration of the iteration in nanoseconds
+         */
+        public long getDurationNanos() {
+            return this.durationNanos;
+        }
+
+        /**
+         * @return number of users whose label changed during the iteration
+         */
+        public long getChangedLabels() {
+            return this.changedLabels;
+        }
+
+        @Override
+        public String toString() {
+            return "IterationMetrics{" +
+                    "iteration=" + iteration +
+                    ", durationNanos=" + durationNanos +
+                    ", changedLabels=" + changedLabels +
+                    '}';
+        }
+    }
+
+    /**
+     * Result is an immutable type holding the communities found by a label propagation run.
+     */
+    public static class Result {
+
+        private final UserGraph graph;
+
+        private final int[] labels;
+
+        private final List<IterationMetrics> iterations;
+
+        private final boolean converged;
+
+        // Safety from rep exposure argument
+        // All fields are private and final. labels is never returned, and iterations is only returned
+        // as an unmodifiable list of immutable metrics.
+
+        private Result(UserGraph graph, int[] labels, List<IterationMetrics> iterations, boolean converged) {
+            this.graph = graph;
+            this.labels = labels;
+            this.iterations = Collections.unmodifiableList(iterations);
+            this.converged = converged;
+        }
+
+        /**
+         * @param username
+         *            a Twitter username
+         * @return the label of the user's community, or -1 if the user is not in the graph.
+         *         Two users are in the same community iff they have the same label.
+         */
+        public int communityOf(String username) {
+            int id = this.graph.idOf(username);
+            return id < 0 ? -1 : this.labels[id];
+        }
+
+        /**
+         * @return the communities found, as a map from community label to the lower case usernames
+         *         of its members
+         */
+        public Map<Integer, Set<String>> communities() {
+            Map<Integer, Set<String>> communities = new HashMap<>();
+            for (int id = 0; id < this.labels.length; id++) {
+                communities.computeIfAbsent(this.labels[id], label -> new HashSet<>()).add(this.graph.nameOf(id));
+            }
+            return communities;
+        }
+
+        /**
+         * @return metrics of every iteration that ran, in order
+         */
+        public List<IterationMetrics> getIterations() {
+            return this.iterations;
+        }
+
+        /**
+         * @return true if and only if iterations stopped because the convergence threshold was reached,
+         *         rather than because of the maximum number of iterations
+         */
+        public boolean isConverged() {
+            return this.converged;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package twitter;
+
+import java.util.Arrays;
+
+/**
+ * LongIntHashMap is a mutable map from long keys to int values, stored in two primitive arrays with open
+ * addressing and linear probing, so that counting by key never boxes nor allocates an entry object.
+ *
+ * Keys absent from the map have the value 0.
+ */
+public class LongIntHashMap {
+
+    /**
+     * Consumer of the entries of a LongIntHashMap.
+     */
+    public interface EntryConsumer {
+
+        /**
+         * @param key
+         *            key of an entry
+         * @param value
+         *            value of the entry
+         */
+        void accept(long key, int value);
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    // Rep
+    private long[] keys;
+
+    private int[] values;
+
+    private int size;
+
+    private boolean hasEmptyKey;
+
+    private int emptyKeyValue;
+
+    // Rep invariant
+    // keys.length == values.length, and is a power of two
+    // size is the number of slots of keys not holding EMPTY, plus one if hasEmptyKey; those slots are at most
+    // 3/4 of keys.length
+    // Every key is found between its hash slot and the next EMPTY slot, and appears at most once
+    // The key EMPTY itself is stored apart, in hasEmptyKey and emptyKeyValue
+
+    // Abstraction function
+    // Represents the map from keys[i] to values[i] for every slot i not holding EMPTY, plus EMPTY to
+    // emptyKeyValue if hasEmptyKey
+
+    // Safety from rep exposure argument
+    // All fields are private, and the arrays are never returned.
+
+    /**
+     * Make an empty LongIntHashMap.
+     */
+    public LongIntHashMap() {
+        this.keys = new long[INITIAL_CAPACITY];
+        this.values = new int[INITIAL_CAPACITY];
+        Arrays.fill(this.keys, EMPTY);
+        this.size = 0;
+        this.hasEmptyKey = false;
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert this.keys.length == this.values.length;
+        assert Integer.bitCount(this.keys.length) == 1;
+        assert this.size <= this.keys.length * 3 / 4 + 1;
+    }
+
+    /**
+     * @return the number of keys in this map
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @param key
+     *            a key
+     * @return the value of key, or 0 if key is absent
+     */
+    public int get(long key) {
+        if (key == EMPTY) {
+            return this.emptyKeyValue;
+        }
+        int mask = this.keys.length - 1;
+        for (int slot = hash(key) & mask; this.keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (this.keys[slot] == key) {
+                return this.values[slot];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Add to the value of a key, adding the key to the map if it is absent.
+     *
+     * @param key
+     *            a key
+     * @param delta
+     *            amount to add to the value of key
+     * @return the new value of key
+     */
+    public int addTo(long key, int delta) {
+        if (key == EMPTY) {
+            if (!this.hasEmptyKey) {
+                this.hasEmptyKey = true;
+                this.size++;
+            }
+            return this.emptyKeyValue += delta;
+        }
+        int mask = this.keys.length - 1;
+        int slot = hash(key) & mask;
+        while (this.keys[slot] != EMPTY) {
+            if (this.keys[slot] == key) {
+                return this.values[slot] += delta;
+            }
+            slot = (slot + 1) & mask;
+        }
+        this.keys[slot] = key;
+        this.values[slot] = delta;
+        this.size++;
+        if (this.size > this.keys.length * 3 / 4) {
+            rehash(this.keys.length * 2);
+        }
+        return delta;
+    }
+
+    /**
+     * Add every entry of another map to the values of this map.
+     *
+     * @param that
+     *            map whose values to add, not modified by this method
+     */
+    public void addAll(LongIntHashMap that) {
+        that.forEach(this::addTo);
+    }
+
+    /**
+     * Remove every entry whose value is lower than a threshold.
+     *
+     * @param threshold
+     *            minimum value of the entries kept
+     */
+    public void removeBelow(int threshold) {
+        if (this.hasEmptyKey && this.emptyKeyValue < threshold) {
+            this.hasEmptyKey = false;
+            this.emptyKeyValue = 0;
+            this.size--;
+        }
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        int kept = this.hasEmptyKey ? 1 : 0;
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] != EMPTY && oldValues[slot] >= threshold) {
+                kept++;
+            }
+        }
+        int capacity = INITIAL_CAPACITY;
+        while (kept > capacity * 3 / 4) {
+            capacity *= 2;
+        }
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        Arrays.fill(this.keys, EMPTY);
+        this.size = this.hasEmptyKey ? 1 : 0;
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] != EMPTY && oldValues[slot] >= threshold) {
+                addTo(oldKeys[slot], oldValues[slot]);
+            }
+        }
+        checkRep();
+    }
+
+    /**
+     * Call a consumer on every entry of this map, in no particular order.
+     *
+     * @param consumer
+     *            consumer of the entries, must not modify this map
+     */
+    public void forEach(EntryConsumer consumer) {
+        if (this.hasEmptyKey) {
+            consumer.accept(EMPTY, this.emptyKeyValue);
+        }
+        for (int slot = 0; slot < this.keys.length; slot++) {
+            if (this.keys[slot] != EMPTY) {
+                consumer.accept(this.keys[slot], this.values[slot]);
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        Arrays.fill(this.keys, EMPTY);
+        this.size = this.hasEmptyKey ? 1 : 0;
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] != EMPTY) {
+                addTo(oldKeys[slot], oldValues[slot]);
+            }
+        }
+        checkRep();
+    }
+
+    // Spreads the bits of the key, since keys often differ only in their low or high bits
+    private static int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+}
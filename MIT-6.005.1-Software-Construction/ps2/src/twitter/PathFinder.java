@@ -0,0 +1,230 @@
+package twitter;
+
+import java.util.*;
+
+/**
+ * PathFinder answers "how is user A connected to user B" queries over a UserGraph: it finds a shortest chain
+ * of users A = u_0, u_1, ..., u_k = B such that each u_i follows u_(i+1).
+ *
+ * Queries run a bidirectional breadth-first search: one search follows "follows" edges forward from A, the other
+ * follows the reverse index backward from B, and the smaller frontier is always expanded first. The marker,
+ * parent and queue arrays are allocated once and reused by every query; a marker array entry is only valid
+ * when it holds the current query's stamp, so nothing needs to be cleared between queries.
+ *
+ * A PathFinder is not safe for use by several threads at once; use one per thread.
+ */
+public class PathFinder {
+
+    private static final int NONE = -1;
+
+    // Rep
+    private final UserGraph graph;
+
+    private final int[] forwardStamps;
+
+    private final int[] backwardStamps;
+
+    private final int[] forwardParents;
+
+    private final int[] backwardParents;
+
+    private final int[] forwardDepths;
+
+    private final int[] backwardDepths;
+
+    private int[] forwardFrontier;
+
+    private int[] backwardFrontier;
+
+    private int[] nextFrontier;
+
+    private int stamp;
+
+    // Rep invariant
+    // All arrays have graph.size() entries, stamp >= 0, and no marker array entry is greater than stamp
+    // Between queries, frontier contents are meaningless
+
+    // Abstraction function
+    // Represents a query engine over graph, holding no query state between queries
+
+    // Safety from rep exposure argument
+    // All fields are private and no array is ever returned. graph is immutable.
+
+    /**
+     * Make a PathFinder.
+     *
+     * @param graph
+     *            graph to search
+     */
+    public PathFinder(UserGraph graph) {
+        int size = graph.size();
+        this.graph = graph;
+        this.forwardStamps = new int[size];
+        this.backwardStamps = new int[size];
+        this.forwardParents = new int[size];
+        this.backwardParents = new int[size];
+        this.forwardDepths = new int[size];
+        this.backwardDepths = new int[size];
+        this.forwardFrontier = new int[size];
+        this.backwardFrontier = new int[size];
+        this.nextFrontier = new int[size];
+        this.stamp = 0;
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert this.stamp >= 0;
+        assert this.forwardStamps.length == this.graph.size() && this.backwardStamps.length == this.graph.size();
+    }
+
+    /**
+     * Find a shortest chain of follows from one user to another.
+     *
+     * @param from
+     *            Twitter username of the first user of the chain
+     * @param to
+     *            Twitter username of the last user of the chain
+     * @param maxHops
+     *            maximum number of "follows" edges in the chain, must be non-negative
+     * @return the lower case usernames of a shortest chain from -> ... -> to in which each user follows the
+     *         next one, with at most maxHops edges; [from] if from and to are the same user; an empty list if
+     *         there is no such chain or if one of the users is not in the graph
+     */
+    public List<String> shortestPath(String from, String to, int maxHops) {
+        if (maxHops < 0) {
+            throw new IllegalArgumentException("maxHops must be non-negative");
+        }
+        int source = this.graph.idOf(from);
+        int target = this.graph.idOf(to);
+        if (source == NONE || target == NONE) {
+            return Collections.emptyList();
+        }
+        int meeting = search(source, target, maxHops);
+        if (meeting == NONE) {
+            return Collections.emptyList();
+        }
+
+        LinkedList<String> path = new LinkedList<>();
+        for (int id = meeting; id != NONE; id = this.forwardParents[id]) {
+            path.addFirst(this.graph.nameOf(id));
+        }
+        for (int id = this.backwardParents[meeting]; id != NONE; id = this.backwardParents[id]) {
+            path.addLast(this.graph.nameOf(id));
+        }
+        return path;
+    }
+
+    /**
+     * Find the degrees of separation from one user to another.
+     *
+     * @param from
+     *            Twitter username of the first user
+     * @param to
+     *            Twitter username of the second user
+     * @param maxHops
+     *            maximum number of "follows" edges to consider, must be non-negative
+     * @return the number of edges of a shortest chain of follows from -> ... -> to, or -1 if there is no such
+     *         chain with at most maxHops edges
+     */
+    public int degreesOfSeparation(String from, String to, int maxHops) {
+        return shortestPath(from, to, maxHops).size() - 1;
+    }
+
+    // Runs the bidirectional search and returns the id of a user on a shortest path, or NONE
+    private int search(int source, int target, int maxHops) {
+        nextStamp();
+        visitForward(source, NONE, 0);
+        visitBackward(target, NONE, 0);
+        if (source == target) {
+            return source;
+        }
+
+        this.forwardFrontier[0] = source;
+        this.backwardFrontier[0] = target;
+        int forwardSize = 1;
+        int backwardSize = 1;
+        int forwardDepth = 0;
+        int backwardDepth = 0;
+
+        while (forwardSize > 0 && backwardSize > 0 && forwardDepth + backwardDepth < maxHops) {
+            int bestMeeting = NONE;
+            int bestLength = Integer.MAX_VALUE;
+            int nextSize = 0;
+            if (forwardSize <= backwardSize) {
+                for (int i = 0; i < forwardSize; i++) {
+                    int user = this.forwardFrontier[i];
+                    for (int j = 0; j < this.graph.followedCount(user); j++) {
+                        int next = this.graph.followed(user, j);
+                        if (this.forwardStamps[next] == this.stamp) {
+                            continue;
+                        }
+                        visitForward(next, user, forwardDepth + 1);
+                        this.nextFrontier[nextSize++] = next;
+                        if (this.backwardStamps[next] == this.stamp
+                                && forwardDepth + 1 + this.backwardDepths[next] < bestLength) {
+                            bestLength = forwardDepth + 1 + this.backwardDepths[next];
+                            bestMeeting = next;
+                        }
+                    }
+                }
+                forwardDepth++;
+                forwardSize = nextSize;
+                int[] expanded = this.forwardFrontier;
+                this.forwardFrontier = this.nextFrontier;
+                this.nextFrontier = expanded;
+            } else {
+                for (int i = 0; i < backwardSize; i++) {
+                    int user = this.backwardFrontier[i];
+                    for (int j = 0; j < this.graph.followerCount(user); j++) {
+                        int previous = this.graph.follower(user, j);
+                        if (this.backwardStamps[previous] == this.stamp) {
+                            continue;
+                        }
+                        visitBackward(previous, user, backwardDepth + 1);
+                        this.nextFrontier[nextSize++] = previous;
+                        if (this.forwardStamps[previous] == this.stamp
+                                && backwardDepth + 1 + this.forwardDepths[previous] < bestLength) {
+                            bestLength = backwardDepth + 1 + this.forwardDepths[previous];
+                            bestMeeting = previous;
+                        }
+                    }
+                }
+                backwardDepth++;
+                backwardSize = nextSize;
+                int[] expanded = this.backwardFrontier;
+                this.backwardFrontier = this.nextFrontier;
+                this.nextFrontier = expanded;
+            }
+            // No meeting happened at earlier levels, so the best meeting of this level is on a shortest path,
+            // and the loop condition guarantees that its length is at most maxHops
+            if (bestMeeting != NONE) {
+                return bestMeeting;
+            }
+        }
+        return NONE;
+    }
+
+    private void visitForward(int user, int parent, int depth) {
+        this.forwardStamps[user] = this.stamp;
+        this.forwardParents[user] = parent;
+        this.forwardDepths[user] = depth;
+    }
+
+    private void visitBackward(int user, int parent, int depth) {
+        this.backwardStamps[user] = this.stamp;
+        this.backwardParents[user] = parent;
+        this.backwardDepths[user] = depth;
+    }
+
+    // Starts a new query; marker arrays are only cleared when stamps wrap around
+    private void nextStamp() {
+        if (this.stamp == Integer.MAX_VALUE) {
+            Arrays.fill(this.forwardStamps, 0);
+            Arrays.fill(this.backwardStamps, 0);
+            this.stamp = 0;
+        }
+        this.stamp++;
+        checkRep();
+    }
+}
@@ -0,0 +1,483 @@
+package twitter;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * ShardedTweetIndex is a mutable, append-only index of tweets partitioned by id across several shards, each one a
+ * TweetShardServer usually running in its own process, so that the index is not bounded by the heap of one JVM.
+ *
+ * The index is a router: it sends each added tweet to the shard chosen by the tweet's id, and answers the Filter
+ * queries writtenBy(), inTimespan() and containing() by sending them to every shard at once and merging the
+ * answers. Like Filter, queries return matching tweets in input order, i.e. the order in which they were added.
+ *
+ * Every shard must answer within a timeout, counted from the start of the request; a query or an addition fails
+ * with an UncheckedIOException as soon as one shard fails or is late. The connection to such a shard is then
+ * dropped, and the next request opens a new one.
+ */
+public class ShardedTweetIndex implements AutoCloseable {
+
+    // Rep
+    private final List<Shard> shards;
+
+    private final List<Process> processes;
+
+    private final long timeoutMillis;
+
+    private final ExecutorService executor;
+
+    private long nextSequenceNumber;
+
+    private boolean closed;
+
+    // Rep invariant
+    // shards is not empty, timeoutMillis > 0, nextSequenceNumber >= 0
+    // the tweet with sequence number s is stored in the shard chosen by shardOf(its id)
+
+    // Abstraction function
+    // Represents the list of tweets stored in all shards, ordered by sequence number
+
+    // Safety from rep exposure argument
+    // All fields are private and never returned; tweets are immutable, and results are fresh lists.
+
+    // Thread safety argument
+    // Additions are serialized by the lock on this index, so that sequence numbers increase in every shard.
+    // Each shard serializes the requests sent on its connection by the lock on the Shard, and queries only read
+    // the immutable shard list besides.
+
+    private ShardedTweetIndex(List<InetSocketAddress> addresses, List<Process> processes, long timeoutMillis) {
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("at least one shard is required");
+        }
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("timeoutMillis must be positive");
+        }
+        List<Shard> shards = new ArrayList<>();
+        addresses.forEach(address -> shards.add(new Shard(address)));
+        this.shards = Collections.unmodifiableList(shards);
+        this.processes = processes;
+        this.timeoutMillis = timeoutMillis;
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "tweet-index-router");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.nextSequenceNumber = 0;
+        this.closed = false;
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert !this.shards.isEmpty();
+        assert this.timeoutMillis > 0;
+        assert this.nextSequenceNumber >= 0;
+    }
+
+    /**
+     * Start an index whose shards are new, empty TweetShardServer processes on this host, using the same Java
+     * runtime and class path as the current process. The processes exit when the index is closed, or when the
+     * current process exits.
+     *
+     * @param shardCount
+     *            number of shards, must be positive
+     * @param timeoutMillis
+     *            time in milliseconds in which every shard must answer a request, must be positive
+     * @return an empty index over shardCount local shards
+     * @throws IOException
+     *             if a shard cannot be started
+     */
+    public static ShardedTweetIndex launch(int shardCount, long timeoutMillis) throws IOException {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount must be positive");
+        }
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> processes = new ArrayList<>();
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        TweetShardServer.class.getName()).redirectError(ProcessBuilder.Redirect.INHERIT).start());
+            }
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (Process process : processes) {
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+                String port = reader.readLine();
+                if (port == null) {
+                    throw new IOException("shard exited before listening");
+                }
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(port)));
+            }
+            return new ShardedTweetIndex(addresses, processes, timeoutMillis);
+        } catch (IOException | RuntimeException e) {
+            processes.forEach(Process::destroy);
+            throw e;
+        }
+    }
+
+    /**
+     * Make an index over shards that are already running, e.g. started by TweetShardServer.main() on other
+     * hosts. The shards must be empty, or hold exactly the tweets added by previous indexes over the same
+     * addresses in the same order; new tweets are then added after those.
+     *
+     * @param addresses
+     *            addresses of the shards, not empty, in the same order every time the shards are used
+     * @param timeoutMillis
+     *            time in milliseconds in which every shard must answer a request, must be positive
+     * @return an index over these shards
+     * @throws UncheckedIOException
+     *             if a shard fails or does not answer in time
+     */
+    public static ShardedTweetIndex connect(List<InetSocketAddress> addresses, long timeoutMillis) {
+        ShardedTweetIndex index = new ShardedTweetIndex(new ArrayList<>(addresses), Collections.emptyList(),
+                timeoutMillis);
+        try {
+            // Resume numbering after the tweets already in the shards, which must keep increasing in each of them
+            long lastSequenceNumber = -1;
+            for (long shardLast : index.scatter(shard -> index.shards.get(shard).call(
+                    out -> out.writeByte(TweetShardServer.LAST_SEQUENCE_NUMBER), DataInputStream::readLong))) {
+                lastSequenceNumber = Math.max(lastSequenceNumber, shardLast);
+            }
+            synchronized (index) {
+                index.nextSequenceNumber = lastSequenceNumber + 1;
+                index.checkRep();
+            }
+            return index;
+        } catch (RuntimeException e) {
+            index.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of shards of this index
+     */
+    public int getShardCount() {
+        return this.shards.size();
+    }
+
+    /**
+     * Add tweets at the end of this index.
+     *
+     * @param tweets
+     *            tweets to add, with ids distinct from each other and from those already in the index
+     * @throws UncheckedIOException
+     *             if a shard fails or does not answer in time, in which case only some of the tweets may have
+     *             been added
+     */
+    public synchronized void addAll(List<Tweet> tweets) {
+        checkOpen();
+        List<List<Tweet>> tweetsByShard = new ArrayList<>();
+        List<List<Long>> sequenceNumbersByShard = new ArrayList<>();
+        for (int i = 0; i < this.shards.size(); i++) {
+            tweetsByShard.add(new ArrayList<>());
+            sequenceNumbersByShard.add(new ArrayList<>());
+        }
+        for (Tweet tweet : tweets) {
+            int shard = shardOf(tweet.getId());
+            tweetsByShard.get(shard).add(tweet);
+            sequenceNumbersByShard.get(shard).add(this.nextSequenceNumber++);
+        }
+        scatter(shard -> {
+            List<Tweet> shardTweets = tweetsByShard.get(shard);
+            List<Long> sequenceNumbers = sequenceNumbersByShard.get(shard);
+            return this.shards.get(shard).call(out -> {
+                out.writeByte(TweetShardServer.ADD);
+                out.writeInt(shardTweets.size());
+                for (int i = 0; i < shardTweets.size(); i++) {
+                    out.writeLong(sequenceNumbers.get(i));
+                    TweetShardServer.writeTweet(out, shardTweets.get(i));
+                }
+            }, DataInputStream::readInt);
+        });
+        checkRep();
+    }
+
+    /**
+     * @return the number of tweets in this index
+     * @throws UncheckedIOException
+     *             if a shard fails or does not answer in time
+     */
+    public int size() {
+        checkOpen();
+        int size = 0;
+        for (int shardSize : scatter(shard -> this.shards.get(shard).call(
+                out -> out.writeByte(TweetShardServer.SIZE), DataInputStream::readInt))) {
+            size += shardSize;
+        }
+        return size;
+    }
+
+    /**
+     * Find tweets written by a particular user, as Filter.writtenBy().
+     *
+     * @param username
+     *            Twitter username
+     * @return all and only the tweets in the index whose author is username, in input order
+     * @throws UncheckedIOException
+     *             if a shard fails or does not answer in time
+     */
+    public List<Tweet> writtenBy(String username) {
+        return query(out -> {
+            out.writeByte(TweetShardServer.WRITTEN_BY);
+            TweetShardServer.writeString(out, username);
+        });
+    }
+
+    /**
+     * Find tweets that were sent during a particular timespan, as Filter.inTimespan().
+     *
+     * @param timespan
+     *            timespan
+     * @return all and only the tweets in the index that were sent during the timespan, in input order
+     * @throws UncheckedIOException
+     *             if a shard fails or does not answer in time
+     */
+    public List<Tweet> inTimespan(Timespan timespan) {
+        return query(out -> {
+            out.writeByte(TweetShardServer.IN_TIMESPAN);
+            out.writeLong(timespan.getStart().getEpochSecond());
+            out.writeInt(timespan.getStart().getNano());
+            out.writeLong(timespan.getEnd().getEpochSecond());
+            out.writeInt(timespan.getEnd().getNano());
+        });
+    }
+
+    /**
+     * Find tweets that contain certain words, as Filter.containing().
+     *
+     * @param words
+     *            a list of words to search for in the tweets, each a nonempty sequence of nonspace characters
+     * @return all and only the tweets in the index that include at least one of the words, ignoring case,
+     *         in input order
+     * @throws UncheckedIOException
+     *             if a shard fails or does not answer in time
+     */
+    public List<Tweet> containing(List<String> words) {
+        return query(out -> {
+            out.writeByte(TweetShardServer.CONTAINING);
+            out.writeInt(words.size());
+            for (String word : words) {
+                TweetShardServer.writeString(out, word);
+            }
+        });
+    }
+
+    /**
+     * Close the connections to the shards, and stop the shard processes started by launch().
+     * The index cannot be used afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.executor.shutdownNow();
+        this.shards.forEach(Shard::disconnect);
+        for (Process process : this.processes) {
+            process.destroy();
+            try {
+                process.waitFor(this.timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private synchronized void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("index is closed");
+        }
+    }
+
+    private int shardOf(long id) {
+        return Math.floorMod(Long.hashCode(id), this.shards.size());
+    }
+
+    // Sends the same query to every shard, and merges the answers by sequence number
+    private List<Tweet> query(Request request) {
+        checkOpen();
+        List<List<SequencedTweet>> answers = scatter(shard -> this.shards.get(shard).call(request, in -> {
+            int count = in.readInt();
+            List<SequencedTweet> tweets = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long sequenceNumber = in.readLong();
+                tweets.add(new SequencedTweet(sequenceNumber, TweetShardServer.readTweet(in)));
+            }
+            return tweets;
+        }));
+
+        // K-way merge of the answers, each already sorted by sequence number
+        int total = 0;
+        PriorityQueue<PeekingIterator> cursors = new PriorityQueue<>(answers.size(),
+                Comparator.comparingLong(cursor -> cursor.peek().sequenceNumber));
+        for (List<SequencedTweet> answer : answers) {
+            total += answer.size();
+            if (!answer.isEmpty()) {
+                cursors.add(new PeekingIterator(answer));
+            }
+        }
+        List<Tweet> merged = new ArrayList<>(total);
+        while (!cursors.isEmpty()) {
+            PeekingIterator cursor = cursors.poll();
+            merged.add(cursor.next().tweet);
+            if (cursor.hasNext()) {
+                cursors.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    // Runs a call on every shard in parallel, and returns their results in shard order
+    private <T> List<T> scatter(ShardCall<T> call) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.timeoutMillis);
+        List<Future<T>> futures = new ArrayList<>();
+        for (int shard = 0; shard < this.shards.size(); shard++) {
+            int index = shard;
+            futures.add(this.executor.submit(() -> call.call(index)));
+        }
+        List<T> results = new ArrayList<>();
+        try {
+            for (int shard = 0; shard < futures.size(); shard++) {
+                try {
+                    results.add(futures.get(shard).get(Math.max(0, deadline - System.nanoTime()),
+                            TimeUnit.NANOSECONDS));
+                } catch (TimeoutException te) {
+                    throw new UncheckedIOException(new SocketTimeoutException(
+                            "shard " + shard + " did not answer within " + this.timeoutMillis + " ms"));
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    throw cause instanceof IOException
+                            ? new UncheckedIOException("shard " + shard + " failed", (IOException) cause)
+                            : new RuntimeException("shard " + shard + " failed", cause);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new InterruptedIOException("interrupted"));
+                }
+            }
+        } catch (RuntimeException e) {
+            // Drop the connections of the late shards, which also unblocks their calls
+            for (int shard = 0; shard < futures.size(); shard++) {
+                if (!futures.get(shard).isDone()) {
+                    futures.get(shard).cancel(true);
+                    this.shards.get(shard).disconnect();
+                }
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    private interface ShardCall<T> {
+        T call(int shard) throws IOException;
+    }
+
+    private interface Request {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private interface Response<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * SequencedTweet is an immutable tweet with its sequence number in the index.
+     */
+    private static class SequencedTweet {
+
+        private final long sequenceNumber;
+
+        private final Tweet tweet;
+
+        SequencedTweet(long sequenceNumber, Tweet tweet) {
+            this.sequenceNumber = sequenceNumber;
+            this.tweet = tweet;
+        }
+    }
+
+    /**
+     * PeekingIterator is an iterator over a list that can also return its next element without moving.
+     */
+    private static class PeekingIterator implements Iterator<SequencedTweet> {
+
+        private final List<SequencedTweet> list;
+
+        private int next = 0;
+
+        PeekingIterator(List<SequencedTweet> list) {
+            this.list = list;
+        }
+
+        SequencedTweet peek() {
+            return this.list.get(this.next);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next < this.list.size();
+        }
+
+        @Override
+        public SequencedTweet next() {
+            return this.list.get(this.next++);
+        }
+    }
+
+    /**
+     * Shard is the mutable connection to one shard, opened on first use and dropped after a failure.
+     */
+    private class Shard {
+
+        private final InetSocketAddress address;
+
+        private volatile Socket socket;
+
+        private DataInputStream in;
+
+        private DataOutputStream out;
+
+        Shard(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        // Sends a request and reads its response, dropping the connection if anything goes wrong
+        synchronized <T> T call(Request request, Response<T> response) throws IOException {
+            try {
+                if (this.socket == null) {
+                    Socket socket = new Socket();
+                    socket.connect(this.address, (int) Math.min(Integer.MAX_VALUE, timeoutMillis));
+                    socket.setTcpNoDelay(true);
+                    this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    this.socket = socket;
+                }
+                request.write(this.out);
+                this.out.flush();
+                return response.read(this.in);
+            } catch (IOException | RuntimeException e) {
+                disconnect();
+                throw e;
+            }
+        }
+
+        // Not synchronized, so that a call blocked on the socket can be interrupted by closing it
+        void disconnect() {
+            Socket socket = this.socket;
+            this.socket = null;
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ioe) {
+                    // Closing anyway
+                }
+            }
+        }
+    }
+}
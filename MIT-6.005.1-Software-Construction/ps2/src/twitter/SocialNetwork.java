@@ -1,6 +1,10 @@
 package twitter;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -74,6 +78,85 @@ public class SocialNetwork {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Find the people in a social network who have the greatest influence, in
+     * the sense that they have the most followers, counting followers in parallel.
+     * 
+     * The follower sets of the graph are split between the threads of the pool,
+     * which all count into a shared map of LongAdders, and the counts are then
+     * ranked with a parallel sort. Meant for graphs with millions of edges; on
+     * small graphs influencers(followsGraph) is faster.
+     * 
+     * @param followsGraph
+     *            a social network (as defined above), not modified while this
+     *            method runs
+     * @param pool
+     *            pool running the counting tasks
+     * @return the same list as influencers(followsGraph), except that people
+     *         with the same follower count may be in a different order.
+     */
+    public static List<String> influencers(Map<String, Set<String>> followsGraph, ForkJoinPool pool) {
+        List<Set<String>> followedSets = new ArrayList<>(followsGraph.values());
+        ConcurrentHashMap<String, LongAdder> followerCountByAuthor = new ConcurrentHashMap<>();
+        pool.invoke(new FollowerCountTask(followedSets, 0, followedSets.size(), followerCountByAuthor));
+
+        Influencer[] influencers = followerCountByAuthor.entrySet().stream()
+                .map(entry -> new Influencer(entry.getKey(), entry.getValue().intValue())).toArray(Influencer[]::new);
+        Arrays.parallelSort(influencers, Influencer.FOLLOWERS_COMPARATOR);
+        return Arrays.stream(influencers).map(influencer -> influencer.getName()).collect(Collectors.toList());
+    }
+
+    /**
+     * FollowerCountTask counts the followers of the people in a range of follower sets,
+     * splitting the range in halves until it is small enough to be counted by one thread.
+     */
+    private static class FollowerCountTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int SEQUENTIAL_THRESHOLD = 1024;
+
+        private final List<Set<String>> followedSets;
+
+        private final int start;
+
+        private final int end;
+
+        private final ConcurrentHashMap<String, LongAdder> followerCountByAuthor;
+
+        FollowerCountTask(List<Set<String>> followedSets, int start, int end,
+                ConcurrentHashMap<String, LongAdder> followerCountByAuthor) {
+            this.followedSets = followedSets;
+            this.start = start;
+            this.end = end;
+            this.followerCountByAuthor = followerCountByAuthor;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start <= SEQUENTIAL_THRESHOLD) {
+                for (int i = this.start; i < this.end; i++) {
+                    for (String person : this.followedSets.get(i)) {
+                        countFollower(person.toLowerCase(Locale.ROOT));
+                    }
+                }
+            } else {
+                int middle = (this.start + this.end) >>> 1;
+                invokeAll(new FollowerCountTask(this.followedSets, this.start, middle, this.followerCountByAuthor),
+                        new FollowerCountTask(this.followedSets, middle, this.end, this.followerCountByAuthor));
+            }
+        }
+
+        // Looks the counter up before calling computeIfAbsent(), which locks even when the key is present
+        private void countFollower(String person) {
+            LongAdder count = this.followerCountByAuthor.get(person);
+            if (count == null) {
+                count = this.followerCountByAuthor.computeIfAbsent(person, _person -> new LongAdder());
+            }
+            count.increment();
+        }
+    }
+
     /* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
      * Redistribution of original or derived work requires explicit permission.
      * Don't post any of this code on the web or to a public Github repository.
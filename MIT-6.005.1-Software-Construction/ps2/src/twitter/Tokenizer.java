@@ -0,0 +1,244 @@
+package twitter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Tokenizer consists of methods that split tweet text into words bounded by space characters, and that
+ * compare words ignoring ASCII case, without allocating intermediate strings or arrays.
+ *
+ * Text stored as UTF-8 bytes is processed 8 bytes at a time: each block is read as a long, and spaces, '@'
+ * signs, non-ASCII bytes and upper case letters are located in all 8 bytes at once with bitwise arithmetic
+ * ("SIMD within a register"). Trailing bytes that do not fill a block are processed one by one. Text stored
+ * as a CharSequence is processed one character at a time.
+ */
+public class Tokenizer {
+
+    private static final long ONES = 0x0101010101010101L;
+
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private static final long SPACES = ONES * ' ';
+
+    private static final long BELOW_UPPER_A = ONES * (0x80 - 'A');
+
+    private static final long BELOW_UPPER_Z = ONES * (0x80 - 'Z' - 1);
+
+    private static final int BLOCK_SIZE = Long.BYTES;
+
+    /**
+     * WordVisitor receives the bounds of each word found in a text.
+     */
+    public interface WordVisitor {
+
+        /**
+         * Visit a word.
+         *
+         * @param start
+         *            index of the first character (or byte) of the word
+         * @param end
+         *            index right after the last character (or byte) of the word, end > start
+         * @return true to continue visiting words, false to stop
+         */
+        boolean visit(int start, int end);
+    }
+
+    /**
+     * Visit the nonempty words of a text bounded by space characters and the ends of the text, in order.
+     *
+     * @param text
+     *            text to split
+     * @param visitor
+     *            receives the bounds of each word
+     * @return false if the visitor stopped the iteration, true otherwise
+     */
+    public static boolean forEachWord(CharSequence text, WordVisitor visitor) {
+        int wordStart = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) == ' ') {
+                if (i > wordStart && !visitor.visit(wordStart, i)) {
+                    return false;
+                }
+                wordStart = i + 1;
+            }
+        }
+        return length <= wordStart || visitor.visit(wordStart, length);
+    }
+
+    /**
+     * Visit the nonempty words of UTF-8 encoded text bounded by space characters and the ends of the text,
+     * in order.
+     *
+     * @param bytes
+     *            buffer holding the text, not modified by this method
+     * @param start
+     *            index of the first byte of the text
+     * @param end
+     *            index right after the last byte of the text
+     * @param visitor
+     *            receives the byte bounds of each word
+     * @return false if the visitor stopped the iteration, true otherwise
+     */
+    public static boolean forEachWord(ByteBuffer bytes, int start, int end, WordVisitor visitor) {
+        int wordStart = start;
+        int i = start;
+        for (; i + BLOCK_SIZE <= end; i += BLOCK_SIZE) {
+            long spaces = zeroBytes(readBlock(bytes, i) ^ SPACES);
+            while (spaces != 0) {
+                int position = i + (Long.numberOfTrailingZeros(spaces) >>> 3);
+                if (position > wordStart && !visitor.visit(wordStart, position)) {
+                    return false;
+                }
+                wordStart = position + 1;
+                spaces &= spaces - 1;
+            }
+        }
+        for (; i < end; i++) {
+            if (bytes.get(i) == ' ') {
+                if (i > wordStart && !visitor.visit(wordStart, i)) {
+                    return false;
+                }
+                wordStart = i + 1;
+            }
+        }
+        return end <= wordStart || visitor.visit(wordStart, end);
+    }
+
+    /**
+     * @param bytes
+     *            buffer holding the text, not modified by this method
+     * @param start
+     *            index of the first byte of the text
+     * @param end
+     *            index right after the last byte of the text
+     * @return true if and only if the text contains an '@' sign
+     */
+    public static boolean containsAtSign(ByteBuffer bytes, int start, int end) {
+        int i = start;
+        for (; i + BLOCK_SIZE <= end; i += BLOCK_SIZE) {
+            if (zeroBytes(readBlock(bytes, i) ^ (ONES * '@')) != 0) {
+                return true;
+            }
+        }
+        for (; i < end; i++) {
+            if (bytes.get(i) == '@') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param bytes
+     *            buffer holding the text, not modified by this method
+     * @param start
+     *            index of the first byte of the text
+     * @param end
+     *            index right after the last byte of the text
+     * @return true if and only if every byte of the text is an ASCII character
+     */
+    public static boolean isAscii(ByteBuffer bytes, int start, int end) {
+        int i = start;
+        for (; i + BLOCK_SIZE <= end; i += BLOCK_SIZE) {
+            if ((readBlock(bytes, i) & HIGH_BITS) != 0) {
+                return false;
+            }
+        }
+        for (; i < end; i++) {
+            if (bytes.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pack lower case ASCII characters into longs, 8 characters per long, in the layout expected by
+     * regionEqualsIgnoreCase(). The last long is padded with zero bytes.
+     *
+     * @param lowerCaseAscii
+     *            lower case ASCII characters
+     * @return the packed characters
+     */
+    public static long[] pack(byte[] lowerCaseAscii) {
+        long[] packed = new long[(lowerCaseAscii.length + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        for (int i = 0; i < lowerCaseAscii.length; i++) {
+            packed[i / BLOCK_SIZE] |= (lowerCaseAscii[i] & 0xFFL) << (8 * (i % BLOCK_SIZE));
+        }
+        return packed;
+    }
+
+    /**
+     * Compare bytes of a buffer to a lower case ASCII word, ignoring ASCII case in the buffer.
+     *
+     * @param bytes
+     *            buffer holding the text, not modified by this method
+     * @param start
+     *            index of the first byte to compare
+     * @param length
+     *            number of bytes to compare, must be the length of the word
+     * @param packedWord
+     *            word packed by pack()
+     * @return true if and only if the bytes, with upper case ASCII letters turned to lower case,
+     *         are the same as the word
+     */
+    public static boolean regionEqualsIgnoreCase(ByteBuffer bytes, int start, int length, long[] packedWord) {
+        int block = 0;
+        int i = start;
+        int end = start + length;
+        for (; i + BLOCK_SIZE <= end; i += BLOCK_SIZE, block++) {
+            if (toLowerCase(readBlock(bytes, i)) != packedWord[block]) {
+                return false;
+            }
+        }
+        if (i < end) {
+            long tail = 0;
+            for (int shift = 0; i < end; i++, shift += 8) {
+                tail |= (bytes.get(i) & 0xFFL) << shift;
+            }
+            return toLowerCase(tail) == packedWord[block];
+        }
+        return true;
+    }
+
+    /**
+     * @param c
+     *            a character
+     * @return true if and only if c can appear in a Twitter username, as defined by Tweet.getAuthor()'s spec
+     */
+    public static boolean isUsernameChar(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-';
+    }
+
+    /**
+     * @param c
+     *            a character
+     * @return the lower case version of c if it is an upper case ASCII letter, otherwise c
+     */
+    public static int toLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    // Turns the upper case ASCII letters of 8 packed bytes to lower case, leaving other bytes unchanged
+    private static long toLowerCase(long block) {
+        long lowBits = block & LOW_BITS;
+        long atLeastA = lowBits + BELOW_UPPER_A;
+        long aboveZ = lowBits + BELOW_UPPER_Z;
+        long upperCase = (atLeastA ^ aboveZ) & ~block & HIGH_BITS;
+        return block | (upperCase >>> 2);
+    }
+
+    // Sets the high bit of every zero byte of 8 packed bytes, and clears all other bits
+    private static long zeroBytes(long block) {
+        return ~(((block & LOW_BITS) + LOW_BITS) | block | LOW_BITS);
+    }
+
+    // Reads 8 bytes so that the byte at index ends up in the lowest bits, whatever the buffer's byte order
+    private static long readBlock(ByteBuffer bytes, int index) {
+        long block = bytes.getLong(index);
+        return bytes.order() == ByteOrder.LITTLE_ENDIAN ? block : Long.reverseBytes(block);
+    }
+}
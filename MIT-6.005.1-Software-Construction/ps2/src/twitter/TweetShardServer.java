@@ -0,0 +1,289 @@
+package twitter;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * TweetShardServer is one shard of a ShardedTweetIndex: a server holding part of the tweets in a TweetStore, and
+ * answering Filter queries over them on a loopback socket.
+ *
+ * Every tweet of a shard carries the sequence number given by the router, i.e. its position in the whole index,
+ * and query results are sent in increasing sequence number so that the router can merge them in input order.
+ *
+ * Protocol: each request is an opcode byte followed by its arguments, and each response starts with the number
+ * of tweets or the count it carries. Integers are big-endian, strings are an int length followed by UTF-8 bytes,
+ * and a tweet is its sequence number, id, author, text, epoch second and nanosecond.
+ * <ul>
+ * <li>ADD count tweet... : stores the tweets, answers the size of the shard
+ * <li>WRITTEN_BY username : answers the matching tweets
+ * <li>IN_TIMESPAN start-second start-nano end-second end-nano : answers the matching tweets
+ * <li>CONTAINING count word... : answers the matching tweets
+ * <li>SIZE : answers the size of the shard
+ * <li>LAST_SEQUENCE_NUMBER : answers the highest sequence number in the shard as a long, or -1 if it is empty
+ * </ul>
+ */
+public class TweetShardServer {
+
+    static final byte ADD = 1;
+
+    static final byte WRITTEN_BY = 2;
+
+    static final byte IN_TIMESPAN = 3;
+
+    static final byte CONTAINING = 4;
+
+    static final byte SIZE = 5;
+
+    static final byte LAST_SEQUENCE_NUMBER = 6;
+
+    // Rep
+    private final TweetStore store;
+
+    private long[] sequenceNumbers;
+
+    // Rep invariant
+    // sequenceNumbers.length >= store.size(), and sequenceNumbers[0 .. store.size()) is strictly increasing
+
+    // Abstraction function
+    // Represents the shard holding tweet store.get(i) at position sequenceNumbers[i] of the whole index,
+    // for 0 <= i < store.size()
+
+    // Safety from rep exposure argument
+    // All fields are private and never returned; requests and responses are copied through streams.
+
+    // Thread safety argument
+    // Every connection is served by its own thread, which reads and decodes each request without locking, then
+    // only holds the lock on this shard while it updates or queries the rep, and writes the response after
+    // releasing it, so that a slow connection does not hold up the others.
+
+    /**
+     * Make an empty shard.
+     */
+    public TweetShardServer() {
+        this.store = new TweetStore();
+        this.sequenceNumbers = new long[1024];
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert this.sequenceNumbers.length >= this.store.size();
+    }
+
+    /**
+     * Start a shard on a loopback port, print the port on standard output, and serve connections until standard
+     * input is closed, which happens when the process that started the shard exits.
+     *
+     * @param args
+     *            optionally, the port to listen on; by default any free port
+     * @throws IOException
+     *             if the server socket cannot be opened
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        TweetShardServer shard = new TweetShardServer();
+        ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        System.out.println(serverSocket.getLocalPort());
+        System.out.flush();
+
+        Thread watchdog = new Thread(() -> {
+            try {
+                while (System.in.read() >= 0) {
+                    // Ignore input, only wait for the end of it
+                }
+            } catch (IOException ioe) {
+                // Parent is gone as well
+            }
+            System.exit(0);
+        });
+        watchdog.setDaemon(true);
+        watchdog.start();
+
+        while (true) {
+            Socket socket = serverSocket.accept();
+            Thread connection = new Thread(() -> shard.serve(socket));
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+
+    /**
+     * Serve requests on a connection until it is closed, or until it sends a malformed request.
+     *
+     * @param socket
+     *            connected socket, closed by this method
+     */
+    public void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            int opcode;
+            while ((opcode = in.read()) >= 0) {
+                handle((byte) opcode, in, out);
+                out.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            // The router closed the connection, e.g. after a timeout, or sent a request this shard cannot apply;
+            // either way the next connection starts afresh
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ioe) {
+                // Nothing more can be done with it
+            }
+        }
+    }
+
+    // Reads the arguments of one request and writes its response, only locking this shard in between
+    private void handle(byte opcode, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (opcode) {
+        case ADD:
+            int count = in.readInt();
+            long[] sequenceNumbers = new long[count];
+            List<Tweet> tweets = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                sequenceNumbers[i] = in.readLong();
+                tweets.add(readTweet(in));
+            }
+            out.writeInt(addAll(sequenceNumbers, tweets));
+            break;
+        case WRITTEN_BY:
+            String username = readString(in);
+            writeMatches(out, matching(index -> this.store.getAuthor(index).equalsIgnoreCase(username)));
+            break;
+        case IN_TIMESPAN:
+            Instant start = Instant.ofEpochSecond(in.readLong(), in.readInt());
+            Instant end = Instant.ofEpochSecond(in.readLong(), in.readInt());
+            writeMatches(out, matching(index -> {
+                Instant timestamp = this.store.getTimestamp(index);
+                return start.compareTo(timestamp) <= 0 && end.compareTo(timestamp) >= 0;
+            }));
+            break;
+        case CONTAINING:
+            int wordCount = in.readInt();
+            List<String> words = new ArrayList<>(wordCount);
+            for (int i = 0; i < wordCount; i++) {
+                words.add(readString(in));
+            }
+            writeMatches(out, containing(words));
+            break;
+        case SIZE:
+            out.writeInt(size());
+            break;
+        case LAST_SEQUENCE_NUMBER:
+            out.writeLong(lastSequenceNumber());
+            break;
+        default:
+            throw new IOException("unknown opcode " + opcode);
+        }
+    }
+
+    // Adds tweets with their sequence numbers, all or none of them, and returns the new size of the shard
+    private synchronized int addAll(long[] sequenceNumbers, List<Tweet> tweets) {
+        long last = lastSequenceNumber();
+        for (long sequenceNumber : sequenceNumbers) {
+            if (sequenceNumber <= last) {
+                throw new IllegalArgumentException("sequence numbers must increase");
+            }
+            last = sequenceNumber;
+        }
+        int size = this.store.size();
+        if (size + sequenceNumbers.length > this.sequenceNumbers.length) {
+            this.sequenceNumbers = Arrays.copyOf(this.sequenceNumbers,
+                    Math.max(size * 2, size + sequenceNumbers.length));
+        }
+        System.arraycopy(sequenceNumbers, 0, this.sequenceNumbers, size, sequenceNumbers.length);
+        tweets.forEach(this.store::add);
+        checkRep();
+        return this.store.size();
+    }
+
+    private synchronized int size() {
+        return this.store.size();
+    }
+
+    private synchronized long lastSequenceNumber() {
+        int size = this.store.size();
+        return size == 0 ? -1 : this.sequenceNumbers[size - 1];
+    }
+
+    private interface IndexPredicate {
+        boolean test(int index);
+    }
+
+    private synchronized Matches matching(IndexPredicate predicate) {
+        Matches matches = new Matches();
+        for (int index = 0; index < this.store.size(); index++) {
+            if (predicate.test(index)) {
+                matches.add(this.sequenceNumbers[index], this.store.get(index));
+            }
+        }
+        return matches;
+    }
+
+    private synchronized Matches containing(List<String> words) {
+        Matches matches = new Matches();
+        for (int index : this.store.indicesContaining(words)) {
+            matches.add(this.sequenceNumbers[index], this.store.get(index));
+        }
+        return matches;
+    }
+
+    private static void writeMatches(DataOutputStream out, Matches matches) throws IOException {
+        out.writeInt(matches.tweets.size());
+        for (int i = 0; i < matches.tweets.size(); i++) {
+            out.writeLong(matches.sequenceNumbers.get(i));
+            writeTweet(out, matches.tweets.get(i));
+        }
+    }
+
+    /**
+     * Matches is a mutable list of the tweets answering a query, with their sequence numbers, copied out of the
+     * shard so that it can be written without holding the lock.
+     */
+    private static class Matches {
+
+        private final List<Long> sequenceNumbers = new ArrayList<>();
+
+        private final List<Tweet> tweets = new ArrayList<>();
+
+        void add(long sequenceNumber, Tweet tweet) {
+            this.sequenceNumbers.add(sequenceNumber);
+            this.tweets.add(tweet);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeTweet(DataOutputStream out, Tweet tweet) throws IOException {
+        out.writeLong(tweet.getId());
+        writeString(out, tweet.getAuthor());
+        writeString(out, tweet.getText());
+        out.writeLong(tweet.getTimestamp().getEpochSecond());
+        out.writeInt(tweet.getTimestamp().getNano());
+    }
+
+    static Tweet readTweet(DataInputStream in) throws IOException {
+        long id = in.readLong();
+        String author = readString(in);
+        String text = readString(in);
+        Instant timestamp = Instant.ofEpochSecond(in.readLong(), in.readInt());
+        return new Tweet(id, author, text, timestamp);
+    }
+}
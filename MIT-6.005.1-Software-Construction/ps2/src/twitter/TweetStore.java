@@ -0,0 +1,420 @@
+package twitter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * TweetStore is a mutable, append-only collection of tweets meant for very large corpora.
+ *
+ * Instead of keeping one Tweet (and one text String) per tweet on the heap, the author and text of every tweet
+ * are encoded as UTF-8 and packed into large off-heap arenas, while ids and timestamps are kept in primitive
+ * columns. Word matching and mention extraction read the encoded bytes directly, and Tweet objects are only
+ * created on demand by get() or by the methods returning tweets.
+ *
+ * Tweets are identified inside the store by their index, i.e. their position in insertion order.
+ */
+public class TweetStore {
+
+    /**
+     * Default size in bytes of one off-heap arena.
+     */
+    public static final int DEFAULT_ARENA_SIZE = 1 << 24;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int ADDRESS_SHIFT = 32;
+
+    private static final long OFFSET_MASK = 0xFFFFFFFFL;
+
+    // Rep
+    private final int arenaSize;
+
+    private final List<ByteBuffer> arenas;
+
+    private long[] ids;
+
+    private long[] epochSeconds;
+
+    private int[] nanos;
+
+    private long[] recordAddresses;
+
+    private int[] authorLengths;
+
+    private int[] textLengths;
+
+    private int size;
+
+    // Rep invariant
+    // arenaSize > 0, arenas is not empty and every arena has a capacity of arenaSize bytes
+    // 0 <= size <= length of every column, and all columns have the same length
+    // For every index i < size, recordAddresses[i] encodes (arena index << 32 | offset), and the record bytes
+    // [offset, offset + authorLengths[i] + textLengths[i]) lie within the arena's written region
+
+    // Abstraction function
+    // Represents the list of tweets t_0 ... t_(size-1) where t_i has id ids[i], timestamp
+    // epochSeconds[i] + nanos[i], and whose author and text are the UTF-8 strings stored one after the other
+    // at recordAddresses[i], the author using authorLengths[i] bytes and the text textLengths[i] bytes
+
+    // Safety from rep exposure argument
+    // All fields are private. Arenas and columns are never returned; observers only return immutable values
+    // (Strings, Instants, Tweets) or fresh collections.
+
+    /**
+     * Make an empty TweetStore using arenas of DEFAULT_ARENA_SIZE bytes.
+     */
+    public TweetStore() {
+        this(DEFAULT_ARENA_SIZE);
+    }
+
+    /**
+     * Make an empty TweetStore.
+     *
+     * @param arenaSize
+     *            size in bytes of each off-heap arena. Must be positive, and large enough
+     *            to hold the encoded author and text of any tweet added to the store.
+     */
+    public TweetStore(int arenaSize) {
+        if (arenaSize <= 0) {
+            throw new IllegalArgumentException("Arena size must be positive");
+        }
+        this.arenaSize = arenaSize;
+        this.arenas = new ArrayList<>();
+        this.arenas.add(newArena(arenaSize));
+        this.ids = new long[INITIAL_CAPACITY];
+        this.epochSeconds = new long[INITIAL_CAPACITY];
+        this.nanos = new int[INITIAL_CAPACITY];
+        this.recordAddresses = new long[INITIAL_CAPACITY];
+        this.authorLengths = new int[INITIAL_CAPACITY];
+        this.textLengths = new int[INITIAL_CAPACITY];
+        this.size = 0;
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert this.arenaSize > 0;
+        assert !this.arenas.isEmpty();
+        assert this.size >= 0 && this.size <= this.ids.length;
+        assert this.epochSeconds.length == this.ids.length && this.nanos.length == this.ids.length;
+        assert this.recordAddresses.length == this.ids.length;
+        assert this.authorLengths.length == this.ids.length && this.textLengths.length == this.ids.length;
+    }
+
+    /**
+     * Make a TweetStore containing the given tweets.
+     *
+     * @param tweets
+     *            list of tweets, not modified by this method.
+     * @return a new store holding the tweets in the same order as in the list.
+     */
+    public static TweetStore of(List<Tweet> tweets) {
+        TweetStore store = new TweetStore();
+        tweets.forEach(store::add);
+        return store;
+    }
+
+    /**
+     * Append a tweet to this store.
+     *
+     * @param tweet
+     *            tweet to append
+     * @return the index of the tweet in this store
+     */
+    public int add(Tweet tweet) {
+        byte[] author = tweet.getAuthor().getBytes(StandardCharsets.UTF_8);
+        byte[] text = tweet.getText().getBytes(StandardCharsets.UTF_8);
+        int recordLength = author.length + text.length;
+        if (recordLength > this.arenaSize) {
+            throw new IllegalArgumentException("Tweet does not fit in an arena of " + this.arenaSize + " bytes");
+        }
+
+        ByteBuffer arena = this.arenas.get(this.arenas.size() - 1);
+        if (arena.remaining() < recordLength) {
+            arena = newArena(this.arenaSize);
+            this.arenas.add(arena);
+        }
+        long address = ((long) (this.arenas.size() - 1) << ADDRESS_SHIFT) | arena.position();
+        arena.put(author);
+        arena.put(text);
+
+        ensureCapacity(this.size + 1);
+        int index = this.size;
+        this.ids[index] = tweet.getId();
+        this.epochSeconds[index] = tweet.getTimestamp().getEpochSecond();
+        this.nanos[index] = tweet.getTimestamp().getNano();
+        this.recordAddresses[index] = address;
+        this.authorLengths[index] = author.length;
+        this.textLengths[index] = text.length;
+        this.size++;
+        checkRep();
+        return index;
+    }
+
+    // Arenas are little-endian so that Tokenizer can read them 8 bytes at a time without swapping bytes
+    private static ByteBuffer newArena(int arenaSize) {
+        return ByteBuffer.allocateDirect(arenaSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= this.ids.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, this.ids.length + (this.ids.length >> 1));
+        this.ids = Arrays.copyOf(this.ids, newCapacity);
+        this.epochSeconds = Arrays.copyOf(this.epochSeconds, newCapacity);
+        this.nanos = Arrays.copyOf(this.nanos, newCapacity);
+        this.recordAddresses = Arrays.copyOf(this.recordAddresses, newCapacity);
+        this.authorLengths = Arrays.copyOf(this.authorLengths, newCapacity);
+        this.textLengths = Arrays.copyOf(this.textLengths, newCapacity);
+    }
+
+    /**
+     * @return the number of tweets in this store
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @param index
+     *            index of a tweet, requires 0 <= index < size()
+     * @return unique identifier of the tweet
+     */
+    public long getId(int index) {
+        checkIndex(index);
+        return this.ids[index];
+    }
+
+    /**
+     * @param index
+     *            index of a tweet, requires 0 <= index < size()
+     * @return date/time when the tweet was sent
+     */
+    public Instant getTimestamp(int index) {
+        checkIndex(index);
+        return Instant.ofEpochSecond(this.epochSeconds[index], this.nanos[index]);
+    }
+
+    /**
+     * @param index
+     *            index of a tweet, requires 0 <= index < size()
+     * @return Twitter username who wrote the tweet
+     */
+    public String getAuthor(int index) {
+        checkIndex(index);
+        return decode(this.recordAddresses[index], this.authorLengths[index]);
+    }
+
+    /**
+     * @param index
+     *            index of a tweet, requires 0 <= index < size()
+     * @return text of the tweet
+     */
+    public String getText(int index) {
+        checkIndex(index);
+        return decode(this.recordAddresses[index] + this.authorLengths[index], this.textLengths[index]);
+    }
+
+    /**
+     * @param index
+     *            index of a tweet, requires 0 <= index < size()
+     * @return a new Tweet equal to the one stored at index
+     */
+    public Tweet get(int index) {
+        return new Tweet(getId(index), getAuthor(index), getText(index), getTimestamp(index));
+    }
+
+    /**
+     * Get the time period spanned by the tweets of this store, with the same result as Extract.getTimespan().
+     * The minimum and maximum timestamps are found in a single parallel pass over the timestamp columns.
+     *
+     * @return a minimum-length time interval that contains the timestamp of every tweet in this store,
+     *         or null if the store is empty.
+     */
+    public Timespan getTimespan() {
+        if (this.size == 0) {
+            return null;
+        }
+
+        TimestampRange range = IntStream.range(0, this.size).parallel()
+                .collect(TimestampRange::new, TimestampRange::accept, TimestampRange::combine);
+        return new Timespan(getTimestamp(range.minIndex), getTimestamp(range.maxIndex));
+    }
+
+    /**
+     * TimestampRange is a mutable accumulator of the indices of the earliest and latest tweets seen,
+     * comparing the epochSeconds and nanos columns without creating any Instant.
+     */
+    private class TimestampRange {
+
+        private int minIndex = -1;
+
+        private int maxIndex = -1;
+
+        void accept(int index) {
+            if (this.minIndex < 0 || isBefore(index, this.minIndex)) {
+                this.minIndex = index;
+            }
+            if (this.maxIndex < 0 || isBefore(this.maxIndex, index)) {
+                this.maxIndex = index;
+            }
+        }
+
+        void combine(TimestampRange that) {
+            if (that.minIndex >= 0) {
+                accept(that.minIndex);
+                accept(that.maxIndex);
+            }
+        }
+
+        private boolean isBefore(int index1, int index2) {
+            return epochSeconds[index1] < epochSeconds[index2]
+                    || (epochSeconds[index1] == epochSeconds[index2] && nanos[index1] < nanos[index2]);
+        }
+    }
+
+    /**
+     * Find tweets that contain certain words, with the same matching rules as Filter.containing().
+     *
+     * @param words
+     *            a list of words to search for in the tweets.
+     *            A word is a nonempty sequence of nonspace characters.
+     * @return all and only the tweets in this store whose text includes at least one of the words,
+     *         compared case-insensitively, in the same order as in the store.
+     */
+    public List<Tweet> containing(List<String> words) {
+        int[] indices = indicesContaining(words);
+        List<Tweet> result = new ArrayList<>(indices.length);
+        for (int index : indices) {
+            result.add(get(index));
+        }
+        return result;
+    }
+
+    /**
+     * Find the indices of tweets that contain certain words, without creating any Tweet.
+     *
+     * @param words
+     *            a list of words to search for in the tweets.
+     *            A word is a nonempty sequence of nonspace characters.
+     * @return in increasing order, all and only the indices of tweets in this store whose text includes at
+     *         least one of the words, compared case-insensitively.
+     */
+    public int[] indicesContaining(List<String> words) {
+        WordMatcher matcher = new WordMatcher(words);
+        int[] indices = new int[INITIAL_CAPACITY];
+        int count = 0;
+        for (int index = 0; index < this.size; index++) {
+            if (textContainsAnyWord(index, matcher)) {
+                if (count == indices.length) {
+                    indices = Arrays.copyOf(indices, count + (count >> 1));
+                }
+                indices[count++] = index;
+            }
+        }
+        return Arrays.copyOf(indices, count);
+    }
+
+    /**
+     * Get usernames mentioned in the tweets of this store, with the same rules as Extract.getMentionedUsers().
+     *
+     * @return the set of lowercase usernames who are mentioned in the text of the tweets.
+     */
+    public Set<String> getMentionedUsers() {
+        Set<String> mentionedUsers = new HashSet<>();
+        for (int index = 0; index < this.size; index++) {
+            addMentionedUsers(index, mentionedUsers);
+        }
+        return mentionedUsers;
+    }
+
+    /**
+     * Get usernames mentioned in a single tweet of this store.
+     *
+     * @param index
+     *            index of a tweet, requires 0 <= index < size()
+     * @return the set of lowercase usernames who are mentioned in the text of the tweet.
+     */
+    public Set<String> getMentionedUsers(int index) {
+        checkIndex(index);
+        Set<String> mentionedUsers = new HashSet<>();
+        addMentionedUsers(index, mentionedUsers);
+        return mentionedUsers;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("No tweet at index " + index);
+        }
+    }
+
+    // Scans the words of the text at index and tells whether one of them is accepted by the matcher
+    private boolean textContainsAnyWord(int index, WordMatcher matcher) {
+        ByteBuffer arena = arenaOf(this.recordAddresses[index]);
+        int start = offsetOf(this.recordAddresses[index]) + this.authorLengths[index];
+        int end = start + this.textLengths[index];
+        return !Tokenizer.forEachWord(arena, start, end,
+                (wordStart, wordEnd) -> !matcher.matches(arena, wordStart, wordEnd));
+    }
+
+    // Adds the mentions found in the words of the text at index, a mention being the first run of username
+    // characters inside a word starting with '@'
+    private void addMentionedUsers(int index, Set<String> mentionedUsers) {
+        ByteBuffer arena = arenaOf(this.recordAddresses[index]);
+        int start = offsetOf(this.recordAddresses[index]) + this.authorLengths[index];
+        int end = start + this.textLengths[index];
+        if (!Tokenizer.containsAtSign(arena, start, end)) {
+            return;
+        }
+        Tokenizer.forEachWord(arena, start, end, (wordStart, wordEnd) -> {
+            if (arena.get(wordStart) == '@') {
+                int runStart = wordStart + 1;
+                while (runStart < wordEnd && !Tokenizer.isUsernameChar(arena.get(runStart))) {
+                    runStart++;
+                }
+                int runEnd = runStart;
+                while (runEnd < wordEnd && Tokenizer.isUsernameChar(arena.get(runEnd))) {
+                    runEnd++;
+                }
+                if (runEnd > runStart) {
+                    mentionedUsers.add(decodeLowerCaseAscii(arena, runStart, runEnd));
+                }
+            }
+            return true;
+        });
+    }
+
+    private static String decodeLowerCaseAscii(ByteBuffer arena, int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            chars[i - start] = (char) Tokenizer.toLowerCase(arena.get(i));
+        }
+        return new String(chars);
+    }
+
+    private ByteBuffer arenaOf(long address) {
+        return this.arenas.get((int) (address >>> ADDRESS_SHIFT));
+    }
+
+    private static int offsetOf(long address) {
+        return (int) (address & OFFSET_MASK);
+    }
+
+    private String decode(long address, int length) {
+        return new String(readBytes(arenaOf(address), offsetOf(address), offsetOf(address) + length),
+                StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer arena, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = arena.get(i);
+        }
+        return bytes;
+    }
+}
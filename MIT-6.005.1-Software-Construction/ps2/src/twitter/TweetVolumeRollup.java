@@ -0,0 +1,290 @@
+package twitter;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * TweetVolumeRollup is a mutable summary of how many tweets were sent over time, globally and per author,
+ * at minute, hour and day granularity.
+ *
+ * Tweets are counted as they are added, in any order, so that volume charts and range counts never need to go
+ * back to the tweets themselves: a query costs time proportional to the number of buckets it covers, whatever
+ * the number of tweets. Counts are kept in pages of primitive counters, and only pages holding at least one
+ * tweet are allocated, so long quiet periods cost no memory. Global pages hold 1024 buckets (4 KB). The pages of
+ * each author only hold 16 buckets (64 bytes, plus a map entry), so a sparse author costs at most about 300 bytes
+ * per tweet over its three series: about 110 KB for a year of one tweet a day.
+ *
+ * Usernames are case-insensitive. Buckets are aligned on UTC minutes, hours and days since the epoch.
+ */
+public class TweetVolumeRollup {
+
+    /**
+     * Size of the time buckets of a rollup.
+     */
+    public enum Granularity {
+        MINUTE(60), HOUR(60 * 60), DAY(24 * 60 * 60);
+
+        private final long seconds;
+
+        private Granularity(long seconds) {
+            this.seconds = seconds;
+        }
+
+        /**
+         * @return the number of seconds in a bucket
+         */
+        public long getSeconds() {
+            return this.seconds;
+        }
+
+        /**
+         * @param instant
+         *            a date/time
+         * @return the index of the bucket containing instant, counting buckets from the epoch
+         */
+        public long bucketOf(Instant instant) {
+            return Math.floorDiv(instant.getEpochSecond(), this.seconds);
+        }
+
+        /**
+         * @param bucket
+         *            index of a bucket, counting buckets from the epoch
+         * @return the date/time at which the bucket starts
+         */
+        public Instant startOf(long bucket) {
+            return Instant.ofEpochSecond(bucket * this.seconds);
+        }
+    }
+
+    private static final int GLOBAL_PAGE_SIZE = 1024;
+
+    private static final int AUTHOR_PAGE_SIZE = 16;
+
+    // Rep
+    private final Map<Granularity, Series> globalSeries;
+
+    private final Map<String, Map<Granularity, Series>> seriesByAuthor;
+
+    private long total;
+
+    // Rep invariant
+    // globalSeries has a series for every granularity, and so does every value of seriesByAuthor
+    // Keys of seriesByAuthor are lower case
+    // For every granularity, the global series total and the sum of the author series totals are both total
+
+    // Abstraction function
+    // Represents the multiset of (author, timestamp) pairs of the added tweets, where globalSeries.get(g) counts
+    // the pairs in each bucket of granularity g, and seriesByAuthor.get(a).get(g) counts the pairs of author a
+
+    // Safety from rep exposure argument
+    // All fields are private, and no series or page is ever returned: queries return counts or fresh arrays.
+
+    /**
+     * Make an empty TweetVolumeRollup.
+     */
+    public TweetVolumeRollup() {
+        this.globalSeries = newSeries(GLOBAL_PAGE_SIZE);
+        this.seriesByAuthor = new HashMap<>();
+        this.total = 0;
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert this.globalSeries.size() == Granularity.values().length;
+        assert this.total >= 0;
+        for (Series series : this.globalSeries.values()) {
+            assert series.total() == this.total;
+        }
+    }
+
+    private static Map<Granularity, Series> newSeries(int pageSize) {
+        Map<Granularity, Series> series = new EnumMap<>(Granularity.class);
+        for (Granularity granularity : Granularity.values()) {
+            series.put(granularity, new Series(pageSize));
+        }
+        return series;
+    }
+
+    /**
+     * Count a tweet.
+     *
+     * @param tweet
+     *            tweet to count. Adding the same tweet twice counts it twice.
+     */
+    public void add(Tweet tweet) {
+        Map<Granularity, Series> authorSeries = this.seriesByAuthor.computeIfAbsent(
+                tweet.getAuthor().toLowerCase(Locale.ROOT), author -> newSeries(AUTHOR_PAGE_SIZE));
+        for (Granularity granularity : Granularity.values()) {
+            long bucket = granularity.bucketOf(tweet.getTimestamp());
+            this.globalSeries.get(granularity).increment(bucket);
+            authorSeries.get(granularity).increment(bucket);
+        }
+        this.total++;
+        checkRep();
+    }
+
+    /**
+     * Count tweets.
+     *
+     * @param tweets
+     *            list of tweets to count, not modified by this method
+     */
+    public void addAll(List<Tweet> tweets) {
+        tweets.forEach(this::add);
+    }
+
+    /**
+     * @return the number of tweets counted so far
+     */
+    public long total() {
+        return this.total;
+    }
+
+    /**
+     * Count the tweets sent during the buckets overlapping a timespan.
+     *
+     * @param granularity
+     *            size of the buckets
+     * @param timespan
+     *            timespan, extended to the start of its first bucket and the end of its last bucket
+     * @return the number of tweets sent from the start of the bucket containing timespan.getStart() to the end
+     *         of the bucket containing timespan.getEnd()
+     */
+    public long count(Granularity granularity, Timespan timespan) {
+        return this.globalSeries.get(granularity).count(granularity.bucketOf(timespan.getStart()),
+                granularity.bucketOf(timespan.getEnd()));
+    }
+
+    /**
+     * Count the tweets of an author sent during the buckets overlapping a timespan.
+     *
+     * @param author
+     *            Twitter username
+     * @param granularity
+     *            size of the buckets
+     * @param timespan
+     *            timespan, extended to the start of its first bucket and the end of its last bucket
+     * @return the number of tweets written by author and sent from the start of the bucket containing
+     *         timespan.getStart() to the end of the bucket containing timespan.getEnd()
+     */
+    public long count(String author, Granularity granularity, Timespan timespan) {
+        Map<Granularity, Series> authorSeries = this.seriesByAuthor.get(author.toLowerCase(Locale.ROOT));
+        if (authorSeries == null) {
+            return 0;
+        }
+        return authorSeries.get(granularity).count(granularity.bucketOf(timespan.getStart()),
+                granularity.bucketOf(timespan.getEnd()));
+    }
+
+    /**
+     * Get the tweet volume of each bucket overlapping a timespan, e.g. to chart it.
+     *
+     * @param granularity
+     *            size of the buckets
+     * @param timespan
+     *            timespan, extended to the start of its first bucket and the end of its last bucket
+     * @return array whose i-th entry is the number of tweets sent during the i-th bucket starting from the one
+     *         containing timespan.getStart(), up to the one containing timespan.getEnd()
+     */
+    public int[] volume(Granularity granularity, Timespan timespan) {
+        return this.globalSeries.get(granularity).volume(granularity.bucketOf(timespan.getStart()),
+                granularity.bucketOf(timespan.getEnd()));
+    }
+
+    /**
+     * Get the tweet volume of an author in each bucket overlapping a timespan.
+     *
+     * @param author
+     *            Twitter username
+     * @param granularity
+     *            size of the buckets
+     * @param timespan
+     *            timespan, extended to the start of its first bucket and the end of its last bucket
+     * @return array whose i-th entry is the number of tweets written by author and sent during the i-th bucket
+     *         starting from the one containing timespan.getStart(), up to the one containing timespan.getEnd()
+     */
+    public int[] volume(String author, Granularity granularity, Timespan timespan) {
+        long firstBucket = granularity.bucketOf(timespan.getStart());
+        long lastBucket = granularity.bucketOf(timespan.getEnd());
+        Map<Granularity, Series> authorSeries = this.seriesByAuthor.get(author.toLowerCase(Locale.ROOT));
+        if (authorSeries == null) {
+            return new int[Series.bucketCount(firstBucket, lastBucket)];
+        }
+        return authorSeries.get(granularity).volume(firstBucket, lastBucket);
+    }
+
+    /**
+     * Series is a mutable count of events per bucket, stored in pages of pageSize consecutive buckets. Only the
+     * pages holding at least one event exist.
+     */
+    private static class Series {
+
+        private final int pageSize;
+
+        private final NavigableMap<Long, int[]> pages = new TreeMap<>();
+
+        private long total = 0;
+
+        // Appends are mostly in time order, so the last page used is kept to avoid looking it up again
+        private long lastPageIndex = Long.MIN_VALUE;
+
+        private int[] lastPage = null;
+
+        Series(int pageSize) {
+            this.pageSize = pageSize;
+        }
+
+        void increment(long bucket) {
+            long pageIndex = Math.floorDiv(bucket, this.pageSize);
+            if (pageIndex != this.lastPageIndex || this.lastPage == null) {
+                this.lastPage = this.pages.computeIfAbsent(pageIndex, index -> new int[this.pageSize]);
+                this.lastPageIndex = pageIndex;
+            }
+            this.lastPage[(int) Math.floorMod(bucket, this.pageSize)]++;
+            this.total++;
+        }
+
+        long total() {
+            return this.total;
+        }
+
+        long count(long firstBucket, long lastBucket) {
+            long count = 0;
+            for (Map.Entry<Long, int[]> page : pagesBetween(firstBucket, lastBucket)) {
+                long pageStart = page.getKey() * this.pageSize;
+                int from = (int) Math.max(0, firstBucket - pageStart);
+                int to = (int) Math.min(this.pageSize - 1, lastBucket - pageStart);
+                int[] counts = page.getValue();
+                for (int i = from; i <= to; i++) {
+                    count += counts[i];
+                }
+            }
+            return count;
+        }
+
+        int[] volume(long firstBucket, long lastBucket) {
+            int[] volume = new int[bucketCount(firstBucket, lastBucket)];
+            for (Map.Entry<Long, int[]> page : pagesBetween(firstBucket, lastBucket)) {
+                long pageStart = page.getKey() * this.pageSize;
+                int from = (int) Math.max(0, firstBucket - pageStart);
+                int to = (int) Math.min(this.pageSize - 1, lastBucket - pageStart);
+                System.arraycopy(page.getValue(), from, volume, (int) (pageStart + from - firstBucket), to - from + 1);
+            }
+            return volume;
+        }
+
+        private Set<Map.Entry<Long, int[]>> pagesBetween(long firstBucket, long lastBucket) {
+            return this.pages.subMap(Math.floorDiv(firstBucket, this.pageSize), true,
+                    Math.floorDiv(lastBucket, this.pageSize), true).entrySet();
+        }
+
+        static int bucketCount(long firstBucket, long lastBucket) {
+            long count = lastBucket - firstBucket + 1;
+            if (count > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many buckets in timespan: " + count);
+            }
+            return (int) count;
+        }
+    }
+}
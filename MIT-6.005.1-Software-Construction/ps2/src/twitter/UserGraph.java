@@ -0,0 +1,201 @@
+package twitter;
+
+import java.util.*;
+
+/**
+ * UserGraph is an immutable, compact form of a social network (as defined in SocialNetwork) meant for graph
+ * algorithms over millions of users.
+ *
+ * Every user gets an int id between 0 and size() - 1, and both the "follows" relation and its reverse, the
+ * "is followed by" relation, are stored as adjacency arrays indexed by id (compressed sparse rows), so that
+ * algorithms can walk the graph in both directions without any map lookup or boxing.
+ *
+ * Usernames are case-insensitive, so they are all turned to lower case.
+ */
+public class UserGraph {
+
+    // Rep
+    private final String[] names;
+
+    private final Map<String, Integer> idByName;
+
+    private final int[] followedOffsets;
+
+    private final int[] followed;
+
+    private final int[] followerOffsets;
+
+    private final int[] followers;
+
+    // Rep invariant
+    // names has no duplicates and all names are lower case, idByName maps names[i] to i and nothing else
+    // followedOffsets and followerOffsets have names.length + 1 non-decreasing entries, starting at 0 and ending
+    // at followed.length == followers.length
+    // v is in followed[followedOffsets[u] .. followedOffsets[u + 1]) iff u is in
+    // followers[followerOffsets[v] .. followerOffsets[v + 1]), and u != v
+    // A user appears at most once in each adjacency row
+
+    // Abstraction function
+    // Represents the social network in which user names[u] follows user names[v] iff v is found in
+    // followed[followedOffsets[u] .. followedOffsets[u + 1])
+
+    // Safety from rep exposure argument
+    // All fields are private and final, and no array or map is ever returned: observers return ids, names
+    // (immutable) or counts.
+
+    private UserGraph(String[] names, Map<String, Integer> idByName, int[] followedOffsets, int[] followed) {
+        this.names = names;
+        this.idByName = idByName;
+        this.followedOffsets = followedOffsets;
+        this.followed = followed;
+
+        // Reverse index: count the followers of each user, then fill the rows
+        this.followerOffsets = new int[names.length + 1];
+        for (int target : followed) {
+            this.followerOffsets[target + 1]++;
+        }
+        for (int id = 0; id < names.length; id++) {
+            this.followerOffsets[id + 1] += this.followerOffsets[id];
+        }
+        this.followers = new int[followed.length];
+        int[] nextFollower = Arrays.copyOf(this.followerOffsets, names.length);
+        for (int id = 0; id < names.length; id++) {
+            for (int i = followedOffsets[id]; i < followedOffsets[id + 1]; i++) {
+                this.followers[nextFollower[followed[i]]++] = id;
+            }
+        }
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert this.names.length == this.idByName.size();
+        assert this.followedOffsets.length == this.names.length + 1;
+        assert this.followerOffsets.length == this.names.length + 1;
+        assert this.followedOffsets[this.names.length] == this.followed.length;
+        assert this.followerOffsets[this.names.length] == this.followers.length;
+        assert this.followed.length == this.followers.length;
+    }
+
+    /**
+     * Make a UserGraph from a social network.
+     *
+     * @param followsGraph
+     *            a social network (as defined in SocialNetwork), not modified by this method
+     * @return the same social network as a UserGraph, where every user appearing as a key or in a value of
+     *         followsGraph has an id
+     */
+    public static UserGraph of(Map<String, Set<String>> followsGraph) {
+        Map<String, Integer> idByName = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        followsGraph.forEach((follower, followedUsers) -> {
+            idFor(follower, idByName, names);
+            followedUsers.forEach(user -> idFor(user, idByName, names));
+        });
+
+        int[] followedOffsets = new int[names.size() + 1];
+        int[][] rows = new int[names.size()][];
+        followsGraph.forEach((follower, followedUsers) -> {
+            int id = idByName.get(follower.toLowerCase(Locale.ROOT));
+            int[] row = followedUsers.stream().mapToInt(user -> idByName.get(user.toLowerCase(Locale.ROOT)))
+                    .filter(target -> target != id).distinct().toArray();
+            rows[id] = rows[id] == null ? row : mergeRows(rows[id], row);
+        });
+        for (int id = 0; id < rows.length; id++) {
+            followedOffsets[id + 1] = followedOffsets[id] + (rows[id] == null ? 0 : rows[id].length);
+        }
+        int[] followed = new int[followedOffsets[rows.length]];
+        for (int id = 0; id < rows.length; id++) {
+            if (rows[id] != null) {
+                System.arraycopy(rows[id], 0, followed, followedOffsets[id], rows[id].length);
+            }
+        }
+
+        return new UserGraph(names.toArray(new String[0]), idByName, followedOffsets, followed);
+    }
+
+    private static void idFor(String username, Map<String, Integer> idByName, List<String> names) {
+        String name = username.toLowerCase(Locale.ROOT);
+        if (!idByName.containsKey(name)) {
+            idByName.put(name, names.size());
+            names.add(name);
+        }
+    }
+
+    // Only needed when followsGraph has keys differing by case, against its spec
+    private static int[] mergeRows(int[] row1, int[] row2) {
+        return Arrays.stream(new int[][] {row1, row2}).flatMapToInt(Arrays::stream).distinct().toArray();
+    }
+
+    /**
+     * @return the number of users in this graph
+     */
+    public int size() {
+        return this.names.length;
+    }
+
+    /**
+     * @param username
+     *            a Twitter username
+     * @return the id of the user, or -1 if the user is not in this graph
+     */
+    public int idOf(String username) {
+        return this.idByName.getOrDefault(username.toLowerCase(Locale.ROOT), -1);
+    }
+
+    /**
+     * @param id
+     *            id of a user, requires 0 <= id < size()
+     * @return the lower case username of the user
+     */
+    public String nameOf(int id) {
+        return this.names[id];
+    }
+
+    /**
+     * @param id
+     *            id of a user, requires 0 <= id < size()
+     * @return the number of users followed by the user
+     */
+    public int followedCount(int id) {
+        return this.followedOffsets[id + 1] - this.followedOffsets[id];
+    }
+
+    /**
+     * @param id
+     *            id of a user, requires 0 <= id < size()
+     * @param i
+     *            requires 0 <= i < followedCount(id)
+     * @return the id of the i-th user followed by the user
+     */
+    public int followed(int id, int i) {
+        return this.followed[this.followedOffsets[id] + i];
+    }
+
+    /**
+     * @param id
+     *            id of a user, requires 0 <= id < size()
+     * @return the number of users following the user
+     */
+    public int followerCount(int id) {
+        return this.followerOffsets[id + 1] - this.followerOffsets[id];
+    }
+
+    /**
+     * @param id
+     *            id of a user, requires 0 <= id < size()
+     * @param i
+     *            requires 0 <= i < followerCount(id)
+     * @return the id of the i-th user following the user
+     */
+    public int follower(int id, int i) {
+        return this.followers[this.followerOffsets[id] + i];
+    }
+
+    /**
+     * @return the number of "follows" edges in this graph
+     */
+    public int edgeCount() {
+        return this.followed.length;
+    }
+}
@@ -0,0 +1,310 @@
+package twitter;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * WordAnalytics is an immutable report of word usage in a list of tweets: how often each author used each word,
+ * and how often two words appeared in the same tweet.
+ *
+ * A word is a nonempty sequence of nonspace characters, as in Filter.containing(), and words and usernames are
+ * compared case-insensitively, so both are reported in lower case.
+ *
+ * The report is built in one parallel pass over the tweets. Words and authors are given int ids in shared
+ * dictionaries, and each thread counts (author, word) and (word, word) pairs in its own primitive hash maps
+ * keyed by the two ids. To bound memory, a thread whose co-occurrence map grows beyond a maximum number of pairs
+ * drops its rarest pairs, raising its pruning threshold each time; co-occurrence counts are then approximate,
+ * and only undercount. Pairs seen fewer than a minimum number of times overall are dropped at the end.
+ * Word frequencies per author are always exact.
+ */
+public class WordAnalytics {
+
+    private static final long LOW_BITS = 0xFFFFFFFFL;
+
+    // Rep
+    private final Map<String, Integer> termIds;
+
+    private final String[] terms;
+
+    private final Map<String, Integer> authorIds;
+
+    private final long[] authorTermKeys;
+
+    private final int[] authorTermCounts;
+
+    private final long[] pairKeys;
+
+    private final int[] pairCounts;
+
+    // Rep invariant
+    // termIds maps terms[i] to i, and authorIds maps lower case usernames to distinct ids
+    // authorTermKeys is sorted without duplicates, each key being (author id << 32 | term id), and
+    // authorTermCounts[i] > 0 is the count of authorTermKeys[i]
+    // pairKeys is sorted without duplicates, each key being (term id << 32 | other term id) with distinct terms,
+    // and the reversed key is present with the same count in pairCounts
+
+    // Abstraction function
+    // Represents the report where author a used word terms[t] authorTermCounts[i] times, for
+    // authorTermKeys[i] == (authorIds.get(a) << 32 | t), and words terms[t] and terms[u] appeared together in
+    // pairCounts[i] tweets, for pairKeys[i] == (t << 32 | u); every other count is zero
+
+    // Safety from rep exposure argument
+    // All fields are private and final, and none of them is ever returned: queries return counts or fresh lists
+    // of (immutable) strings.
+
+    private WordAnalytics(Map<String, Integer> termIds, Map<String, Integer> authorIds, LongIntHashMap authorTerms,
+            LongIntHashMap pairs) {
+        this.termIds = termIds;
+        this.terms = new String[termIds.size()];
+        termIds.forEach((term, id) -> this.terms[id] = term);
+        this.authorIds = authorIds;
+
+        this.authorTermKeys = sortedKeys(authorTerms, false);
+        this.authorTermCounts = countsOf(this.authorTermKeys, authorTerms, false);
+        this.pairKeys = sortedKeys(pairs, true);
+        this.pairCounts = countsOf(this.pairKeys, pairs, true);
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert this.terms.length == this.termIds.size();
+        assert this.authorTermKeys.length == this.authorTermCounts.length;
+        assert this.pairKeys.length == this.pairCounts.length;
+        assert this.pairKeys.length % 2 == 0;
+    }
+
+    /**
+     * Analyze the words of a list of tweets.
+     *
+     * @param tweets
+     *            list of tweets, not modified by this method
+     * @param maxPairsPerThread
+     *            number of co-occurring word pairs above which a thread drops its rarest pairs, must be positive
+     * @param minCooccurrences
+     *            minimum number of tweets in which two words must appear together for the pair to be reported
+     * @return the report on the words of tweets
+     */
+    public static WordAnalytics analyze(List<Tweet> tweets, int maxPairsPerThread, int minCooccurrences) {
+        if (maxPairsPerThread <= 0) {
+            throw new IllegalArgumentException("maxPairsPerThread must be positive");
+        }
+        Dictionary terms = new Dictionary();
+        Dictionary authors = new Dictionary();
+        Partial total = tweets.parallelStream().collect(() -> new Partial(terms, authors, maxPairsPerThread),
+                Partial::accept, Partial::combine);
+        total.pairs.removeBelow(minCooccurrences);
+        return new WordAnalytics(terms.ids, authors.ids, total.authorTerms, total.pairs);
+    }
+
+    /**
+     * @param author
+     *            Twitter username
+     * @param word
+     *            a word
+     * @return the number of times author used word in the analyzed tweets, ignoring case
+     */
+    public int frequency(String author, String word) {
+        Integer authorId = this.authorIds.get(author.toLowerCase(Locale.ROOT));
+        Integer termId = this.termIds.get(word.toLowerCase(Locale.ROOT));
+        if (authorId == null || termId == null) {
+            return 0;
+        }
+        int index = Arrays.binarySearch(this.authorTermKeys, key(authorId, termId));
+        return index < 0 ? 0 : this.authorTermCounts[index];
+    }
+
+    /**
+     * @param author
+     *            Twitter username
+     * @param k
+     *            maximum number of words to return
+     * @return the (at most) k words most used by author, in lower case, in decreasing order of use;
+     *         words used as often are in alphabetical order
+     */
+    public List<String> topWords(String author, int k) {
+        Integer authorId = this.authorIds.get(author.toLowerCase(Locale.ROOT));
+        if (authorId == null) {
+            return Collections.emptyList();
+        }
+        return topTerms(this.authorTermKeys, this.authorTermCounts, authorId, k);
+    }
+
+    /**
+     * @param word1
+     *            a word
+     * @param word2
+     *            another word
+     * @return the number of analyzed tweets containing both words, ignoring case, or 0 if the pair was pruned
+     */
+    public int cooccurrences(String word1, String word2) {
+        Integer termId1 = this.termIds.get(word1.toLowerCase(Locale.ROOT));
+        Integer termId2 = this.termIds.get(word2.toLowerCase(Locale.ROOT));
+        if (termId1 == null || termId2 == null) {
+            return 0;
+        }
+        int index = Arrays.binarySearch(this.pairKeys, key(termId1, termId2));
+        return index < 0 ? 0 : this.pairCounts[index];
+    }
+
+    /**
+     * @param word
+     *            a word
+     * @param k
+     *            maximum number of words to return
+     * @return the (at most) k words appearing most often in the same tweets as word, in lower case, in decreasing
+     *         order of co-occurrence; words co-occurring as often are in alphabetical order
+     */
+    public List<String> cooccurringWords(String word, int k) {
+        Integer termId = this.termIds.get(word.toLowerCase(Locale.ROOT));
+        if (termId == null) {
+            return Collections.emptyList();
+        }
+        return topTerms(this.pairKeys, this.pairCounts, termId, k);
+    }
+
+    // Returns the k terms with the highest counts among the keys starting with prefix
+    private List<String> topTerms(long[] keys, int[] counts, int prefix, int k) {
+        int start = lowerBound(keys, (long) prefix << 32);
+        int end = lowerBound(keys, (long) (prefix + 1) << 32);
+        Comparator<Integer> byCountThenTerm = Comparator.<Integer>comparingInt(index -> counts[index]).reversed()
+                .thenComparing(index -> this.terms[(int) (keys[index] & LOW_BITS)]);
+
+        // Heap of the k best indices seen so far, the worst one on top
+        PriorityQueue<Integer> best = new PriorityQueue<>(byCountThenTerm.reversed());
+        for (int index = start; index < end; index++) {
+            best.add(index);
+            if (best.size() > k) {
+                best.poll();
+            }
+        }
+        List<Integer> sorted = new ArrayList<>(best);
+        sorted.sort(byCountThenTerm);
+        List<String> result = new ArrayList<>();
+        sorted.forEach(index -> result.add(this.terms[(int) (keys[index] & LOW_BITS)]));
+        return result;
+    }
+
+    private static int lowerBound(long[] keys, long key) {
+        int index = Arrays.binarySearch(keys, key);
+        return index < 0 ? -index - 1 : index;
+    }
+
+    private static long key(int high, int low) {
+        return (long) high << 32 | (low & LOW_BITS);
+    }
+
+    private static long reversed(long key) {
+        return key << 32 | key >>> 32;
+    }
+
+    // Sorted keys of the map, including reversed keys if symmetric
+    private static long[] sortedKeys(LongIntHashMap map, boolean symmetric) {
+        long[] keys = new long[symmetric ? map.size() * 2 : map.size()];
+        int[] next = {0};
+        map.forEach((key, value) -> {
+            keys[next[0]++] = key;
+            if (symmetric) {
+                keys[next[0]++] = reversed(key);
+            }
+        });
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    private static int[] countsOf(long[] keys, LongIntHashMap map, boolean symmetric) {
+        int[] counts = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            // Symmetric maps hold each pair once, with the smaller id first
+            long key = symmetric && (keys[i] >>> 32) > (keys[i] & LOW_BITS) ? reversed(keys[i]) : keys[i];
+            counts[i] = map.get(key);
+        }
+        return counts;
+    }
+
+    /**
+     * Dictionary is a thread-safe, growing map from names to consecutive int ids.
+     */
+    private static class Dictionary {
+
+        private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+        private final AtomicInteger nextId = new AtomicInteger();
+
+        // Looks the id up before calling computeIfAbsent(), which locks even when the key is present
+        int idOf(String name) {
+            Integer id = this.ids.get(name);
+            return id != null ? id : this.ids.computeIfAbsent(name, _name -> this.nextId.getAndIncrement());
+        }
+    }
+
+    /**
+     * Partial is a mutable accumulator of the counts of the tweets seen by one thread.
+     */
+    private static class Partial {
+
+        private final Dictionary terms;
+
+        private final Dictionary authors;
+
+        private final int maxPairs;
+
+        private final LongIntHashMap authorTerms = new LongIntHashMap();
+
+        private final LongIntHashMap pairs = new LongIntHashMap();
+
+        private int pruneThreshold = 1;
+
+        private int[] termBuffer = new int[32];
+
+        Partial(Dictionary terms, Dictionary authors, int maxPairs) {
+            this.terms = terms;
+            this.authors = authors;
+            this.maxPairs = maxPairs;
+        }
+
+        void accept(Tweet tweet) {
+            int authorId = this.authors.idOf(tweet.getAuthor().toLowerCase(Locale.ROOT));
+            String text = tweet.getText();
+            int[] termCount = {0};
+            Tokenizer.forEachWord(text, (start, end) -> {
+                int termId = this.terms.idOf(text.substring(start, end).toLowerCase(Locale.ROOT));
+                this.authorTerms.addTo(key(authorId, termId), 1);
+                if (termCount[0] == this.termBuffer.length) {
+                    this.termBuffer = Arrays.copyOf(this.termBuffer, termCount[0] * 2);
+                }
+                this.termBuffer[termCount[0]++] = termId;
+                return true;
+            });
+
+            // Count each pair of distinct words once per tweet, the smaller id first
+            Arrays.sort(this.termBuffer, 0, termCount[0]);
+            for (int i = 0; i < termCount[0]; i++) {
+                if (i > 0 && this.termBuffer[i] == this.termBuffer[i - 1]) {
+                    continue;
+                }
+                for (int j = i + 1; j < termCount[0]; j++) {
+                    if (this.termBuffer[j] != this.termBuffer[j - 1]) {
+                        this.pairs.addTo(key(this.termBuffer[i], this.termBuffer[j]), 1);
+                    }
+                }
+            }
+            prune();
+        }
+
+        void combine(Partial that) {
+            this.authorTerms.addAll(that.authorTerms);
+            this.pairs.addAll(that.pairs);
+            this.pruneThreshold = Math.max(this.pruneThreshold, that.pruneThreshold);
+            prune();
+        }
+
+        private void prune() {
+            while (this.pairs.size() > this.maxPairs) {
+                this.pruneThreshold++;
+                this.pairs.removeBelow(this.pruneThreshold);
+            }
+        }
+    }
+}
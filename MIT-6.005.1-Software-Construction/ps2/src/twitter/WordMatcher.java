@@ -0,0 +1,144 @@
+package twitter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * WordMatcher is an immutable type that tells whether a word of a text is one of a list of query words,
+ * ignoring case as Filter.containing()'s spec requires.
+ *
+ * Words made of ASCII characters only are compared in place, ignoring ASCII case. Other words are copied
+ * and compared with String.toLowerCase(Locale.ROOT), so that the result is the same as comparing both
+ * words turned to lower case.
+ */
+public class WordMatcher {
+
+    // Rep
+    private final Set<String> wordsAsLowerCase;
+
+    private final byte[][][] asciiWordsByLength;
+
+    private final long[][][] packedAsciiWordsByLength;
+
+    // Rep invariant
+    // Every ASCII string in wordsAsLowerCase of length n is found as bytes in asciiWordsByLength[n] and packed
+    // by Tokenizer.pack() in packedAsciiWordsByLength[n], and nothing else is
+    // Both arrays have the same length, one more than the length of the longest ASCII word
+
+    // Abstraction function
+    // Represents the set of query words wordsAsLowerCase, compared case-insensitively
+
+    // Safety from rep exposure argument
+    // All fields are private and final, and none of them is ever returned.
+
+    /**
+     * Make a WordMatcher.
+     *
+     * @param words
+     *            a list of words to search for, not modified by this method.
+     *            A word is a nonempty sequence of nonspace characters.
+     */
+    public WordMatcher(Collection<String> words) {
+        this.wordsAsLowerCase = new HashSet<>();
+        Map<Integer, List<byte[]>> asciiWords = new HashMap<>();
+        int maxLength = -1;
+        for (String word : words) {
+            String lowerCase = word.toLowerCase(Locale.ROOT);
+            if (this.wordsAsLowerCase.add(lowerCase) && lowerCase.chars().allMatch(c -> c < 0x80)) {
+                byte[] bytes = lowerCase.getBytes(StandardCharsets.US_ASCII);
+                asciiWords.computeIfAbsent(bytes.length, length -> new ArrayList<>()).add(bytes);
+                maxLength = Math.max(maxLength, bytes.length);
+            }
+        }
+
+        this.asciiWordsByLength = new byte[maxLength + 1][][];
+        this.packedAsciiWordsByLength = new long[maxLength + 1][][];
+        for (int length = 0; length <= maxLength; length++) {
+            List<byte[]> sameLength = asciiWords.getOrDefault(length, Collections.emptyList());
+            this.asciiWordsByLength[length] = sameLength.toArray(new byte[0][]);
+            this.packedAsciiWordsByLength[length] = sameLength.stream().map(Tokenizer::pack).toArray(long[][]::new);
+        }
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert this.wordsAsLowerCase != null;
+        assert this.asciiWordsByLength.length == this.packedAsciiWordsByLength.length;
+    }
+
+    /**
+     * @return true if and only if there is no word to search for
+     */
+    public boolean isEmpty() {
+        return this.wordsAsLowerCase.isEmpty();
+    }
+
+    /**
+     * @param text
+     *            a text
+     * @param start
+     *            index of the first character of a word of the text
+     * @param end
+     *            index right after the last character of the word
+     * @return true if and only if the word is one of the query words, ignoring case
+     */
+    public boolean matches(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) >= 0x80) {
+                return matchesIgnoringCase(text.subSequence(start, end).toString());
+            }
+        }
+
+        int length = end - start;
+        if (length >= this.asciiWordsByLength.length) {
+            return false;
+        }
+        for (byte[] candidate : this.asciiWordsByLength[length]) {
+            int i = 0;
+            while (i < length && Tokenizer.toLowerCase(text.charAt(start + i)) == candidate[i]) {
+                i++;
+            }
+            if (i == length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param bytes
+     *            a buffer holding UTF-8 encoded text, not modified by this method
+     * @param start
+     *            index of the first byte of a word of the text
+     * @param end
+     *            index right after the last byte of the word
+     * @return true if and only if the word is one of the query words, ignoring case
+     */
+    public boolean matches(ByteBuffer bytes, int start, int end) {
+        int length = end - start;
+        if (!Tokenizer.isAscii(bytes, start, end)) {
+            byte[] word = new byte[length];
+            for (int i = 0; i < length; i++) {
+                word[i] = bytes.get(start + i);
+            }
+            return matchesIgnoringCase(new String(word, StandardCharsets.UTF_8));
+        }
+
+        if (length >= this.packedAsciiWordsByLength.length) {
+            return false;
+        }
+        for (long[] candidate : this.packedAsciiWordsByLength[length]) {
+            if (Tokenizer.regionEqualsIgnoreCase(bytes, start, length, candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Non-ASCII words may turn into ASCII words once in lower case, so they are compared as Strings
+    private boolean matchesIgnoringCase(String word) {
+        return this.wordsAsLowerCase.contains(word.toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,179 @@
+package twitter;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class AllocationBudgetTest {
+
+    /*
+     * Allocation-regression tests for the public methods of Extract, Filter and SocialNetwork:
+     * Kept apart from ExtractTest, FilterTest and SocialNetworkTest, which must run against staff implementations.
+     * Each method runs on a fixed synthetic corpus, first enough times for the JIT compiler to settle, then
+     * several measured times; the fewest bytes allocated by one measured run, as counted by
+     * com.sun.management.ThreadMXBean, must stay within a budget in bytes for the whole corpus.
+     * Budgets are about twice what the current implementations allocate (at least 1 KB), so that they catch a
+     * refactoring that doubles allocation without failing on JIT or JVM noise.
+     * Methods that use other threads are measured over every live thread.
+     * If the JVM cannot count allocated bytes, the tests pass without checking anything.
+     */
+
+    private static final int TWEET_COUNT = 10_000;
+
+    private static final int WARMUP_ROUNDS = 30;
+
+    private static final int MEASURED_ROUNDS = 10;
+
+    private static final Instant d1 = Instant.parse("2016-02-17T10:00:00Z");
+
+    private static final List<Tweet> tweets = corpus();
+
+    private static final Map<String, Set<String>> followsGraph = SocialNetwork.guessFollowsGraph(tweets);
+
+    // Same words in the same order for every run, with mentions of users that exist and some that do not
+    private static List<Tweet> corpus() {
+        Random random = new Random(6005);
+        String[] words = {"rivest", "talk", "in", "30", "minutes", "#hype", "is", "it", "reasonable", "to", "about",
+            "so", "much?", "the", "mit", "6.005", "software", "construction", "email@mit.edu", "Obama"};
+        List<Tweet> tweets = new ArrayList<>(TWEET_COUNT);
+        for (int i = 0; i < TWEET_COUNT; i++) {
+            StringBuilder text = new StringBuilder();
+            int wordCount = 5 + random.nextInt(11);
+            for (int j = 0; j < wordCount; j++) {
+                if (random.nextInt(8) == 0) {
+                    text.append("@user").append(random.nextInt(120));
+                } else {
+                    text.append(words[random.nextInt(words.length)]);
+                }
+                text.append(' ');
+            }
+            tweets.add(new Tweet(i, "user" + random.nextInt(100), text.toString().trim(),
+                    d1.plusSeconds(random.nextInt(1_000_000))));
+        }
+        return Collections.unmodifiableList(tweets);
+    }
+
+    private interface Operation {
+        Object run();
+    }
+
+    // Fewest bytes allocated by one run of the operation, or -1 if allocation cannot be counted
+    private static long bytesPerRun(Operation operation, boolean allThreads) {
+        java.lang.management.ThreadMXBean standardBean = ManagementFactory.getThreadMXBean();
+        if (!(standardBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) standardBean;
+        if (!bean.isThreadAllocatedMemorySupported()) {
+            return -1;
+        }
+        bean.setThreadAllocatedMemoryEnabled(true);
+
+        Object sink = null;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink = operation.run();
+        }
+        long fewest = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long[] threadIds = allThreads ? bean.getAllThreadIds() : new long[] {Thread.currentThread().getId()};
+            long before = sum(bean.getThreadAllocatedBytes(threadIds));
+            sink = operation.run();
+            long after = sum(bean.getThreadAllocatedBytes(threadIds));
+            fewest = Math.min(fewest, after - before);
+        }
+        assertNotNull("expected a result", sink);
+        return fewest;
+    }
+
+    // Sum of the counts of the threads still alive, which are the ones counted as nonnegative
+    private static long sum(long[] allocatedBytes) {
+        long sum = 0;
+        for (long bytes : allocatedBytes) {
+            sum += Math.max(0, bytes);
+        }
+        return sum;
+    }
+
+    private static void assertWithinBudget(String name, long budget, boolean allThreads, Operation operation) {
+        long bytes = bytesPerRun(operation, allThreads);
+        if (bytes >= 0) {
+            assertTrue("expected " + name + " to allocate at most " + budget + " bytes, but it allocated " + bytes,
+                    bytes <= budget);
+        }
+    }
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testGetTimespan() {
+        assertWithinBudget("Extract.getTimespan(List<Tweet>)", 1_024, false,
+                () -> Extract.getTimespan(tweets));
+    }
+
+    @Test
+    public void testGetTimespanOfColumn() {
+        long[] epochMillis = tweets.stream().mapToLong(tweet -> tweet.getTimestamp().toEpochMilli()).toArray();
+        // Its parallel stream runs in the pool of the calling task, pinned as small as the common pool of one CPU
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            assertWithinBudget("Extract.getTimespan(long[])", 4_096, true,
+                    () -> pool.submit(() -> Extract.getTimespan(epochMillis)).join());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testGetMentionedUsers() {
+        assertWithinBudget("Extract.getMentionedUsers", 2_200_000, false,
+                () -> Extract.getMentionedUsers(tweets));
+    }
+
+    @Test
+    public void testWrittenBy() {
+        assertWithinBudget("Filter.writtenBy", 4_096, false, () -> Filter.writtenBy(tweets, "USER42"));
+    }
+
+    @Test
+    public void testInTimespan() {
+        Timespan timespan = new Timespan(d1.plusSeconds(250_000), d1.plusSeconds(750_000));
+        assertWithinBudget("Filter.inTimespan", 150_000, false, () -> Filter.inTimespan(tweets, timespan));
+    }
+
+    @Test
+    public void testContaining() {
+        List<String> words = Arrays.asList("RIVEST", "obama", "#hype");
+        assertWithinBudget("Filter.containing", 720_000, false, () -> Filter.containing(tweets, words));
+    }
+
+    @Test
+    public void testGuessFollowsGraph() {
+        assertWithinBudget("SocialNetwork.guessFollowsGraph", 3_200_000, false,
+                () -> SocialNetwork.guessFollowsGraph(tweets));
+    }
+
+    @Test
+    public void testInfluencers() {
+        assertWithinBudget("SocialNetwork.influencers", 75_000, false,
+                () -> SocialNetwork.influencers(followsGraph));
+    }
+
+    @Test
+    public void testParallelInfluencers() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            assertWithinBudget("SocialNetwork.influencers(ForkJoinPool)", 64_000, true,
+                    () -> SocialNetwork.influencers(followsGraph, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package twitter;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class LabelPropagationTest {
+
+    /*
+     * Test cases for run:
+     * Will test: empty graph, isolated user, two dense groups linked by a single follow, same seed with a
+     * single thread gives the same communities, several threads, metrics of every iteration, maximum number of
+     * iterations reached, invalid parameters
+     */
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testEmptyGraph() {
+        LabelPropagation.Result result = new LabelPropagation(UserGraph.of(Collections.emptyMap()), 1, 10, 0)
+                .run(new ForkJoinPool(1));
+
+        assertTrue("expected no community", result.communities().isEmpty());
+        assertTrue("expected convergence", result.isConverged());
+        assertTrue("expected no iteration", result.getIterations().isEmpty());
+    }
+
+    @Test
+    public void testTwoGroups() {
+        for (int parallelism : Arrays.asList(1, 4)) {
+            LabelPropagation.Result result = new LabelPropagation(UserGraph.of(twoGroupsGraph()), 42, 50, 0)
+                    .run(new ForkJoinPool(parallelism));
+
+            assertTrue("expected convergence", result.isConverged());
+            assertEquals("expected two groups and the isolated user", 3, result.communities().size());
+            assertEquals("expected same community", result.communityOf("a0"), result.communityOf("A4"));
+            assertEquals("expected same community", result.communityOf("b0"), result.communityOf("b4"));
+            assertNotEquals("expected different communities", result.communityOf("a0"), result.communityOf("b0"));
+            assertNotEquals("expected isolated user alone", result.communityOf("loner"), result.communityOf("a0"));
+            assertEquals("expected unknown user", -1, result.communityOf("nobody"));
+        }
+    }
+
+    @Test
+    public void testDeterministicWithSingleThread() {
+        UserGraph graph = UserGraph.of(randomGraph(2000, 4, new Random(6005)));
+
+        Map<Integer, Set<String>> first = new LabelPropagation(graph, 7, 20, 0.001).run(new ForkJoinPool(1))
+                .communities();
+        Map<Integer, Set<String>> second = new LabelPropagation(graph, 7, 20, 0.001).run(new ForkJoinPool(1))
+                .communities();
+
+        assertEquals("expected same communities", new HashSet<>(first.values()), new HashSet<>(second.values()));
+    }
+
+    @Test
+    public void testIterationMetrics() {
+        UserGraph graph = UserGraph.of(randomGraph(20000, 3, new Random(6005)));
+        LabelPropagation.Result result = new LabelPropagation(graph, 7, 2, 0).run(new ForkJoinPool(4));
+
+        assertFalse("expected no convergence", result.isConverged());
+        assertEquals("expected two iterations", 2, result.getIterations().size());
+        for (int i = 0; i < 2; i++) {
+            LabelPropagation.IterationMetrics metrics = result.getIterations().get(i);
+            assertEquals("expected iteration index", i, metrics.getIteration());
+            assertTrue("expected duration", metrics.getDurationNanos() > 0);
+            assertTrue("expected changes", metrics.getChangedLabels() > 0);
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidThreshold() {
+        new LabelPropagation(UserGraph.of(twoGroupsGraph()), 1, 10, 1.5);
+    }
+
+    private static Map<String, Set<String>> twoGroupsGraph() {
+        Map<String, Set<String>> followsGraph = new HashMap<>();
+        for (String group : Arrays.asList("a", "b")) {
+            for (int i = 0; i < 5; i++) {
+                Set<String> followed = new HashSet<>();
+                for (int j = 0; j < 5; j++) {
+                    if (j != i) {
+                        followed.add(group + j);
+                    }
+                }
+                followsGraph.put(group + i, followed);
+            }
+        }
+        followsGraph.get("a0").add("b0");
+        followsGraph.put("loner", new HashSet<>());
+        return followsGraph;
+    }
+
+    private static Map<String, Set<String>> randomGraph(int users, int maxFollowed, Random random) {
+        Map<String, Set<String>> followsGraph = new HashMap<>();
+        for (int i = 0; i < users; i++) {
+            Set<String> followed = new HashSet<>();
+            for (int j = random.nextInt(maxFollowed + 1); j > 0; j--) {
+                int user = random.nextInt(users);
+                if (user != i) {
+                    followed.add("u" + user);
+                }
+            }
+            followsGraph.put("u" + i, followed);
+        }
+        return followsGraph;
+    }
+}
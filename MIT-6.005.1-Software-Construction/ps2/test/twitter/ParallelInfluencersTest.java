@@ -0,0 +1,91 @@
+package twitter;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class ParallelInfluencersTest {
+
+    /*
+     * Test cases for influencers(followsGraph, pool):
+     * Kept apart from SocialNetworkTest, which must run against staff implementations of SocialNetwork.
+     * The result must hold the same people as influencers(followsGraph), with non-increasing follower counts.
+     * Will test: empty graph, no follower, same influencer different case, graph large enough to be split
+     * between several tasks, pool of a single thread
+     */
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testEmptyGraph() {
+        List<String> influencers = SocialNetwork.influencers(new HashMap<>(), new ForkJoinPool(4));
+
+        assertTrue("expected empty list", influencers.isEmpty());
+    }
+
+    @Test
+    public void testNoFollower() {
+        Map<String, Set<String>> followsGraph = new HashMap<>();
+        followsGraph.put("jojo", Collections.emptySet());
+
+        assertTrue("expected empty list", SocialNetwork.influencers(followsGraph, new ForkJoinPool(4)).isEmpty());
+    }
+
+    @Test
+    public void testSameInfluencerDifferentCase() {
+        Map<String, Set<String>> followsGraph = new HashMap<>();
+        followsGraph.put("jojo", new HashSet<>(Arrays.asList("kitty")));
+        followsGraph.put("guigui", new HashSet<>(Arrays.asList("jojo", "kitty")));
+        followsGraph.put("kitty", new HashSet<>(Arrays.asList("JoJo")));
+        followsGraph.put("alice", new HashSet<>(Arrays.asList("JOJO", "guigui")));
+
+        List<String> influencers = SocialNetwork.influencers(followsGraph, new ForkJoinPool(4));
+
+        assertEquals("expected list to be", Arrays.asList("jojo", "kitty", "guigui"), influencers);
+    }
+
+    @Test
+    public void testLargeGraphSameAsSequential() {
+        Map<String, Set<String>> followsGraph = makeGraph(20000, 2000, 15, new Random(6005));
+
+        for (int parallelism : Arrays.asList(1, 4)) {
+            List<String> influencers = SocialNetwork.influencers(followsGraph, new ForkJoinPool(parallelism));
+            List<String> expected = SocialNetwork.influencers(followsGraph);
+
+            assertEquals("expected same people", new HashSet<>(expected), new HashSet<>(influencers));
+            assertEquals("expected each person once", expected.size(), influencers.size());
+            assertEquals("expected same follower counts in order", followerCounts(followsGraph, expected),
+                    followerCounts(followsGraph, influencers));
+        }
+    }
+
+    private static Map<String, Set<String>> makeGraph(int followers, int people, int maxFollowed, Random random) {
+        Map<String, Set<String>> followsGraph = new HashMap<>();
+        for (int i = 0; i < followers; i++) {
+            Set<String> followed = new HashSet<>();
+            int followedCount = random.nextInt(maxFollowed);
+            for (int j = 0; j < followedCount; j++) {
+                // Skewed towards the first people, so that counts differ a lot
+                int person = (int) (people * Math.pow(random.nextDouble(), 3));
+                followed.add(person % 2 == 0 ? "user" + person : "USER" + person);
+            }
+            followsGraph.put("follower" + i, followed);
+        }
+        return followsGraph;
+    }
+
+    private static List<Integer> followerCounts(Map<String, Set<String>> followsGraph, List<String> influencers) {
+        Map<String, Integer> counts = new HashMap<>();
+        followsGraph.values().forEach(followed -> followed.forEach(
+                person -> counts.merge(person.toLowerCase(Locale.ROOT), 1, Integer::sum)));
+        List<Integer> result = new ArrayList<>();
+        influencers.forEach(influencer -> result.add(counts.get(influencer)));
+        return result;
+    }
+}
@@ -0,0 +1,123 @@
+package twitter;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class PathFinderTest {
+
+    /*
+     * Test cases for shortestPath and degreesOfSeparation:
+     * Will test: unknown user, same user, direct follow, follows are directed, hop limit just below and at the
+     * path length, different case usernames, several queries in a row on the same PathFinder, random graph
+     * compared to a plain breadth-first search
+     */
+
+    private static Map<String, Set<String>> chainGraph() {
+        Map<String, Set<String>> followsGraph = new HashMap<>();
+        followsGraph.put("alice", new HashSet<>(Arrays.asList("bob", "eve")));
+        followsGraph.put("bob", new HashSet<>(Arrays.asList("charlie")));
+        followsGraph.put("charlie", new HashSet<>(Arrays.asList("dave")));
+        followsGraph.put("eve", new HashSet<>(Arrays.asList("frank")));
+        return followsGraph;
+    }
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testUnknownUser() {
+        PathFinder finder = new PathFinder(UserGraph.of(chainGraph()));
+
+        assertTrue("expected no path", finder.shortestPath("alice", "nobody", 10).isEmpty());
+        assertEquals("expected no separation", -1, finder.degreesOfSeparation("nobody", "alice", 10));
+    }
+
+    @Test
+    public void testSameUser() {
+        PathFinder finder = new PathFinder(UserGraph.of(chainGraph()));
+
+        assertEquals("expected single user", Arrays.asList("bob"), finder.shortestPath("bob", "BOB", 0));
+    }
+
+    @Test
+    public void testDirectFollow() {
+        PathFinder finder = new PathFinder(UserGraph.of(chainGraph()));
+
+        assertEquals("expected direct path", Arrays.asList("alice", "bob"), finder.shortestPath("alice", "bob", 1));
+    }
+
+    @Test
+    public void testDirected() {
+        PathFinder finder = new PathFinder(UserGraph.of(chainGraph()));
+
+        assertTrue("expected no path", finder.shortestPath("dave", "alice", 10).isEmpty());
+        assertTrue("expected no path", finder.shortestPath("frank", "dave", 10).isEmpty());
+    }
+
+    @Test
+    public void testHopLimit() {
+        PathFinder finder = new PathFinder(UserGraph.of(chainGraph()));
+
+        assertTrue("expected no path", finder.shortestPath("alice", "dave", 2).isEmpty());
+        assertEquals("expected path", Arrays.asList("alice", "bob", "charlie", "dave"),
+                finder.shortestPath("Alice", "DAVE", 3));
+        assertEquals("expected separation", 3, finder.degreesOfSeparation("alice", "dave", 100));
+    }
+
+    @Test
+    public void testRandomGraphSameAsBreadthFirstSearch() {
+        Random random = new Random(6005);
+        Map<String, Set<String>> followsGraph = new HashMap<>();
+        int users = 300;
+        for (int i = 0; i < users; i++) {
+            Set<String> followed = new HashSet<>();
+            for (int j = random.nextInt(3); j > 0; j--) {
+                int user = random.nextInt(users);
+                if (user != i) {
+                    followed.add("u" + user);
+                }
+            }
+            followsGraph.put("u" + i, followed);
+        }
+        PathFinder finder = new PathFinder(UserGraph.of(followsGraph));
+
+        for (int query = 0; query < 500; query++) {
+            String from = "u" + random.nextInt(users);
+            String to = "u" + random.nextInt(users);
+            int maxHops = random.nextInt(12);
+            int expected = breadthFirstDistance(followsGraph, from, to);
+            List<String> path = finder.shortestPath(from, to, maxHops);
+
+            assertEquals("expected shortest distance from " + from + " to " + to, expected <= maxHops ? expected : -1,
+                    path.size() - 1);
+            for (int i = 0; i + 1 < path.size(); i++) {
+                assertTrue("expected follows edge", followsGraph.get(path.get(i)).contains(path.get(i + 1)));
+            }
+        }
+    }
+
+    private static int breadthFirstDistance(Map<String, Set<String>> followsGraph, String from, String to) {
+        Map<String, Integer> distances = new HashMap<>();
+        Deque<String> queue = new ArrayDeque<>();
+        distances.put(from, 0);
+        queue.add(from);
+        while (!queue.isEmpty()) {
+            String user = queue.poll();
+            if (user.equals(to)) {
+                return distances.get(user);
+            }
+            for (String next : followsGraph.getOrDefault(user, Collections.emptySet())) {
+                if (!distances.containsKey(next)) {
+                    distances.put(next, distances.get(user) + 1);
+                    queue.add(next);
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,165 @@
+package twitter;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Instant;
+import java.util.*;
+
+import org.junit.Test;
+
+public class ShardedTweetIndexTest {
+
+    /*
+     * Test cases for ShardedTweetIndex, over shard processes started on this host:
+     * Will test: empty index, one shard and several shards, results the same as Filter (and so in input order)
+     * for writtenBy, inTimespan and containing, tweets added in several batches, non-ASCII text, size,
+     * shards already holding the tweets of a previous index, shard that never answers (timeout), closed index
+     */
+
+    private static final Instant d1 = Instant.parse("2016-02-17T10:00:00Z");
+
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private static List<Tweet> randomTweets(int count, long firstId) {
+        Random random = new Random(6005 + firstId);
+        String[] words = {"rivest", "talk", "#hype", "Caf\u00e9", "in", "30", "minutes", "mit", "SoMuCh"};
+        List<Tweet> tweets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < 1 + random.nextInt(6); j++) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            tweets.add(new Tweet(firstId + i * 7, "user" + random.nextInt(5), text.toString(),
+                    d1.plusSeconds(random.nextInt(100_000))));
+        }
+        return tweets;
+    }
+
+    private static void assertSameAsFilter(List<Tweet> tweets, ShardedTweetIndex index) {
+        Timespan timespan = new Timespan(d1.plusSeconds(20_000), d1.plusSeconds(50_000));
+        List<String> words = Arrays.asList("CAF\u00c9", "mit");
+
+        assertEquals("expected size", tweets.size(), index.size());
+        assertEquals("expected same as Filter", Filter.writtenBy(tweets, "USER3"), index.writtenBy("USER3"));
+        assertEquals("expected same as Filter", Filter.inTimespan(tweets, timespan), index.inTimespan(timespan));
+        assertEquals("expected same as Filter", Filter.containing(tweets, words), index.containing(words));
+    }
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testEmptyIndex() throws IOException {
+        try (ShardedTweetIndex index = ShardedTweetIndex.launch(2, TIMEOUT_MILLIS)) {
+            assertEquals("expected shards", 2, index.getShardCount());
+            assertSameAsFilter(new ArrayList<>(), index);
+        }
+    }
+
+    @Test
+    public void testOneShard() throws IOException {
+        List<Tweet> tweets = randomTweets(500, 0);
+        try (ShardedTweetIndex index = ShardedTweetIndex.launch(1, TIMEOUT_MILLIS)) {
+            index.addAll(tweets);
+            assertSameAsFilter(tweets, index);
+        }
+    }
+
+    @Test
+    public void testSeveralShardsSeveralBatches() throws IOException {
+        List<Tweet> tweets = new ArrayList<>();
+        try (ShardedTweetIndex index = ShardedTweetIndex.launch(3, TIMEOUT_MILLIS)) {
+            for (int batch = 0; batch < 4; batch++) {
+                List<Tweet> newTweets = randomTweets(1000, batch * 100_000L);
+                Collections.shuffle(newTweets, new Random(batch));
+                index.addAll(newTweets);
+                tweets.addAll(newTweets);
+                assertSameAsFilter(tweets, index);
+            }
+        }
+    }
+
+    @Test
+    public void testConnectToShardsHoldingTweets() throws IOException {
+        List<ServerSocket> serverSockets = new ArrayList<>();
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        try {
+            for (int i = 0; i < 2; i++) {
+                ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+                serverSockets.add(serverSocket);
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort()));
+                TweetShardServer shard = new TweetShardServer();
+                Thread acceptor = new Thread(() -> {
+                    try {
+                        while (true) {
+                            Socket socket = serverSocket.accept();
+                            Thread connection = new Thread(() -> shard.serve(socket));
+                            connection.setDaemon(true);
+                            connection.start();
+                        }
+                    } catch (IOException ioe) {
+                        // Closed at the end of the test
+                    }
+                });
+                acceptor.setDaemon(true);
+                acceptor.start();
+            }
+
+            List<Tweet> tweets = new ArrayList<>();
+            for (int batch = 0; batch < 3; batch++) {
+                try (ShardedTweetIndex index = ShardedTweetIndex.connect(addresses, TIMEOUT_MILLIS)) {
+                    List<Tweet> newTweets = randomTweets(300, batch * 100_000L);
+                    index.addAll(newTweets);
+                    tweets.addAll(newTweets);
+                    assertSameAsFilter(tweets, index);
+                }
+            }
+        } finally {
+            for (ServerSocket serverSocket : serverSockets) {
+                serverSocket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testShardTimeout() throws IOException {
+        try (ServerSocket silentShard = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            List<Socket> accepted = new ArrayList<>();
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        accepted.add(silentShard.accept());
+                    }
+                } catch (IOException ioe) {
+                    // Closed at the end of the test
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            long start = System.nanoTime();
+            try (ShardedTweetIndex index = ShardedTweetIndex.connect(Arrays.asList(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), silentShard.getLocalPort())), 200)) {
+                index.writtenBy("alyssa");
+                fail("expected timeout");
+            } catch (UncheckedIOException uioe) {
+                assertTrue("expected prompt failure", System.nanoTime() - start < 5_000_000_000L);
+            }
+        }
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testClosedIndex() throws IOException {
+        ShardedTweetIndex index = ShardedTweetIndex.launch(1, TIMEOUT_MILLIS);
+        index.close();
+        index.containing(Arrays.asList("talk"));
+    }
+}
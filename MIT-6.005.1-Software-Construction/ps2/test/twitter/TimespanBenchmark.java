@@ -0,0 +1,60 @@
+package twitter;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Benchmark of Extract.getTimespan(List<Tweet>) against the parallel reduction over a long[] column of epoch
+ * milliseconds, Extract.getTimespan(long[]).
+ *
+ * Not a test: run its main method, optionally with the number of tweets as argument (default 100000000).
+ * The list-based method is only measured up to 10000000 tweets, since a list of 10^8 Tweet objects does not fit
+ * in a usual heap; the column of 10^8 timestamps needs about 800 MB (run with e.g. -Xmx2g).
+ */
+public class TimespanBenchmark {
+
+    private static final int MAX_LIST_SIZE = 10_000_000;
+
+    private static final int WARMUP_ROUNDS = 3;
+
+    private static final int MEASURED_ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int tweetCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000_000;
+        Random random = new Random(6005);
+        long start = Instant.parse("2016-02-17T10:00:00Z").toEpochMilli();
+        long[] epochMillis = new long[tweetCount];
+        for (int i = 0; i < tweetCount; i++) {
+            epochMillis[i] = start + (random.nextLong() & Long.MAX_VALUE) % 31_536_000_000L;
+        }
+
+        if (tweetCount <= MAX_LIST_SIZE) {
+            List<Tweet> tweets = new ArrayList<>(tweetCount);
+            for (int i = 0; i < tweetCount; i++) {
+                tweets.add(new Tweet(i, "alyssa", "", Instant.ofEpochMilli(epochMillis[i])));
+            }
+            run("getTimespan(List<Tweet>)", tweetCount, () -> Extract.getTimespan(tweets));
+        } else {
+            System.out.printf("getTimespan(List<Tweet>) skipped above %d tweets%n", MAX_LIST_SIZE);
+        }
+        run("getTimespan(long[]), " + Runtime.getRuntime().availableProcessors() + " cores", tweetCount,
+                () -> Extract.getTimespan(epochMillis));
+    }
+
+    private static void run(String name, int tweetCount, Operation operation) {
+        Timespan result = null;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            result = operation.run();
+        }
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            result = operation.run();
+        }
+        double millisPerRound = (System.nanoTime() - startNanos) / 1e6 / MEASURED_ROUNDS;
+        System.out.printf("%-40s %10.1f ms for %d tweets %s%n", name, millisPerRound, tweetCount, result);
+    }
+
+    private interface Operation {
+        Timespan run();
+    }
+}
@@ -0,0 +1,80 @@
+package twitter;
+
+import static org.junit.Assert.*;
+
+import java.time.Instant;
+import java.util.*;
+
+import org.junit.Test;
+
+public class TimespanReductionTest {
+
+    /*
+     * Test cases for Extract.getTimespan(long[]) and TweetStore.getTimespan():
+     * Kept apart from ExtractTest, which must run against staff implementations of Extract.
+     * Results must be the same as Extract.getTimespan(List<Tweet>).
+     * Will test: empty column/store, single element, every element same instant, minimum and maximum at the
+     * ends and in the middle, instants before the epoch, instants differing only by nanoseconds, large random
+     * column split between several threads
+     */
+
+    private static final Instant d1 = Instant.parse("2016-02-17T10:00:00Z");
+    private static final Instant d2 = Instant.parse("1950-10-10T23:59:59Z");
+    private static final Instant d3 = Instant.parse("2159-12-31T00:00:00Z");
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testEmpty() {
+        assertNull("expected no timespan", Extract.getTimespan(new long[0]));
+        assertNull("expected no timespan", new TweetStore().getTimespan());
+    }
+
+    @Test
+    public void testSingleElement() {
+        Timespan expected = new Timespan(d1, d1);
+
+        assertEquals("expected instant timespan", expected, Extract.getTimespan(new long[] {d1.toEpochMilli()}));
+        assertEquals("expected instant timespan", expected,
+                TweetStore.of(Arrays.asList(new Tweet(1, "alyssa", "text", d1))).getTimespan());
+    }
+
+    @Test
+    public void testSameAsListOfTweets() {
+        List<Instant> instants = Arrays.asList(d1, d2, d1.plusMillis(1), d3, d2.plusSeconds(3600), d1);
+        List<Tweet> tweets = new ArrayList<>();
+        long[] epochMillis = new long[instants.size()];
+        for (int i = 0; i < instants.size(); i++) {
+            tweets.add(new Tweet(i, "alyssa", "text", instants.get(i)));
+            epochMillis[i] = instants.get(i).toEpochMilli();
+        }
+
+        assertEquals("expected timespan", new Timespan(d2, d3), Extract.getTimespan(epochMillis));
+        assertEquals("expected same timespan", Extract.getTimespan(tweets), TweetStore.of(tweets).getTimespan());
+    }
+
+    @Test
+    public void testNanoseconds() {
+        List<Tweet> tweets = Arrays.asList(new Tweet(1, "alyssa", "text", d1.plusNanos(5)),
+                new Tweet(2, "alyssa", "text", d1.plusNanos(1)), new Tweet(3, "alyssa", "text", d1.plusNanos(9)));
+
+        assertEquals("expected timespan", new Timespan(d1.plusNanos(1), d1.plusNanos(9)),
+                TweetStore.of(tweets).getTimespan());
+    }
+
+    @Test
+    public void testLargeColumn() {
+        Random random = new Random(6005);
+        long[] epochMillis = new long[1_000_000];
+        for (int i = 0; i < epochMillis.length; i++) {
+            epochMillis[i] = d1.toEpochMilli() + random.nextInt(1_000_000_000);
+        }
+        epochMillis[123_456] = d2.toEpochMilli();
+        epochMillis[654_321] = d3.toEpochMilli();
+
+        assertEquals("expected timespan", new Timespan(d2, d3), Extract.getTimespan(epochMillis));
+    }
+}
@@ -0,0 +1,103 @@
+package twitter;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Benchmark of word matching and mention extraction: the former String.split()-based implementations of
+ * Filter.containing() and Extract.getMentionedUsers(), the Tokenizer-based implementations on Strings, and the
+ * Tokenizer-based implementations on the UTF-8 bytes of a TweetStore.
+ *
+ * Not a test: run its main method, optionally with the number of tweets as argument (default 1000000).
+ */
+public class TokenizerBenchmark {
+
+    private static final String[] VOCABULARY = { "rivest", "talk", "in", "30", "minutes", "#hype", "is", "it",
+            "reasonable", "to", "about", "so", "much?", "Obama", "LASAGNA", "caf\u00e9", "well", "hello", "there" };
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    private static final int MEASURED_ROUNDS = 10;
+
+    public static void main(String[] args) {
+        int tweetCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<Tweet> tweets = makeTweets(tweetCount, new Random(6005));
+        TweetStore store = TweetStore.of(tweets);
+        List<String> words = Arrays.asList("obama", "Lasagna");
+
+        run("containing, split", tweetCount, () -> splitContaining(tweets, words).size());
+        run("containing, Tokenizer on String", tweetCount, () -> Filter.containing(tweets, words).size());
+        run("containing, Tokenizer on TweetStore", tweetCount, () -> store.containing(words).size());
+        run("containing, indices on TweetStore", tweetCount, () -> store.indicesContaining(words).length);
+        run("mentions, split + regex", tweetCount, () -> splitMentionedUsers(tweets).size());
+        run("mentions, Tokenizer on String", tweetCount, () -> Extract.getMentionedUsers(tweets).size());
+        run("mentions, Tokenizer on TweetStore", tweetCount, () -> store.getMentionedUsers().size());
+    }
+
+    private static List<Tweet> makeTweets(int count, Random random) {
+        List<Tweet> tweets = new ArrayList<>(count);
+        Instant start = Instant.parse("2016-02-17T10:00:00Z");
+        for (int i = 0; i < count; i++) {
+            StringBuilder text = new StringBuilder();
+            int wordCount = 5 + random.nextInt(15);
+            for (int j = 0; j < wordCount; j++) {
+                if (j > 0) {
+                    text.append(' ');
+                }
+                if (random.nextInt(10) == 0) {
+                    text.append("@user").append(random.nextInt(1000));
+                } else {
+                    text.append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+                }
+            }
+            tweets.add(new Tweet(i, "author" + random.nextInt(10000), text.toString(), start.plusSeconds(i)));
+        }
+        return tweets;
+    }
+
+    private static void run(String name, int tweetCount, Operation operation) {
+        long checksum = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            checksum += operation.run();
+        }
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            checksum += operation.run();
+        }
+        double nanosPerTweet = (double) (System.nanoTime() - startNanos) / MEASURED_ROUNDS / tweetCount;
+        System.out.printf("%-40s %8.1f ns/tweet (checksum %d)%n", name, nanosPerTweet, checksum);
+    }
+
+    private interface Operation {
+        int run();
+    }
+
+    // Former implementation of Filter.containing()
+    private static List<Tweet> splitContaining(List<Tweet> tweets, List<String> words) {
+        Set<String> wordsAsLowerCase = words.stream().map(word -> word.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toSet());
+        return tweets.stream().filter(tweet -> {
+            Set<String> tweetWordsLowerCase = Arrays.stream(tweet.getText().split(" "))
+                    .map(word -> word.toLowerCase(Locale.ROOT)).collect(Collectors.toSet());
+            return wordsAsLowerCase.stream().anyMatch(word -> tweetWordsLowerCase.contains(word));
+        }).collect(Collectors.toList());
+    }
+
+    // Former implementation of Extract.getMentionedUsers()
+    private static Set<String> splitMentionedUsers(List<Tweet> tweets) {
+        Set<String> mentionedUsers = new HashSet<>();
+        Pattern userPattern = Pattern.compile("(([0-9]|[a-zA-Z]|-|_)+)");
+        for (Tweet tweet : tweets) {
+            Arrays.stream(tweet.getText().split(" ")).filter(word -> word.startsWith("@")).forEach(candidate -> {
+                Matcher matcher = userPattern.matcher(candidate);
+                if (matcher.find()) {
+                    mentionedUsers.add(matcher.group().toLowerCase(Locale.ROOT));
+                }
+            });
+        }
+        return mentionedUsers;
+    }
+}
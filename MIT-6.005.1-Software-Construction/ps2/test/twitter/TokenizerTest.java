@@ -0,0 +1,135 @@
+package twitter;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import org.junit.Test;
+
+public class TokenizerTest {
+
+    /*
+     * Test cases for forEachWord:
+     * Results must be the same as String.split(" ") without its empty strings, for both CharSequence and bytes.
+     * Will test: empty text, only spaces, single word, leading/trailing/repeated spaces, text shorter and longer
+     * than a block of 8 bytes, non-ASCII text, both byte orders, visitor stopping early
+     *
+     * Test cases for containsAtSign and isAscii:
+     * Will test: character in a full block, character in the tail, character absent
+     *
+     * Test cases for regionEqualsIgnoreCase:
+     * Will test: same word, different case, different word, words longer than a block, non-ASCII bytes,
+     * characters right around the upper case range ('@', '[')
+     */
+
+    private static final List<String> texts = Arrays.asList("", "   ", "word", " a  b ", "rivest talk in 30 minutes",
+            "  is it reasonable to talk about rivest so much?  ", "\u00c7a va @jo-jo ? CAF\u00c9 time", "12345678 9");
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testForEachWordCharSequenceSameAsSplit() {
+        for (String text : texts) {
+            List<String> words = new ArrayList<>();
+            Tokenizer.forEachWord(text, (start, end) -> words.add(text.substring(start, end)));
+
+            assertEquals("expected same words for '" + text + "'", splitOnSpaces(text), words);
+        }
+    }
+
+    @Test
+    public void testForEachWordBytesSameAsSplit() {
+        for (ByteOrder order : Arrays.asList(ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN)) {
+            for (String text : texts) {
+                ByteBuffer bytes = encode(text, order);
+                List<String> words = new ArrayList<>();
+                Tokenizer.forEachWord(bytes, 3, bytes.limit(), (start, end) -> words.add(decode(bytes, start, end)));
+
+                assertEquals("expected same words for '" + text + "'", splitOnSpaces(text), words);
+            }
+        }
+    }
+
+    @Test
+    public void testForEachWordStopsEarly() {
+        String text = "one two three four five six";
+        List<String> words = new ArrayList<>();
+        boolean completed = Tokenizer.forEachWord(text, (start, end) -> {
+            words.add(text.substring(start, end));
+            return words.size() < 2;
+        });
+
+        assertFalse("expected iteration to stop", completed);
+        assertEquals("expected two words", Arrays.asList("one", "two"), words);
+    }
+
+    @Test
+    public void testContainsAtSign() {
+        ByteBuffer inBlock = encode("hey @bob, what's up", ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer inTail = encode("no mentions at all here @", ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer absent = encode("no mentions at all here", ByteOrder.LITTLE_ENDIAN);
+
+        assertTrue("expected @", Tokenizer.containsAtSign(inBlock, 3, inBlock.limit()));
+        assertTrue("expected @", Tokenizer.containsAtSign(inTail, 3, inTail.limit()));
+        assertFalse("expected no @", Tokenizer.containsAtSign(absent, 3, absent.limit()));
+    }
+
+    @Test
+    public void testIsAscii() {
+        ByteBuffer ascii = encode("plain ascii text, long enough", ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer nonAscii = encode("caf\u00e9", ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer nonAsciiInBlock = encode("\u00e7a va bien, merci", ByteOrder.LITTLE_ENDIAN);
+
+        assertTrue("expected ASCII", Tokenizer.isAscii(ascii, 3, ascii.limit()));
+        assertFalse("expected non-ASCII", Tokenizer.isAscii(nonAscii, 3, nonAscii.limit()));
+        assertFalse("expected non-ASCII", Tokenizer.isAscii(nonAsciiInBlock, 3, nonAsciiInBlock.limit()));
+    }
+
+    @Test
+    public void testRegionEqualsIgnoreCase() {
+        long[] word = Tokenizer.pack("reasonable-word_42".getBytes(StandardCharsets.US_ASCII));
+        long[] shortWord = Tokenizer.pack("@[z".getBytes(StandardCharsets.US_ASCII));
+
+        assertTrue("expected equal", regionEquals("reasonable-word_42", word));
+        assertTrue("expected equal", regionEquals("ReAsOnAbLe-WORD_42", word));
+        assertFalse("expected different", regionEquals("reasonable-word_43", word));
+        assertFalse("expected different", regionEquals("reasonable-w\u00f6rd", word));
+        assertTrue("expected equal", regionEquals("@[Z", shortWord));
+        assertFalse("expected different", regionEquals("`{z", shortWord));
+    }
+
+    private static boolean regionEquals(String text, long[] packedWord) {
+        ByteBuffer bytes = encode(text, ByteOrder.BIG_ENDIAN);
+        return Tokenizer.regionEqualsIgnoreCase(bytes, 3, bytes.limit() - 3, packedWord);
+    }
+
+    private static List<String> splitOnSpaces(String text) {
+        List<String> words = new ArrayList<>(Arrays.asList(text.split(" ")));
+        words.removeIf(String::isEmpty);
+        return words;
+    }
+
+    // Encodes text after 3 padding bytes, so that blocks are not aligned with the start of the buffer
+    private static ByteBuffer encode(String text, ByteOrder order) {
+        byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer bytes = ByteBuffer.allocate(encoded.length + 3).order(order);
+        bytes.put(new byte[] {'x', 'x', 'x'});
+        bytes.put(encoded);
+        bytes.flip();
+        return bytes;
+    }
+
+    private static String decode(ByteBuffer bytes, int start, int end) {
+        byte[] word = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            word[i - start] = bytes.get(i);
+        }
+        return new String(word, StandardCharsets.UTF_8);
+    }
+}
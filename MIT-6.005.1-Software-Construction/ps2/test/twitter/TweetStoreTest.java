@@ -0,0 +1,126 @@
+package twitter;
+
+import static org.junit.Assert.*;
+
+import java.time.Instant;
+import java.util.*;
+
+import org.junit.Test;
+
+public class TweetStoreTest {
+
+    /*
+     * Test cases for add/get:
+     * Will test: empty store, round trip of every field, non-ASCII text, tweets spread over several arenas,
+     * tweet larger than an arena, index out of bounds
+     *
+     * Test cases for containing and getMentionedUsers:
+     * Results must be the same as Filter.containing and Extract.getMentionedUsers on the same tweets.
+     * Will test: no match, no words, different case match, non-ASCII words, several spaces in a row, mentions with
+     * punctuation, email addresses, mention of a single tweet
+     */
+
+    private static final Instant d1 = Instant.parse("2016-02-17T10:00:00Z");
+    private static final Instant d2 = Instant.parse("2016-02-17T11:00:00.123456789Z");
+
+    private static final Tweet tweet1 = new Tweet(1, "alyssa", "is it reasonable to talk about rivest so much?", d1);
+    private static final Tweet tweet2 = new Tweet(2, "bbitdiddle", "rivest talk in 30 minutes #hype", d2);
+    private static final Tweet tweet3 = new Tweet(3, "jojo", "@guigui is fabulous  and  @GuiGui's caf\u00e9", d1);
+    private static final Tweet tweet4 = new Tweet(4, "charlie", "my email: charlie.dave@hotmail.com, @+!", d2);
+    private static final Tweet tweet5 = new Tweet(5, "guigui", "\u00c7a va @jo-jo ? CAF\u00c9 time @me_2", d1);
+
+    private static final List<Tweet> tweets = Arrays.asList(tweet1, tweet2, tweet3, tweet4, tweet5);
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testEmptyStore() {
+        TweetStore store = new TweetStore();
+
+        assertEquals("expected empty store", 0, store.size());
+        assertTrue("expected no tweets", store.containing(Arrays.asList("rivest")).isEmpty());
+        assertTrue("expected no mentions", store.getMentionedUsers().isEmpty());
+    }
+
+    @Test
+    public void testGetRoundTrip() {
+        TweetStore store = TweetStore.of(tweets);
+
+        assertEquals("expected size", tweets.size(), store.size());
+        for (int i = 0; i < tweets.size(); i++) {
+            Tweet expected = tweets.get(i);
+            Tweet actual = store.get(i);
+            assertEquals("expected same tweet", expected, actual);
+            assertEquals("expected same author", expected.getAuthor(), actual.getAuthor());
+            assertEquals("expected same text", expected.getText(), actual.getText());
+            assertEquals("expected same timestamp", expected.getTimestamp(), actual.getTimestamp());
+        }
+    }
+
+    @Test
+    public void testSeveralArenas() {
+        TweetStore store = new TweetStore(64);
+        tweets.forEach(store::add);
+
+        for (int i = 0; i < tweets.size(); i++) {
+            assertEquals("expected same text", tweets.get(i).getText(), store.getText(i));
+            assertEquals("expected same author", tweets.get(i).getAuthor(), store.getAuthor(i));
+        }
+        assertEquals("expected same mentions", Extract.getMentionedUsers(tweets), store.getMentionedUsers());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testTweetLargerThanArena() {
+        new TweetStore(16).add(tweet1);
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testIndexOutOfBounds() {
+        TweetStore.of(tweets).get(tweets.size());
+    }
+
+    @Test
+    public void testContainingNoMatch() {
+        TweetStore store = TweetStore.of(tweets);
+
+        assertTrue("expected empty list", store.containing(Arrays.asList("obama", "riv")).isEmpty());
+    }
+
+    @Test
+    public void testContainingSameAsFilter() {
+        TweetStore store = TweetStore.of(tweets);
+        List<List<String>> queries = Arrays.asList(Arrays.asList("RIVEST"), Arrays.asList("talk", "hype"),
+                Arrays.asList("Caf\u00e9"), Arrays.asList("\u00e7a"), Arrays.asList("and", "?"), Arrays.asList("@+!"));
+
+        for (List<String> words : queries) {
+            assertEquals("expected same result as Filter for " + words, Filter.containing(tweets, words),
+                    store.containing(words));
+        }
+    }
+
+    @Test
+    public void testIndicesContaining() {
+        TweetStore store = TweetStore.of(tweets);
+
+        assertArrayEquals("expected indices", new int[] {0, 1}, store.indicesContaining(Arrays.asList("Rivest")));
+        assertArrayEquals("expected no index", new int[0], store.indicesContaining(Collections.emptyList()));
+    }
+
+    @Test
+    public void testGetMentionedUsersSameAsExtract() {
+        TweetStore store = TweetStore.of(tweets);
+
+        assertEquals("expected same mentions", Extract.getMentionedUsers(tweets), store.getMentionedUsers());
+    }
+
+    @Test
+    public void testGetMentionedUsersSingleTweet() {
+        TweetStore store = TweetStore.of(tweets);
+
+        assertEquals("expected mentions", new HashSet<>(Arrays.asList("jo-jo", "me_2")), store.getMentionedUsers(4));
+        assertTrue("expected no mention", store.getMentionedUsers(0).isEmpty());
+    }
+}
@@ -0,0 +1,137 @@
+package twitter;
+
+import static org.junit.Assert.*;
+
+import java.time.Instant;
+import java.util.*;
+
+import org.junit.Test;
+
+public class TweetVolumeRollupTest {
+
+    /*
+     * Test cases for count and volume:
+     * Will test: empty rollup, unknown author, every granularity, timespan inside a single bucket (extended to the
+     * whole bucket), bucket boundaries, author with different case, tweets added out of order, tweets far apart
+     * in time (sparse pages), instants before the epoch, agreement with Filter.inTimespan on bucket-aligned spans
+     */
+
+    private static final Instant d1 = Instant.parse("2016-02-17T10:00:00Z");
+    private static final Instant d2 = Instant.parse("2016-02-17T10:00:59Z");
+    private static final Instant d3 = Instant.parse("2016-02-17T10:01:00Z");
+    private static final Instant d4 = Instant.parse("2016-02-17T23:59:59Z");
+    private static final Instant d5 = Instant.parse("1950-10-10T23:59:59Z");
+    private static final Instant d6 = Instant.parse("2159-12-31T00:00:00Z");
+
+    private static final Tweet tweet1 = new Tweet(1, "alyssa", "is it reasonable to talk about rivest so much?", d1);
+    private static final Tweet tweet2 = new Tweet(2, "bbitdiddle", "rivest talk in 30 minutes #hype", d2);
+    private static final Tweet tweet3 = new Tweet(3, "AlYsSa", "anyone here ?", d3);
+    private static final Tweet tweet4 = new Tweet(4, "alyssa", "well that is awkward", d4);
+    private static final Tweet tweet5 = new Tweet(5, "guigui", "Did Twitter exist then ?", d5);
+    private static final Tweet tweet6 = new Tweet(6, "guigui", "the destroyer of worlds", d6);
+
+    private static TweetVolumeRollup rollup() {
+        TweetVolumeRollup rollup = new TweetVolumeRollup();
+        rollup.addAll(Arrays.asList(tweet4, tweet1, tweet6, tweet3, tweet5, tweet2));
+        return rollup;
+    }
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testEmptyRollup() {
+        TweetVolumeRollup rollup = new TweetVolumeRollup();
+        Timespan timespan = new Timespan(d1, d4);
+
+        assertEquals("expected no tweet", 0, rollup.total());
+        assertEquals("expected no tweet", 0, rollup.count(TweetVolumeRollup.Granularity.MINUTE, timespan));
+        assertArrayEquals("expected empty hours", new int[14], rollup.volume(TweetVolumeRollup.Granularity.HOUR,
+                timespan));
+    }
+
+    @Test
+    public void testUnknownAuthor() {
+        Timespan timespan = new Timespan(d1, d4);
+
+        assertEquals("expected no tweet", 0, rollup().count("nobody", TweetVolumeRollup.Granularity.DAY, timespan));
+        assertArrayEquals("expected empty day", new int[1],
+                rollup().volume("nobody", TweetVolumeRollup.Granularity.DAY, timespan));
+    }
+
+    @Test
+    public void testCountEveryGranularity() {
+        TweetVolumeRollup rollup = rollup();
+        Timespan firstMinute = new Timespan(d1, d1.plusSeconds(1));
+
+        assertEquals("expected total", 6, rollup.total());
+        assertEquals("expected minute", 2, rollup.count(TweetVolumeRollup.Granularity.MINUTE, firstMinute));
+        assertEquals("expected hour", 3, rollup.count(TweetVolumeRollup.Granularity.HOUR, firstMinute));
+        assertEquals("expected day", 4, rollup.count(TweetVolumeRollup.Granularity.DAY, firstMinute));
+        assertEquals("expected everything", 6, rollup.count(TweetVolumeRollup.Granularity.DAY, new Timespan(d5, d6)));
+    }
+
+    @Test
+    public void testCountByAuthor() {
+        TweetVolumeRollup rollup = rollup();
+        Timespan day = new Timespan(d1, d4);
+
+        assertEquals("expected author", 3, rollup.count("ALYSSA", TweetVolumeRollup.Granularity.MINUTE, day));
+        assertEquals("expected author", 1, rollup.count("bbitdiddle", TweetVolumeRollup.Granularity.HOUR, day));
+        assertEquals("expected author", 2, rollup.count("guigui", TweetVolumeRollup.Granularity.DAY,
+                new Timespan(d5, d6)));
+    }
+
+    @Test
+    public void testVolume() {
+        TweetVolumeRollup rollup = rollup();
+        Timespan minutes = new Timespan(d1.minusSeconds(60), d3.plusSeconds(60));
+
+        assertArrayEquals("expected minutes", new int[] {0, 2, 1, 0},
+                rollup.volume(TweetVolumeRollup.Granularity.MINUTE, minutes));
+        assertArrayEquals("expected author minutes", new int[] {0, 1, 1, 0},
+                rollup.volume("alyssa", TweetVolumeRollup.Granularity.MINUTE, minutes));
+    }
+
+    @Test
+    public void testVolumeByAuthorOverManyPages() {
+        TweetVolumeRollup rollup = new TweetVolumeRollup();
+        for (int i = 0; i < 100; i++) {
+            rollup.add(new Tweet(i, "alyssa", "text", d1.plusSeconds(i * 7 * 60)));
+        }
+        Timespan timespan = new Timespan(d1.minusSeconds(3600), d1.plusSeconds(100 * 7 * 60 + 3600));
+
+        assertArrayEquals("expected same minutes as global",
+                rollup.volume(TweetVolumeRollup.Granularity.MINUTE, timespan),
+                rollup.volume("alyssa", TweetVolumeRollup.Granularity.MINUTE, timespan));
+        assertEquals("expected author", 100, rollup.count("alyssa", TweetVolumeRollup.Granularity.MINUTE, timespan));
+        assertEquals("expected author", 50, rollup.count("alyssa", TweetVolumeRollup.Granularity.MINUTE,
+                new Timespan(d1.plusSeconds(50 * 7 * 60), d1.plusSeconds(100 * 7 * 60))));
+    }
+
+    @Test
+    public void testSameAsInTimespan() {
+        Random random = new Random(6005);
+        List<Tweet> tweets = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            tweets.add(new Tweet(i, "user" + random.nextInt(5), "text", d1.plusSeconds(random.nextInt(10_000_000))));
+        }
+        TweetVolumeRollup rollup = new TweetVolumeRollup();
+        rollup.addAll(tweets);
+
+        for (TweetVolumeRollup.Granularity granularity : TweetVolumeRollup.Granularity.values()) {
+            long firstBucket = granularity.bucketOf(d1) + random.nextInt(10);
+            long lastBucket = firstBucket + random.nextInt(3000);
+            Timespan timespan = new Timespan(granularity.startOf(firstBucket),
+                    granularity.startOf(lastBucket + 1).minusNanos(1));
+
+            assertEquals("expected same count for " + granularity, Filter.inTimespan(tweets, timespan).size(),
+                    rollup.count(granularity, timespan));
+            assertEquals("expected same count for " + granularity,
+                    Filter.writtenBy(Filter.inTimespan(tweets, timespan), "user3").size(),
+                    rollup.count("user3", granularity, timespan));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package twitter;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class UserGraphTest {
+
+    /*
+     * Test cases for of:
+     * Will test: empty graph, users only appearing as followed, different case usernames, self-follow (ignored),
+     * follower rows as the reverse of followed rows
+     */
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testEmptyGraph() {
+        UserGraph graph = UserGraph.of(Collections.emptyMap());
+
+        assertEquals("expected no user", 0, graph.size());
+        assertEquals("expected no edge", 0, graph.edgeCount());
+        assertEquals("expected unknown user", -1, graph.idOf("jojo"));
+    }
+
+    @Test
+    public void testUsersAndEdges() {
+        Map<String, Set<String>> followsGraph = new HashMap<>();
+        followsGraph.put("JoJo", new HashSet<>(Arrays.asList("guigui", "Kitty", "jojo")));
+        followsGraph.put("alice", new HashSet<>(Arrays.asList("KITTY")));
+        UserGraph graph = UserGraph.of(followsGraph);
+
+        assertEquals("expected users", 4, graph.size());
+        assertEquals("expected edges", 3, graph.edgeCount());
+        int jojo = graph.idOf("JOJO");
+        int kitty = graph.idOf("kitty");
+        assertEquals("expected lower case name", "jojo", graph.nameOf(jojo));
+        assertEquals("expected followed count", 2, graph.followedCount(jojo));
+        assertEquals("expected no self-follow", 0, graph.followerCount(jojo));
+        assertEquals("expected follower count", 2, graph.followerCount(kitty));
+        assertEquals("expected no followed", 0, graph.followedCount(kitty));
+        Set<String> kittyFollowers = new HashSet<>();
+        for (int i = 0; i < graph.followerCount(kitty); i++) {
+            kittyFollowers.add(graph.nameOf(graph.follower(kitty, i)));
+        }
+        assertEquals("expected followers", new HashSet<>(Arrays.asList("jojo", "alice")), kittyFollowers);
+    }
+}
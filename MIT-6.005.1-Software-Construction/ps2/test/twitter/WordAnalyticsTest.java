@@ -0,0 +1,144 @@
+package twitter;
+
+import static org.junit.Assert.*;
+
+import java.time.Instant;
+import java.util.*;
+
+import org.junit.Test;
+
+public class WordAnalyticsTest {
+
+    /*
+     * Test cases for WordAnalytics:
+     * Will test: no tweets, unknown author or word, author and words with different case, word repeated in a
+     * tweet (counted each time for frequency, once for co-occurrence), symmetry of co-occurrences, ties broken
+     * alphabetically, k larger than the number of words, minimum co-occurrence cutoff, pruning under a small
+     * pair budget (counts only undercount, and frequent pairs survive), exact counts on a large random list
+     * split between several threads
+     */
+
+    private static final Instant d1 = Instant.parse("2016-02-17T10:00:00Z");
+
+    private static final Tweet tweet1 = new Tweet(1, "alyssa", "is it reasonable to talk about rivest so much?", d1);
+    private static final Tweet tweet2 = new Tweet(2, "bbitdiddle", "rivest talk in 30 minutes #hype", d1);
+    private static final Tweet tweet3 = new Tweet(3, "AlYsSa", "Talk talk TALK about Rivest", d1);
+    private static final Tweet tweet4 = new Tweet(4, "alyssa", "rivest is so much", d1);
+
+    private static final List<Tweet> tweets = Arrays.asList(tweet1, tweet2, tweet3, tweet4);
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testNoTweets() {
+        WordAnalytics analytics = WordAnalytics.analyze(new ArrayList<>(), 100, 1);
+
+        assertEquals("expected zero frequency", 0, analytics.frequency("alyssa", "talk"));
+        assertEquals("expected zero co-occurrence", 0, analytics.cooccurrences("rivest", "talk"));
+        assertTrue("expected no word", analytics.topWords("alyssa", 3).isEmpty());
+        assertTrue("expected no word", analytics.cooccurringWords("talk", 3).isEmpty());
+    }
+
+    @Test
+    public void testUnknownAuthorOrWord() {
+        WordAnalytics analytics = WordAnalytics.analyze(tweets, 100, 1);
+
+        assertEquals("expected zero frequency", 0, analytics.frequency("nobody", "talk"));
+        assertEquals("expected zero frequency", 0, analytics.frequency("alyssa", "nothing"));
+        assertEquals("expected zero frequency", 0, analytics.frequency("bbitdiddle", "reasonable"));
+        assertEquals("expected zero co-occurrence", 0, analytics.cooccurrences("talk", "nothing"));
+        assertTrue("expected no word", analytics.topWords("nobody", 3).isEmpty());
+    }
+
+    @Test
+    public void testFrequencyIgnoresCase() {
+        WordAnalytics analytics = WordAnalytics.analyze(tweets, 100, 1);
+
+        assertEquals("expected every occurrence", 4, analytics.frequency("ALYSSA", "talk"));
+        assertEquals("expected every occurrence", 3, analytics.frequency("alyssa", "RIVEST"));
+        assertEquals("expected every occurrence", 1, analytics.frequency("bbitdiddle", "#hype"));
+    }
+
+    @Test
+    public void testTopWords() {
+        WordAnalytics analytics = WordAnalytics.analyze(tweets, 100, 1);
+
+        assertEquals("expected most used words", Arrays.asList("talk", "rivest", "about", "is"),
+                analytics.topWords("alyssa", 4));
+        assertEquals("expected every word alphabetically", Arrays.asList("#hype", "30", "in", "minutes", "rivest",
+                "talk"), analytics.topWords("bbitdiddle", 10));
+    }
+
+    @Test
+    public void testCooccurrences() {
+        WordAnalytics analytics = WordAnalytics.analyze(tweets, 100, 1);
+
+        assertEquals("expected once per tweet", 3, analytics.cooccurrences("rivest", "talk"));
+        assertEquals("expected symmetric", 3, analytics.cooccurrences("Talk", "Rivest"));
+        assertEquals("expected once per tweet", 2, analytics.cooccurrences("about", "talk"));
+        assertEquals("expected no pair with itself", 0, analytics.cooccurrences("talk", "talk"));
+        assertEquals("expected most co-occurring words", Arrays.asList("talk", "about", "is", "so"),
+                analytics.cooccurringWords("rivest", 4));
+    }
+
+    @Test
+    public void testMinimumCooccurrences() {
+        WordAnalytics analytics = WordAnalytics.analyze(tweets, 100, 2);
+
+        assertEquals("expected frequent pair", 3, analytics.cooccurrences("rivest", "talk"));
+        assertEquals("expected rare pair dropped", 0, analytics.cooccurrences("rivest", "#hype"));
+        assertEquals("expected frequency unaffected", 1, analytics.frequency("bbitdiddle", "#hype"));
+        assertEquals("expected only frequent pairs", Arrays.asList("rivest", "about"),
+                analytics.cooccurringWords("talk", 10));
+    }
+
+    @Test
+    public void testPruning() {
+        List<Tweet> many = new ArrayList<>();
+        Random random = new Random(6005);
+        for (int i = 0; i < 2000; i++) {
+            many.add(new Tweet(i, "alyssa", "common frequent rare" + random.nextInt(1000) + " rare"
+                    + random.nextInt(1000), d1));
+        }
+        WordAnalytics exact = WordAnalytics.analyze(many, Integer.MAX_VALUE, 1);
+        WordAnalytics pruned = WordAnalytics.analyze(many, 50, 1);
+
+        assertEquals("expected frequent pair kept", 2000, pruned.cooccurrences("common", "frequent"));
+        assertEquals("expected frequency exact", 2000, pruned.frequency("alyssa", "common"));
+        for (int i = 0; i < 1000; i++) {
+            assertTrue("expected undercount", pruned.cooccurrences("common", "rare" + i)
+                    <= exact.cooccurrences("common", "rare" + i));
+        }
+    }
+
+    @Test
+    public void testSameAsSequentialCount() {
+        Random random = new Random(6005);
+        List<Tweet> many = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < 1 + random.nextInt(8); j++) {
+                text.append(" w").append(random.nextInt(50));
+            }
+            many.add(new Tweet(i, "user" + random.nextInt(10), text.toString(), d1));
+        }
+        WordAnalytics analytics = WordAnalytics.analyze(many, Integer.MAX_VALUE, 1);
+
+        int frequency = 0;
+        int cooccurrences = 0;
+        for (Tweet tweet : many) {
+            List<String> words = Arrays.asList(tweet.getText().trim().split(" "));
+            if (tweet.getAuthor().equals("user3")) {
+                frequency += Collections.frequency(words, "w7");
+            }
+            if (words.contains("w7") && words.contains("w12")) {
+                cooccurrences++;
+            }
+        }
+        assertEquals("expected exact frequency", frequency, analytics.frequency("user3", "w7"));
+        assertEquals("expected exact co-occurrence", cooccurrences, analytics.cooccurrences("w12", "w7"));
+    }
+}
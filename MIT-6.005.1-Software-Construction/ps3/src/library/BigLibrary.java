@@ -1,6 +1,9 @@
 package library;
 
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * BigLibrary represents a large collection of books that might be held by a city or
@@ -8,6 +11,14 @@ import java.util.*;
  * <p>
  * In particular, every operation needs to run faster than linear time (as a function of the number of books
  * in the library).
+ * <p>
+ * With assertions enabled, each operation only checks the rep invariant for the entries of the book it changed, so
+ * it still runs faster than linear time. A library can also be made to audit its whole rep every few operations:
+ * the audit runs on a copy of the rep, in the background, and reports the violations it finds to a callback.
+ * <p>
+ * A library can also be backed by a MappedCatalog: the books of the catalog are then looked up and searched in
+ * the catalog file, rather than in indexes on the heap, and only the books of the catalog that have copies in the
+ * library are found. Books bought that are not in the catalog are indexed on the heap as usual.
  */
 public class BigLibrary implements Library {
 
@@ -18,21 +29,55 @@ public class BigLibrary implements Library {
 
     private final SortedSet<Book> allBooks;
 
+    private final Map<String, SortedSet<Book>> booksByTitle;
+
+    private final Map<String, SortedSet<Book>> booksByAuthor;
+
+    private final BookSearchIndex searchIndex;
+
+    private final MappedCatalog catalog;
+
+    private final BitSet heldCatalogIds;
+
+    private final int auditInterval;
+
+    private final Executor auditExecutor;
+
+    private final Consumer<String> violationHandler;
+
+    private int mutationsSinceAudit;
+
     // Rep invariant
     // Any copy found in availableCopiesByBook should not be found in checkedOutCopiesByBook, and vice-versa
     // If a new book is available, it should be present in checked out copies with an empty set, and vice-versa
     // allBooks contains all books that have at least one copy either available or checked out, and nothing else
+    // booksByTitle (resp. booksByAuthor) maps each title (resp. author) of a book in allBooks but not in catalog
+    // to the nonempty set of those books having it, sorted like allBooks, and has no other key
+    // searchIndex indexes exactly the books of allBooks not in catalog (all of them, if catalog is null)
+    // heldCatalogIds is the set of the catalog ids of the books of allBooks in catalog
+    // auditInterval >= 0; if it is positive, 0 <= mutationsSinceAudit < auditInterval, and auditExecutor and
+    // violationHandler are not null
 
     // Abstraction function
     // Represents all books in a library in allBooks
     // If a copy is available, it will be found in the value of availableCopiesByBook corresponding to its book (Map key)
     // If a copy is checked out, it will be found in the value of checkedOutCopiesByBook corresponding to its book (Map key)
+    // booksByTitle, booksByAuthor, searchIndex, catalog and heldCatalogIds are indexes of allBooks, and do not add
+    // to the abstract value
+    // auditInterval, auditExecutor, violationHandler and mutationsSinceAudit only schedule audits of the rep, and
+    // do not add to the abstract value either
 
     // Safety from rep exposure argument
-    // All fields are private and final. Whenever a set of book copies is exposed, it is stored in a new set to avoid mutation.
+    // All fields are private and final. Sets of book copies are only exposed through unmodifiable CopiesViews.
     // Any time a set is mutated inside the class, the rep invariant is checked.
+    // Audits run on a RepSnapshot, which copies every collection of the rep, so they never see the rep itself.
 
-    private static final Comparator<List<String>> BOOK_AUTHORS_COMPARATOR = (x, y) -> {
+    // Thread safety argument
+    // BigLibrary is not thread-safe, but its audits may run on other threads: a RepSnapshot is made by the thread
+    // mutating the library, then confined to the audit it is handed to, and is never mutated after it is made.
+    // The only part of the rep it shares is catalog, which is thread-safe.
+
+    static final Comparator<List<String>> BOOK_AUTHORS_COMPARATOR = (x, y) -> {
         int result = 0;
         int minSize = Math.min(x.size(), y.size());
         for (int i = 0; i < minSize; i++) {
@@ -49,46 +94,289 @@ public class BigLibrary implements Library {
         return result;
     };
 
-    private static final Comparator<Book> BOOK_SORTING_COMPARATOR = Comparator.comparing(Book::getTitle)
-            .thenComparing(Book::getAuthors, BOOK_AUTHORS_COMPARATOR)
-            .thenComparing(Comparator.comparing(Book::getYear).reversed());
+    // By title, then authors, then newer editions first; reads the authors without copying them, and compares years
+    // without boxing them, so that comparing books allocates nothing
+    static final Comparator<Book> BOOK_SORTING_COMPARATOR = (x, y) -> {
+        int result = x.getTitle().compareTo(y.getTitle());
+        if (result == 0) {
+            result = BOOK_AUTHORS_COMPARATOR.compare(x.authorsView(), y.authorsView());
+        }
+        if (result == 0) {
+            result = Integer.compare(y.getYear(), x.getYear());
+        }
+        return result;
+    };
+
+    private static final int MAX_RANKED_MATCHES = 50;
 
+    /**
+     * Make an empty library, which does not audit its rep.
+     */
     public BigLibrary() {
+        this(null, 0, null, null);
+    }
+
+    /**
+     * Make an empty library backed by a catalog, which does not audit its rep.
+     * @param catalog catalog whose books are looked up and searched in its file rather than on the heap
+     */
+    public BigLibrary(MappedCatalog catalog) {
+        this(catalog, 0, null, null);
+    }
+
+    /**
+     * Make an empty library auditing its rep every auditInterval operations changing it, when assertions are
+     * enabled.
+     * @param auditInterval number of buy, checkout, checkin and lose operations (or batches of them) between two
+     * audits of the whole rep, or 0 to never audit. Must be nonnegative. Each audit first copies the rep, which
+     * takes linear time: an interval of the order of the number of books keeps operations faster than linear time
+     * on average.
+     * @param auditExecutor executor running the audits, on a copy of the rep, so that operations do not wait for
+     * them. May be null if auditInterval is 0.
+     * @param violationHandler called by the audits with a description of each violation of the rep invariant they
+     * find, from the threads of auditExecutor. May be null if auditInterval is 0.
+     */
+    public BigLibrary(int auditInterval, Executor auditExecutor, Consumer<String> violationHandler) {
+        this(null, auditInterval, auditExecutor, violationHandler);
+    }
+
+    /**
+     * Make an empty library backed by a catalog, and auditing its rep.
+     * @param catalog catalog whose books are looked up and searched in its file rather than on the heap, or null
+     * @see #BigLibrary(int, Executor, Consumer)
+     */
+    public BigLibrary(MappedCatalog catalog, int auditInterval, Executor auditExecutor,
+            Consumer<String> violationHandler) {
+        if (auditInterval < 0) {
+            throw new IllegalArgumentException("The audit interval must be nonnegative");
+        }
+        if (auditInterval > 0 && (auditExecutor == null || violationHandler == null)) {
+            throw new IllegalArgumentException("Audits need an executor and a violation handler");
+        }
         this.availableCopiesByBook = new HashMap<>();
         this.checkedOutCopiesByBook = new HashMap<>();
         this.allBooks = new TreeSet<>(BOOK_SORTING_COMPARATOR);
+        this.booksByTitle = new HashMap<>();
+        this.booksByAuthor = new HashMap<>();
+        this.searchIndex = new BookSearchIndex(BOOK_SORTING_COMPARATOR);
+        this.catalog = catalog;
+        this.heldCatalogIds = new BitSet();
+        this.auditInterval = auditInterval;
+        this.auditExecutor = auditExecutor;
+        this.violationHandler = violationHandler;
+        this.mutationsSinceAudit = 0;
         checkRep();
     }
 
-    // Assert the rep invariant
+    // Assert the rep invariant, in linear time
     private void checkRep() {
         assert this.availableCopiesByBook != null;
         assert this.checkedOutCopiesByBook != null;
         assert this.allBooks != null;
-        assert this.availableCopiesByBook.keySet().size() == this.checkedOutCopiesByBook.keySet().size();
-        assert this.availableCopiesByBook.keySet().size() == this.allBooks.size();
+        assert this.auditInterval >= 0;
+        assert new RepSnapshot(this).violations().isEmpty();
+    }
 
-        for (Book book : this.availableCopiesByBook.keySet()) {
-            assert this.allBooks.contains(book);
-            Set<BookCopy> availableCopies = this.availableCopiesByBook.get(book);
-            assert availableCopies != null;
-            Set<BookCopy> checkedOutCopies = this.checkedOutCopiesByBook.get(book);
-            assert checkedOutCopies != null;
-            Set<BookCopy> intersection = new HashSet<>(availableCopies);
-            intersection.retainAll(checkedOutCopies);
-            assert intersection.isEmpty();
+    // Assert the rep invariant for the entries of a book, which must be the only ones changed since the last check,
+    // then audit the whole rep if it is due
+    private void checkRep(Book book) {
+        assert checkBook(book);
+        assert scheduleAuditIfDue();
+    }
+
+    // Assert the rep invariant for the entries of books, which must be the only ones changed since the last check,
+    // then audit the whole rep if it is due: the whole batch counts as one mutation
+    private void checkRep(Collection<Book> books) {
+        assert books.stream().allMatch(this::checkBook);
+        assert scheduleAuditIfDue();
+    }
+
+    // Assert the rep invariant for the entries of a book
+    // Always returns true, so that it can be called in an assert statement
+    private boolean checkBook(Book book) {
+        Set<BookCopy> availableCopies = this.availableCopiesByBook.get(book);
+        Set<BookCopy> checkedOutCopies = this.checkedOutCopiesByBook.get(book);
+        assert (availableCopies == null) == (checkedOutCopies == null);
+        assert this.availableCopiesByBook.size() == this.checkedOutCopiesByBook.size();
+        assert this.availableCopiesByBook.size() == this.allBooks.size();
+        assert this.catalog != null || this.searchIndex.size() == this.allBooks.size();
+        if (availableCopies != null) {
+            assert !availableCopies.isEmpty() || !checkedOutCopies.isEmpty();
+            assert Collections.disjoint(availableCopies, checkedOutCopies);
+        }
+        assert checkIndexes(book, availableCopies != null);
+        return true;
+    }
+
+    // Assert that a book is in the indexes if and only if it is held, and in the right ones
+    // Always returns true, so that it can be called in an assert statement
+    private boolean checkIndexes(Book book, boolean held) {
+        assert this.allBooks.contains(book) == held;
+        int catalogId = catalogIdOf(book);
+        if (catalogId >= 0) {
+            assert this.heldCatalogIds.get(catalogId) == held;
+        }
+        boolean indexedOnHeap = held && catalogId < 0;
+        assert (this.booksByTitle.containsKey(book.getTitle())
+                && this.booksByTitle.get(book.getTitle()).contains(book)) == indexedOnHeap;
+        for (String author : book.authorsView()) {
+            assert (this.booksByAuthor.containsKey(author) && this.booksByAuthor.get(author).contains(book))
+                    == indexedOnHeap;
+        }
+        return true;
+    }
+
+    // Counts a mutation, and hands a snapshot of the rep to the audit executor every auditInterval mutations
+    // Always returns true, so that it can be called in an assert statement
+    private boolean scheduleAuditIfDue() {
+        if (this.auditInterval > 0 && ++this.mutationsSinceAudit == this.auditInterval) {
+            this.mutationsSinceAudit = 0;
+            RepSnapshot snapshot = new RepSnapshot(this);
+            this.auditExecutor.execute(() -> snapshot.violations().forEach(this.violationHandler));
+        }
+        return true;
+    }
+
+    /**
+     * RepSnapshot is an immutable copy of the rep of a BigLibrary, which can be audited on any thread.
+     */
+    private static class RepSnapshot {
+
+        private final Map<Book, Set<BookCopy>> availableCopiesByBook = new HashMap<>();
+
+        private final Map<Book, Set<BookCopy>> checkedOutCopiesByBook = new HashMap<>();
+
+        private final Set<Book> allBooks;
+
+        private final Map<String, Set<Book>> booksByTitle = new HashMap<>();
+
+        private final Map<String, Set<Book>> booksByAuthor = new HashMap<>();
+
+        private final int indexedBookCount;
+
+        private final MappedCatalog catalog;
+
+        private final BitSet heldCatalogIds;
+
+        RepSnapshot(BigLibrary library) {
+            library.availableCopiesByBook.forEach((book, copies) -> this.availableCopiesByBook.put(book,
+                    new HashSet<>(copies)));
+            library.checkedOutCopiesByBook.forEach((book, copies) -> this.checkedOutCopiesByBook.put(book,
+                    new HashSet<>(copies)));
+            this.allBooks = new HashSet<>(library.allBooks);
+            library.booksByTitle.forEach((title, books) -> this.booksByTitle.put(title, new HashSet<>(books)));
+            library.booksByAuthor.forEach((author, books) -> this.booksByAuthor.put(author, new HashSet<>(books)));
+            this.indexedBookCount = library.searchIndex.size();
+            this.catalog = library.catalog;
+            this.heldCatalogIds = (BitSet) library.heldCatalogIds.clone();
+        }
+
+        // Descriptions of the violations of the rep invariant of the library this is a copy of, in linear time
+        List<String> violations() {
+            List<String> violations = new ArrayList<>();
+            if (!this.availableCopiesByBook.keySet().equals(this.allBooks)) {
+                violations.add("The books of availableCopiesByBook are not allBooks");
+            }
+            if (!this.checkedOutCopiesByBook.keySet().equals(this.allBooks)) {
+                violations.add("The books of checkedOutCopiesByBook are not allBooks");
+            }
+            Set<Book> heapBooks = new HashSet<>();
+            BitSet expectedCatalogIds = new BitSet();
+            for (Book book : this.allBooks) {
+                int catalogId = this.catalog == null ? -1 : this.catalog.idOf(book);
+                if (catalogId >= 0) {
+                    expectedCatalogIds.set(catalogId);
+                } else {
+                    heapBooks.add(book);
+                }
+            }
+            if (!expectedCatalogIds.equals(this.heldCatalogIds)) {
+                violations.add("heldCatalogIds are not the catalog ids of allBooks");
+            }
+            if (this.indexedBookCount != heapBooks.size()) {
+                violations.add("searchIndex has " + this.indexedBookCount + " books instead of " + heapBooks.size());
+            }
+            for (Book book : this.allBooks) {
+                Set<BookCopy> availableCopies = this.availableCopiesByBook.getOrDefault(book,
+                        Collections.emptySet());
+                Set<BookCopy> checkedOutCopies = this.checkedOutCopiesByBook.getOrDefault(book,
+                        Collections.emptySet());
+                if (availableCopies.isEmpty() && checkedOutCopies.isEmpty()) {
+                    violations.add("No copy of " + book);
+                }
+                if (!Collections.disjoint(availableCopies, checkedOutCopies)) {
+                    violations.add("Copies of " + book + " both available and checked out");
+                }
+            }
+            auditCatalogIndex("booksByTitle", this.booksByTitle, heapBooks,
+                    book -> Collections.singletonList(book.getTitle()), violations);
+            auditCatalogIndex("booksByAuthor", this.booksByAuthor, heapBooks, Book::getAuthors, violations);
+            return violations;
+        }
+
+        private static void auditCatalogIndex(String name, Map<String, Set<Book>> index, Set<Book> books,
+                Function<Book, List<String>> keysOfBook, List<String> violations) {
+            int expectedEntries = 0;
+            for (Book book : books) {
+                for (String key : new HashSet<>(keysOfBook.apply(book))) {
+                    expectedEntries++;
+                    if (!index.getOrDefault(key, Collections.emptySet()).contains(book)) {
+                        violations.add(name + " misses " + book + " at " + key);
+                    }
+                }
+            }
+            if (index.values().stream().mapToInt(Set::size).sum() != expectedEntries
+                    || index.values().stream().anyMatch(Set::isEmpty)) {
+                violations.add(name + " has books, or keys, that it should not");
+            }
         }
     }
 
     @Override
     public BookCopy buy(Book book) {
         BookCopy newCopy = new BookCopy(book);
+        availableCopiesToBuy(book).add(newCopy);
+        checkRep(book);
+        return newCopy;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The copies of each book are added at once, indexing the book only once, and the rep is checked once per
+     * batch, which counts as one operation for the audits.
+     */
+    @Override
+    public Map<Book, List<BookCopy>> buyAll(Map<Book, Integer> copiesByBook) {
+        CopyBatches.checkCounts(copiesByBook);
+        Map<Book, List<BookCopy>> newCopies = new HashMap<>();
+        copiesByBook.forEach((book, count) -> {
+            List<BookCopy> copies = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                copies.add(new BookCopy(book));
+            }
+            availableCopiesToBuy(book).addAll(copies);
+            newCopies.put(book, copies);
+        });
+        checkRep(copiesByBook.keySet());
+        return newCopies;
+    }
+
+    // Returns the set of available copies of book, adding book to the collection and indexes if it has no copies
+    private Set<BookCopy> availableCopiesToBuy(Book book) {
         Set<BookCopy> availableCopies = this.availableCopiesByBook.computeIfAbsent(book, _book -> new HashSet<>());
         this.checkedOutCopiesByBook.putIfAbsent(book, new HashSet<>());
-        this.allBooks.add(book);
-        availableCopies.add(newCopy);
-        checkRep();
-        return newCopy;
+        if (this.allBooks.add(book)) {
+            int catalogId = catalogIdOf(book);
+            if (catalogId >= 0) {
+                this.heldCatalogIds.set(catalogId);
+            } else {
+                addToIndex(this.booksByTitle, book.getTitle(), book);
+                book.authorsView().forEach(author -> addToIndex(this.booksByAuthor, author, book));
+                this.searchIndex.add(book);
+            }
+        }
+        return availableCopies;
     }
 
     @Override
@@ -100,7 +388,7 @@ public class BigLibrary implements Library {
 
         this.availableCopiesByBook.get(book).remove(copy);
         this.checkedOutCopiesByBook.get(book).add(copy);
-        checkRep();
+        checkRep(book);
     }
 
     @Override
@@ -112,40 +400,188 @@ public class BigLibrary implements Library {
 
         this.checkedOutCopiesByBook.get(book).remove(copy);
         this.availableCopiesByBook.get(book).add(copy);
-        checkRep();
+        checkRep(book);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The copies are checked in book by book, and the rep is checked once per batch, which counts as one operation
+     * for the audits.
+     */
+    @Override
+    public void checkinAll(Collection<BookCopy> copies) {
+        Map<Book, List<BookCopy>> copiesByBook = CopyBatches.groupByBook(copies);
+        copiesByBook.forEach((book, bookCopies) -> {
+            Set<BookCopy> checkedOutCopies = this.checkedOutCopiesByBook.get(book);
+            if (checkedOutCopies == null || !checkedOutCopies.containsAll(bookCopies)) {
+                throw new IllegalArgumentException("This book copy was not checked out of the library");
+            }
+        });
+
+        copiesByBook.forEach((book, bookCopies) -> {
+            Set<BookCopy> checkedOutCopies = this.checkedOutCopiesByBook.get(book);
+            bookCopies.forEach(checkedOutCopies::remove);
+            this.availableCopiesByBook.get(book).addAll(bookCopies);
+        });
+        checkRep(copiesByBook.keySet());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The set is an unmodifiable live view, which reflects the later changes of this library without copying.
+     */
     @Override
     public Set<BookCopy> allCopies(Book book) {
-        Set<BookCopy> result = new HashSet<>();
-        result.addAll(this.availableCopiesByBook.getOrDefault(book, new HashSet<>()));
-        result.addAll(this.checkedOutCopiesByBook.getOrDefault(book, new HashSet<>()));
-        return result;
+        return new CopiesView(book, this.availableCopiesByBook, this.checkedOutCopiesByBook);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The set is an unmodifiable live view, which reflects the later changes of this library without copying.
+     */
     @Override
     public Set<BookCopy> availableCopies(Book book) {
-        return new HashSet<>(this.availableCopiesByBook.getOrDefault(book, new HashSet<>()));
+        return new CopiesView(book, this.availableCopiesByBook, Collections.emptyMap());
     }
 
     @Override
     public boolean isAvailable(BookCopy copy) {
-        return this.availableCopiesByBook.getOrDefault(copy.getBook(), new HashSet<>()).contains(copy);
+        Set<BookCopy> availableCopies = this.availableCopiesByBook.get(copy.getBook());
+        return availableCopies != null && availableCopies.contains(copy);
+    }
+
+    @Override
+    public int totalCount(Book book) {
+        return availableCount(book) + size(this.checkedOutCopiesByBook.get(book));
+    }
+
+    @Override
+    public int availableCount(Book book) {
+        return size(this.availableCopiesByBook.get(book));
+    }
+
+    private static int size(Set<BookCopy> copies) {
+        return copies == null ? 0 : copies.size();
+    }
+
+    /**
+     * CopiesView is an unmodifiable live view of the copies of a book in two disjoint maps of a BigLibrary: every
+     * call reads the maps again, so the view follows the changes of the library, and it never copies the copies.
+     */
+    private static class CopiesView extends AbstractSet<BookCopy> {
+
+        private final Book book;
+
+        private final Map<Book, Set<BookCopy>> first;
+
+        private final Map<Book, Set<BookCopy>> second;
+
+        CopiesView(Book book, Map<Book, Set<BookCopy>> first, Map<Book, Set<BookCopy>> second) {
+            this.book = book;
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public int size() {
+            return BigLibrary.size(this.first.get(this.book)) + BigLibrary.size(this.second.get(this.book));
+        }
+
+        @Override
+        public boolean contains(Object copy) {
+            Set<BookCopy> firstCopies = this.first.get(this.book);
+            Set<BookCopy> secondCopies = this.second.get(this.book);
+            return firstCopies != null && firstCopies.contains(copy)
+                    || secondCopies != null && secondCopies.contains(copy);
+        }
+
+        @Override
+        public Iterator<BookCopy> iterator() {
+            Iterator<BookCopy> firstCopies = this.first.getOrDefault(this.book, Collections.emptySet()).iterator();
+            Iterator<BookCopy> secondCopies = this.second.getOrDefault(this.book, Collections.emptySet()).iterator();
+            return new Iterator<BookCopy>() {
+                @Override
+                public boolean hasNext() {
+                    return firstCopies.hasNext() || secondCopies.hasNext();
+                }
+
+                @Override
+                public BookCopy next() {
+                    return firstCopies.hasNext() ? firstCopies.next() : secondCopies.next();
+                }
+            };
+        }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Books whose title or one of whose authors is exactly the query come first, newer editions first. They are
+     * followed by at most MAX_RANKED_MATCHES other books sharing words with the query, by decreasing BM25 score.
+     * If no book matches exactly, words of the catalog close to those of the query (typos, unfinished words) also
+     * count, see BookSearchIndex.searchFuzzy().
+     * <p>
+     * Books of the catalog backing this library, if any, are ranked against the statistics of the catalog, and
+     * only match words of the query exactly.
+     */
     @Override
     public List<Book> find(String query) {
-        List<Book> result = new LinkedList<>();
-        for (Book book : this.allBooks) {
-            if (bookMatchesSearchQuery(book, query)) {
-                result.add(book);
+        if (this.catalog == null) {
+            return this.searchIndex.completeExactMatches(findExactMatches(query), query, MAX_RANKED_MATCHES);
+        }
+
+        SortedSet<Book> exactMatches = new TreeSet<>(BOOK_SORTING_COMPARATOR);
+        exactMatches.addAll(findExactMatches(query));
+        for (int[] ids : Arrays.asList(this.catalog.idsWithTitle(query), this.catalog.idsByAuthor(query))) {
+            for (int id : ids) {
+                if (this.heldCatalogIds.get(id)) {
+                    exactMatches.add(this.catalog.book(id));
+                }
             }
         }
+        int k = MAX_RANKED_MATCHES + exactMatches.size();
+        List<Map.Entry<Book, Double>> rankedMatches = this.searchIndex.rankedMatches(query, k,
+                exactMatches.isEmpty());
+        rankedMatches.addAll(this.catalog.rankedMatches(query, k, this.heldCatalogIds::get));
+        rankedMatches.sort(BookSearchIndex.byScore(BOOK_SORTING_COMPARATOR));
+
+        List<Book> result = new ArrayList<>(exactMatches);
+        rankedMatches.stream().map(Map.Entry::getKey).filter(book -> !exactMatches.contains(book))
+                .limit(MAX_RANKED_MATCHES).forEach(result::add);
         return result;
     }
 
-    private boolean bookMatchesSearchQuery(Book book, String query) {
-        return book.getTitle().equals(query) || book.getAuthors().contains(query);
+    // The id of a book in catalog, or -1 if there is no catalog or the book is not in it
+    private int catalogIdOf(Book book) {
+        return this.catalog == null ? -1 : this.catalog.idOf(book);
+    }
+
+    private List<Book> findExactMatches(String query) {
+        SortedSet<Book> byTitle = this.booksByTitle.getOrDefault(query, Collections.emptySortedSet());
+        SortedSet<Book> byAuthor = this.booksByAuthor.getOrDefault(query, Collections.emptySortedSet());
+        if (byAuthor.isEmpty()) {
+            return new ArrayList<>(byTitle);
+        } else if (byTitle.isEmpty()) {
+            return new ArrayList<>(byAuthor);
+        }
+        SortedSet<Book> result = new TreeSet<>(BOOK_SORTING_COMPARATOR);
+        result.addAll(byTitle);
+        result.addAll(byAuthor);
+        return new ArrayList<>(result);
+    }
+
+    private static void addToIndex(Map<String, SortedSet<Book>> index, String key, Book book) {
+        index.computeIfAbsent(key, _key -> new TreeSet<>(BOOK_SORTING_COMPARATOR)).add(book);
+    }
+
+    private static void removeFromIndex(Map<String, SortedSet<Book>> index, String key, Book book) {
+        SortedSet<Book> books = index.get(key);
+        if (books != null && books.remove(book) && books.isEmpty()) {
+            index.remove(key);
+        }
     }
 
     @Override
@@ -161,9 +597,18 @@ public class BigLibrary implements Library {
         if (availableCopies.isEmpty() && checkedOutCopies.isEmpty()) {
             this.availableCopiesByBook.remove(book);
             this.checkedOutCopiesByBook.remove(book);
-            this.allBooks.remove(book);
+            if (this.allBooks.remove(book)) {
+                int catalogId = catalogIdOf(book);
+                if (catalogId >= 0) {
+                    this.heldCatalogIds.clear(catalogId);
+                } else {
+                    removeFromIndex(this.booksByTitle, book.getTitle(), book);
+                    book.authorsView().forEach(author -> removeFromIndex(this.booksByAuthor, author, book));
+                    this.searchIndex.remove(book);
+                }
+            }
         }
-        checkRep();
+        checkRep(book);
     }
 
     /* Copyright (c) 2016 MIT 6.005 course staff, all rights reserved.
@@ -1,9 +1,10 @@
 package library;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
 /**
  * Book is an immutable type representing an edition of a book -- not the physical object, 
@@ -20,15 +21,19 @@ public class Book {
     private final List<String> authors;
 
     private final int year;
+
+    private final int hashCode;
     
     // Rep invariant
     // This is mostly described in the constructor spec
+    // authors is unmodifiable, and hashCode is the hash of title, authors and year
 
     // Abstraction function
     // Represents a book whose title is title, whose authors are contained and ordered in authors, and whose publication year is year
 
     // Safety from rep exposure argument
     // All fields are private and final. Both title and year are immutable. Authors is only exposed using defensive copying.
+    // Authors is also copied at construction, so that the client cannot change it, nor the cached hash code, later.
 
     /**
      * Make a Book.
@@ -39,9 +44,10 @@ public class Book {
      */
     public Book(String title, List<String> authors, int year) {
         this.title = title;
-        this.authors = authors;
+        this.authors = authors == null ? null : Collections.unmodifiableList(new ArrayList<>(authors));
         this.year = year;
         checkRep();
+        this.hashCode = Objects.hash(title, this.authors, year);
     }
     
     // Assert the rep invariant
@@ -68,7 +74,15 @@ public class Book {
      * @return the authors of this book
      */
     public List<String> getAuthors() {
-        return this.authors.stream().collect(Collectors.toList());
+        return new ArrayList<>(this.authors);
+    }
+
+    /**
+     * @return the authors of this book, as an unmodifiable list; unlike getAuthors(), it does not copy them, so
+     * comparing books (see BigLibrary.BOOK_SORTING_COMPARATOR) does not allocate
+     */
+    List<String> authorsView() {
+        return this.authors;
     }
 
     /**
@@ -96,12 +110,13 @@ public class Book {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Book book = (Book) o;
-        return year == book.year && title.equals(book.title) && authors.equals(book.authors);
+        return hashCode == book.hashCode && year == book.year && title.equals(book.title)
+                && authors.equals(book.authors);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(title, authors, year);
+        return this.hashCode;
     }
 
     /* Copyright (c) 2016 MIT 6.005 course staff, all rights reserved.
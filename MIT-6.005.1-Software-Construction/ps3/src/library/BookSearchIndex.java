@@ -0,0 +1,365 @@
+package library;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * BookSearchIndex is a mutable full-text index over the titles and authors of a set of books, ranking the books
+ * that match a query with the Okapi BM25 formula.
+ * <p>
+ * Titles and authors are split into terms, which are the maximal sequences of letters and digits, compared
+ * case-insensitively. Each book is a document made of the terms of its title and of all its authors, and a query
+ * matches the books containing at least one of its terms. Books with the same score are ordered by a comparator
+ * given at construction.
+ * <p>
+ * Retrieval is term-at-a-time, rarest terms first, and stops accepting new candidate books as soon as the terms
+ * left cannot lift an unseen book into the top k (the "MaxScore" optimization), so that common terms like "the"
+ * only update the scores of books already found.
+ * <p>
+ * The terms of the index are also kept in a FuzzyTermIndex, so that a fuzzy search can also match misspelled or
+ * unfinished query terms, with a lower weight.
+ */
+public class BookSearchIndex {
+
+    private static final double K1 = 1.2;
+
+    private static final double B = 0.75;
+
+    private static final double PREFIX_WEIGHT = 0.5;
+
+    private static final int MIN_PREFIX_LENGTH = 3;
+
+    private static final int MAX_PREFIX_COMPLETIONS = 20;
+
+    // Rep
+    private final Comparator<Book> tieBreaker;
+
+    private final Map<String, Map<Book, Integer>> postingsByTerm;
+
+    private final Map<Book, Integer> lengthByBook;
+
+    private final FuzzyTermIndex fuzzyTerms;
+
+    private long totalLength;
+
+    // Rep invariant
+    // lengthByBook.get(book) > 0 is the number of terms of book, and totalLength is the sum of all lengths
+    // postingsByTerm maps every term of every book of lengthByBook to the nonempty map from the books having the
+    // term to the number of times they have it, and has no other key
+    // fuzzyTerms contains exactly the keys of postingsByTerm
+
+    // Abstraction function
+    // Represents the index of the books that are keys of lengthByBook, ordered by tieBreaker when they score the same
+
+    // Safety from rep exposure argument
+    // All fields are private and final but totalLength, which is a primitive. Books are immutable, and search
+    // returns a new list.
+
+    /**
+     * Make an empty index.
+     * @param tieBreaker order of the books having the same score
+     */
+    public BookSearchIndex(Comparator<Book> tieBreaker) {
+        this.tieBreaker = tieBreaker;
+        this.postingsByTerm = new HashMap<>();
+        this.lengthByBook = new HashMap<>();
+        this.fuzzyTerms = new FuzzyTermIndex();
+        this.totalLength = 0;
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert this.tieBreaker != null;
+        assert this.postingsByTerm != null;
+        assert this.lengthByBook != null;
+        assert this.totalLength >= this.lengthByBook.size();
+        assert this.fuzzyTerms.size() == this.postingsByTerm.size();
+    }
+
+    /**
+     * Split a string into the terms used by the index.
+     * @param text string to split
+     * @return the maximal sequences of letters and digits of text, in lower case and in order of appearance
+     */
+    public static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inTerm = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inTerm && start < 0) {
+                start = i;
+            } else if (!inTerm && start >= 0) {
+                terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * @return the number of books in this index
+     */
+    public int size() {
+        return this.lengthByBook.size();
+    }
+
+    /**
+     * Add a book to this index, if it is not already present.
+     * @param book book to add
+     */
+    public void add(Book book) {
+        if (this.lengthByBook.containsKey(book)) {
+            return;
+        }
+        Map<String, Integer> frequencies = termFrequencies(book);
+        int length = frequencies.values().stream().mapToInt(Integer::intValue).sum();
+        frequencies.forEach((term, frequency) -> this.postingsByTerm.computeIfAbsent(term, _term -> {
+            this.fuzzyTerms.add(term);
+            return new HashMap<>();
+        }).put(book, frequency));
+        // Books made only of punctuation still count as one term long, so that lengths stay positive
+        this.lengthByBook.put(book, Math.max(1, length));
+        this.totalLength += Math.max(1, length);
+        checkRep();
+    }
+
+    /**
+     * Remove a book from this index, if it is present.
+     * @param book book to remove
+     */
+    public void remove(Book book) {
+        Integer length = this.lengthByBook.remove(book);
+        if (length == null) {
+            return;
+        }
+        for (String term : termFrequencies(book).keySet()) {
+            Map<Book, Integer> postings = this.postingsByTerm.get(term);
+            postings.remove(book);
+            if (postings.isEmpty()) {
+                this.postingsByTerm.remove(term);
+                this.fuzzyTerms.remove(term);
+            }
+        }
+        this.totalLength -= length;
+        checkRep();
+    }
+
+    /**
+     * Find the books best matching a query.
+     * @param query search string
+     * @param k maximum number of books to return
+     * @return the (at most) k books of this index with the highest BM25 score for the terms of query, in decreasing
+     * order of score, books with the same score being ordered by the tie breaker of this index; books matching no
+     * term of query are never returned
+     */
+    public List<Book> search(String query, int k) {
+        return books(rankedMatches(query, k, false, book -> true));
+    }
+
+    /**
+     * Find the books best matching a query, tolerating typos and unfinished words.
+     * @param query search string
+     * @param k maximum number of books to return
+     * @return the (at most) k books of this index with the highest BM25 score for the terms of query, as search(),
+     * except that every term of this index within edit distance FuzzyTermIndex.maxDistance() of a term of query
+     * also counts, its score halved for each edit, and so does every term starting with a term of query of at
+     * least 3 characters (among the 20 first in alphabetical order), its score halved
+     */
+    public List<Book> searchFuzzy(String query, int k) {
+        return books(rankedMatches(query, k, true, book -> true));
+    }
+
+    /**
+     * Find the books best matching a query, with their scores.
+     * @param query search string
+     * @param k maximum number of books to return
+     * @param fuzzy true to match as searchFuzzy(), false to match as search()
+     * @return the books of search(query, k), or searchFuzzy(query, k) if fuzzy, each with its score, in the same
+     * order
+     */
+    List<Map.Entry<Book, Double>> rankedMatches(String query, int k, boolean fuzzy) {
+        return rankedMatches(query, k, fuzzy, book -> true);
+    }
+
+    // Books of rankedMatches(query, k, fuzzy) among those passing filter only
+    private List<Map.Entry<Book, Double>> rankedMatches(String query, int k, boolean fuzzy, Predicate<Book> filter) {
+        Map<String, Double> weightByTerm = new HashMap<>();
+        for (String queryTerm : terms(query)) {
+            if (!fuzzy) {
+                weightByTerm.put(queryTerm, 1.0);
+                continue;
+            }
+            this.fuzzyTerms.similarTerms(queryTerm).forEach((term, distance) -> weightByTerm.merge(term,
+                    Math.pow(0.5, distance), Math::max));
+            if (queryTerm.length() >= MIN_PREFIX_LENGTH) {
+                this.fuzzyTerms.prefixedTerms(queryTerm, MAX_PREFIX_COMPLETIONS)
+                        .forEach(term -> weightByTerm.merge(term, PREFIX_WEIGHT, Math::max));
+            }
+        }
+        return rankedMatches(weightByTerm, k, filter);
+    }
+
+    /**
+     * @param tieBreaker order of the books having the same score
+     * @return the order of decreasing score of books with their scores, books with the same score being ordered
+     * by tieBreaker
+     */
+    static Comparator<Map.Entry<Book, Double>> byScore(Comparator<Book> tieBreaker) {
+        return Map.Entry.<Book, Double>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey(tieBreaker));
+    }
+
+    /**
+     * Compute the BM25 score of a term in a book.
+     * @param idf inverse document frequency of the term, multiplied by its weight in the query
+     * @param frequency number of times the book has the term
+     * @param lengthRatio number of terms of the book, divided by the average over all books
+     * @return the score of the book for the term
+     */
+    static double termScore(double idf, int frequency, double lengthRatio) {
+        return idf * frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * lengthRatio));
+    }
+
+    /**
+     * Compute the BM25 inverse document frequency of a term.
+     * @param bookCount number of books of an index
+     * @param documentFrequency number of those books having the term
+     * @return the inverse document frequency of the term
+     */
+    static double idf(int bookCount, int documentFrequency) {
+        return Math.log(1 + (bookCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    private static List<Book> books(List<Map.Entry<Book, Double>> rankedMatches) {
+        List<Book> result = new ArrayList<>();
+        rankedMatches.forEach(entry -> result.add(entry.getKey()));
+        return result;
+    }
+
+    /**
+     * Complete the exact matches of a Library.find() query with ranked matches.
+     * @param exactMatches books of this index whose title or one of whose authors is exactly query, in the order
+     * they must be returned
+     * @param query search string
+     * @param k maximum number of ranked matches to add
+     * @return exactMatches followed by the (at most) k other best books for search(query, k), or if there is no
+     * exact match, the (at most) k best books for searchFuzzy(query, k)
+     */
+    public List<Book> completeExactMatches(List<Book> exactMatches, String query, int k) {
+        return completeExactMatches(exactMatches, query, k, book -> true);
+    }
+
+    /**
+     * Complete the exact matches of a Library.find() query with ranked matches among some of the books.
+     * @param exactMatches books of this index whose title or one of whose authors is exactly query, in the order
+     * they must be returned
+     * @param query search string
+     * @param k maximum number of ranked matches to add
+     * @param filter books that may be added as ranked matches, e.g. those still held by a library whose index keeps
+     * the books it lost; the ranking only counts those, so that the others cannot push them out of the top k
+     * @return as completeExactMatches(exactMatches, query, k), but ranked matches are only the books passing filter
+     */
+    public List<Book> completeExactMatches(List<Book> exactMatches, String query, int k, Predicate<Book> filter) {
+        if (exactMatches.isEmpty()) {
+            return books(rankedMatches(query, k, true, filter));
+        }
+        List<Book> result = new ArrayList<>(exactMatches);
+        Set<Book> excluded = new HashSet<>(exactMatches);
+        rankedMatches(query, k, false, book -> !excluded.contains(book) && filter.test(book))
+                .forEach(entry -> result.add(entry.getKey()));
+        return result;
+    }
+
+    // Top k books passing filter for the sum of the BM25 scores of the terms, each multiplied by its weight
+    private List<Map.Entry<Book, Double>> rankedMatches(Map<String, Double> weightByTerm, int k,
+            Predicate<Book> filter) {
+        List<String> queryTerms = new ArrayList<>(weightByTerm.keySet());
+        queryTerms.removeIf(term -> !this.postingsByTerm.containsKey(term));
+        if (queryTerms.isEmpty() || k <= 0) {
+            return new ArrayList<>();
+        }
+
+        // Terms weighing the most first, i.e. the rarest ones; ties in alphabetical order, so that every book
+        // adds up the scores of its terms in the same order, and editions get exactly the same score
+        Map<String, Double> maxScoreByTerm = new HashMap<>();
+        queryTerms.forEach(term -> maxScoreByTerm.put(term, weightByTerm.get(term) * idf(term) * (K1 + 1)));
+        queryTerms.sort(Comparator.<String>comparingDouble(maxScoreByTerm::get).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+        double[] maxScores = new double[queryTerms.size()];
+        for (int i = 0; i < maxScores.length; i++) {
+            maxScores[i] = maxScoreByTerm.get(queryTerms.get(i));
+        }
+        double remainingMaxScore = Arrays.stream(maxScores).sum();
+
+        double averageLength = (double) this.totalLength / this.lengthByBook.size();
+        Map<Book, Double> scores = new HashMap<>();
+        for (int i = 0; i < queryTerms.size(); i++) {
+            // A book not seen yet can score at most remainingMaxScore, so it cannot enter a full top k that
+            // already scores more (an equal score could still win on the tie breaker); books failing filter
+            // never enter it, so that they neither take a place in it nor stop the search early
+            boolean acceptNewBooks = scores.size() < k || remainingMaxScore >= kthScore(scores, k);
+            double weightedIdf = weightByTerm.get(queryTerms.get(i)) * idf(queryTerms.get(i));
+            Map<Book, Integer> postings = this.postingsByTerm.get(queryTerms.get(i));
+            if (acceptNewBooks || postings.size() < scores.size()) {
+                for (Map.Entry<Book, Integer> posting : postings.entrySet()) {
+                    Book book = posting.getKey();
+                    if (scores.containsKey(book) || acceptNewBooks && filter.test(book)) {
+                        scores.merge(book, termScore(weightedIdf, posting.getValue(), book, averageLength),
+                                Double::sum);
+                    }
+                }
+            } else {
+                for (Map.Entry<Book, Double> score : scores.entrySet()) {
+                    Integer frequency = postings.get(score.getKey());
+                    if (frequency != null) {
+                        score.setValue(score.getValue()
+                                + termScore(weightedIdf, frequency, score.getKey(), averageLength));
+                    }
+                }
+            }
+            remainingMaxScore -= maxScores[i];
+        }
+
+        Comparator<Map.Entry<Book, Double>> byScore = byScore(this.tieBreaker);
+        PriorityQueue<Map.Entry<Book, Double>> best = new PriorityQueue<>(byScore.reversed());
+        for (Map.Entry<Book, Double> score : scores.entrySet()) {
+            best.add(score);
+            if (best.size() > k) {
+                best.poll();
+            }
+        }
+        List<Map.Entry<Book, Double>> sorted = new ArrayList<>(best);
+        sorted.sort(byScore);
+        return sorted;
+    }
+
+    private double idf(String term) {
+        return idf(this.lengthByBook.size(), this.postingsByTerm.get(term).size());
+    }
+
+    private double termScore(double idf, int frequency, Book book, double averageLength) {
+        return termScore(idf, frequency, this.lengthByBook.get(book) / averageLength);
+    }
+
+    // The k-th highest score, given at least k scores
+    private static double kthScore(Map<Book, Double> scores, int k) {
+        PriorityQueue<Double> best = new PriorityQueue<>();
+        for (double score : scores.values()) {
+            best.add(score);
+            if (best.size() > k) {
+                best.poll();
+            }
+        }
+        return best.peek();
+    }
+
+    private static Map<String, Integer> termFrequencies(Book book) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        terms(book.getTitle()).forEach(term -> frequencies.merge(term, 1, Integer::sum));
+        for (String author : book.getAuthors()) {
+            terms(author).forEach(term -> frequencies.merge(term, 1, Integer::sum));
+        }
+        return frequencies;
+    }
+}
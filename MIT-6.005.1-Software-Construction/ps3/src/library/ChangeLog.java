@@ -0,0 +1,313 @@
+package library;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ChangeLog numbers the copies of a library, and encodes and applies the records of the changes to it: the records
+ * that DurableLibrary appends to its log and ReplicatingLibrary ships to its replicas, and the snapshots of the
+ * whole collection they start from.
+ * <p>
+ * A record is the payload of one buy, checkout, checkin or lose, or of one batch of buys or checkins, in which
+ * copies are identified by their numbers. Applying the records of a library, in order, to another library that
+ * started from the same snapshot gives it the same collection, with copies numbered the same way.
+ * <p>
+ * ChangeLog is not thread-safe: its clients guard it with the lock that orders the changes.
+ */
+class ChangeLog {
+
+    private static final int SNAPSHOT_MAGIC = 0x4c494253; // "LIBS"
+
+    private static final byte BUY = 1;
+
+    private static final byte CHECKOUT = 2;
+
+    private static final byte CHECKIN = 3;
+
+    private static final byte LOSE = 4;
+
+    private static final byte BUY_ALL = 5;
+
+    private static final byte CHECKIN_ALL = 6;
+
+    // Rep
+    private final Library delegate;
+
+    private final Map<Long, BookCopy> copiesById;
+
+    private final Map<BookCopy, Long> idsByCopy;
+
+    private long nextCopyId;
+
+    // Rep invariant
+    // copiesById and idsByCopy are inverse maps, of copies of delegate, whose ids are all less than nextCopyId
+
+    // Abstraction function
+    // Represents the numbering of the copies of delegate, where the copy numbered id is copiesById.get(id), and
+    // the next copy bought will be numbered nextCopyId
+
+    // Safety from rep exposure argument
+    // All fields are private; delegate is shared with the client, which changes it before recording the change.
+    // Copies are returned, but BookCopy has no operation that could change the rep of this.
+
+    /**
+     * Make an empty numbering of the copies of a library.
+     * @param delegate library whose changes are recorded, or to which records are applied; must be empty
+     */
+    ChangeLog(Library delegate) {
+        this.delegate = delegate;
+        this.copiesById = new HashMap<>();
+        this.idsByCopy = new HashMap<>();
+        this.nextCopyId = 0;
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert this.delegate != null;
+        assert this.copiesById.size() == this.idsByCopy.size();
+    }
+
+    /**
+     * @param copy a copy of the library
+     * @return the number of copy, or null if it has none
+     */
+    Long idOf(BookCopy copy) {
+        return this.idsByCopy.get(copy);
+    }
+
+    /**
+     * @param id number of a copy
+     * @return the copy with that number, or null if there is none (anymore)
+     */
+    BookCopy copyWithId(long id) {
+        return this.copiesById.get(id);
+    }
+
+    /**
+     * Number a copy just bought from the library.
+     * @param copy new copy of the library
+     * @return the record of its buy
+     */
+    ByteArrayOutputStream recordBuy(BookCopy copy) {
+        long id = identify(copy);
+        return record(BUY, id, copy.getBook());
+    }
+
+    /**
+     * @param copy numbered copy just checked out of the library
+     * @return the record of its checkout
+     */
+    ByteArrayOutputStream recordCheckout(BookCopy copy) {
+        return record(CHECKOUT, this.idsByCopy.get(copy), null);
+    }
+
+    /**
+     * @param copy numbered copy just checked in the library
+     * @return the record of its checkin
+     */
+    ByteArrayOutputStream recordCheckin(BookCopy copy) {
+        return record(CHECKIN, this.idsByCopy.get(copy), null);
+    }
+
+    /**
+     * Forget the number of a copy about to be lost from the library.
+     * @param copy copy of the library
+     * @return the record of its loss, or null if it has no number, i.e. it is not in the library
+     */
+    ByteArrayOutputStream recordLose(BookCopy copy) {
+        Long id = this.idsByCopy.remove(copy);
+        if (id == null) {
+            return null;
+        }
+        this.copiesById.remove(id);
+        return record(LOSE, id, null);
+    }
+
+    /**
+     * Number copies just bought from the library, in the order of newCopies.
+     * @param newCopies nonempty map from books to their new copies
+     * @return the record of the whole batch
+     */
+    ByteArrayOutputStream recordBuyAll(Map<Book, List<BookCopy>> newCopies) {
+        // Record: first id, number of books, then each book and its number of copies, numbered in that order
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            out.writeByte(BUY_ALL);
+            out.writeLong(this.nextCopyId);
+            out.writeInt(newCopies.size());
+            for (Map.Entry<Book, List<BookCopy>> entry : newCopies.entrySet()) {
+                DurableLibrary.writeBook(out, entry.getKey());
+                out.writeInt(entry.getValue().size());
+                entry.getValue().forEach(this::identify);
+            }
+        } catch (IOException ioe) {
+            throw new AssertionError("Byte arrays do not throw", ioe);
+        }
+        checkRep();
+        return payload;
+    }
+
+    /**
+     * @param copies nonempty collection of numbered copies just checked in the library
+     * @return the record of the whole batch
+     */
+    ByteArrayOutputStream recordCheckinAll(Collection<BookCopy> copies) {
+        // Record: number of copies, then their ids
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            out.writeByte(CHECKIN_ALL);
+            out.writeLong(copies.size());
+            for (BookCopy copy : copies) {
+                out.writeLong(this.idsByCopy.get(copy));
+            }
+        } catch (IOException ioe) {
+            throw new AssertionError("Byte arrays do not throw", ioe);
+        }
+        return payload;
+    }
+
+    // Gives the next id to a new copy of delegate
+    private long identify(BookCopy copy) {
+        long id = this.nextCopyId++;
+        this.copiesById.put(id, copy);
+        this.idsByCopy.put(copy, id);
+        return id;
+    }
+
+    private static ByteArrayOutputStream record(byte type, long id, Book book) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            out.writeByte(type);
+            out.writeLong(id);
+            if (type == BUY) {
+                DurableLibrary.writeBook(out, book);
+            }
+        } catch (IOException ioe) {
+            throw new AssertionError("Byte arrays do not throw", ioe);
+        }
+        return payload;
+    }
+
+    /**
+     * Apply a record to the library, numbering its new copies as the record says.
+     * @param record payload of a record
+     * @throws IOException if the record is malformed, or refers to copies that are not numbered
+     */
+    void apply(DataInputStream record) throws IOException {
+        byte type = record.readByte();
+        long id = record.readLong();
+        if (type == BUY) {
+            BookCopy copy = this.delegate.buy(DurableLibrary.readBook(record));
+            this.copiesById.put(id, copy);
+            this.idsByCopy.put(copy, id);
+            this.nextCopyId = Math.max(this.nextCopyId, id + 1);
+            return;
+        } else if (type == BUY_ALL) {
+            Map<Book, Integer> copiesByBook = new LinkedHashMap<>();
+            for (int books = record.readInt(); books > 0; books--) {
+                copiesByBook.put(DurableLibrary.readBook(record), record.readInt());
+            }
+            Map<Book, List<BookCopy>> newCopies = this.delegate.buyAll(copiesByBook);
+            long nextId = id;
+            for (Book book : copiesByBook.keySet()) {
+                for (BookCopy copy : newCopies.get(book)) {
+                    this.copiesById.put(nextId, copy);
+                    this.idsByCopy.put(copy, nextId);
+                    nextId++;
+                }
+            }
+            this.nextCopyId = Math.max(this.nextCopyId, nextId);
+            return;
+        } else if (type == CHECKIN_ALL) {
+            List<BookCopy> copies = new ArrayList<>();
+            for (long count = id; count > 0; count--) {
+                copies.add(copyOfRecord(record.readLong()));
+            }
+            this.delegate.checkinAll(copies);
+            return;
+        }
+        BookCopy copy = copyOfRecord(id);
+        if (type == CHECKOUT) {
+            this.delegate.checkout(copy);
+        } else if (type == CHECKIN) {
+            this.delegate.checkin(copy);
+        } else if (type == LOSE) {
+            this.copiesById.remove(id);
+            this.idsByCopy.remove(copy);
+            this.delegate.lose(copy);
+        } else {
+            throw new IOException("Unknown log record type " + type);
+        }
+    }
+
+    private BookCopy copyOfRecord(long id) throws IOException {
+        BookCopy copy = this.copiesById.get(id);
+        if (copy == null) {
+            throw new IOException("The log refers to unknown copy " + id);
+        }
+        return copy;
+    }
+
+    /**
+     * @return a snapshot of the collection of the library and of its numbering: magic, nextCopyId, number of
+     * books, then for each book, the book, its number of copies and for each copy, its id and whether it is
+     * available; then the CRC32 of all that
+     */
+    byte[] encodeSnapshot() {
+        Map<Book, List<Long>> idsByBook = new HashMap<>();
+        this.copiesById.forEach((id, copy) -> idsByBook.computeIfAbsent(copy.getBook(), _book -> new ArrayList<>())
+                .add(id));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(this.nextCopyId);
+            out.writeInt(idsByBook.size());
+            for (Map.Entry<Book, List<Long>> entry : idsByBook.entrySet()) {
+                DurableLibrary.writeBook(out, entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (long id : entry.getValue()) {
+                    out.writeLong(id);
+                    out.writeBoolean(this.delegate.isAvailable(this.copiesById.get(id)));
+                }
+            }
+            out.writeInt(DurableLibrary.crc(bytes.toByteArray()));
+        } catch (IOException ioe) {
+            throw new AssertionError("Byte arrays do not throw", ioe);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Load a snapshot into the library, which must be empty, and number its copies as the snapshot says.
+     * @param snapshot snapshot made by encodeSnapshot()
+     * @throws IOException if the snapshot is corrupt
+     */
+    void decodeSnapshot(byte[] snapshot) throws IOException {
+        if (snapshot.length < 4 || DurableLibrary.crc(Arrays.copyOf(snapshot, snapshot.length - 4))
+                != ByteBuffer.wrap(snapshot, snapshot.length - 4, 4).getInt()) {
+            throw new IOException("Corrupt snapshot");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+        if (in.readInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("Not a library snapshot");
+        }
+        this.nextCopyId = in.readLong();
+        int bookCount = in.readInt();
+        for (int i = 0; i < bookCount; i++) {
+            Book book = DurableLibrary.readBook(in);
+            int copyCount = in.readInt();
+            for (int j = 0; j < copyCount; j++) {
+                long id = in.readLong();
+                BookCopy copy = this.delegate.buy(book);
+                if (!in.readBoolean()) {
+                    this.delegate.checkout(copy);
+                }
+                this.copiesById.put(id, copy);
+                this.idsByCopy.put(copy, id);
+            }
+        }
+        checkRep();
+    }
+}
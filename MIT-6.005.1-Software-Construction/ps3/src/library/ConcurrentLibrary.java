@@ -0,0 +1,363 @@
+package library;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * ConcurrentLibrary represents a large collection of books shared by many threads, like the circulation desks of
+ * a library system, and is thread-safe.
+ * <p>
+ * Operations on copies of different books do not contend: the copies of each book are guarded by one of a fixed
+ * number of locks chosen by the hash of the book ("lock striping"). find() reads a concurrent catalog instead,
+ * which only locks when a book enters or leaves the collection.
+ */
+public class ConcurrentLibrary implements Library {
+
+    /**
+     * Number of locks used by ConcurrentLibrary().
+     */
+    public static final int DEFAULT_STRIPE_COUNT = 256;
+
+    private static final int MAX_RANKED_MATCHES = 50;
+
+    // Rep
+    private final Object[] stripes;
+
+    private final Map<Book, Set<BookCopy>> availableCopiesByBook;
+
+    private final Map<Book, Set<BookCopy>> checkedOutCopiesByBook;
+
+    private final Map<String, Set<Book>> booksByTitle;
+
+    private final Map<String, Set<Book>> booksByAuthor;
+
+    private final BookSearchIndex searchIndex;
+
+    private final ReadWriteLock searchIndexLock;
+
+    // Rep invariant
+    // stripes.length is a power of two
+    // availableCopiesByBook and checkedOutCopiesByBook have the same keys, the books with at least one copy
+    // For each book, its available and checked out copies are disjoint sets of copies of that book
+    // booksByTitle (resp. booksByAuthor) maps each title (resp. author) of a book of availableCopiesByBook to the
+    // nonempty set of those books having it, and has no other key; searchIndex indexes exactly those books
+
+    // Abstraction function
+    // Represents the collection of the copies in the values of availableCopiesByBook, which are available, and in
+    // the values of checkedOutCopiesByBook, which are checked out
+    // booksByTitle, booksByAuthor and searchIndex are indexes of the books, and do not add to the abstract value
+
+    // Safety from rep exposure argument
+    // All fields are private and final. Sets of copies are only returned as new sets, and find returns a new list.
+
+    // Thread safety argument
+    // The entries of book in availableCopiesByBook and checkedOutCopiesByBook, the (non thread-safe) sets of
+    // copies they hold, and the presence of book in the catalog are only read or written while holding the stripe
+    // lock of book, stripeOf(book). So each operation on copies of book is atomic, and they are serialized.
+    // The maps themselves and the catalog sets are concurrent, so operations on books of different stripes, and
+    // find(), can use them at the same time.
+    // searchIndex is not thread-safe, so it is guarded by searchIndexLock: find() reads it with the read lock, and
+    // buy() and lose() only take the write lock, after the stripe lock, when a book enters or leaves the
+    // collection. No thread ever takes a stripe lock while holding searchIndexLock, so there is no deadlock.
+    // checkinAll() is the only operation holding several stripe locks, which it takes in increasing index order, so
+    // concurrent batches do not deadlock either.
+
+    /**
+     * Make an empty library using DEFAULT_STRIPE_COUNT locks.
+     */
+    public ConcurrentLibrary() {
+        this(DEFAULT_STRIPE_COUNT);
+    }
+
+    /**
+     * Make an empty library.
+     * @param stripeCount number of locks guarding the copies of books, rounded up to a power of two. Must be
+     * positive. More locks make operations on different books less likely to contend.
+     */
+    public ConcurrentLibrary(int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("The number of stripes must be positive");
+        }
+        int powerOfTwo = Integer.highestOneBit(stripeCount);
+        this.stripes = new Object[powerOfTwo < stripeCount ? powerOfTwo * 2 : powerOfTwo];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Object();
+        }
+        this.availableCopiesByBook = new ConcurrentHashMap<>();
+        this.checkedOutCopiesByBook = new ConcurrentHashMap<>();
+        this.booksByTitle = new ConcurrentHashMap<>();
+        this.booksByAuthor = new ConcurrentHashMap<>();
+        this.searchIndex = new BookSearchIndex(BigLibrary.BOOK_SORTING_COMPARATOR);
+        this.searchIndexLock = new ReentrantReadWriteLock();
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert Integer.bitCount(this.stripes.length) == 1;
+        assert this.availableCopiesByBook != null;
+        assert this.checkedOutCopiesByBook != null;
+    }
+
+    // Assert the rep invariant for the entries of a book, requires holding its stripe lock
+    private void checkRep(Book book) {
+        assert Thread.holdsLock(stripeOf(book));
+        Set<BookCopy> availableCopies = this.availableCopiesByBook.get(book);
+        Set<BookCopy> checkedOutCopies = this.checkedOutCopiesByBook.get(book);
+        assert (availableCopies == null) == (checkedOutCopies == null);
+        if (availableCopies != null) {
+            assert !availableCopies.isEmpty() || !checkedOutCopies.isEmpty();
+            assert Collections.disjoint(availableCopies, checkedOutCopies);
+            assert this.booksByTitle.get(book.getTitle()).contains(book);
+            for (String author : book.authorsView()) {
+                assert this.booksByAuthor.get(author).contains(book);
+            }
+        } else {
+            assert !this.booksByTitle.getOrDefault(book.getTitle(), Collections.emptySet()).contains(book);
+        }
+    }
+
+    private Object stripeOf(Book book) {
+        return this.stripes[stripeIndexOf(book)];
+    }
+
+    private int stripeIndexOf(Book book) {
+        int hash = book.hashCode();
+        return (hash ^ (hash >>> 16)) & (this.stripes.length - 1);
+    }
+
+    // Runs action while holding the stripe locks of indexes[from], indexes[from + 1]..., taken in this order
+    private void withStripes(int[] indexes, int from, Runnable action) {
+        if (from == indexes.length) {
+            action.run();
+            return;
+        }
+        synchronized (this.stripes[indexes[from]]) {
+            withStripes(indexes, from + 1, action);
+        }
+    }
+
+    @Override
+    public BookCopy buy(Book book) {
+        BookCopy newCopy = new BookCopy(book);
+        synchronized (stripeOf(book)) {
+            availableCopiesToBuy(book).add(newCopy);
+            checkRep(book);
+        }
+        return newCopy;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The copies of each book are added at once, under one lock; other threads may see the copies of some books
+     * of the batch before those of others.
+     */
+    @Override
+    public Map<Book, List<BookCopy>> buyAll(Map<Book, Integer> copiesByBook) {
+        CopyBatches.checkCounts(copiesByBook);
+        Map<Book, List<BookCopy>> newCopies = new HashMap<>();
+        copiesByBook.forEach((book, count) -> {
+            List<BookCopy> copies = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                copies.add(new BookCopy(book));
+            }
+            synchronized (stripeOf(book)) {
+                availableCopiesToBuy(book).addAll(copies);
+                checkRep(book);
+            }
+            newCopies.put(book, copies);
+        });
+        return newCopies;
+    }
+
+    // Returns the set of available copies of book, adding book to the collection and catalog if it has no copies
+    // Requires holding the stripe lock of book
+    private Set<BookCopy> availableCopiesToBuy(Book book) {
+        if (!this.availableCopiesByBook.containsKey(book)) {
+            this.availableCopiesByBook.put(book, new HashSet<>());
+            this.checkedOutCopiesByBook.put(book, new HashSet<>());
+            addToCatalog(book);
+        }
+        return this.availableCopiesByBook.get(book);
+    }
+
+    @Override
+    public void checkout(BookCopy copy) {
+        Book book = copy.getBook();
+        synchronized (stripeOf(book)) {
+            Set<BookCopy> availableCopies = this.availableCopiesByBook.get(book);
+            if (availableCopies == null || !availableCopies.remove(copy)) {
+                throw new IllegalArgumentException("This book copy is not available in the library");
+            }
+            this.checkedOutCopiesByBook.get(book).add(copy);
+            checkRep(book);
+        }
+    }
+
+    @Override
+    public void checkin(BookCopy copy) {
+        Book book = copy.getBook();
+        synchronized (stripeOf(book)) {
+            Set<BookCopy> checkedOutCopies = this.checkedOutCopiesByBook.get(book);
+            if (checkedOutCopies == null || !checkedOutCopies.remove(copy)) {
+                throw new IllegalArgumentException("This book copy was not checked out of the library");
+            }
+            this.availableCopiesByBook.get(book).add(copy);
+            checkRep(book);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The batch is atomic: it holds the locks of all the books of the copies while checking them in.
+     */
+    @Override
+    public void checkinAll(Collection<BookCopy> copies) {
+        Map<Book, List<BookCopy>> copiesByBook = CopyBatches.groupByBook(copies);
+        int[] indexes = copiesByBook.keySet().stream().mapToInt(this::stripeIndexOf).distinct().sorted().toArray();
+        withStripes(indexes, 0, () -> {
+            copiesByBook.forEach((book, bookCopies) -> {
+                Set<BookCopy> checkedOutCopies = this.checkedOutCopiesByBook.get(book);
+                if (checkedOutCopies == null || !checkedOutCopies.containsAll(bookCopies)) {
+                    throw new IllegalArgumentException("This book copy was not checked out of the library");
+                }
+            });
+            copiesByBook.forEach((book, bookCopies) -> {
+                Set<BookCopy> checkedOutCopies = this.checkedOutCopiesByBook.get(book);
+                bookCopies.forEach(checkedOutCopies::remove);
+                this.availableCopiesByBook.get(book).addAll(bookCopies);
+                checkRep(book);
+            });
+        });
+    }
+
+    @Override
+    public boolean isAvailable(BookCopy copy) {
+        Book book = copy.getBook();
+        synchronized (stripeOf(book)) {
+            return this.availableCopiesByBook.getOrDefault(book, Collections.emptySet()).contains(copy);
+        }
+    }
+
+    @Override
+    public Set<BookCopy> allCopies(Book book) {
+        synchronized (stripeOf(book)) {
+            Set<BookCopy> result = new HashSet<>(this.availableCopiesByBook.getOrDefault(book,
+                    Collections.emptySet()));
+            result.addAll(this.checkedOutCopiesByBook.getOrDefault(book, Collections.emptySet()));
+            return result;
+        }
+    }
+
+    @Override
+    public Set<BookCopy> availableCopies(Book book) {
+        synchronized (stripeOf(book)) {
+            return new HashSet<>(this.availableCopiesByBook.getOrDefault(book, Collections.emptySet()));
+        }
+    }
+
+    @Override
+    public int totalCount(Book book) {
+        synchronized (stripeOf(book)) {
+            return this.availableCopiesByBook.getOrDefault(book, Collections.emptySet()).size()
+                    + this.checkedOutCopiesByBook.getOrDefault(book, Collections.emptySet()).size();
+        }
+    }
+
+    @Override
+    public int availableCount(Book book) {
+        synchronized (stripeOf(book)) {
+            return this.availableCopiesByBook.getOrDefault(book, Collections.emptySet()).size();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Books whose title or one of whose authors is exactly the query come first, newer editions first, followed by
+     * at most MAX_RANKED_MATCHES other books ranked as BigLibrary.find() does. While other threads buy or lose
+     * copies, books entering or leaving the collection during the search may or may not be found.
+     */
+    @Override
+    public List<Book> find(String query) {
+        Set<Book> exactMatches = new HashSet<>(this.booksByTitle.getOrDefault(query, Collections.emptySet()));
+        exactMatches.addAll(this.booksByAuthor.getOrDefault(query, Collections.emptySet()));
+        List<Book> sortedExactMatches = new ArrayList<>(exactMatches);
+        sortedExactMatches.sort(BigLibrary.BOOK_SORTING_COMPARATOR);
+
+        this.searchIndexLock.readLock().lock();
+        try {
+            return this.searchIndex.completeExactMatches(sortedExactMatches, query, MAX_RANKED_MATCHES);
+        } finally {
+            this.searchIndexLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void lose(BookCopy copy) {
+        Book book = copy.getBook();
+        synchronized (stripeOf(book)) {
+            Set<BookCopy> availableCopies = this.availableCopiesByBook.get(book);
+            Set<BookCopy> checkedOutCopies = this.checkedOutCopiesByBook.get(book);
+            if (availableCopies == null || !availableCopies.remove(copy) && !checkedOutCopies.remove(copy)) {
+                return;
+            }
+            if (availableCopies.isEmpty() && checkedOutCopies.isEmpty()) {
+                this.availableCopiesByBook.remove(book);
+                this.checkedOutCopiesByBook.remove(book);
+                removeFromCatalog(book);
+            }
+            checkRep(book);
+        }
+    }
+
+    // Requires holding the stripe lock of book
+    private void addToCatalog(Book book) {
+        addToCatalogIndex(this.booksByTitle, book.getTitle(), book);
+        for (String author : book.authorsView()) {
+            addToCatalogIndex(this.booksByAuthor, author, book);
+        }
+        this.searchIndexLock.writeLock().lock();
+        try {
+            this.searchIndex.add(book);
+        } finally {
+            this.searchIndexLock.writeLock().unlock();
+        }
+    }
+
+    // Requires holding the stripe lock of book
+    private void removeFromCatalog(Book book) {
+        removeFromCatalogIndex(this.booksByTitle, book.getTitle(), book);
+        for (String author : book.authorsView()) {
+            removeFromCatalogIndex(this.booksByAuthor, author, book);
+        }
+        this.searchIndexLock.writeLock().lock();
+        try {
+            this.searchIndex.remove(book);
+        } finally {
+            this.searchIndexLock.writeLock().unlock();
+        }
+    }
+
+    // Adds the book atomically with the key, so that a concurrent removal of the key (by the stripe of another
+    // book with the same key) cannot drop it
+    private static void addToCatalogIndex(Map<String, Set<Book>> index, String key, Book book) {
+        index.compute(key, (_key, books) -> {
+            Set<Book> result = books != null ? books : ConcurrentHashMap.newKeySet();
+            result.add(book);
+            return result;
+        });
+    }
+
+    // Removes the key atomically with its last book
+    private static void removeFromCatalogIndex(Map<String, Set<Book>> index, String key, Book book) {
+        index.computeIfPresent(key, (_key, books) -> {
+            books.remove(book);
+            return books.isEmpty() ? null : books;
+        });
+    }
+}
@@ -0,0 +1,49 @@
+package library;
+
+import java.util.*;
+
+/**
+ * CopyBatches validates and groups the batches of Library.buyAll() and Library.checkinAll(), for all the
+ * implementations of Library.
+ */
+class CopyBatches {
+
+    /**
+     * Check the numbers of copies of a batch of books to buy.
+     * @param copiesByBook number of copies to buy of each book
+     * @return the total number of copies to buy
+     * @throws IllegalArgumentException if a book is null, or its number of copies is null or not positive
+     */
+    static int checkCounts(Map<Book, Integer> copiesByBook) {
+        long total = 0;
+        for (Map.Entry<Book, Integer> entry : copiesByBook.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null || entry.getValue() <= 0) {
+                throw new IllegalArgumentException("Each book of the batch must have a positive number of copies");
+            }
+            total += entry.getValue();
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A batch cannot buy more than " + Integer.MAX_VALUE + " copies");
+        }
+        return (int) total;
+    }
+
+    /**
+     * Group a batch of copies by book.
+     * @param copies copies of the batch
+     * @return map from each book having copies in the batch to the list of those copies, in the order of the
+     * batch, iterating over the books in the order of their first copy in the batch
+     * @throws IllegalArgumentException if a copy is null or appears more than once in the batch
+     */
+    static Map<Book, List<BookCopy>> groupByBook(Collection<BookCopy> copies) {
+        Map<Book, List<BookCopy>> copiesByBook = new LinkedHashMap<>();
+        Set<BookCopy> seen = new HashSet<>(copies.size() * 2);
+        for (BookCopy copy : copies) {
+            if (copy == null || !seen.add(copy)) {
+                throw new IllegalArgumentException("Each book copy must appear once in the batch");
+            }
+            copiesByBook.computeIfAbsent(copy.getBook(), _book -> new ArrayList<>()).add(copy);
+        }
+        return copiesByBook;
+    }
+}
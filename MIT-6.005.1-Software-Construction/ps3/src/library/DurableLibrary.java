@@ -0,0 +1,567 @@
+package library;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * DurableLibrary is a Library that survives crashes: it decorates an in-memory Library, and saves every change to
+ * it in a directory, from which the same collection can be recovered after a restart.
+ * <p>
+ * Every buy, checkout, checkin and lose, and every batch of buys or checkins as a whole, is appended to a
+ * write-ahead log, and is only returned from once the log is forced to the disk. Concurrent operations share their
+ * forces ("group commit"): while one thread forces the log, the others append their records, and the next force
+ * makes them all durable at once. Every few operations, the whole collection is also written to a compact binary
+ * snapshot, and the log is started over, so that recovery only reads the latest snapshot and the log written since.
+ * <p>
+ * Copies are identified in the log by numbers given when they are bought. After recovery, the copies returned
+ * by buy() before the crash are gone, but copyWithId() gives the recovered copy of the same number. Conditions of
+ * copies are not saved.
+ * <p>
+ * DurableLibrary is thread-safe if its delegate is.
+ */
+public class DurableLibrary implements Library, Closeable {
+
+    /**
+     * Number of operations between two snapshots used by open(directory, delegate).
+     */
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 100_000;
+
+    private static final Pattern LOG_NAME = Pattern.compile("log-(\\d{16})");
+
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("snapshot-(\\d{16})");
+
+    // Rep
+    private final Library delegate;
+
+    private final Path directory;
+
+    private final int snapshotInterval;
+
+    private final ChangeLog changes;
+
+    private long segment;
+
+    private FileChannel log;
+
+    private ByteArrayOutputStream pendingRecords;
+
+    private long appendedRecords;
+
+    private long durableRecords;
+
+    private boolean forcing;
+
+    private int operationsSinceSnapshot;
+
+    private IOException failure;
+
+    // Rep invariant
+    // changes numbers the copies of delegate
+    // durableRecords <= appendedRecords; pendingRecords holds the records appended after the first durableRecords,
+    // but for those being forced (if forcing) by a thread
+    // log is the open file "log-<segment>" of directory, and 0 <= operationsSinceSnapshot <= snapshotInterval
+    // If failure is not null, the log could not be written, and no record is appended anymore: the collection of
+    // delegate may then be ahead of the log
+
+    // Abstraction function
+    // Represents the collection of delegate, which is the one replayed by changes from snapshot
+    // "snapshot-<segment>" (or the empty collection if there is none) and from the records of log, followed by
+    // pendingRecords
+    // The ids, segments and counters only make that collection durable, and do not add to the abstract value
+
+    // Safety from rep exposure argument
+    // All fields are private, and delegate is only reached through this. Copies are returned to clients, but
+    // BookCopy has no operation that could change the rep of this.
+
+    // Thread safety argument
+    // All fields but delegate, directory and snapshotInterval (final and thread-safe, or immutable) are guarded by
+    // the lock of this. Mutations of delegate also take it, so that they are logged in the order they are applied.
+    // Only one thread at a time writes and forces the log, as signalled by forcing, and it does so without the lock,
+    // so that other threads append to pendingRecords meanwhile; it then wakes them all up, with notifyAll().
+    // Queries are forwarded to delegate without locking.
+
+    private DurableLibrary(Library delegate, Path directory, int snapshotInterval) {
+        this.delegate = delegate;
+        this.directory = directory;
+        this.snapshotInterval = snapshotInterval;
+        this.changes = new ChangeLog(delegate);
+        this.pendingRecords = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Open a durable library in a directory, taking snapshots every DEFAULT_SNAPSHOT_INTERVAL operations.
+     * @see #open(Path, Library, int)
+     */
+    public static DurableLibrary open(Path directory, Library delegate) throws IOException {
+        return open(directory, delegate, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * Open a durable library in a directory, recovering the collection saved in it if any.
+     * @param directory directory saving the library, created if missing. Must not be used by another open
+     * DurableLibrary.
+     * @param delegate empty library to hold the collection in memory; it must not be used anymore but through the
+     * returned library
+     * @param snapshotInterval positive number of operations between two snapshots; more operations make the
+     * snapshots rarer but recovery longer
+     * @return a library whose collection is the one saved in directory, with the copies numbered as they were
+     * @throws IOException if directory cannot be read or written, or holds a corrupt snapshot
+     */
+    public static DurableLibrary open(Path directory, Library delegate, int snapshotInterval) throws IOException {
+        if (snapshotInterval <= 0) {
+            throw new IllegalArgumentException("The snapshot interval must be positive");
+        }
+        Files.createDirectories(directory);
+        DurableLibrary library = new DurableLibrary(delegate, directory, snapshotInterval);
+        library.recover();
+        return library;
+    }
+
+    // Assert the rep invariant, requires holding the lock of this
+    private void checkRep() {
+        assert Thread.holdsLock(this);
+        assert this.durableRecords <= this.appendedRecords;
+        assert this.operationsSinceSnapshot >= 0 && this.operationsSinceSnapshot <= this.snapshotInterval;
+    }
+
+    /**
+     * Get the number of a copy.
+     * @param copy a copy of this library
+     * @return the number under which copy is saved, which stays the same across recoveries
+     */
+    public synchronized long idOf(BookCopy copy) {
+        Long id = this.changes.idOf(copy);
+        if (id == null) {
+            throw new IllegalArgumentException("This book copy is not in the library");
+        }
+        return id;
+    }
+
+    /**
+     * Get a copy from its number.
+     * @param id number of a copy, as returned by idOf()
+     * @return the copy of this library with that number, or null if there is none (anymore)
+     */
+    public synchronized BookCopy copyWithId(long id) {
+        return this.changes.copyWithId(id);
+    }
+
+    @Override
+    public BookCopy buy(Book book) {
+        long record;
+        BookCopy copy;
+        synchronized (this) {
+            checkNotFailed();
+            copy = this.delegate.buy(book);
+            record = append(this.changes.recordBuy(copy), 1);
+        }
+        awaitDurable(record);
+        return copy;
+    }
+
+    @Override
+    public void checkout(BookCopy copy) {
+        long record;
+        synchronized (this) {
+            checkNotFailed();
+            this.delegate.checkout(copy);
+            record = append(this.changes.recordCheckout(copy), 1);
+        }
+        awaitDurable(record);
+    }
+
+    @Override
+    public void checkin(BookCopy copy) {
+        long record;
+        synchronized (this) {
+            checkNotFailed();
+            this.delegate.checkin(copy);
+            record = append(this.changes.recordCheckin(copy), 1);
+        }
+        awaitDurable(record);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The batch is logged as one record, so that it is recovered either whole or not at all, and waits for one
+     * force of the log.
+     */
+    @Override
+    public Map<Book, List<BookCopy>> buyAll(Map<Book, Integer> copiesByBook) {
+        int count = CopyBatches.checkCounts(copiesByBook);
+        long record;
+        Map<Book, List<BookCopy>> newCopies;
+        synchronized (this) {
+            checkNotFailed();
+            newCopies = this.delegate.buyAll(copiesByBook);
+            if (newCopies.isEmpty()) {
+                return newCopies;
+            }
+            record = append(this.changes.recordBuyAll(newCopies), count);
+        }
+        awaitDurable(record);
+        return newCopies;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The batch is logged as one record, so that it is recovered either whole or not at all, and waits for one
+     * force of the log.
+     */
+    @Override
+    public void checkinAll(Collection<BookCopy> copies) {
+        long record;
+        synchronized (this) {
+            checkNotFailed();
+            this.delegate.checkinAll(copies);
+            if (copies.isEmpty()) {
+                return;
+            }
+            record = append(this.changes.recordCheckinAll(copies), copies.size());
+        }
+        awaitDurable(record);
+    }
+
+    @Override
+    public void lose(BookCopy copy) {
+        long record;
+        synchronized (this) {
+            checkNotFailed();
+            ByteArrayOutputStream lost = this.changes.recordLose(copy);
+            if (lost == null) {
+                return;
+            }
+            this.delegate.lose(copy);
+            record = append(lost, 1);
+        }
+        awaitDurable(record);
+    }
+
+    @Override
+    public boolean isAvailable(BookCopy copy) {
+        return this.delegate.isAvailable(copy);
+    }
+
+    @Override
+    public Set<BookCopy> allCopies(Book book) {
+        return this.delegate.allCopies(book);
+    }
+
+    @Override
+    public Set<BookCopy> availableCopies(Book book) {
+        return this.delegate.availableCopies(book);
+    }
+
+    @Override
+    public int totalCount(Book book) {
+        return this.delegate.totalCount(book);
+    }
+
+    @Override
+    public int availableCount(Book book) {
+        return this.delegate.availableCount(book);
+    }
+
+    @Override
+    public List<Book> find(String query) {
+        return this.delegate.find(query);
+    }
+
+    /**
+     * Write a snapshot of the collection now, and start the log over.
+     * @throws UncheckedIOException if the snapshot cannot be written; the log is then kept, so nothing is lost
+     */
+    public synchronized void snapshot() {
+        awaitNotForcing();
+        checkNotFailed();
+        byte[] snapshot;
+        try {
+            // Close the current segment with everything appended to it: the snapshot replaces it
+            flushPendingRecords();
+            this.log.close();
+            this.segment++;
+            this.log = FileChannel.open(logPath(this.segment), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+            snapshot = this.changes.encodeSnapshot();
+        } catch (IOException ioe) {
+            this.failure = ioe;
+            throw new UncheckedIOException(ioe);
+        }
+        this.operationsSinceSnapshot = 0;
+        try {
+            writeAtomically(snapshotPath(this.segment), snapshot);
+            deleteOlderThan(this.segment);
+        } catch (IOException ioe) {
+            // Recovery falls back on the previous snapshot and all the segments since
+            throw new UncheckedIOException(ioe);
+        }
+        checkRep();
+    }
+
+    // Takes a snapshot if snapshotInterval operations were logged since the last one; a snapshot failing then is
+    // tried again snapshotInterval operations later, as the operation itself is durable already
+    private synchronized void snapshotIfDue() {
+        if (this.operationsSinceSnapshot >= this.snapshotInterval && this.failure == null) {
+            try {
+                snapshot();
+            } catch (UncheckedIOException uioe) {
+                this.operationsSinceSnapshot = 0;
+            }
+        }
+    }
+
+    /**
+     * Close the log. The library must not be used anymore.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        awaitNotForcing();
+        try {
+            if (this.failure == null) {
+                flushPendingRecords();
+            }
+        } finally {
+            this.log.close();
+            if (this.failure == null) {
+                this.failure = new IOException("The library is closed");
+            }
+        }
+    }
+
+    // Requires holding the lock of this
+    private void checkNotFailed() {
+        if (this.failure != null) {
+            throw new UncheckedIOException("The log cannot be written anymore, reopen the library", this.failure);
+        }
+    }
+
+    // Waits until no thread forces the log, requires holding the lock of this
+    private void awaitNotForcing() {
+        try {
+            while (this.forcing) {
+                this.wait();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the log", ie);
+        }
+    }
+
+    // Appends a record of a payload standing for a number of operations, requires holding the lock of this
+    // Returns the number of records appended so far, to wait for with awaitDurable()
+    private long append(ByteArrayOutputStream payload, int operations) {
+        try {
+            DataOutputStream record = new DataOutputStream(this.pendingRecords);
+            record.writeInt(payload.size());
+            record.writeInt(crc(payload.toByteArray()));
+            payload.writeTo(record);
+        } catch (IOException ioe) {
+            throw new AssertionError("Byte arrays do not throw", ioe);
+        }
+        this.operationsSinceSnapshot = (int) Math.min((long) this.operationsSinceSnapshot + operations,
+                this.snapshotInterval);
+        checkRep();
+        return ++this.appendedRecords;
+    }
+
+    // Returns once the first records appended are durable, forcing the log if no other thread does it already
+    private void awaitDurable(long records) {
+        byte[] batch;
+        long batchRecords;
+        FileChannel channel;
+        synchronized (this) {
+            try {
+                while (this.forcing && this.durableRecords < records) {
+                    this.wait();
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the log", ie);
+            }
+            if (this.durableRecords >= records) {
+                return;
+            }
+            checkNotFailed();
+            // Take every record appended so far, not only this thread's, into one force
+            this.forcing = true;
+            batch = this.pendingRecords.toByteArray();
+            batchRecords = this.appendedRecords;
+            this.pendingRecords = new ByteArrayOutputStream();
+            channel = this.log;
+        }
+
+        IOException failure = null;
+        try {
+            writeFully(channel, batch);
+            channel.force(false);
+        } catch (IOException ioe) {
+            // Part of the batch may be written: appending anything after it could be lost at recovery
+            failure = ioe;
+        }
+        synchronized (this) {
+            if (failure == null) {
+                this.durableRecords = batchRecords;
+            } else {
+                this.failure = failure;
+            }
+            this.forcing = false;
+            this.notifyAll();
+            checkNotFailed();
+        }
+        snapshotIfDue();
+    }
+
+    // Writes and forces pendingRecords to the log, requires holding the lock of this while no thread is forcing
+    private void flushPendingRecords() throws IOException {
+        writeFully(this.log, this.pendingRecords.toByteArray());
+        this.log.force(false);
+        this.pendingRecords = new ByteArrayOutputStream();
+        this.durableRecords = this.appendedRecords;
+    }
+
+    private static void writeFully(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Loads the latest snapshot of directory, replays the logs written since, and opens a new log segment
+    private synchronized void recover() throws IOException {
+        SortedSet<Long> snapshots = new TreeSet<>();
+        SortedSet<Long> logs = new TreeSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+            for (Path file : files) {
+                Matcher snapshotName = SNAPSHOT_NAME.matcher(file.getFileName().toString());
+                Matcher logName = LOG_NAME.matcher(file.getFileName().toString());
+                if (snapshotName.matches()) {
+                    snapshots.add(Long.parseLong(snapshotName.group(1)));
+                } else if (logName.matches()) {
+                    logs.add(Long.parseLong(logName.group(1)));
+                }
+            }
+        }
+
+        long firstSegment = 0;
+        if (!snapshots.isEmpty()) {
+            firstSegment = snapshots.last();
+            this.changes.decodeSnapshot(Files.readAllBytes(snapshotPath(firstSegment)));
+        }
+        for (long logSegment : logs.tailSet(firstSegment)) {
+            replay(logPath(logSegment));
+        }
+        this.segment = Math.max(firstSegment, logs.isEmpty() ? 0 : logs.last() + 1);
+        this.log = FileChannel.open(logPath(this.segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        deleteOlderThan(firstSegment);
+        checkRep();
+    }
+
+    // Replays the valid records of a log segment, and cuts off what follows them: the record being written when
+    // the library crashed, which was never acknowledged
+    private void replay(Path logPath) throws IOException {
+        byte[] bytes = Files.readAllBytes(logPath);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int validLength = 0;
+        while (bytes.length - validLength >= 8) {
+            int length = in.readInt();
+            int crc = in.readInt();
+            if (length < 9 || length > bytes.length - validLength - 8) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            if (crc(payload) != crc) {
+                break;
+            }
+            this.changes.apply(new DataInputStream(new ByteArrayInputStream(payload)));
+            validLength += 8 + length;
+        }
+        if (validLength < bytes.length) {
+            try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+                channel.force(false);
+            }
+        }
+    }
+
+    // Writes a file so that it is either missing or complete, even after a crash
+    private void writeAtomically(Path path, byte[] bytes) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, bytes);
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory();
+    }
+
+    // Makes the creation and renaming of files durable, where the platform allows forcing a directory
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(this.directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ioe) {
+            // Some platforms cannot open directories: their file systems are expected to order metadata writes
+        }
+    }
+
+    // Deletes the snapshots and log segments replaced by snapshot "snapshot-<segment>"
+    private void deleteOlderThan(long segment) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+            for (Path file : files) {
+                Matcher snapshotName = SNAPSHOT_NAME.matcher(file.getFileName().toString());
+                Matcher logName = LOG_NAME.matcher(file.getFileName().toString());
+                if (snapshotName.matches() && Long.parseLong(snapshotName.group(1)) < segment
+                        || logName.matches() && Long.parseLong(logName.group(1)) < segment) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private Path logPath(long segment) {
+        return this.directory.resolve(String.format("log-%016d", segment));
+    }
+
+    private Path snapshotPath(long segment) {
+        return this.directory.resolve(String.format("snapshot-%016d", segment));
+    }
+
+    static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    static void writeBook(DataOutput out, Book book) throws IOException {
+        out.writeUTF(book.getTitle());
+        out.writeInt(book.getAuthors().size());
+        for (String author : book.getAuthors()) {
+            out.writeUTF(author);
+        }
+        out.writeInt(book.getYear());
+    }
+
+    static Book readBook(DataInput in) throws IOException {
+        String title = in.readUTF();
+        int authorCount = in.readInt();
+        if (authorCount < 0) {
+            throw new IOException("Invalid number of authors " + authorCount);
+        }
+        // Grows with the authors actually read, rather than trusting the count of a corrupt input
+        List<String> authors = new ArrayList<>(Math.min(authorCount, 16));
+        for (int i = 0; i < authorCount; i++) {
+            authors.add(in.readUTF());
+        }
+        return new Book(title, authors, in.readInt());
+    }
+}
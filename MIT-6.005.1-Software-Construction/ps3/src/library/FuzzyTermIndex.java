@@ -0,0 +1,202 @@
+package library;
+
+import java.util.*;
+
+/**
+ * FuzzyTermIndex is a mutable dictionary of terms answering approximate queries: the terms within a small edit
+ * distance of a (misspelled) term, and the terms starting with a prefix.
+ * <p>
+ * Terms are indexed by their trigrams, the substrings of 3 characters of the term padded with two '\0' on each
+ * side. A term within edit distance d of another keeps all but 3d of its trigrams, so only the terms sharing
+ * enough trigrams with the query are candidates, and the exact (Levenshtein) distance is only computed for them.
+ * The dictionary is also kept sorted, so that the terms starting with a prefix are a range of it.
+ */
+public class FuzzyTermIndex {
+
+    /**
+     * Largest edit distance between a term and the similar terms found for it.
+     */
+    public static final int MAX_DISTANCE = 2;
+
+    private static final char PADDING = '\0';
+
+    // Rep
+    private final NavigableSet<String> terms;
+
+    private final Map<String, Set<String>> termsByTrigram;
+
+    // Rep invariant
+    // terms contains no empty string
+    // termsByTrigram maps every trigram of every term of terms to the nonempty set of terms having it, and has no
+    // other key
+
+    // Abstraction function
+    // Represents the set of terms in terms; termsByTrigram is an index of it
+
+    // Safety from rep exposure argument
+    // All fields are private and final, and never returned: queries return new collections of (immutable) strings.
+
+    /**
+     * Make an empty FuzzyTermIndex.
+     */
+    public FuzzyTermIndex() {
+        this.terms = new TreeSet<>();
+        this.termsByTrigram = new HashMap<>();
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert this.terms != null;
+        assert this.termsByTrigram != null;
+        assert !this.terms.contains("");
+    }
+
+    /**
+     * @return the number of terms in this index
+     */
+    public int size() {
+        return this.terms.size();
+    }
+
+    /**
+     * Add a term to this index, if it is not already present.
+     * @param term nonempty term to add
+     */
+    public void add(String term) {
+        if (term.isEmpty()) {
+            throw new IllegalArgumentException("Terms must not be empty");
+        }
+        if (this.terms.add(term)) {
+            for (String trigram : trigrams(term)) {
+                this.termsByTrigram.computeIfAbsent(trigram, _trigram -> new HashSet<>()).add(term);
+            }
+        }
+        checkRep();
+    }
+
+    /**
+     * Remove a term from this index, if it is present.
+     * @param term term to remove
+     */
+    public void remove(String term) {
+        if (this.terms.remove(term)) {
+            for (String trigram : trigrams(term)) {
+                Set<String> termsWithTrigram = this.termsByTrigram.get(trigram);
+                termsWithTrigram.remove(term);
+                if (termsWithTrigram.isEmpty()) {
+                    this.termsByTrigram.remove(trigram);
+                }
+            }
+        }
+        checkRep();
+    }
+
+    /**
+     * Largest edit distance tolerated for a term of some length: none up to 2 characters, where any term would
+     * be close, 1 up to 5 characters, and MAX_DISTANCE above.
+     * @param length length of a term
+     * @return the edit distance tolerated for a term of that length
+     */
+    public static int maxDistance(int length) {
+        if (length <= 2) {
+            return 0;
+        } else if (length <= 5) {
+            return 1;
+        }
+        return MAX_DISTANCE;
+    }
+
+    /**
+     * Find the terms of this index similar to a term.
+     * @param term a term
+     * @return map from every term of this index within edit distance maxDistance(term.length()) of term (including
+     * term itself if present) to its edit distance from term. Terms whose trigrams are almost all repeated may
+     * be missed if they share no trigram at all with term.
+     */
+    public Map<String, Integer> similarTerms(String term) {
+        int maxDistance = maxDistance(term.length());
+        Set<String> trigrams = trigrams(term);
+        Map<String, Integer> sharedTrigramsByTerm = new HashMap<>();
+        for (String trigram : trigrams) {
+            for (String candidate : this.termsByTrigram.getOrDefault(trigram, Collections.emptySet())) {
+                sharedTrigramsByTerm.merge(candidate, 1, Integer::sum);
+            }
+        }
+
+        int minSharedTrigrams = Math.max(1, trigrams.size() - 3 * maxDistance);
+        Map<String, Integer> result = new HashMap<>();
+        sharedTrigramsByTerm.forEach((candidate, sharedTrigrams) -> {
+            if (sharedTrigrams >= minSharedTrigrams
+                    && Math.abs(candidate.length() - term.length()) <= maxDistance) {
+                int distance = editDistance(term, candidate, maxDistance);
+                if (distance <= maxDistance) {
+                    result.put(candidate, distance);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Find the terms of this index starting with a prefix.
+     * @param prefix a prefix
+     * @param limit maximum number of terms to return
+     * @return the (at most) limit first terms of this index starting with prefix, in alphabetical order
+     */
+    public List<String> prefixedTerms(String prefix, int limit) {
+        List<String> result = new ArrayList<>();
+        for (String term : this.terms.tailSet(prefix, true)) {
+            if (!term.startsWith(prefix) || result.size() >= limit) {
+                break;
+            }
+            result.add(term);
+        }
+        return result;
+    }
+
+    /**
+     * Compute the Levenshtein distance between two strings, giving up early when it exceeds a bound.
+     * @param a a string
+     * @param b another string
+     * @param max bound of the distance of interest, must be nonnegative
+     * @return the number of single-character insertions, deletions and substitutions needed to change a into b if
+     * it is at most max, otherwise any number larger than max
+     */
+    public static int editDistance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) {
+            return max + 1;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMinimum = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+                rowMinimum = Math.min(rowMinimum, current[j]);
+            }
+            // Distances never decrease from one row to the next, so the bound is already exceeded
+            if (rowMinimum > max) {
+                return max + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    private static Set<String> trigrams(String term) {
+        String padded = "" + PADDING + PADDING + term + PADDING + PADDING;
+        Set<String> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(padded.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+}
@@ -0,0 +1,464 @@
+package library;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HoldQueueLibrary is a Library where patrons can place holds on books that have no available copy, instead of
+ * polling availableCopies(): it decorates a Library, and hands the copies checked in or bought to the holds of
+ * their book, which complete with them.
+ * <p>
+ * The holds of a book are served by decreasing priority, and among holds of the same priority, in the order they
+ * were placed (first in, first out). A copy checked in while its book has holds waiting goes to the next hold,
+ * checked out on its behalf, and checkout() cannot take it first. buy() and buyAll() keep the contract of Library:
+ * their new copies are available to anyone, and only go to the holds waiting if they are still available at the
+ * next hold() on their book. buyForHold() buys a copy for the next hold directly.
+ * Holds of lower priority wait as long as holds of higher priority keep coming.
+ * <p>
+ * HoldQueueLibrary is thread-safe if its delegate is, and all the changes to the delegate go through it.
+ */
+public class HoldQueueLibrary implements Library {
+
+    /**
+     * Number of locks used by HoldQueueLibrary(delegate).
+     */
+    public static final int DEFAULT_STRIPE_COUNT = 256;
+
+    /**
+     * Priority of the holds placed by hold(book).
+     */
+    public static final int DEFAULT_PRIORITY = 0;
+
+    private static final Comparator<Hold> HOLD_ORDER = (x, y) -> x.priority != y.priority
+            ? Integer.compare(y.priority, x.priority) : Long.compare(x.sequence, y.sequence);
+
+    /**
+     * Hold is the request of a patron for a copy of a book, completed with the copy once it is handed to them.
+     */
+    private static class Hold {
+
+        private final int priority;
+
+        private final long sequence;
+
+        private final CompletableFuture<BookCopy> copy = new CompletableFuture<>();
+
+        // Whether the hold is in the queue of its book, guarded by the stripe lock of the book
+        private boolean queued = false;
+
+        Hold(int priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Handoff is a copy checked out for a hold, which is completed once no lock is held.
+     */
+    private static class Handoff {
+
+        private final Hold hold;
+
+        private final BookCopy copy;
+
+        Handoff(Hold hold, BookCopy copy) {
+            this.hold = hold;
+            this.copy = copy;
+        }
+    }
+
+    // Rep
+    private final Library delegate;
+
+    private final Object[] stripes;
+
+    private final Map<Book, PriorityQueue<Hold>> holdsByBook;
+
+    private final AtomicLong nextSequence;
+
+    // Rep invariant
+    // stripes.length is a power of two
+    // holdsByBook has no empty queue; the sequences of its holds are distinct and less than nextSequence
+    // A hold is queued iff it is in the queue of its book
+    // If the queue of a book has a hold that is not done, the available copies of the book in delegate, if any, were
+    // bought by buy() or buyAll() since the last hold() on the book
+
+    // Abstraction function
+    // Represents the collection of delegate, together with, for each book of holdsByBook, the holds waiting for it
+    // that are not done, in the order of HOLD_ORDER
+    // Done holds in the queues were just cancelled by their patron, and are about to be withdrawn
+
+    // Safety from rep exposure argument
+    // All fields are private and final, and holds are private. Each hold's future is returned to its patron, who
+    // can only complete it (or cancel it) first, which this treats as cancelling the hold.
+
+    // Thread safety argument
+    // The queue of a book, and the copies of that book in delegate, are only read or written while holding the
+    // stripe lock of book, stripeOf(book), so that no copy is checked in while a hold is being placed, and none is
+    // missed. Operations on batches take the stripe locks of their books in increasing index order, and no other
+    // operation holds two stripe locks, so there is no deadlock.
+    // Futures are completed after releasing every lock, since their callbacks run in the completing thread and may
+    // call this library. A copy whose hold was cancelled meanwhile is checked in again, which hands it to the next
+    // hold. A hold cancelled by its patron is withdrawn from its queue by a callback of its own, which takes the
+    // stripe lock of its book, in the thread cancelling it.
+    // holdsByBook is concurrent, and nextSequence atomic. Queries are forwarded to delegate without locking.
+
+    /**
+     * Make a library with holds, using DEFAULT_STRIPE_COUNT locks.
+     * @param delegate library holding the collection, must be thread-safe to use this from several threads, and
+     * must not be changed but through this
+     */
+    public HoldQueueLibrary(Library delegate) {
+        this(delegate, DEFAULT_STRIPE_COUNT);
+    }
+
+    /**
+     * Make a library with holds.
+     * @param delegate library holding the collection, must be thread-safe to use this from several threads, and
+     * must not be changed but through this
+     * @param stripeCount number of locks guarding the holds of books, rounded up to a power of two. Must be
+     * positive.
+     */
+    public HoldQueueLibrary(Library delegate, int stripeCount) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("The delegate library must not be null");
+        }
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("The number of stripes must be positive");
+        }
+        this.delegate = delegate;
+        int powerOfTwo = Integer.highestOneBit(stripeCount);
+        this.stripes = new Object[powerOfTwo < stripeCount ? powerOfTwo * 2 : powerOfTwo];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Object();
+        }
+        this.holdsByBook = new ConcurrentHashMap<>();
+        this.nextSequence = new AtomicLong();
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert this.delegate != null;
+        assert Integer.bitCount(this.stripes.length) == 1;
+        assert this.holdsByBook != null;
+    }
+
+    // Assert the rep invariant for the holds of a book, requires holding its stripe lock
+    private void checkRep(Book book) {
+        assert Thread.holdsLock(stripeOf(book));
+        PriorityQueue<Hold> holds = this.holdsByBook.get(book);
+        assert holds == null || !holds.isEmpty();
+        assert holds == null || holds.stream().allMatch(hold -> hold.queued);
+    }
+
+    private Object stripeOf(Book book) {
+        return this.stripes[stripeIndexOf(book)];
+    }
+
+    private int stripeIndexOf(Book book) {
+        int hash = book.hashCode();
+        return (hash ^ (hash >>> 16)) & (this.stripes.length - 1);
+    }
+
+    // Runs action while holding the stripe locks of indexes[from], indexes[from + 1]..., taken in this order
+    private void withStripes(int[] indexes, int from, Runnable action) {
+        if (from == indexes.length) {
+            action.run();
+            return;
+        }
+        synchronized (this.stripes[indexes[from]]) {
+            withStripes(indexes, from + 1, action);
+        }
+    }
+
+    private int[] stripeIndexesOf(Collection<Book> books) {
+        return books.stream().mapToInt(this::stripeIndexOf).distinct().sorted().toArray();
+    }
+
+    /**
+     * Place a hold of DEFAULT_PRIORITY on a book.
+     * @param book Book to hold
+     * @return a future completed with a copy of the book, checked out for the patron, as soon as one is available
+     * and the holds placed before on the book have theirs; or at once if a copy is available now and the book has
+     * no hold waiting. Cancelling the future withdraws the hold.
+     */
+    public CompletableFuture<BookCopy> hold(Book book) {
+        return hold(book, DEFAULT_PRIORITY);
+    }
+
+    /**
+     * Place a hold on a book.
+     * @param book Book to hold
+     * @param priority priority of the hold: holds of higher priority are served first, whenever they were placed
+     * @return a future completed with a copy of the book, checked out for the patron, as soon as one is available
+     * and the holds of higher priority, and those of the same priority placed before, have theirs; or at once if a
+     * copy is available now and the book has no hold waiting. Cancelling the future withdraws the hold.
+     * Copies of the book available now, e.g. bought by buy() while holds were waiting, first go to the holds
+     * waiting, this one included.
+     */
+    public CompletableFuture<BookCopy> hold(Book book, int priority) {
+        Hold hold;
+        List<Handoff> handoffs = new ArrayList<>();
+        synchronized (stripeOf(book)) {
+            hold = new Hold(priority, this.nextSequence.getAndIncrement());
+            PriorityQueue<Hold> holds = pendingHolds(book);
+            Iterator<BookCopy> availableCopies = this.delegate.availableCopies(book).iterator();
+            if (holds == null && availableCopies.hasNext()) {
+                BookCopy copy = availableCopies.next();
+                this.delegate.checkout(copy);
+                hold.copy.complete(copy);
+            } else {
+                this.holdsByBook.computeIfAbsent(book, _book -> new PriorityQueue<>(HOLD_ORDER)).add(hold);
+                hold.queued = true;
+                hold.copy.whenComplete((copy, failure) -> withdraw(book, hold));
+                handOff(book, new ArrayList<>(this.delegate.availableCopies(book)), handoffs);
+            }
+            checkRep(book);
+        }
+        complete(handoffs);
+        return hold.copy;
+    }
+
+    /**
+     * Count the holds waiting for a book.
+     * @param book Book whose holds to count
+     * @return the number of holds placed on book that have not been served nor cancelled
+     */
+    public int holdCount(Book book) {
+        synchronized (stripeOf(book)) {
+            PriorityQueue<Hold> holds = this.holdsByBook.get(book);
+            return holds == null ? 0 : holds.size();
+        }
+    }
+
+    // Removes a hold from the queue of book once its future is done, unless it was taken from it already, i.e.
+    // served; called when the patron cancels the hold
+    private void withdraw(Book book, Hold hold) {
+        synchronized (stripeOf(book)) {
+            if (!hold.queued) {
+                return;
+            }
+            hold.queued = false;
+            PriorityQueue<Hold> holds = this.holdsByBook.get(book);
+            holds.remove(hold);
+            if (holds.isEmpty()) {
+                this.holdsByBook.remove(book);
+            }
+            checkRep(book);
+        }
+    }
+
+    // Drops the done holds at the head of the queue of book, which withdraw() is about to remove, and the queue if
+    // that empties it
+    // Returns the queue, whose first hold is not done, or null if the book has no hold waiting
+    // Requires holding the stripe lock of book
+    private PriorityQueue<Hold> pendingHolds(Book book) {
+        PriorityQueue<Hold> holds = this.holdsByBook.get(book);
+        while (holds != null && !holds.isEmpty() && holds.peek().copy.isDone()) {
+            holds.poll().queued = false;
+        }
+        if (holds != null && holds.isEmpty()) {
+            this.holdsByBook.remove(book);
+            return null;
+        }
+        return holds;
+    }
+
+    // Takes the next hold of book that is not done, or returns null if there is none
+    // Requires holding the stripe lock of book
+    private Hold nextHold(Book book) {
+        PriorityQueue<Hold> holds = pendingHolds(book);
+        if (holds == null) {
+            return null;
+        }
+        Hold next = holds.poll();
+        next.queued = false;
+        if (holds.isEmpty()) {
+            this.holdsByBook.remove(book);
+        }
+        return next;
+    }
+
+    // Completes the holds of handoffs with their copies, requires holding no lock
+    // A copy whose hold was cancelled meanwhile goes to the next hold, or back on the shelves
+    private void complete(List<Handoff> handoffs) {
+        for (Handoff handoff : handoffs) {
+            if (!handoff.hold.copy.complete(handoff.copy)) {
+                checkin(handoff.copy);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The new copy is not handed to the holds waiting for the book, if any: see buyForHold().
+     */
+    @Override
+    public BookCopy buy(Book book) {
+        synchronized (stripeOf(book)) {
+            BookCopy copy = this.delegate.buy(book);
+            checkRep(book);
+            return copy;
+        }
+    }
+
+    /**
+     * Buy a new copy of a book for its holds.
+     * @param book Book to buy
+     * @return a new, good-condition copy of the book: if the book has holds waiting, it is checked out for the next
+     * one, which completes with it; otherwise it is available in this library, as after buy()
+     */
+    public BookCopy buyForHold(Book book) {
+        List<Handoff> handoffs = new ArrayList<>(1);
+        BookCopy copy;
+        synchronized (stripeOf(book)) {
+            copy = this.delegate.buy(book);
+            handOff(book, Arrays.asList(copy), handoffs);
+            checkRep(book);
+        }
+        complete(handoffs);
+        return copy;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The new copies are not handed to the holds waiting for their books, if any: see buyForHold().
+     */
+    @Override
+    public Map<Book, List<BookCopy>> buyAll(Map<Book, Integer> copiesByBook) {
+        CopyBatches.checkCounts(copiesByBook);
+        List<Map<Book, List<BookCopy>>> newCopies = new ArrayList<>(1);
+        withStripes(stripeIndexesOf(copiesByBook.keySet()), 0, () -> {
+            newCopies.add(this.delegate.buyAll(copiesByBook));
+            copiesByBook.keySet().forEach(this::checkRep);
+        });
+        return newCopies.get(0);
+    }
+
+    // Checks out available copies of book for its next holds, as long as both remain, and adds them to handoffs
+    // Requires holding the stripe lock of book
+    private void handOff(Book book, List<BookCopy> copies, List<Handoff> handoffs) {
+        for (BookCopy copy : copies) {
+            Hold hold = nextHold(book);
+            if (hold == null) {
+                return;
+            }
+            this.delegate.checkout(copy);
+            handoffs.add(new Handoff(hold, copy));
+        }
+    }
+
+    @Override
+    public void checkout(BookCopy copy) {
+        Book book = copy.getBook();
+        synchronized (stripeOf(book)) {
+            this.delegate.checkout(copy);
+            checkRep(book);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the book of the copy has holds waiting, the copy goes to the next one instead, and stays checked out.
+     */
+    @Override
+    public void checkin(BookCopy copy) {
+        Book book = copy.getBook();
+        Handoff handoff = null;
+        synchronized (stripeOf(book)) {
+            if (!this.delegate.allCopies(book).contains(copy) || this.delegate.isAvailable(copy)) {
+                throw new IllegalArgumentException("This book copy was not checked out of the library");
+            }
+            Hold hold = nextHold(book);
+            if (hold == null) {
+                this.delegate.checkin(copy);
+            } else {
+                handoff = new Handoff(hold, copy);
+            }
+            checkRep(book);
+        }
+        if (handoff != null) {
+            complete(Arrays.asList(handoff));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Copies of books with holds waiting go to those holds instead, and stay checked out.
+     */
+    @Override
+    public void checkinAll(Collection<BookCopy> copies) {
+        Map<Book, List<BookCopy>> copiesByBook = CopyBatches.groupByBook(copies);
+        List<Handoff> handoffs = new ArrayList<>();
+        withStripes(stripeIndexesOf(copiesByBook.keySet()), 0, () -> {
+            copiesByBook.forEach((book, bookCopies) -> {
+                Set<BookCopy> allCopies = this.delegate.allCopies(book);
+                for (BookCopy copy : bookCopies) {
+                    if (!allCopies.contains(copy) || this.delegate.isAvailable(copy)) {
+                        throw new IllegalArgumentException("This book copy was not checked out of the library");
+                    }
+                }
+            });
+            List<BookCopy> shelved = new ArrayList<>();
+            copiesByBook.forEach((book, bookCopies) -> {
+                for (BookCopy copy : bookCopies) {
+                    Hold hold = nextHold(book);
+                    if (hold == null) {
+                        shelved.add(copy);
+                    } else {
+                        handoffs.add(new Handoff(hold, copy));
+                    }
+                }
+            });
+            this.delegate.checkinAll(shelved);
+            copiesByBook.keySet().forEach(this::checkRep);
+        });
+        complete(handoffs);
+    }
+
+    @Override
+    public boolean isAvailable(BookCopy copy) {
+        return this.delegate.isAvailable(copy);
+    }
+
+    @Override
+    public Set<BookCopy> allCopies(Book book) {
+        return this.delegate.allCopies(book);
+    }
+
+    @Override
+    public Set<BookCopy> availableCopies(Book book) {
+        return this.delegate.availableCopies(book);
+    }
+
+    @Override
+    public int totalCount(Book book) {
+        return this.delegate.totalCount(book);
+    }
+
+    @Override
+    public int availableCount(Book book) {
+        return this.delegate.availableCount(book);
+    }
+
+    @Override
+    public List<Book> find(String query) {
+        return this.delegate.find(query);
+    }
+
+    @Override
+    public void lose(BookCopy copy) {
+        Book book = copy.getBook();
+        synchronized (stripeOf(book)) {
+            this.delegate.lose(copy);
+            checkRep(book);
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package library;
 
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Library represents a mutable collection of books.  The library may have multiple copies of the same book.
@@ -28,6 +27,45 @@ public interface Library {
      * @param copy Copy to check in.  Requires that the copy be checked out of this library.
      */
     public void checkin(BookCopy copy);
+
+    /**
+     * Buy new copies of several books at once, and add them to the library's collection.
+     * @param copiesByBook number of copies to buy of each book
+     * @return map from each book of copiesByBook to the list of its new, good-condition copies, which are now
+     * available in this library
+     * @throws IllegalArgumentException if a book is null or its number of copies is not positive, in which case no
+     * copy is bought
+     */
+    public default Map<Book, List<BookCopy>> buyAll(Map<Book, Integer> copiesByBook) {
+        CopyBatches.checkCounts(copiesByBook);
+        Map<Book, List<BookCopy>> newCopies = new HashMap<>();
+        copiesByBook.forEach((book, count) -> {
+            List<BookCopy> copies = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                copies.add(buy(book));
+            }
+            newCopies.put(book, copies);
+        });
+        return newCopies;
+    }
+
+    /**
+     * Check in several copies at once, making them available again: either all of them are checked in, or none is.
+     * @param copies Copies to check in.
+     * @throws IllegalArgumentException if a copy is not checked out of this library, or appears more than once in
+     * copies, in which case no copy is checked in
+     */
+    public default void checkinAll(Collection<BookCopy> copies) {
+        for (Map.Entry<Book, List<BookCopy>> entry : CopyBatches.groupByBook(copies).entrySet()) {
+            Set<BookCopy> allCopies = allCopies(entry.getKey());
+            for (BookCopy copy : entry.getValue()) {
+                if (!allCopies.contains(copy) || isAvailable(copy)) {
+                    throw new IllegalArgumentException("This book copy was not checked out of the library");
+                }
+            }
+        }
+        copies.forEach(this::checkin);
+    }
     
     /**
      * Test whether a book copy is available in this library.
@@ -49,6 +87,26 @@ public interface Library {
      * @return set of all copies of the book that are available in this library.
      */
     public Set<BookCopy> availableCopies(Book book);
+
+    /**
+     * Count all the copies of a book.
+     * @param book Book to count
+     * @return the number of copies of the book in this library's collection, both available and checked out, that
+     * is allCopies(book).size(). Implementations should override it to count without building the set.
+     */
+    public default int totalCount(Book book) {
+        return allCopies(book).size();
+    }
+
+    /**
+     * Count the available copies of a book.
+     * @param book Book to count
+     * @return the number of copies of the book that are available in this library, that is
+     * availableCopies(book).size(). Implementations should override it to count without building the set.
+     */
+    public default int availableCount(Book book) {
+        return availableCopies(book).size();
+    }
     
     /**
      * Search for books in this library's collection.
@@ -0,0 +1,301 @@
+package library;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * LibraryReplica is a read-only copy of the collection of a ReplicatingLibrary, its primary: it applies the log of
+ * changes streamed by the primary to a Library of its own, from which it serves find(), allCopies(), isAvailable()
+ * and the other queries. Every change must go through the primary, so the mutators of a replica throw
+ * UnsupportedOperationException.
+ * <p>
+ * A replica lags behind its primary: lagMillis() measures by how much, and awaitRecords() waits until it has
+ * applied a change made on the primary, e.g. to read one's own writes. If the connection to the primary fails, the
+ * replica keeps serving its last state, and its lag keeps growing; a new replica must then be made to catch up.
+ * Times are measured by the clocks of the primary and of the replica, which are expected to agree, as they do on
+ * the same host.
+ * <p>
+ * Copies of the replica are not those of the primary: copyWithId() gives the copy of the replica that has the
+ * number of a copy of the primary, see ReplicatingLibrary.idOf().
+ * <p>
+ * LibraryReplica is thread-safe.
+ */
+public class LibraryReplica implements Library, Closeable {
+
+    // Rep
+    private final Library delegate;
+
+    private final ChangeLog changes;
+
+    private final Socket socket;
+
+    private final CompletableFuture<Void> loaded;
+
+    private long appliedRecords;
+
+    private long currentAtMillis;
+
+    // Rep invariant
+    // changes numbers the copies of delegate, whose collection is the one of the primary after its first
+    // appliedRecords records, as of currentAtMillis (time of the primary) at least
+
+    // Abstraction function
+    // Represents the collection of delegate, a replica of the one of the primary at the other end of socket as it
+    // was at currentAtMillis; loaded is completed once the snapshot of the primary is applied
+
+    // Safety from rep exposure argument
+    // All fields are private and final but appliedRecords and currentAtMillis, which are primitives, and delegate
+    // is only changed through changes. Copies are returned to clients, but BookCopy has no operation that could
+    // change the rep of this.
+
+    // Thread safety argument
+    // Only the reader thread reads socket and changes delegate, through changes. changes, appliedRecords and
+    // currentAtMillis are guarded by the lock of this, which the reader thread takes to apply each frame, and
+    // threads awaiting records wait on. delegate must be thread-safe, so that queries are forwarded to it
+    // without locking while frames are applied.
+
+    /**
+     * Make a replica of a primary, and load the whole collection of the primary.
+     * @param primary address of the primary, see ReplicatingLibrary.getPort()
+     * @param delegate empty, thread-safe library to hold the collection, e.g. a ConcurrentLibrary; it must not be
+     * used anymore but through the returned replica
+     * @throws IOException if the primary cannot be reached, or fails before the collection is loaded
+     */
+    public LibraryReplica(InetSocketAddress primary, Library delegate) throws IOException {
+        if (delegate == null) {
+            throw new IllegalArgumentException("The delegate must not be null");
+        }
+        this.delegate = delegate;
+        this.changes = new ChangeLog(delegate);
+        this.loaded = new CompletableFuture<>();
+        this.socket = new Socket();
+        this.socket.setTcpNoDelay(true);
+        this.socket.connect(primary);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+        Thread reader = new Thread(() -> applyFrames(in), "library-replica-reader");
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            this.loaded.join();
+        } catch (CompletionException ce) {
+            this.socket.close();
+            throw new IOException("The collection of the primary could not be loaded", ce.getCause());
+        }
+        synchronized (this) {
+            checkRep();
+        }
+    }
+
+    // Assert the rep invariant, requires holding the lock of this
+    private void checkRep() {
+        assert Thread.holdsLock(this);
+        assert this.appliedRecords >= 0;
+    }
+
+    /**
+     * @return the number of records of the primary applied so far, to compare with
+     * ReplicatingLibrary.appendedRecords()
+     */
+    public synchronized long appliedRecords() {
+        return this.appliedRecords;
+    }
+
+    /**
+     * Replication lag.
+     * @return the time in milliseconds since the collection of this replica was known to be the one of the primary:
+     * at most about ReplicatingLibrary.HEARTBEAT_INTERVAL_MILLIS while the replica keeps up, more if the primary
+     * changes faster than the replica applies the changes, or cannot be reached anymore
+     */
+    public synchronized long lagMillis() {
+        return Math.max(0, System.currentTimeMillis() - this.currentAtMillis);
+    }
+
+    /**
+     * Wait until this replica has applied a number of records, e.g. the appendedRecords() of the primary right
+     * after a change.
+     * @param records number of records to wait for
+     * @param timeoutMillis maximum time to wait, in milliseconds
+     * @return true if the records are applied, false if the time ran out first
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized boolean awaitRecords(long records, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (this.appliedRecords < records) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            this.wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Get a copy from its number.
+     * @param id number of a copy, as returned by ReplicatingLibrary.idOf()
+     * @return the copy of this replica with that number, or null if there is none (yet, or anymore)
+     */
+    public synchronized BookCopy copyWithId(long id) {
+        return this.changes.copyWithId(id);
+    }
+
+    // Applies the frames sent by the primary, until the connection fails or a frame cannot be applied
+    private void applyFrames(DataInputStream in) {
+        try {
+            while (true) {
+                int length = in.readInt();
+                if (length < 17) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                byte kind = in.readByte();
+                long records = in.readLong();
+                long timeMillis = in.readLong();
+                byte[] body = new byte[length - 17];
+                in.readFully(body);
+                synchronized (this) {
+                    apply(kind, records, body);
+                    this.appliedRecords = records;
+                    this.currentAtMillis = timeMillis;
+                    checkRep();
+                    this.notifyAll();
+                }
+                this.loaded.complete(null);
+            }
+        } catch (Throwable failure) {
+            // Also fails the constructor if the snapshot is not loaded yet, instead of leaving it waiting forever
+            this.loaded.completeExceptionally(failure);
+            try {
+                this.socket.close();
+            } catch (IOException closeFailure) {
+                // The connection is unusable anyway
+            }
+        }
+    }
+
+    // Applies a frame, requires holding the lock of this
+    private void apply(byte kind, long records, byte[] body) throws IOException {
+        if (kind == ReplicatingLibrary.SNAPSHOT) {
+            if (this.loaded.isDone()) {
+                throw new IOException("Unexpected snapshot");
+            }
+            this.changes.decodeSnapshot(body);
+            return;
+        }
+        if (!this.loaded.isDone()) {
+            throw new IOException("The primary did not start with a snapshot");
+        }
+        if (kind == ReplicatingLibrary.RECORD) {
+            if (records != this.appliedRecords + 1) {
+                throw new IOException("Record " + records + " received after record " + this.appliedRecords);
+            }
+            this.changes.apply(new DataInputStream(new ByteArrayInputStream(body)));
+        } else if (kind == ReplicatingLibrary.HEARTBEAT) {
+            if (records != this.appliedRecords) {
+                throw new IOException("Heartbeat at record " + records + " after record " + this.appliedRecords);
+            }
+        } else {
+            throw new IOException("Unknown frame kind " + kind);
+        }
+    }
+
+    /**
+     * Unsupported: a replica is read-only.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public BookCopy buy(Book book) {
+        throw readOnly();
+    }
+
+    /**
+     * Unsupported: a replica is read-only.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void checkout(BookCopy copy) {
+        throw readOnly();
+    }
+
+    /**
+     * Unsupported: a replica is read-only.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void checkin(BookCopy copy) {
+        throw readOnly();
+    }
+
+    /**
+     * Unsupported: a replica is read-only.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public Map<Book, List<BookCopy>> buyAll(Map<Book, Integer> copiesByBook) {
+        throw readOnly();
+    }
+
+    /**
+     * Unsupported: a replica is read-only.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void checkinAll(Collection<BookCopy> copies) {
+        throw readOnly();
+    }
+
+    /**
+     * Unsupported: a replica is read-only.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void lose(BookCopy copy) {
+        throw readOnly();
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("A replica is read-only, change the primary instead");
+    }
+
+    @Override
+    public boolean isAvailable(BookCopy copy) {
+        return this.delegate.isAvailable(copy);
+    }
+
+    @Override
+    public Set<BookCopy> allCopies(Book book) {
+        return this.delegate.allCopies(book);
+    }
+
+    @Override
+    public Set<BookCopy> availableCopies(Book book) {
+        return this.delegate.availableCopies(book);
+    }
+
+    @Override
+    public int totalCount(Book book) {
+        return this.delegate.totalCount(book);
+    }
+
+    @Override
+    public int availableCount(Book book) {
+        return this.delegate.availableCount(book);
+    }
+
+    @Override
+    public List<Book> find(String query) {
+        return this.delegate.find(query);
+    }
+
+    /**
+     * Disconnect from the primary. The replica keeps serving its last state.
+     * @throws IOException if the connection cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+    }
+}
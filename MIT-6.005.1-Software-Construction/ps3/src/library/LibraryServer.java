@@ -0,0 +1,407 @@
+package library;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LibraryServer shares a Library between many clients over TCP, so that application instances see the same
+ * circulation state; RemoteLibrary is its client.
+ * <p>
+ * Protocol: every request and every response is a frame, an int length followed by that many bytes. A request is
+ * an opcode byte followed by its arguments; a response is a status byte, OK followed by the result, or ERROR
+ * followed by a message when the request is malformed or the library failed on it (any RuntimeException, e.g.
+ * IllegalArgumentException when it rejects the request). A request frame longer than MAX_FRAME_LENGTH closes the
+ * connection instead, since the server would have to hold it whole.
+ * Integers are big-endian, strings are written as DataOutput.writeUTF() does, books as DurableLibrary.writeBook()
+ * does, and copies are identified by long ids given by the server.
+ * <ul>
+ * <li>BUY book : answers the id of the new copy
+ * <li>CHECKOUT id, CHECKIN id, LOSE id : answer nothing
+ * <li>IS_AVAILABLE id : answers a boolean
+ * <li>ALL_COPIES book, AVAILABLE_COPIES book : answer a count, then as many ids
+ * <li>TOTAL_COUNT book, AVAILABLE_COUNT book : answer an int
+ * <li>FIND query : answers a count, then as many books
+ * </ul>
+ * Requests can be pipelined: a client may send many requests without waiting, and the responses come in the same
+ * order. The responses to the requests already received are written together.
+ * <p>
+ * Every connection is served by one task of an executor: by default, a new thread with a small stack, since this
+ * code targets Java 8; a virtual-thread executor can be passed instead where the platform has one.
+ */
+public class LibraryServer implements Closeable {
+
+    /**
+     * Default server port.
+     */
+    public static final int DEFAULT_PORT = 4445;
+
+    /**
+     * Maximum length of a request frame, far more than any book or query needs.
+     */
+    public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+    /**
+     * Option of main() binding the server to the loopback address, so that only this host can connect.
+     */
+    public static final String LOOPBACK_OPTION = "--loopback";
+
+    /**
+     * Option of main() stopping the server once its standard input is closed, e.g. when the process that started
+     * it exits, however it exits.
+     */
+    public static final String EXIT_ON_EOF_OPTION = "--exit-on-eof";
+
+    static final byte BUY = 1;
+
+    static final byte CHECKOUT = 2;
+
+    static final byte CHECKIN = 3;
+
+    static final byte LOSE = 4;
+
+    static final byte IS_AVAILABLE = 5;
+
+    static final byte ALL_COPIES = 6;
+
+    static final byte AVAILABLE_COPIES = 7;
+
+    static final byte TOTAL_COUNT = 8;
+
+    static final byte AVAILABLE_COUNT = 9;
+
+    static final byte FIND = 10;
+
+    static final byte OK = 0;
+
+    static final byte ERROR = 1;
+
+    private static final int BACKLOG = 4096;
+
+    private static final long CONNECTION_STACK_SIZE = 256 * 1024;
+
+    // Rep
+    private final Library library;
+
+    private final ServerSocket serverSocket;
+
+    private final Executor connectionExecutor;
+
+    private final Set<Socket> connections;
+
+    private final Map<Long, BookCopy> copiesById;
+
+    private final Map<BookCopy, Long> idsByCopy;
+
+    private final AtomicLong nextCopyId;
+
+    // Rep invariant
+    // copiesById and idsByCopy are inverse maps, whose ids are all less than nextCopyId
+    // connections are the sockets accepted by serverSocket and not closed yet
+
+    // Abstraction function
+    // Represents a server sharing library on serverSocket, with its open connections, where the client id of each
+    // copy of library given one so far is idsByCopy.get(copy)
+
+    // Safety from rep exposure argument
+    // All fields are private and final, and never returned; requests and responses are copied through streams.
+
+    // Thread safety argument
+    // library must be thread-safe. copiesById, idsByCopy and connections are concurrent, and nextCopyId atomic:
+    // an id is put in both maps by the only thread that got it from nextCopyId, or by computeIfAbsent(), which
+    // gives every copy at most one id. A copy may still be lost while another connection gives it an id, which
+    // leaves that id pointing to a lost copy, on which the library rejects every request.
+    // Each connection is only used by the task serving it, and by close().
+
+    /**
+     * Make a server listening on a port, serving every connection on its own thread.
+     * @param library library to share, must be thread-safe
+     * @param port port number, requires 0 <= port <= 65535; 0 for any free port
+     * @throws IOException if the server socket cannot be opened
+     */
+    public LibraryServer(Library library, int port) throws IOException {
+        this(library, port, LibraryServer::startConnectionThread);
+    }
+
+    /**
+     * Make a server listening on a port.
+     * @param library library to share, must be thread-safe
+     * @param port port number, requires 0 <= port <= 65535; 0 for any free port
+     * @param connectionExecutor executor running the task serving each connection until it is closed, which must
+     * run them all at the same time, e.g. on one thread each
+     * @throws IOException if the server socket cannot be opened
+     */
+    public LibraryServer(Library library, int port, Executor connectionExecutor) throws IOException {
+        this(library, null, port, connectionExecutor);
+    }
+
+    /**
+     * Make a server listening on a port of one address of this host.
+     * @param library library to share, must be thread-safe
+     * @param bindAddress address to listen on, e.g. InetAddress.getLoopbackAddress() to only accept connections
+     * from this host; null for every address of this host
+     * @param port port number, requires 0 <= port <= 65535; 0 for any free port
+     * @param connectionExecutor executor running the task serving each connection until it is closed, which must
+     * run them all at the same time, e.g. on one thread each
+     * @throws IOException if the server socket cannot be opened
+     */
+    public LibraryServer(Library library, InetAddress bindAddress, int port, Executor connectionExecutor)
+            throws IOException {
+        if (library == null || connectionExecutor == null) {
+            throw new IllegalArgumentException("The library and executor must not be null");
+        }
+        this.library = library;
+        this.serverSocket = new ServerSocket(port, BACKLOG, bindAddress);
+        this.connectionExecutor = connectionExecutor;
+        this.connections = ConcurrentHashMap.newKeySet();
+        this.copiesById = new ConcurrentHashMap<>();
+        this.idsByCopy = new ConcurrentHashMap<>();
+        this.nextCopyId = new AtomicLong();
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert this.library != null;
+        assert this.serverSocket != null;
+        assert this.copiesById.size() == this.idsByCopy.size();
+    }
+
+    private static void startConnectionThread(Runnable task) {
+        Thread thread = new Thread(null, task, "library-connection", CONNECTION_STACK_SIZE);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Start a server on a ConcurrentLibrary, print its port on standard output, and serve connections forever, or
+     * with EXIT_ON_EOF_OPTION, until standard input is closed.
+     * @param args optionally, the port to listen on, by default DEFAULT_PORT, 0 for any free port; then any of
+     * LOOPBACK_OPTION and EXIT_ON_EOF_OPTION
+     * @throws IOException if the server socket cannot be opened
+     */
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        InetAddress bindAddress = null;
+        boolean exitOnEof = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals(LOOPBACK_OPTION)) {
+                bindAddress = InetAddress.getLoopbackAddress();
+            } else if (args[i].equals(EXIT_ON_EOF_OPTION)) {
+                exitOnEof = true;
+            } else if (i == 0) {
+                port = Integer.parseInt(args[i]);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        try (LibraryServer server = new LibraryServer(new ConcurrentLibrary(), bindAddress, port,
+                LibraryServer::startConnectionThread)) {
+            System.out.println(server.getPort());
+            System.out.flush();
+            if (exitOnEof) {
+                startWatchdog();
+            }
+            server.serve();
+        }
+    }
+
+    // Exits the process once standard input is closed
+    private static void startWatchdog() {
+        Thread watchdog = new Thread(() -> {
+            try {
+                while (System.in.read() >= 0) {
+                    // Ignore input, only wait for the end of it
+                }
+            } catch (IOException ioe) {
+                // Parent is gone as well
+            }
+            System.exit(0);
+        }, "library-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    /**
+     * @return the port this server listens on
+     */
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accept connections and hand them to the connection executor, until this server is closed.
+     * @throws IOException if the server socket is broken, but not when it is closed (IOExceptions from individual
+     * connections do not stop serve())
+     */
+    public void serve() throws IOException {
+        while (true) {
+            Socket socket;
+            try {
+                socket = this.serverSocket.accept();
+            } catch (SocketException se) {
+                if (this.serverSocket.isClosed()) {
+                    return;
+                }
+                throw se;
+            }
+            this.connections.add(socket);
+            if (this.serverSocket.isClosed()) {
+                // close() may have missed it
+                socket.close();
+                return;
+            }
+            this.connectionExecutor.execute(() -> serve(socket));
+        }
+    }
+
+    /**
+     * Stop accepting connections, and close those open.
+     * @throws IOException if the server socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.serverSocket.close();
+        for (Socket socket : this.connections) {
+            socket.close();
+        }
+    }
+
+    // Serves the requests of a connection until it is closed, or sends a frame too long to serve
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException eofe) {
+                    return;
+                }
+                if (length < 1 || length > MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid request length " + length);
+                }
+                byte[] request = new byte[length];
+                in.readFully(request);
+                byte[] response = respond(new DataInputStream(new ByteArrayInputStream(request)));
+                out.writeInt(response.length);
+                out.write(response);
+                // Answer pipelined requests already received together
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException ioe) {
+            // The client is gone, or broke the protocol; other connections go on
+        } finally {
+            this.connections.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException ioe) {
+                // Nothing more can be done with it
+            }
+        }
+    }
+
+    // Runs one request on the library, and returns its response
+    private byte[] respond(DataInputStream request) {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(response);
+        try {
+            byte opcode = request.readByte();
+            out.writeByte(OK);
+            switch (opcode) {
+            case BUY:
+                out.writeLong(idOf(this.library.buy(DurableLibrary.readBook(request))));
+                break;
+            case CHECKOUT:
+                this.library.checkout(copyWithId(request.readLong()));
+                break;
+            case CHECKIN:
+                this.library.checkin(copyWithId(request.readLong()));
+                break;
+            case LOSE:
+                lose(request.readLong());
+                break;
+            case IS_AVAILABLE:
+                out.writeBoolean(this.library.isAvailable(copyWithId(request.readLong())));
+                break;
+            case ALL_COPIES:
+                writeIds(out, this.library.allCopies(DurableLibrary.readBook(request)));
+                break;
+            case AVAILABLE_COPIES:
+                writeIds(out, this.library.availableCopies(DurableLibrary.readBook(request)));
+                break;
+            case TOTAL_COUNT:
+                out.writeInt(this.library.totalCount(DurableLibrary.readBook(request)));
+                break;
+            case AVAILABLE_COUNT:
+                out.writeInt(this.library.availableCount(DurableLibrary.readBook(request)));
+                break;
+            case FIND:
+                List<Book> books = this.library.find(request.readUTF());
+                out.writeInt(books.size());
+                for (Book book : books) {
+                    DurableLibrary.writeBook(out, book);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown opcode " + opcode);
+            }
+        } catch (RuntimeException | IOException e) {
+            // Rejected by the library, failed in it, or malformed: the frame is skipped as a whole, so the
+            // connection goes on
+            response.reset();
+            try {
+                out.writeByte(ERROR);
+                out.writeUTF(String.valueOf(e.getMessage()));
+            } catch (IOException ioe) {
+                throw new AssertionError("Byte arrays do not throw", ioe);
+            }
+        }
+        return response.toByteArray();
+    }
+
+    private long idOf(BookCopy copy) {
+        Long id = this.idsByCopy.computeIfAbsent(copy, _copy -> {
+            long newId = this.nextCopyId.getAndIncrement();
+            this.copiesById.put(newId, copy);
+            return newId;
+        });
+        return id;
+    }
+
+    private BookCopy copyWithId(long id) {
+        BookCopy copy = this.copiesById.get(id);
+        if (copy == null) {
+            throw new IllegalArgumentException("Unknown book copy " + id);
+        }
+        return copy;
+    }
+
+    private void lose(long id) {
+        BookCopy copy = this.copiesById.get(id);
+        if (copy != null) {
+            this.library.lose(copy);
+            this.copiesById.remove(id);
+            this.idsByCopy.remove(copy);
+        }
+    }
+
+    private void writeIds(DataOutputStream out, Set<BookCopy> copies) throws IOException {
+        // Copy first, as the set may be a live view changed by other connections meanwhile
+        List<BookCopy> snapshot = new ArrayList<>(copies);
+        out.writeInt(snapshot.size());
+        for (BookCopy copy : snapshot) {
+            out.writeLong(idOf(copy));
+        }
+    }
+}
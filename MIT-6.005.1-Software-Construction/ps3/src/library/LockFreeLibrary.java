@@ -0,0 +1,322 @@
+package library;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * LockFreeLibrary represents a large collection of books shared by many threads, and is thread-safe without locking
+ * on checkout and checkin, so that many desks lending copies of the same bestseller scale across cores.
+ * <p>
+ * Every copy bought from the library gets a circulation record whose state (available, checked out or lost) is an
+ * atomic field: checkout, checkin and lose are single compare-and-set transitions of that field, so two threads
+ * can never both succeed in checking out the same copy. The number of available and of all copies of each book is
+ * kept in LongAdders, which threads update without contending.
+ * <p>
+ * Books whose copies are all lost stay in the catalog, but are not found anymore: the catalog only grows, so that
+ * adding to it never races with removing from it.
+ */
+public class LockFreeLibrary implements Library {
+
+    private static final int MAX_RANKED_MATCHES = 50;
+
+    private static final int AVAILABLE = 0;
+
+    private static final int CHECKED_OUT = 1;
+
+    private static final int LOST = 2;
+
+    private static final int RETURNING = 3;
+
+    /**
+     * Circulation is the mutable record of one copy in this library, whose state only changes by compare-and-set.
+     */
+    private static class Circulation {
+
+        private static final AtomicIntegerFieldUpdater<Circulation> STATE = AtomicIntegerFieldUpdater
+                .newUpdater(Circulation.class, "state");
+
+        private final Holdings holdings;
+
+        private volatile int state = AVAILABLE;
+
+        Circulation(Holdings holdings) {
+            this.holdings = holdings;
+        }
+
+        boolean transition(int expected, int next) {
+            return STATE.compareAndSet(this, expected, next);
+        }
+    }
+
+    /**
+     * Holdings are the copies of one book, and their counts.
+     */
+    private static class Holdings {
+
+        private final Set<BookCopy> copies = ConcurrentHashMap.newKeySet();
+
+        private final LongAdder availableCount = new LongAdder();
+
+        private final LongAdder totalCount = new LongAdder();
+    }
+
+    // Rep
+    private final Map<BookCopy, Circulation> circulationByCopy;
+
+    private final Map<Book, Holdings> holdingsByBook;
+
+    private final Map<String, Set<Book>> booksByTitle;
+
+    private final Map<String, Set<Book>> booksByAuthor;
+
+    private final BookSearchIndex searchIndex;
+
+    private final ReadWriteLock searchIndexLock;
+
+    // Rep invariant
+    // circulationByCopy maps exactly the copies of the copies sets of holdingsByBook to a record in state AVAILABLE,
+    // CHECKED_OUT, or RETURNING while a checkinAll() is in progress, whose holdings are those of the copy's book
+    // Once no operation is in progress, the availableCount of each holdings is the number of its copies in state
+    // AVAILABLE, and its totalCount the number of its copies
+    // booksByTitle (resp. booksByAuthor) maps each title (resp. author) of a book of holdingsByBook to the nonempty
+    // set of those books having it, and has no other key; searchIndex indexes exactly those books
+
+    // Abstraction function
+    // Represents the collection of the copies that are keys of circulationByCopy, each available or checked out
+    // according to the state of its record, RETURNING copies being checked out
+    // booksByTitle, booksByAuthor and searchIndex are indexes of the books ever bought, and do not add to the
+    // abstract value
+
+    // Safety from rep exposure argument
+    // All fields are private and final, and records are private. Sets of copies are only returned as new sets, and
+    // find returns a new list.
+
+    // Thread safety argument
+    // The state of a copy is only changed by compare-and-set, so among concurrent transitions from the same state,
+    // exactly one succeeds, and each operation on a copy is atomic at its successful transition.
+    // checkinAll() first moves all its copies from CHECKED_OUT to RETURNING, which only it leaves (but for lose()), so
+    // that once it has them all, checking them in cannot fail; if it cannot get one, it moves those it got back.
+    // A copy is put in circulationByCopy, then in its holdings, before buy() returns it; lose() takes it out in
+    // the opposite order after its transition to LOST, which no other transition leaves.
+    // All maps, sets and counters are concurrent or thread-safe. Holdings and catalog entries are never removed, so
+    // additions by putIfAbsent() never race with removals.
+    // searchIndex is not thread-safe, so it is guarded by searchIndexLock: buy() takes the write lock once per book,
+    // when the book is first bought, and find() takes the read lock.
+
+    public LockFreeLibrary() {
+        this.circulationByCopy = new ConcurrentHashMap<>();
+        this.holdingsByBook = new ConcurrentHashMap<>();
+        this.booksByTitle = new ConcurrentHashMap<>();
+        this.booksByAuthor = new ConcurrentHashMap<>();
+        this.searchIndex = new BookSearchIndex(BigLibrary.BOOK_SORTING_COMPARATOR);
+        this.searchIndexLock = new ReentrantReadWriteLock();
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert this.circulationByCopy != null;
+        assert this.holdingsByBook != null;
+    }
+
+    // Assert the rep invariant for the record of a copy
+    private void checkRep(BookCopy copy, Circulation circulation) {
+        int state = circulation.state;
+        assert state == AVAILABLE || state == CHECKED_OUT || state == LOST || state == RETURNING;
+        assert circulation.holdings == this.holdingsByBook.get(copy.getBook());
+    }
+
+    @Override
+    public BookCopy buy(Book book) {
+        BookCopy newCopy = new BookCopy(book);
+        Holdings holdings = this.holdingsByBook.get(book);
+        if (holdings == null) {
+            Holdings newHoldings = new Holdings();
+            holdings = this.holdingsByBook.putIfAbsent(book, newHoldings);
+            if (holdings == null) {
+                holdings = newHoldings;
+                addToCatalog(book);
+            }
+        }
+        Circulation circulation = new Circulation(holdings);
+        this.circulationByCopy.put(newCopy, circulation);
+        holdings.copies.add(newCopy);
+        holdings.totalCount.increment();
+        holdings.availableCount.increment();
+        checkRep(newCopy, circulation);
+        return newCopy;
+    }
+
+    @Override
+    public void checkout(BookCopy copy) {
+        Circulation circulation = this.circulationByCopy.get(copy);
+        if (circulation == null || !circulation.transition(AVAILABLE, CHECKED_OUT)) {
+            throw new IllegalArgumentException("This book copy is not available in the library");
+        }
+        circulation.holdings.availableCount.decrement();
+        checkRep(copy, circulation);
+    }
+
+    @Override
+    public void checkin(BookCopy copy) {
+        Circulation circulation = this.circulationByCopy.get(copy);
+        if (circulation == null || !circulation.transition(CHECKED_OUT, AVAILABLE)) {
+            throw new IllegalArgumentException("This book copy was not checked out of the library");
+        }
+        circulation.holdings.availableCount.increment();
+        checkRep(copy, circulation);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Either all the copies are checked in or none is, even while other threads change them; but other threads
+     * may see some copies of the batch available before others.
+     */
+    @Override
+    public void checkinAll(Collection<BookCopy> copies) {
+        List<Circulation> returning = new ArrayList<>(copies.size());
+        for (BookCopy copy : copies) {
+            Circulation circulation = copy == null ? null : this.circulationByCopy.get(copy);
+            if (circulation == null || !circulation.transition(CHECKED_OUT, RETURNING)) {
+                // Copies lost meanwhile stay lost
+                returning.forEach(returned -> returned.transition(RETURNING, CHECKED_OUT));
+                throw new IllegalArgumentException("This book copy was not checked out of the library, or appears "
+                        + "more than once in the batch");
+            }
+            returning.add(circulation);
+        }
+        for (Circulation circulation : returning) {
+            if (circulation.transition(RETURNING, AVAILABLE)) {
+                circulation.holdings.availableCount.increment();
+            }
+        }
+    }
+
+    @Override
+    public boolean isAvailable(BookCopy copy) {
+        Circulation circulation = this.circulationByCopy.get(copy);
+        return circulation != null && circulation.state == AVAILABLE;
+    }
+
+    @Override
+    public Set<BookCopy> allCopies(Book book) {
+        return copiesInState(book, state -> state != LOST);
+    }
+
+    @Override
+    public Set<BookCopy> availableCopies(Book book) {
+        return copiesInState(book, state -> state == AVAILABLE);
+    }
+
+    private interface StatePredicate {
+        boolean test(int state);
+    }
+
+    private Set<BookCopy> copiesInState(Book book, StatePredicate predicate) {
+        Set<BookCopy> result = new HashSet<>();
+        Holdings holdings = this.holdingsByBook.get(book);
+        if (holdings != null) {
+            for (BookCopy copy : holdings.copies) {
+                Circulation circulation = this.circulationByCopy.get(copy);
+                if (circulation != null && predicate.test(circulation.state)) {
+                    result.add(copy);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Counts without locking: while other threads check copies of book out or in, the count may be off by the
+     * number of transitions in progress.
+     */
+    @Override
+    public int availableCount(Book book) {
+        Holdings holdings = this.holdingsByBook.get(book);
+        return holdings == null ? 0 : holdings.availableCount.intValue();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Counts without locking: while other threads buy or lose copies of book, the count may be off by the number of
+     * operations in progress.
+     */
+    @Override
+    public int totalCount(Book book) {
+        Holdings holdings = this.holdingsByBook.get(book);
+        return holdings == null ? 0 : holdings.totalCount.intValue();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Books whose title or one of whose authors is exactly the query come first, newer editions first, followed by
+     * at most MAX_RANKED_MATCHES other books ranked as BigLibrary.find() does. While other threads buy or lose
+     * copies, books entering or leaving the collection during the search may or may not be found.
+     */
+    @Override
+    public List<Book> find(String query) {
+        Set<Book> exactMatches = new HashSet<>(this.booksByTitle.getOrDefault(query, Collections.emptySet()));
+        exactMatches.addAll(this.booksByAuthor.getOrDefault(query, Collections.emptySet()));
+        List<Book> sortedExactMatches = new ArrayList<>();
+        exactMatches.stream().filter(this::isHeld).forEach(sortedExactMatches::add);
+        sortedExactMatches.sort(BigLibrary.BOOK_SORTING_COMPARATOR);
+
+        this.searchIndexLock.readLock().lock();
+        try {
+            // Books ever bought are all indexed, so only rank those still held, before keeping the best ones
+            return this.searchIndex.completeExactMatches(sortedExactMatches, query, MAX_RANKED_MATCHES,
+                    this::isHeld);
+        } finally {
+            this.searchIndexLock.readLock().unlock();
+        }
+    }
+
+    private boolean isHeld(Book book) {
+        Holdings holdings = this.holdingsByBook.get(book);
+        return holdings != null && !holdings.copies.isEmpty();
+    }
+
+    @Override
+    public void lose(BookCopy copy) {
+        Circulation circulation = this.circulationByCopy.get(copy);
+        if (circulation == null) {
+            return;
+        }
+        int state;
+        do {
+            state = circulation.state;
+            if (state == LOST) {
+                return;
+            }
+        } while (!circulation.transition(state, LOST));
+
+        if (state == AVAILABLE) {
+            circulation.holdings.availableCount.decrement();
+        }
+        circulation.holdings.totalCount.decrement();
+        circulation.holdings.copies.remove(copy);
+        this.circulationByCopy.remove(copy);
+    }
+
+    private void addToCatalog(Book book) {
+        this.booksByTitle.computeIfAbsent(book.getTitle(), _title -> ConcurrentHashMap.newKeySet()).add(book);
+        for (String author : book.authorsView()) {
+            this.booksByAuthor.computeIfAbsent(author, _author -> ConcurrentHashMap.newKeySet()).add(book);
+        }
+        this.searchIndexLock.writeLock().lock();
+        try {
+            this.searchIndex.add(book);
+        } finally {
+            this.searchIndexLock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,485 @@
+package library;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * MappedCatalog is an immutable catalog of books stored in a file, which is mapped into memory rather than loaded:
+ * a catalog of millions of books only takes the heap of the books actually read from it.
+ * <p>
+ * The file holds a pool of all the distinct titles, authors and search terms (see BookSearchIndex.terms()), sorted,
+ * so that a string is found by binary search and referred to by its rank. Books are fixed-width records of string
+ * ranks, sorted like BigLibrary sorts books, so that the editions of a title are consecutive records. Sorted index
+ * sections map each author, and each search term, to the records of the books having it.
+ * <p>
+ * Files are written by write(), and must be smaller than 2 GiB. MappedCatalog is thread-safe.
+ */
+public class MappedCatalog {
+
+    private static final int MAGIC = 0x42434154; // "BCAT"
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+
+    // Title, first author reference, number of authors, year and number of terms
+    private static final int BOOK_SIZE = 20;
+
+    // Author and book
+    private static final int AUTHOR_ENTRY_SIZE = 8;
+
+    // Term, first posting and number of postings
+    private static final int TERM_ENTRY_SIZE = 12;
+
+    // Book and frequency of the term
+    private static final int POSTING_SIZE = 8;
+
+    // Rep
+    private final ByteBuffer file;
+
+    private final int bookCount;
+
+    private final int stringCount;
+
+    private final int authorEntryCount;
+
+    private final int termEntryCount;
+
+    private final long totalLength;
+
+    private final int stringOffsets;
+
+    private final int stringData;
+
+    private final int books;
+
+    private final int authorReferences;
+
+    private final int authorIndex;
+
+    private final int termIndex;
+
+    private final int postings;
+
+    // Rep invariant
+    // file is a catalog file, as written by write(); the counts and section offsets are those of its header
+
+    // Abstraction function
+    // Represents the books of the records of file, the book with id i being the i-th record
+
+    // Safety from rep exposure argument
+    // All fields are private and final, and file is a read-only buffer that is never returned: books are built
+    // anew from it.
+
+    // Thread safety argument
+    // file is only read with absolute get() methods, which do not change its position, so threads never interfere;
+    // all the other fields are final and immutable.
+
+    private MappedCatalog(ByteBuffer file) throws IOException {
+        this.file = file;
+        if (file.capacity() < HEADER_SIZE || file.getInt(0) != MAGIC) {
+            throw new IOException("Not a catalog file");
+        }
+        if (file.getInt(4) != VERSION) {
+            throw new IOException("Unknown catalog version " + file.getInt(4));
+        }
+        this.bookCount = file.getInt(8);
+        this.stringCount = file.getInt(12);
+        this.authorEntryCount = file.getInt(16);
+        this.termEntryCount = file.getInt(20);
+        this.totalLength = file.getLong(24);
+        this.stringOffsets = file.getInt(32);
+        this.stringData = file.getInt(36);
+        this.books = file.getInt(40);
+        this.authorReferences = file.getInt(44);
+        this.authorIndex = file.getInt(48);
+        this.termIndex = file.getInt(52);
+        this.postings = file.getInt(56);
+        if (file.getInt(60) != file.capacity()) {
+            throw new IOException("Truncated catalog file");
+        }
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert this.bookCount >= 0 && this.stringCount >= 0;
+        assert this.stringOffsets == HEADER_SIZE;
+        assert this.stringData == this.stringOffsets + 4 * (this.stringCount + 1);
+        assert this.authorReferences >= this.books + BOOK_SIZE * this.bookCount;
+        assert this.termIndex == this.authorIndex + AUTHOR_ENTRY_SIZE * this.authorEntryCount;
+        assert this.postings == this.termIndex + TERM_ENTRY_SIZE * this.termEntryCount;
+    }
+
+    /**
+     * Write a catalog file.
+     * @param path file to write, replaced if it exists
+     * @param catalog books of the catalog; duplicates are only written once
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path path, Collection<Book> catalog) throws IOException {
+        SortedSet<Book> distinctBooks = new TreeSet<>(BigLibrary.BOOK_SORTING_COMPARATOR);
+        distinctBooks.addAll(catalog);
+        List<Book> sortedBooks = new ArrayList<>(distinctBooks);
+        List<Map<String, Integer>> termFrequencies = new ArrayList<>();
+        SortedSet<String> strings = new TreeSet<>();
+        for (Book book : sortedBooks) {
+            strings.add(book.getTitle());
+            strings.addAll(book.getAuthors());
+            Map<String, Integer> frequencies = new HashMap<>();
+            BookSearchIndex.terms(book.getTitle()).forEach(term -> frequencies.merge(term, 1, Integer::sum));
+            for (String author : book.getAuthors()) {
+                BookSearchIndex.terms(author).forEach(term -> frequencies.merge(term, 1, Integer::sum));
+            }
+            termFrequencies.add(frequencies);
+            strings.addAll(frequencies.keySet());
+        }
+        Map<String, Integer> rankByString = new HashMap<>();
+        for (String string : strings) {
+            rankByString.put(string, rankByString.size());
+        }
+
+        // Index entries, sorted by string rank then book id
+        List<long[]> authorEntries = new ArrayList<>();
+        SortedMap<Integer, List<int[]>> postingsByTerm = new TreeMap<>();
+        int authorReferenceCount = 0;
+        long totalLength = 0;
+        for (int id = 0; id < sortedBooks.size(); id++) {
+            Book book = sortedBooks.get(id);
+            authorReferenceCount += book.getAuthors().size();
+            for (String author : new TreeSet<>(book.getAuthors())) {
+                authorEntries.add(new long[]{rankByString.get(author), id});
+            }
+            for (Map.Entry<String, Integer> frequency : termFrequencies.get(id).entrySet()) {
+                postingsByTerm.computeIfAbsent(rankByString.get(frequency.getKey()), _term -> new ArrayList<>())
+                        .add(new int[]{id, frequency.getValue()});
+            }
+            totalLength += length(termFrequencies.get(id));
+        }
+        authorEntries.sort(Comparator.<long[]>comparingLong(entry -> entry[0]).thenComparingLong(entry -> entry[1]));
+
+        List<byte[]> encodedStrings = new ArrayList<>();
+        long stringBytes = 0;
+        for (String string : strings) {
+            byte[] encoded = string.getBytes(StandardCharsets.UTF_8);
+            encodedStrings.add(encoded);
+            stringBytes += encoded.length;
+        }
+        long stringOffsets = HEADER_SIZE;
+        long stringData = stringOffsets + 4L * (strings.size() + 1);
+        long books = stringData + stringBytes;
+        long authorReferences = books + (long) BOOK_SIZE * sortedBooks.size();
+        long authorIndex = authorReferences + 4L * authorReferenceCount;
+        long termIndex = authorIndex + (long) AUTHOR_ENTRY_SIZE * authorEntries.size();
+        long postings = termIndex + (long) TERM_ENTRY_SIZE * postingsByTerm.size();
+        long end = postings + (long) POSTING_SIZE * postingsByTerm.values().stream().mapToInt(List::size).sum();
+        if (end > Integer.MAX_VALUE) {
+            throw new IOException("The catalog does not fit in a 2 GiB file");
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            for (long value : new long[]{MAGIC, VERSION, sortedBooks.size(), strings.size(), authorEntries.size(),
+                    postingsByTerm.size()}) {
+                out.writeInt((int) value);
+            }
+            out.writeLong(totalLength);
+            for (long offset : new long[]{stringOffsets, stringData, books, authorReferences, authorIndex, termIndex,
+                    postings, end}) {
+                out.writeInt((int) offset);
+            }
+
+            int offset = 0;
+            for (byte[] encoded : encodedStrings) {
+                out.writeInt(offset);
+                offset += encoded.length;
+            }
+            out.writeInt(offset);
+            for (byte[] encoded : encodedStrings) {
+                out.write(encoded);
+            }
+
+            int authorReference = 0;
+            for (int id = 0; id < sortedBooks.size(); id++) {
+                Book book = sortedBooks.get(id);
+                out.writeInt(rankByString.get(book.getTitle()));
+                out.writeInt(authorReference);
+                out.writeInt(book.getAuthors().size());
+                out.writeInt(book.getYear());
+                out.writeInt(length(termFrequencies.get(id)));
+                authorReference += book.getAuthors().size();
+            }
+            for (Book book : sortedBooks) {
+                for (String author : book.getAuthors()) {
+                    out.writeInt(rankByString.get(author));
+                }
+            }
+            for (long[] entry : authorEntries) {
+                out.writeInt((int) entry[0]);
+                out.writeInt((int) entry[1]);
+            }
+            int firstPosting = 0;
+            for (Map.Entry<Integer, List<int[]>> term : postingsByTerm.entrySet()) {
+                out.writeInt(term.getKey());
+                out.writeInt(firstPosting);
+                out.writeInt(term.getValue().size());
+                firstPosting += term.getValue().size();
+            }
+            for (List<int[]> termPostings : postingsByTerm.values()) {
+                for (int[] posting : termPostings) {
+                    out.writeInt(posting[0]);
+                    out.writeInt(posting[1]);
+                }
+            }
+        }
+    }
+
+    // Books made only of punctuation still count as one term long, as in BookSearchIndex
+    private static int length(Map<String, Integer> termFrequencies) {
+        return Math.max(1, termFrequencies.values().stream().mapToInt(Integer::intValue).sum());
+    }
+
+    /**
+     * Open a catalog file, mapping it into memory.
+     * @param path catalog file, as written by write()
+     * @return the catalog of the file
+     * @throws IOException if the file cannot be read, or is not a catalog file
+     */
+    public static MappedCatalog open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Catalog files must be smaller than 2 GiB");
+            }
+            // The mapping stays valid once the channel is closed
+            return new MappedCatalog(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * @return the number of books of this catalog
+     */
+    public int size() {
+        return this.bookCount;
+    }
+
+    /**
+     * Read a book of this catalog.
+     * @param id id of the book, 0 <= id < size(); ids follow the order of BigLibrary: by title, then authors, then
+     * newer editions first
+     * @return the book with that id
+     */
+    public Book book(int id) {
+        if (id < 0 || id >= this.bookCount) {
+            throw new IllegalArgumentException("No book with id " + id);
+        }
+        int record = this.books + id * BOOK_SIZE;
+        int firstAuthor = this.file.getInt(record + 4);
+        int authorCount = this.file.getInt(record + 8);
+        List<String> authors = new ArrayList<>(authorCount);
+        for (int i = 0; i < authorCount; i++) {
+            authors.add(string(this.file.getInt(this.authorReferences + 4 * (firstAuthor + i))));
+        }
+        return new Book(string(this.file.getInt(record)), authors, this.file.getInt(record + 12));
+    }
+
+    /**
+     * Find a book in this catalog.
+     * @param book a book
+     * @return the id of book in this catalog, or -1 if it is not in this catalog
+     */
+    public int idOf(Book book) {
+        int title = rank(book.getTitle());
+        if (title < 0) {
+            return -1;
+        }
+        int end = firstBookWithTitle(title + 1);
+        for (int id = firstBookWithTitle(title); id < end; id++) {
+            if (this.file.getInt(this.books + id * BOOK_SIZE + 12) == book.getYear() && book(id).equals(book)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the books with a title.
+     * @param title a title, matched exactly
+     * @return the books of this catalog with that title, in the order of their ids
+     */
+    public List<Book> withTitle(String title) {
+        return books(idsWithTitle(title));
+    }
+
+    /**
+     * Find the books of an author.
+     * @param author an author, matched exactly
+     * @return the books of this catalog having that author among their authors, in the order of their ids
+     */
+    public List<Book> byAuthor(String author) {
+        return books(idsByAuthor(author));
+    }
+
+    /**
+     * @param title a title, matched exactly
+     * @return the ids of the books of this catalog with that title, in increasing order
+     */
+    int[] idsWithTitle(String title) {
+        int rank = rank(title);
+        if (rank < 0) {
+            return new int[0];
+        }
+        int start = firstBookWithTitle(rank);
+        int end = firstBookWithTitle(rank + 1);
+        int[] ids = new int[end - start];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = start + i;
+        }
+        return ids;
+    }
+
+    /**
+     * @param author an author, matched exactly
+     * @return the ids of the books of this catalog having that author, in increasing order
+     */
+    int[] idsByAuthor(String author) {
+        int rank = rank(author);
+        if (rank < 0) {
+            return new int[0];
+        }
+        int start = firstEntry(this.authorIndex, AUTHOR_ENTRY_SIZE, this.authorEntryCount, rank);
+        int end = firstEntry(this.authorIndex, AUTHOR_ENTRY_SIZE, this.authorEntryCount, rank + 1);
+        int[] ids = new int[end - start];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = this.file.getInt(this.authorIndex + (start + i) * AUTHOR_ENTRY_SIZE + 4);
+        }
+        return ids;
+    }
+
+    /**
+     * Find the books of this catalog best matching a query, with their BM25 scores against this catalog.
+     * @param query search string
+     * @param k maximum number of books to return
+     * @param filter ids of the books that may be returned
+     * @return the (at most) k books passing filter with the highest BM25 score for the terms of query, each with
+     * its score, by decreasing score then increasing id; books matching no term of query are never returned. Takes
+     * time proportional to the number of books having a term of query.
+     */
+    List<Map.Entry<Book, Double>> rankedMatches(String query, int k, IntPredicate filter) {
+        if (k <= 0 || this.bookCount == 0) {
+            return new ArrayList<>();
+        }
+        double averageLength = (double) this.totalLength / this.bookCount;
+        // Term entries, rarest terms first and ties in alphabetical order, so that scores add up in the same order,
+        // and to the same values, as in a BookSearchIndex of the same books
+        List<Integer> entries = new ArrayList<>();
+        for (String term : new TreeSet<>(BookSearchIndex.terms(query))) {
+            int rank = rank(term);
+            if (rank < 0) {
+                continue;
+            }
+            int entry = firstEntry(this.termIndex, TERM_ENTRY_SIZE, this.termEntryCount, rank);
+            // Titles and authors are in the pool too, but are not all terms
+            if (entry < this.termEntryCount && this.file.getInt(this.termIndex + entry * TERM_ENTRY_SIZE) == rank) {
+                entries.add(entry);
+            }
+        }
+        entries.sort(Comparator.comparingInt(entry -> this.file.getInt(this.termIndex + entry * TERM_ENTRY_SIZE
+                + 8)));
+
+        Map<Integer, Double> scores = new HashMap<>();
+        for (int entry : entries) {
+            int firstPosting = this.file.getInt(this.termIndex + entry * TERM_ENTRY_SIZE + 4);
+            int postingCount = this.file.getInt(this.termIndex + entry * TERM_ENTRY_SIZE + 8);
+            double idf = BookSearchIndex.idf(this.bookCount, postingCount);
+            for (int i = 0; i < postingCount; i++) {
+                int posting = this.postings + (firstPosting + i) * POSTING_SIZE;
+                int id = this.file.getInt(posting);
+                if (filter.test(id)) {
+                    int length = this.file.getInt(this.books + id * BOOK_SIZE + 16);
+                    scores.merge(id, BookSearchIndex.termScore(idf, this.file.getInt(posting + 4),
+                            length / averageLength), Double::sum);
+                }
+            }
+        }
+
+        Comparator<Map.Entry<Integer, Double>> byScore = Map.Entry.<Integer, Double>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey());
+        PriorityQueue<Map.Entry<Integer, Double>> best = new PriorityQueue<>(byScore.reversed());
+        for (Map.Entry<Integer, Double> score : scores.entrySet()) {
+            best.add(score);
+            if (best.size() > k) {
+                best.poll();
+            }
+        }
+        List<Map.Entry<Integer, Double>> sorted = new ArrayList<>(best);
+        sorted.sort(byScore);
+        List<Map.Entry<Book, Double>> result = new ArrayList<>();
+        sorted.forEach(entry -> result.add(new AbstractMap.SimpleImmutableEntry<>(book(entry.getKey()),
+                entry.getValue())));
+        return result;
+    }
+
+    private List<Book> books(int[] ids) {
+        List<Book> result = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            result.add(book(id));
+        }
+        return result;
+    }
+
+    // The string of some rank in the pool
+    private String string(int rank) {
+        int start = this.file.getInt(this.stringOffsets + 4 * rank);
+        int end = this.file.getInt(this.stringOffsets + 4 * (rank + 1));
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = this.file.get(this.stringData + start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // The rank of a string in the pool, or -1 if it is not in the pool
+    private int rank(String string) {
+        int low = 0;
+        int high = this.stringCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = string(middle).compareTo(string);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    // The id of the first book whose title has at least some rank, or bookCount if there is none
+    private int firstBookWithTitle(int rank) {
+        return firstEntry(this.books, BOOK_SIZE, this.bookCount, rank);
+    }
+
+    // The first of count entries of a section, sorted by the int they start with, that starts with at least key,
+    // or count if there is none
+    private int firstEntry(int section, int entrySize, int count, int key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.file.getInt(section + middle * entrySize) < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,298 @@
+package library;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * RemoteLibrary is a Library held by a LibraryServer, which it reaches over one TCP connection.
+ * <p>
+ * Threads sharing a RemoteLibrary pipeline their requests on the connection: each one sends its request without
+ * waiting for the responses to the requests of the others, which a reader thread hands back in order.
+ * <p>
+ * Copies are identified by the ids given by the server: the same id always gives the same BookCopy object of this
+ * RemoteLibrary, but copies of other clients are other objects, and conditions of copies are not shared.
+ * If the connection fails, every operation then throws UncheckedIOException.
+ * <p>
+ * RemoteLibrary is thread-safe.
+ */
+public class RemoteLibrary implements Library, Closeable {
+
+    /**
+     * RequestWriter writes the arguments of a request.
+     */
+    private interface RequestWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // Rep
+    private final Socket socket;
+
+    private final DataOutputStream out;
+
+    private final Queue<CompletableFuture<DataInputStream>> pendingResponses;
+
+    private final Map<Long, BookCopy> copiesById;
+
+    private final Map<BookCopy, Long> idsByCopy;
+
+    private IOException failure;
+
+    // Rep invariant
+    // copiesById and idsByCopy are inverse maps
+    // pendingResponses holds a future for each request written to out whose response was not read yet, in the
+    // order of the requests; if failure is not null, it is empty and no request is written anymore
+
+    // Abstraction function
+    // Represents the library held by the server at the other end of socket, where the copy of this given id is
+    // copiesById.get(id)
+
+    // Safety from rep exposure argument
+    // All fields are private and final but failure, which is never returned. Copies are returned to clients, but
+    // BookCopy has no operation that could change the rep of this.
+
+    // Thread safety argument
+    // out, failure and the additions to pendingResponses are guarded by the lock of out, so that requests are
+    // written in the order of their futures. Only the reader thread reads the socket, and removes the futures of
+    // pendingResponses, which is concurrent. It also takes the lock of out to set failure.
+    // copiesById and idsByCopy are concurrent, and ids are only put in both by computeIfAbsent() on copiesById.
+
+    /**
+     * Connect to a library server.
+     * @param address address of the server
+     * @throws IOException if the connection cannot be made
+     */
+    public RemoteLibrary(InetSocketAddress address) throws IOException {
+        this.socket = new Socket();
+        this.socket.setTcpNoDelay(true);
+        this.socket.connect(address);
+        this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+        this.pendingResponses = new ConcurrentLinkedQueue<>();
+        this.copiesById = new ConcurrentHashMap<>();
+        this.idsByCopy = new ConcurrentHashMap<>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+        Thread reader = new Thread(() -> readResponses(in), "remote-library-reader");
+        reader.setDaemon(true);
+        reader.start();
+        checkRep();
+    }
+
+    // Assert the rep invariant
+    private void checkRep() {
+        assert this.socket != null;
+        assert this.copiesById.size() == this.idsByCopy.size();
+    }
+
+    // Sends a request, and returns the future of its response, positioned after its status
+    private CompletableFuture<DataInputStream> send(byte opcode, RequestWriter arguments) {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        try (DataOutputStream requestOut = new DataOutputStream(request)) {
+            requestOut.writeByte(opcode);
+            arguments.write(requestOut);
+        } catch (IOException ioe) {
+            throw new AssertionError("Byte arrays do not throw", ioe);
+        }
+        CompletableFuture<DataInputStream> response = new CompletableFuture<>();
+        synchronized (this.out) {
+            checkNotFailed();
+            this.pendingResponses.add(response);
+            try {
+                this.out.writeInt(request.size());
+                request.writeTo(this.out);
+                this.out.flush();
+            } catch (IOException ioe) {
+                fail(ioe);
+            }
+        }
+        return response;
+    }
+
+    // Waits for a response, and throws the error it carries
+    private static DataInputStream await(CompletableFuture<DataInputStream> future) {
+        DataInputStream response;
+        try {
+            response = future.join();
+        } catch (CompletionException ce) {
+            if (ce.getCause() instanceof UncheckedIOException) {
+                throw (UncheckedIOException) ce.getCause();
+            }
+            throw ce;
+        }
+        try {
+            if (response.readByte() == LibraryServer.ERROR) {
+                throw new IllegalArgumentException(response.readUTF());
+            }
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Malformed response", ioe);
+        }
+        return response;
+    }
+
+    private void readResponses(DataInputStream in) {
+        try {
+            while (true) {
+                byte[] response = new byte[in.readInt()];
+                in.readFully(response);
+                CompletableFuture<DataInputStream> pending = this.pendingResponses.poll();
+                if (pending == null) {
+                    throw new IOException("Response to no request");
+                }
+                pending.complete(new DataInputStream(new ByteArrayInputStream(response)));
+            }
+        } catch (IOException ioe) {
+            synchronized (this.out) {
+                fail(ioe);
+            }
+        }
+    }
+
+    // Fails the pending requests and all the next ones, requires holding the lock of out
+    private void fail(IOException ioe) {
+        if (this.failure == null) {
+            this.failure = ioe;
+        }
+        UncheckedIOException exception = new UncheckedIOException("The connection to the library failed", ioe);
+        for (CompletableFuture<DataInputStream> pending = this.pendingResponses.poll(); pending != null;
+                pending = this.pendingResponses.poll()) {
+            pending.completeExceptionally(exception);
+        }
+    }
+
+    // Requires holding the lock of out
+    private void checkNotFailed() {
+        if (this.failure != null) {
+            throw new UncheckedIOException("The connection to the library failed", this.failure);
+        }
+    }
+
+    private long idOf(BookCopy copy) {
+        Long id = this.idsByCopy.get(copy);
+        if (id == null) {
+            throw new IllegalArgumentException("This book copy is not in the library");
+        }
+        return id;
+    }
+
+    private BookCopy copyWithId(long id, Book book) {
+        return this.copiesById.computeIfAbsent(id, _id -> {
+            BookCopy copy = new BookCopy(book);
+            this.idsByCopy.put(copy, id);
+            return copy;
+        });
+    }
+
+    private Set<BookCopy> readCopies(DataInputStream response, Book book) {
+        try {
+            Set<BookCopy> copies = new HashSet<>();
+            for (int count = response.readInt(); count > 0; count--) {
+                copies.add(copyWithId(response.readLong(), book));
+            }
+            return copies;
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Malformed response", ioe);
+        }
+    }
+
+    @Override
+    public BookCopy buy(Book book) {
+        DataInputStream response = await(send(LibraryServer.BUY, out -> DurableLibrary.writeBook(out, book)));
+        try {
+            return copyWithId(response.readLong(), book);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Malformed response", ioe);
+        }
+    }
+
+    @Override
+    public void checkout(BookCopy copy) {
+        long id = idOf(copy);
+        await(send(LibraryServer.CHECKOUT, out -> out.writeLong(id)));
+    }
+
+    @Override
+    public void checkin(BookCopy copy) {
+        long id = idOf(copy);
+        await(send(LibraryServer.CHECKIN, out -> out.writeLong(id)));
+    }
+
+    @Override
+    public boolean isAvailable(BookCopy copy) {
+        Long id = this.idsByCopy.get(copy);
+        if (id == null) {
+            return false;
+        }
+        try {
+            return await(send(LibraryServer.IS_AVAILABLE, out -> out.writeLong(id))).readBoolean();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Malformed response", ioe);
+        }
+    }
+
+    @Override
+    public Set<BookCopy> allCopies(Book book) {
+        return readCopies(await(send(LibraryServer.ALL_COPIES, out -> DurableLibrary.writeBook(out, book))), book);
+    }
+
+    @Override
+    public Set<BookCopy> availableCopies(Book book) {
+        return readCopies(await(send(LibraryServer.AVAILABLE_COPIES, out -> DurableLibrary.writeBook(out, book))),
+                book);
+    }
+
+    @Override
+    public int totalCount(Book book) {
+        try {
+            return await(send(LibraryServer.TOTAL_COUNT, out -> DurableLibrary.writeBook(out, book))).readInt();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Malformed response", ioe);
+        }
+    }
+
+    @Override
+    public int availableCount(Book book) {
+        try {
+            return await(send(LibraryServer.AVAILABLE_COUNT, out -> DurableLibrary.writeBook(out, book))).readInt();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Malformed response", ioe);
+        }
+    }
+
+    @Override
+    public List<Book> find(String query) {
+        DataInputStream response = await(send(LibraryServer.FIND, out -> out.writeUTF(query)));
+        try {
+            List<Book> books = new ArrayList<>();
+            for (int count = response.readInt(); count > 0; count--) {
+                books.add(DurableLibrary.readBook(response));
+            }
+            return books;
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Malformed response", ioe);
+        }
+    }
+
+    @Override
+    public void lose(BookCopy copy) {
+        Long id = this.idsByCopy.get(copy);
+        if (id == null) {
+            return;
+        }
+        await(send(LibraryServer.LOSE, out -> out.writeLong(id)));
+        this.copiesById.remove(id);
+        this.idsByCopy.remove(copy);
+    }
+
+    /**
+     * Close the connection. The library must not be used anymore.
+     * @throws IOException if the connection cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+    }
+}
@@ -0,0 +1,389 @@
+package library;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ReplicatingLibrary is the primary of a replicated library: it decorates the Library receiving every change, and
+ * streams an ordered log of those changes to LibraryReplicas, which serve reads from copies of the collection.
+ * <p>
+ * Every buy, checkout, checkin and lose, and every batch of buys or checkins as a whole, is recorded as
+ * DurableLibrary records it in its log, and shipped in order to every replica connected to the port of the primary,
+ * which only accepts connections from this host.
+ * A replica connecting first receives a snapshot of the whole collection, then every record appended after it.
+ * The primary also sends a heartbeat every HEARTBEAT_INTERVAL_MILLIS, so that idle replicas can tell that they are
+ * still up to date; see LibraryReplica.lagMillis().
+ * <p>
+ * Protocol: every message is a frame, an int length followed by that many bytes: a kind byte (SNAPSHOT, RECORD or
+ * HEARTBEAT), the number of records appended by the primary so far (including the one of the frame), the time of
+ * the primary in milliseconds when the frame was made, then the snapshot or the record, if any.
+ * <p>
+ * Shipping never makes an operation wait for a replica: frames are queued for each replica, and written by a
+ * thread of its own. A replica more than MAX_QUEUED_FRAMES frames behind is disconnected instead, so that it cannot
+ * exhaust the memory of the primary; it must then be replaced by a new replica.
+ * <p>
+ * Copies are identified in the log by numbers given when they are bought: idOf() gives the number of a copy of
+ * the primary, and LibraryReplica.copyWithId() the copy of a replica with that number.
+ * <p>
+ * ReplicatingLibrary is thread-safe if its delegate is.
+ */
+public class ReplicatingLibrary implements Library, Closeable {
+
+    /**
+     * Time between two heartbeats sent to the replicas.
+     */
+    public static final long HEARTBEAT_INTERVAL_MILLIS = 100;
+
+    /**
+     * Number of frames queued for a replica beyond which it is disconnected.
+     */
+    public static final int MAX_QUEUED_FRAMES = 1_000_000;
+
+    static final byte SNAPSHOT = 1;
+
+    static final byte RECORD = 2;
+
+    static final byte HEARTBEAT = 3;
+
+    // Rep
+    private final Library delegate;
+
+    private final ChangeLog changes;
+
+    private final ServerSocket serverSocket;
+
+    private final ScheduledExecutorService heartbeats;
+
+    private final List<Replica> replicas;
+
+    private long appendedRecords;
+
+    // Rep invariant
+    // changes numbers the copies of delegate; appendedRecords >= 0
+    // every replica of replicas was sent a snapshot, then every record appended after it, in order
+
+    // Abstraction function
+    // Represents the collection of delegate, whose changes have been recorded by changes as appendedRecords records
+    // so far, and are streamed to the replicas connected to serverSocket
+
+    // Safety from rep exposure argument
+    // All fields are private and final but appendedRecords, which is a primitive, and delegate is only reached
+    // through this. Copies are returned to clients, but BookCopy has no operation that could change the rep of this.
+
+    // Thread safety argument
+    // changes, replicas and appendedRecords are guarded by the lock of this. Mutations of delegate also take it, so
+    // that they are recorded and queued for the replicas in the order they are applied, and a new replica is sent
+    // a snapshot and registered at once, so that it gets exactly the records appended after its snapshot.
+    // The socket of each replica is only written by its sender thread, which takes frames from a concurrent queue.
+    // Queries are forwarded to delegate without locking.
+
+    /**
+     * Make a primary library, accepting replicas on a loopback port.
+     * @param delegate empty library receiving the changes; it must not be used anymore but through the returned
+     * library
+     * @param port port number, requires 0 <= port <= 65535; 0 for any free port
+     * @throws IOException if the server socket cannot be opened
+     */
+    public ReplicatingLibrary(Library delegate, int port) throws IOException {
+        if (delegate == null) {
+            throw new IllegalArgumentException("The delegate must not be null");
+        }
+        this.delegate = delegate;
+        this.changes = new ChangeLog(delegate);
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.replicas = new ArrayList<>();
+        this.appendedRecords = 0;
+        Thread acceptor = new Thread(this::acceptReplicas, "library-replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "library-replication-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.heartbeats.scheduleAtFixedRate(this::sendHeartbeats, HEARTBEAT_INTERVAL_MILLIS,
+                HEARTBEAT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        synchronized (this) {
+            checkRep();
+        }
+    }
+
+    // Assert the rep invariant, requires holding the lock of this
+    private void checkRep() {
+        assert Thread.holdsLock(this);
+        assert this.delegate != null;
+        assert this.appendedRecords >= 0;
+    }
+
+    /**
+     * @return the port this primary accepts replicas on
+     */
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the number of records appended so far, which a replica has applied once its appliedRecords() is as
+     * large
+     */
+    public synchronized long appendedRecords() {
+        return this.appendedRecords;
+    }
+
+    /**
+     * @return the number of replicas connected
+     */
+    public synchronized int replicaCount() {
+        return this.replicas.size();
+    }
+
+    /**
+     * Get the number of a copy.
+     * @param copy a copy of this library
+     * @return the number of copy in the log, which is also the number of its copy in the replicas
+     */
+    public synchronized long idOf(BookCopy copy) {
+        Long id = this.changes.idOf(copy);
+        if (id == null) {
+            throw new IllegalArgumentException("This book copy is not in the library");
+        }
+        return id;
+    }
+
+    @Override
+    public synchronized BookCopy buy(Book book) {
+        BookCopy copy = this.delegate.buy(book);
+        ship(this.changes.recordBuy(copy));
+        return copy;
+    }
+
+    @Override
+    public synchronized void checkout(BookCopy copy) {
+        this.delegate.checkout(copy);
+        ship(this.changes.recordCheckout(copy));
+    }
+
+    @Override
+    public synchronized void checkin(BookCopy copy) {
+        this.delegate.checkin(copy);
+        ship(this.changes.recordCheckin(copy));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The batch is shipped as one record, so that the replicas apply it as a whole.
+     */
+    @Override
+    public synchronized Map<Book, List<BookCopy>> buyAll(Map<Book, Integer> copiesByBook) {
+        Map<Book, List<BookCopy>> newCopies = this.delegate.buyAll(copiesByBook);
+        if (!newCopies.isEmpty()) {
+            ship(this.changes.recordBuyAll(newCopies));
+        }
+        return newCopies;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The batch is shipped as one record, so that the replicas apply it as a whole.
+     */
+    @Override
+    public synchronized void checkinAll(Collection<BookCopy> copies) {
+        this.delegate.checkinAll(copies);
+        if (!copies.isEmpty()) {
+            ship(this.changes.recordCheckinAll(copies));
+        }
+    }
+
+    @Override
+    public synchronized void lose(BookCopy copy) {
+        ByteArrayOutputStream lost = this.changes.recordLose(copy);
+        if (lost == null) {
+            return;
+        }
+        this.delegate.lose(copy);
+        ship(lost);
+    }
+
+    @Override
+    public boolean isAvailable(BookCopy copy) {
+        return this.delegate.isAvailable(copy);
+    }
+
+    @Override
+    public Set<BookCopy> allCopies(Book book) {
+        return this.delegate.allCopies(book);
+    }
+
+    @Override
+    public Set<BookCopy> availableCopies(Book book) {
+        return this.delegate.availableCopies(book);
+    }
+
+    @Override
+    public int totalCount(Book book) {
+        return this.delegate.totalCount(book);
+    }
+
+    @Override
+    public int availableCount(Book book) {
+        return this.delegate.availableCount(book);
+    }
+
+    @Override
+    public List<Book> find(String query) {
+        return this.delegate.find(query);
+    }
+
+    /**
+     * Stop accepting replicas, and disconnect those connected. The library can still be used, but its changes are
+     * not shipped anymore.
+     * @throws IOException if the server socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.heartbeats.shutdownNow();
+        this.serverSocket.close();
+        List<Replica> connected;
+        synchronized (this) {
+            connected = new ArrayList<>(this.replicas);
+        }
+        connected.forEach(this::disconnect);
+    }
+
+    // Appends a record, and queues it for every replica, requires holding the lock of this
+    private void ship(ByteArrayOutputStream record) {
+        this.appendedRecords++;
+        queue(frame(RECORD, this.appendedRecords, record.toByteArray()));
+        checkRep();
+    }
+
+    // Queues a frame for every replica, and disconnects those too far behind, requires holding the lock of this
+    private void queue(byte[] frame) {
+        for (Replica replica : new ArrayList<>(this.replicas)) {
+            if (!replica.offer(frame)) {
+                disconnect(replica);
+            }
+        }
+    }
+
+    private synchronized void sendHeartbeats() {
+        if (!this.replicas.isEmpty()) {
+            queue(frame(HEARTBEAT, this.appendedRecords, new byte[0]));
+        }
+    }
+
+    private static byte[] frame(byte kind, long records, byte[] body) {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(21 + body.length);
+        try (DataOutputStream out = new DataOutputStream(frame)) {
+            out.writeInt(17 + body.length);
+            out.writeByte(kind);
+            out.writeLong(records);
+            out.writeLong(System.currentTimeMillis());
+            out.write(body);
+        } catch (IOException ioe) {
+            throw new AssertionError("Byte arrays do not throw", ioe);
+        }
+        return frame.toByteArray();
+    }
+
+    // Accepts replicas until the server socket is closed
+    private void acceptReplicas() {
+        while (true) {
+            Socket socket;
+            try {
+                socket = this.serverSocket.accept();
+            } catch (IOException ioe) {
+                // Closed, or broken: either way no replica can connect anymore
+                return;
+            }
+            try {
+                socket.setTcpNoDelay(true);
+                Replica replica = new Replica(socket);
+                synchronized (this) {
+                    replica.offer(frame(SNAPSHOT, this.appendedRecords, this.changes.encodeSnapshot()));
+                    this.replicas.add(replica);
+                }
+                replica.start();
+                if (this.serverSocket.isClosed()) {
+                    // close() may have missed it
+                    disconnect(replica);
+                }
+            } catch (IOException ioe) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void disconnect(Replica replica) {
+        synchronized (this) {
+            this.replicas.remove(replica);
+        }
+        replica.sender.interrupt();
+        closeQuietly(replica.socket);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ioe) {
+            // Nothing more can be done with it
+        }
+    }
+
+    /**
+     * Replica is the connection to one replica: the frames queued for it, and the thread sending them.
+     */
+    private class Replica {
+
+        private final Socket socket;
+
+        private final DataOutputStream out;
+
+        private final BlockingQueue<byte[]> frames;
+
+        private final Thread sender;
+
+        Replica(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.frames = new LinkedBlockingQueue<>();
+            this.sender = new Thread(this::send, "library-replication-sender");
+            this.sender.setDaemon(true);
+        }
+
+        void start() {
+            this.sender.start();
+        }
+
+        // Returns false if the replica is too far behind to take the frame
+        boolean offer(byte[] frame) {
+            return this.frames.size() < MAX_QUEUED_FRAMES && this.frames.add(frame);
+        }
+
+        // Sends the frames queued, until the replica is disconnected
+        private void send() {
+            try {
+                while (true) {
+                    this.out.write(this.frames.take());
+                    // Send the frames queued meanwhile together
+                    if (this.frames.isEmpty()) {
+                        this.out.flush();
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // The replica is gone, or was disconnected
+                disconnect(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package library;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * ShardedLibrary is a Library partitioned across several shards, each one a Library of its own, so that the
+ * collection is not bounded by what one library (or one JVM) holds comfortably, e.g. one shard per branch.
+ * <p>
+ * The library is a router: all the copies of a book are held by the shard chosen by the hash of its title and
+ * authors, which receives every operation on the book or its copies. Editions of the same work thus share a shard.
+ * find() is sent to every shard at once, and their answers are merged: books whose title or one of whose authors is
+ * exactly the query come first, newer editions first, followed by at most MAX_RANKED_MATCHES other books. Since
+ * each shard ranks its books against its own statistics, their scores cannot be compared, so the other books are
+ * taken from the answers in turn, by rank: the best of each shard first, then the second best, and so on.
+ * <p>
+ * Shards run in-process, or as LibraryServer worker processes started by launch().
+ * buyAll() and checkinAll() split the batch by shard: either all the copies are checked in, or none is, as long as
+ * no other thread changes the same copies meanwhile.
+ * <p>
+ * ShardedLibrary is thread-safe if its shards are; the shards of launch() are.
+ */
+public class ShardedLibrary implements Library, AutoCloseable {
+
+    /**
+     * Default number of shards of new ShardedLibrary().
+     */
+    public static final int DEFAULT_SHARD_COUNT = 4;
+
+    private static final int MAX_RANKED_MATCHES = 50;
+
+    private static final long WORKER_EXIT_TIMEOUT_MILLIS = 5_000;
+
+    // Rep
+    private final List<Library> shards;
+
+    private final List<Process> workers;
+
+    private final ExecutorService executor;
+
+    // Rep invariant
+    // shards is not empty
+    // every copy of a book is in the shard shardOf(book), and in no other
+
+    // Abstraction function
+    // Represents the library whose collection is the union of the collections of shards; workers are the processes
+    // serving the shards, if they were started by launch(), and executor runs the requests sent to several shards
+
+    // Safety from rep exposure argument
+    // All fields are private and final, and never returned. shards is an unmodifiable copy of the list given by the
+    // client, which may still hold the shards themselves: it must then only read them, or change them through this
+    // library.
+
+    // Thread safety argument
+    // The lists of shards and workers are never changed after construction. Every operation is forwarded to the
+    // shards, which synchronize their own state if they are thread-safe. If they are not, the library is only used
+    // by one client thread, which waits for the calls it hands to the threads of executor: submitting and joining
+    // a future orders those calls with its own.
+
+    /**
+     * Make an empty library of DEFAULT_SHARD_COUNT in-process shards.
+     * Each shard is a BigLibrary, so this library is not thread-safe.
+     */
+    public ShardedLibrary() {
+        this(DEFAULT_SHARD_COUNT);
+    }
+
+    /**
+     * Make an empty library of in-process shards.
+     * Each shard is a BigLibrary, so this library is not thread-safe.
+     * @param shardCount number of shards, must be positive
+     */
+    public ShardedLibrary(int shardCount) {
+        this(newShards(shardCount), Collections.emptyList());
+    }
+
+    /**
+     * Make a library over existing shards.
+     * @param shards shards of the library, not empty and without null, which must be empty, or hold exactly the
+     * books routed to them by a previous ShardedLibrary over the same shards in the same order
+     */
+    public ShardedLibrary(List<? extends Library> shards) {
+        this(shards, Collections.emptyList());
+    }
+
+    private ShardedLibrary(List<? extends Library> shards, List<Process> workers) {
+        if (shards.isEmpty() || shards.contains(null)) {
+            throw new IllegalArgumentException("At least one shard is required, and shards must not be null");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.workers = workers;
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "sharded-library-router");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkRep();
+    }
+
+    // Assert the rep invariant, for the bookkeeping of the router only: shards are not inspected
+    private void checkRep() {
+        assert !this.shards.isEmpty();
+        assert this.workers != null;
+    }
+
+    private static List<Library> newShards(int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("The shard count must be positive");
+        }
+        List<Library> shards = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new BigLibrary());
+        }
+        return shards;
+    }
+
+    /**
+     * Start a library whose shards are new, empty LibraryServer processes on this host, each one holding a
+     * ConcurrentLibrary, using the same Java runtime and class path as the current process. The workers only accept
+     * connections from this host, and exit when the library is closed, or when the current process exits.
+     * @param shardCount number of shards, must be positive
+     * @return an empty, thread-safe library over shardCount local worker processes
+     * @throws IOException if a worker cannot be started or reached
+     */
+    public static ShardedLibrary launch(int shardCount) throws IOException {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("The shard count must be positive");
+        }
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> workers = new ArrayList<>();
+        List<RemoteLibrary> shards = new ArrayList<>();
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                workers.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        LibraryServer.class.getName(), "0", LibraryServer.LOOPBACK_OPTION,
+                        LibraryServer.EXIT_ON_EOF_OPTION).redirectError(ProcessBuilder.Redirect.INHERIT).start());
+            }
+            for (Process worker : workers) {
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(worker.getInputStream(), StandardCharsets.UTF_8));
+                String port = reader.readLine();
+                if (port == null) {
+                    throw new IOException("A worker exited before listening");
+                }
+                shards.add(new RemoteLibrary(
+                        new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(port))));
+            }
+            return new ShardedLibrary(shards, workers);
+        } catch (IOException | RuntimeException e) {
+            for (RemoteLibrary shard : shards) {
+                shard.close();
+            }
+            workers.forEach(Process::destroy);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of shards of this library
+     */
+    public int getShardCount() {
+        return this.shards.size();
+    }
+
+    // Index of the shard holding the copies of a book: editions of the same work share it
+    private int shardOf(Book book) {
+        int hash = 31 * book.getTitle().hashCode() + book.authorsView().hashCode();
+        return Math.floorMod(hash, this.shards.size());
+    }
+
+    private Library shardFor(Book book) {
+        return this.shards.get(shardOf(book));
+    }
+
+    // Runs a call on each of the given shards in parallel, and returns their results in the same order
+    private <T> List<T> scatter(List<Integer> shardIndexes, IntFunction<T> call) {
+        if (shardIndexes.size() == 1) {
+            return Collections.singletonList(call.apply(shardIndexes.get(0)));
+        }
+        List<CompletableFuture<T>> futures = new ArrayList<>(shardIndexes.size());
+        for (int shard : shardIndexes) {
+            futures.add(CompletableFuture.supplyAsync(() -> call.apply(shard), this.executor));
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+        } catch (CompletionException ce) {
+            // Rethrow what the shard threw, e.g. IllegalArgumentException or UncheckedIOException
+            if (ce.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ce.getCause();
+            }
+            throw ce;
+        }
+        return results;
+    }
+
+    @Override
+    public BookCopy buy(Book book) {
+        return shardFor(book).buy(book);
+    }
+
+    @Override
+    public void checkout(BookCopy copy) {
+        shardFor(copy.getBook()).checkout(copy);
+    }
+
+    @Override
+    public void checkin(BookCopy copy) {
+        shardFor(copy.getBook()).checkin(copy);
+    }
+
+    @Override
+    public Map<Book, List<BookCopy>> buyAll(Map<Book, Integer> copiesByBook) {
+        CopyBatches.checkCounts(copiesByBook);
+        Map<Integer, Map<Book, Integer>> countsByShard = new TreeMap<>();
+        copiesByBook.forEach((book, count) ->
+                countsByShard.computeIfAbsent(shardOf(book), _shard -> new HashMap<>()).put(book, count));
+        Map<Book, List<BookCopy>> newCopies = new HashMap<>();
+        scatter(new ArrayList<>(countsByShard.keySet()),
+                shard -> this.shards.get(shard).buyAll(countsByShard.get(shard))).forEach(newCopies::putAll);
+        return newCopies;
+    }
+
+    @Override
+    public void checkinAll(Collection<BookCopy> copies) {
+        Map<Integer, List<BookCopy>> copiesByShard = new TreeMap<>();
+        for (Map.Entry<Book, List<BookCopy>> entry : CopyBatches.groupByBook(copies).entrySet()) {
+            Library shard = shardFor(entry.getKey());
+            Set<BookCopy> allCopies = shard.allCopies(entry.getKey());
+            for (BookCopy copy : entry.getValue()) {
+                if (!allCopies.contains(copy) || shard.isAvailable(copy)) {
+                    throw new IllegalArgumentException("This book copy was not checked out of the library");
+                }
+            }
+            copiesByShard.computeIfAbsent(shardOf(entry.getKey()), _shard -> new ArrayList<>())
+                    .addAll(entry.getValue());
+        }
+        scatter(new ArrayList<>(copiesByShard.keySet()), shard -> {
+            this.shards.get(shard).checkinAll(copiesByShard.get(shard));
+            return null;
+        });
+    }
+
+    @Override
+    public boolean isAvailable(BookCopy copy) {
+        return shardFor(copy.getBook()).isAvailable(copy);
+    }
+
+    @Override
+    public Set<BookCopy> allCopies(Book book) {
+        return shardFor(book).allCopies(book);
+    }
+
+    @Override
+    public Set<BookCopy> availableCopies(Book book) {
+        return shardFor(book).availableCopies(book);
+    }
+
+    @Override
+    public int totalCount(Book book) {
+        return shardFor(book).totalCount(book);
+    }
+
+    @Override
+    public int availableCount(Book book) {
+        return shardFor(book).availableCount(book);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The query is sent to every shard in parallel. Books whose title or one of whose authors is exactly the query
+     * come first, newer editions first; they are followed by at most MAX_RANKED_MATCHES other books, taken from
+     * the answers of the shards in turn, each in its own order.
+     */
+    @Override
+    public List<Book> find(String query) {
+        List<Integer> allShards = new ArrayList<>(this.shards.size());
+        for (int shard = 0; shard < this.shards.size(); shard++) {
+            allShards.add(shard);
+        }
+        List<List<Book>> answers = scatter(allShards, shard -> this.shards.get(shard).find(query));
+
+        SortedSet<Book> exactMatches = new TreeSet<>(BigLibrary.BOOK_SORTING_COMPARATOR);
+        List<Iterator<Book>> rankedMatches = new ArrayList<>(answers.size());
+        for (List<Book> answer : answers) {
+            List<Book> ranked = new ArrayList<>(answer.size());
+            for (Book book : answer) {
+                if (book.getTitle().equals(query) || book.authorsView().contains(query)) {
+                    exactMatches.add(book);
+                } else {
+                    ranked.add(book);
+                }
+            }
+            rankedMatches.add(ranked.iterator());
+        }
+
+        List<Book> result = new ArrayList<>(exactMatches);
+        int rankedCount = 0;
+        while (rankedCount < MAX_RANKED_MATCHES && !rankedMatches.isEmpty()) {
+            for (Iterator<Iterator<Book>> shardMatches = rankedMatches.iterator();
+                    shardMatches.hasNext() && rankedCount < MAX_RANKED_MATCHES;) {
+                Iterator<Book> matches = shardMatches.next();
+                if (matches.hasNext()) {
+                    result.add(matches.next());
+                    rankedCount++;
+                } else {
+                    shardMatches.remove();
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void lose(BookCopy copy) {
+        shardFor(copy.getBook()).lose(copy);
+    }
+
+    /**
+     * Stop the threads of this library, and the worker processes started by launch(). Shards given by the client
+     * are left open. The library must not be used anymore.
+     */
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+        for (Library shard : this.shards) {
+            if (!this.workers.isEmpty() && shard instanceof Closeable) {
+                try {
+                    ((Closeable) shard).close();
+                } catch (IOException ioe) {
+                    // The worker is stopped below anyway
+                }
+            }
+        }
+        for (Process worker : this.workers) {
+            worker.destroy();
+            try {
+                worker.waitFor(WORKER_EXIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
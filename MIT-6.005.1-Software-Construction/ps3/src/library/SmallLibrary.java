@@ -30,6 +30,8 @@ public class SmallLibrary implements Library {
 
     private static final Comparator<Book> BOOK_SORTING_COMPARATOR = Comparator.comparing(Book::getYear).reversed();
 
+    private static final int MAX_RANKED_MATCHES = 50;
+
     public SmallLibrary() {
         this.inLibrary = new HashSet<>();
         this.checkedOut = new HashSet<>();
@@ -93,6 +95,15 @@ public class SmallLibrary implements Library {
         return this.inLibrary.stream().filter(copy -> copy.getBook().equals(book)).collect(Collectors.toSet());
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Books whose title or one of whose authors is exactly the query come first, newer editions first. They are
+     * followed by at most MAX_RANKED_MATCHES other books sharing words with the query, by decreasing BM25 score.
+     * If no book matches exactly, words of the catalog close to those of the query (typos, unfinished words) also
+     * count, see BookSearchIndex.searchFuzzy().
+     * The collection being small, the full-text index is built anew for each search.
+     */
     @Override
     public List<Book> find(String query) {
         Set<Book> foundInLibrary = findBooksInCopiesMatchingString(this.inLibrary, query);
@@ -101,12 +112,16 @@ public class SmallLibrary implements Library {
         resultAsSet.addAll(foundCheckedOut);
         List<Book> resultAsList = resultAsSet.stream().collect(Collectors.toList());
         resultAsList.sort(BOOK_SORTING_COMPARATOR);
-        return resultAsList;
+
+        BookSearchIndex searchIndex = new BookSearchIndex(BOOK_SORTING_COMPARATOR);
+        this.inLibrary.forEach(copy -> searchIndex.add(copy.getBook()));
+        this.checkedOut.forEach(copy -> searchIndex.add(copy.getBook()));
+        return searchIndex.completeExactMatches(resultAsList, query, MAX_RANKED_MATCHES);
     }
 
     private Set<Book> findBooksInCopiesMatchingString(Set<BookCopy> copies, String query) {
         return copies.stream().filter(bookCopy -> bookCopy.getBook().getTitle().equals(query)
-                || bookCopy.getBook().getAuthors().contains(query)).map(BookCopy::getBook).collect(Collectors.toSet());
+                || bookCopy.getBook().authorsView().contains(query)).map(BookCopy::getBook).collect(Collectors.toSet());
     }
 
     @Override
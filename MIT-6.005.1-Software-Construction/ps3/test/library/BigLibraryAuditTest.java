@@ -0,0 +1,164 @@
+package library;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test suite for the rep invariant checks of BigLibrary. Its behavior is tested by LibraryTest.
+ */
+public class BigLibraryAuditTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     * Audits will be tested with an executor running them at once, or later, so that the test knows when they run:
+     * - a library never audits without an interval, and audits every interval mutations otherwise (buy, checkout,
+     *   checkin and lose all count, queries do not);
+     * - audits of a consistent library report nothing, even when the library changes before the audit runs;
+     * - a rep broken on purpose (through reflection) is reported by the next audit, not before;
+     * - the check of each mutation catches a broken rep if the mutation touches the broken book.
+     * Audits will also be tested on a real background thread.
+     * The constructor will be tested on a negative interval, and on a positive one without executor or handler.
+     */
+
+    private final Book hobbit = new Book("The Hobbit", Arrays.asList("J. R. R. Tolkien"), 1937);
+
+    private final Book dune = new Book("Dune", Arrays.asList("Frank Herbert"), 1965);
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Book, Set<BookCopy>> availableCopiesByBook(BigLibrary library) throws Exception {
+        Field field = BigLibrary.class.getDeclaredField("availableCopiesByBook");
+        field.setAccessible(true);
+        return (Map<Book, Set<BookCopy>>) field.get(library);
+    }
+
+    @Test
+    public void testAudit_noInterval() {
+        BigLibrary library = new BigLibrary();
+        for (int i = 0; i < 100; i++) {
+            library.checkout(library.buy(this.hobbit));
+        }
+        assertEquals(100, library.allCopies(this.hobbit).size());
+    }
+
+    @Test
+    public void testAudit_everyIntervalMutations() {
+        List<Runnable> audits = new ArrayList<>();
+        List<String> violations = new ArrayList<>();
+        BigLibrary library = new BigLibrary(4, audits::add, violations::add);
+        BookCopy copy = library.buy(this.hobbit);
+        library.checkout(copy);
+        library.checkin(copy);
+        library.find("Hobbit");
+        library.isAvailable(copy);
+        assertEquals(0, audits.size());
+        library.lose(copy);
+        assertEquals(1, audits.size());
+        for (int i = 0; i < 8; i++) {
+            library.buy(this.dune);
+        }
+        assertEquals(3, audits.size());
+        audits.forEach(Runnable::run);
+        assertEquals(new ArrayList<>(), violations);
+    }
+
+    @Test
+    public void testAudit_libraryChangedBeforeAuditRuns() {
+        List<Runnable> audits = new ArrayList<>();
+        List<String> violations = new ArrayList<>();
+        BigLibrary library = new BigLibrary(2, audits::add, violations::add);
+        BookCopy copy = library.buy(this.hobbit);
+        library.buy(this.dune);
+        library.checkout(copy);
+        library.lose(copy);
+        library.buy(this.hobbit);
+        assertEquals(2, audits.size());
+        audits.forEach(Runnable::run);
+        assertEquals(new ArrayList<>(), violations);
+    }
+
+    @Test
+    public void testAudit_brokenRepReported() throws Exception {
+        List<String> violations = new ArrayList<>();
+        BigLibrary library = new BigLibrary(3, Runnable::run, violations::add);
+        BookCopy copy = library.buy(this.hobbit);
+        library.checkout(copy);
+        // Make the checked out copy available too, without touching hobbit again
+        availableCopiesByBook(library).get(this.hobbit).add(copy);
+        library.buy(this.dune);
+        assertEquals(1, violations.size());
+        assertTrue(violations.get(0).contains(this.hobbit.toString()));
+    }
+
+    @Test
+    public void testAudit_brokenRepNotReportedBeforeInterval() throws Exception {
+        List<String> violations = new ArrayList<>();
+        BigLibrary library = new BigLibrary(10, Runnable::run, violations::add);
+        BookCopy copy = library.buy(this.hobbit);
+        library.checkout(copy);
+        availableCopiesByBook(library).get(this.hobbit).add(copy);
+        library.buy(this.dune);
+        assertEquals(new ArrayList<>(), violations);
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testCheck_mutationOfBrokenBook() throws Exception {
+        BigLibrary library = new BigLibrary();
+        BookCopy copy = library.buy(this.hobbit);
+        library.checkout(copy);
+        availableCopiesByBook(library).get(this.hobbit).add(copy);
+        library.buy(this.hobbit);
+    }
+
+    @Test
+    public void testAudit_backgroundThread() throws Exception {
+        ExecutorService auditor = Executors.newSingleThreadExecutor();
+        CountDownLatch reported = new CountDownLatch(1);
+        List<String> violations = new ArrayList<>();
+        BigLibrary library = new BigLibrary(1000, auditor, violation -> {
+            synchronized (violations) {
+                violations.add(violation);
+            }
+            reported.countDown();
+        });
+        for (int i = 0; i < 997; i++) {
+            library.buy(new Book("Book " + i, Arrays.asList("Author " + i % 10), 2000));
+        }
+        BookCopy copy = library.buy(this.hobbit);
+        library.checkout(copy);
+        availableCopiesByBook(library).get(this.hobbit).add(copy);
+        library.buy(this.dune);
+        assertTrue(reported.await(60, TimeUnit.SECONDS));
+        auditor.shutdown();
+        assertTrue(auditor.awaitTermination(60, TimeUnit.SECONDS));
+        synchronized (violations) {
+            assertFalse(violations.isEmpty());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_negativeInterval() {
+        new BigLibrary(-1, Runnable::run, violation -> { });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_noHandler() {
+        new BigLibrary(10, Runnable::run, null);
+    }
+}
@@ -0,0 +1,116 @@
+package library;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Benchmark of the comparisons and hashes of books done by the catalog of BigLibrary: the former comparator, which
+ * copied the authors of both books through getAuthors() and boxed their years, against
+ * BigLibrary.BOOK_SORTING_COMPARATOR; the former Objects.hash() hash code against the cached one; and the
+ * insertion then removal of each book in a sorted catalog, as buy() and lose() do, with both comparators.
+ * Prints the time and the bytes allocated per operation, as counted by com.sun.management.ThreadMXBean.
+ *
+ * Not a test: run its main method, optionally with the number of books as argument (default 100000).
+ */
+public class BookOrderingBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    private static final int MEASURED_ROUNDS = 10;
+
+    // Former BigLibrary.BOOK_SORTING_COMPARATOR
+    private static final Comparator<Book> COPYING_COMPARATOR = Comparator.comparing(Book::getTitle)
+            .thenComparing(Book::getAuthors, BigLibrary.BOOK_AUTHORS_COMPARATOR)
+            .thenComparing(Comparator.comparing(Book::getYear).reversed());
+
+    public static void main(String[] args) {
+        int bookCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        List<Book> books = makeBooks(bookCount, new Random(6005));
+        List<Book> shuffled = new ArrayList<>(books);
+        Collections.shuffle(shuffled, new Random(6005));
+
+        run("compare, copying comparator", bookCount, () -> compareAll(books, shuffled, COPYING_COMPARATOR));
+        run("compare, BOOK_SORTING_COMPARATOR", bookCount,
+                () -> compareAll(books, shuffled, BigLibrary.BOOK_SORTING_COMPARATOR));
+        run("hash, Objects.hash", bookCount, () -> {
+            long checksum = 0;
+            for (Book book : books) {
+                checksum += Objects.hash(book.getTitle(), book.getAuthors(), book.getYear());
+            }
+            return checksum;
+        });
+        run("hash, cached", bookCount, () -> {
+            long checksum = 0;
+            for (Book book : books) {
+                checksum += book.hashCode();
+            }
+            return checksum;
+        });
+
+        SortedSet<Book> copyingCatalog = new TreeSet<>(COPYING_COMPARATOR);
+        copyingCatalog.addAll(books);
+        SortedSet<Book> catalog = new TreeSet<>(BigLibrary.BOOK_SORTING_COMPARATOR);
+        catalog.addAll(books);
+        run("remove and add, copying comparator", bookCount, () -> removeAndAddAll(copyingCatalog, shuffled));
+        run("remove and add, BOOK_SORTING_COMPARATOR", bookCount, () -> removeAndAddAll(catalog, shuffled));
+    }
+
+    // Editions sharing titles and authors, so that comparisons often reach the authors and the years
+    private static List<Book> makeBooks(int count, Random random) {
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            List<String> authors = new ArrayList<>();
+            for (int j = random.nextInt(3); j >= 0; j--) {
+                authors.add("Author " + random.nextInt(count / 10 + 1));
+            }
+            books.add(new Book("Title " + random.nextInt(count / 5 + 1), authors, 1500 + i % 500));
+        }
+        return books;
+    }
+
+    private static long compareAll(List<Book> books, List<Book> others, Comparator<Book> comparator) {
+        long checksum = 0;
+        for (int i = 0; i < books.size(); i++) {
+            checksum += comparator.compare(books.get(i), others.get(i));
+        }
+        return checksum;
+    }
+
+    // Removes then adds back each book, leaving the catalog as it was; the TreeSet entries it allocates are the
+    // same for both comparators
+    private static long removeAndAddAll(SortedSet<Book> catalog, List<Book> books) {
+        long checksum = 0;
+        for (Book book : books) {
+            if (catalog.remove(book) && catalog.add(book)) {
+                checksum++;
+            }
+        }
+        return checksum;
+    }
+
+    private static void run(String name, int bookCount, Operation operation) {
+        java.lang.management.ThreadMXBean standardBean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean bean = standardBean instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) standardBean : null;
+        long threadId = Thread.currentThread().getId();
+
+        long checksum = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            checksum += operation.run();
+        }
+        long startBytes = bean == null ? 0 : bean.getThreadAllocatedBytes(threadId);
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            checksum += operation.run();
+        }
+        double nanosPerBook = (double) (System.nanoTime() - startNanos) / MEASURED_ROUNDS / bookCount;
+        double bytesPerBook = bean == null ? Double.NaN
+                : (double) (bean.getThreadAllocatedBytes(threadId) - startBytes) / MEASURED_ROUNDS / bookCount;
+        System.out.printf("%-45s %8.1f ns/book %8.1f bytes/book (checksum %d)%n", name, nanosPerBook,
+                bytesPerBook, checksum);
+    }
+
+    private interface Operation {
+        long run();
+    }
+}
@@ -0,0 +1,159 @@
+package library;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test suite for BookSearchIndex ADT.
+ */
+public class BookSearchIndexTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     * Terms will be tested on punctuation, case, digits, non-ASCII letters and strings without any term.
+     * Search will be tested on an empty index, a query without any known term, a partial title, a partial author,
+     * several terms where the book matching more of them must come first, rarer terms weighing more than common
+     * ones, and k smaller than the number of matches or not positive.
+     * Books with the same terms (editions) tie, so they must follow the tie breaker: newer first.
+     * Remove will be tested on a present and an absent book, the book must not be found anymore.
+     * Finally, the early termination must not change the results: on a random catalog, the top k must be the
+     * first k books of the full ranking.
+     * Fuzzy search will be tested on a misspelled author, an unfinished title word, and must rank books matching
+     * a term exactly before books matching it with a typo.
+     */
+
+    private static final Comparator<Book> NEWER_FIRST = Comparator.comparing(Book::getYear).reversed();
+
+    private final Book hobbit1 = new Book("The Hobbit", Arrays.asList("J. R. R. Tolkien"), 1937);
+
+    private final Book hobbit2 = new Book("The Hobbit", Arrays.asList("J. R. R. Tolkien"), 1951);
+
+    private final Book rings = new Book("The Lord of the Rings", Arrays.asList("J. R. R. Tolkien"), 1954);
+
+    private final Book silmarillion = new Book("The Silmarillion", Arrays.asList("J. R. R. Tolkien",
+            "Christopher Tolkien"), 1977);
+
+    private final Book software = new Book("Software Construction", Arrays.asList("Alice", "Bob"), 2016);
+
+    private BookSearchIndex index(Book... books) {
+        BookSearchIndex index = new BookSearchIndex(NEWER_FIRST);
+        Arrays.asList(books).forEach(index::add);
+        return index;
+    }
+
+    @Test
+    public void testTerms() {
+        assertEquals(Arrays.asList("j", "r", "r", "tolkien"), BookSearchIndex.terms("J. R. R. Tolkien"));
+        assertEquals(Arrays.asList("6", "005", "caf\u00e9"), BookSearchIndex.terms("  6.005: CAF\u00c9!"));
+        assertEquals(Collections.emptyList(), BookSearchIndex.terms(" -- ?"));
+    }
+
+    @Test
+    public void testSearch_emptyIndex() {
+        assertEquals(Collections.emptyList(), index().search("hobbit", 10));
+    }
+
+    @Test
+    public void testSearch_unknownTerms() {
+        assertEquals(Collections.emptyList(), index(hobbit1, software).search("dragon egg", 10));
+    }
+
+    @Test
+    public void testSearch_partialTitleAndAuthor() {
+        BookSearchIndex index = index(hobbit1, rings, software);
+        assertEquals(Arrays.asList(hobbit1), index.search("hobbit", 10));
+        assertEquals(Arrays.asList(software), index.search("BOB", 10));
+    }
+
+    @Test
+    public void testSearch_moreMatchingTermsFirst() {
+        BookSearchIndex index = index(hobbit1, rings, silmarillion, software);
+        List<Book> found = index.search("the lord of rings", 10);
+        assertEquals(rings, found.get(0));
+        assertEquals(3, found.size());
+    }
+
+    @Test
+    public void testSearch_rareTermsWeighMore() {
+        BookSearchIndex index = index(hobbit1, rings, silmarillion, software);
+        List<Book> found = index.search("christopher tolkien", 10);
+        assertEquals(silmarillion, found.get(0));
+        assertEquals(3, found.size());
+    }
+
+    @Test
+    public void testSearch_newerEditionFirst() {
+        BookSearchIndex index = index(hobbit1, hobbit2, rings);
+        assertEquals(Arrays.asList(hobbit2, hobbit1), index.search("Hobbit", 10));
+    }
+
+    @Test
+    public void testSearch_limitedResults() {
+        BookSearchIndex index = index(hobbit1, hobbit2, rings, silmarillion);
+        assertEquals(2, index.search("tolkien", 2).size());
+        assertEquals(Collections.emptyList(), index.search("tolkien", 0));
+    }
+
+    @Test
+    public void testSearchFuzzy_typo() {
+        BookSearchIndex index = index(hobbit1, rings, software);
+        assertEquals(Collections.emptyList(), index.search("Tolkein", 10));
+        assertEquals(Arrays.asList(hobbit1, rings), index.searchFuzzy("Tolkein", 10));
+    }
+
+    @Test
+    public void testSearchFuzzy_unfinishedWord() {
+        BookSearchIndex index = index(hobbit1, hobbit2, rings, software);
+        assertEquals(Arrays.asList(hobbit2, hobbit1), index.searchFuzzy("hobb", 10));
+        assertEquals(Arrays.asList(software), index.searchFuzzy("constr", 10));
+    }
+
+    @Test
+    public void testSearchFuzzy_exactTermFirst() {
+        Book rung = new Book("Rung", Arrays.asList("Alice"), 2000);
+        Book ring = new Book("Ring", Arrays.asList("Alice"), 2000);
+        BookSearchIndex index = index(rung, ring);
+        assertEquals(Arrays.asList(ring, rung), index.searchFuzzy("ring", 10));
+    }
+
+    @Test
+    public void testRemove() {
+        BookSearchIndex index = index(hobbit1, rings);
+        index.remove(hobbit1);
+        index.remove(software);
+        assertEquals(1, index.size());
+        assertEquals(Collections.emptyList(), index.search("hobbit", 10));
+        assertEquals(Arrays.asList(rings), index.search("tolkien", 10));
+    }
+
+    @Test
+    public void testSearch_earlyTerminationSameAsFullRanking() {
+        Random random = new Random(6005);
+        String[] words = {"the", "of", "and", "a", "history", "war", "peace", "garden", "rings", "code", "java",
+            "night", "river", "stone", "glass", "winter"};
+        BookSearchIndex index = new BookSearchIndex(NEWER_FIRST.thenComparing(Book::toString));
+        for (int i = 0; i < 3000; i++) {
+            StringBuilder title = new StringBuilder(words[random.nextInt(words.length)]);
+            for (int j = 0; j < random.nextInt(6); j++) {
+                title.append(' ').append(words[random.nextInt(words.length)]);
+            }
+            index.add(new Book(title.toString(), Arrays.asList("Author " + random.nextInt(300)), 1900 + i % 120));
+        }
+        List<String> queries = Arrays.asList("the war of the rings", "winter river stone", "a java code",
+                "author 17 garden", "peace");
+        for (String query : queries) {
+            List<Book> all = index.search(query, Integer.MAX_VALUE);
+            for (int k : Arrays.asList(1, 5, 20, 100)) {
+                assertEquals(new ArrayList<>(all.subList(0, Math.min(k, all.size()))), index.search(query, k));
+            }
+        }
+    }
+}
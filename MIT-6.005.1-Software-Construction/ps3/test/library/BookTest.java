@@ -1,7 +1,9 @@
 package library;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -23,6 +25,8 @@ public class BookTest {
      * Repeated calls are consistent.
      * t.equals(null) is false
      * If t.equals(u) then t.hashCode() equals u.hashCode()
+     * The authors list given to the constructor, or returned by getAuthors, can be changed without changing the book
+     * or its hash code.
      */
     
     @Test
@@ -123,6 +127,24 @@ public class BookTest {
         assertTrue(book1.hashCode() == book2.hashCode() && book2.hashCode() == book3.hashCode());
         assertTrue(book1.equals(book2));
     }
+
+    @Test
+    public void testConstructor_authorsCopied() {
+        List<String> authors = new ArrayList<>(Arrays.asList("Alice", "Bob"));
+        Book book = new Book("A book", authors, 1990);
+        int hashCode = book.hashCode();
+        authors.add("Charlie");
+        assertEquals(Arrays.asList("Alice", "Bob"), book.getAuthors());
+        assertEquals(hashCode, book.hashCode());
+        assertEquals(new Book("A book", Arrays.asList("Alice", "Bob"), 1990), book);
+    }
+
+    @Test
+    public void testGetAuthors_copy() {
+        Book book = new Book("A book", Arrays.asList("Alice", "Bob"), 1990);
+        book.getAuthors().add("Charlie");
+        assertEquals(Arrays.asList("Alice", "Bob"), book.getAuthors());
+    }
     
     @Test(expected=AssertionError.class)
     public void testAssertionsEnabled() {
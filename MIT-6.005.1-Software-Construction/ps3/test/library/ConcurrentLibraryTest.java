@@ -0,0 +1,275 @@
+package library;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress test suite for the thread safety of the thread-safe Library implementations.
+ * Their sequential behavior is tested by LibraryTest.
+ */
+@RunWith(Parameterized.class)
+public class ConcurrentLibraryTest {
+
+    /**
+     * Thread-safe implementation classes of the Library ADT.
+     *
+     * @return array of Java class names, including their full package prefix
+     */
+    @Parameters(name = "{0}")
+    public static Object[] allImplementationClassNames() {
+        return new Object[]{
+                "library.ConcurrentLibrary",
+                "library.LockFreeLibrary"
+        };
+    }
+
+    /**
+     * Implementation class being tested on this run of the test suite.
+     */
+    @Parameter
+    public String implementationClassName;
+
+    /**
+     * @return a fresh instance of a Library, constructed from the implementation class specified
+     * by implementationClassName.
+     */
+    public Library makeLibrary() {
+        try {
+            Class<?> cls = Class.forName(implementationClassName);
+            return (Library) cls.newInstance();
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+     * Testing strategy
+     * ==================
+     * Each test starts many threads at once on the same library, and checks that the outcome is one that some
+     * sequential order of the same operations could have produced (linearizability):
+     * - racing checkouts of the same single copy: exactly one succeeds, racing checkins likewise;
+     * - racing buys of the same book: every copy is kept;
+     * - racing checkinAll of the same copies, listed in different orders, and checkin of one of them: exactly one
+     *   of them succeeds, and a batch checks in all its copies or none;
+     * - random buy, checkout, checkin and lose on a few books, each thread tracking the state of its own copies:
+     *   at the end, the library holds exactly the copies the threads expect, in the expected state;
+     * - finds during buys and losses of the same title never fail, and only return books with that title;
+     * - a ConcurrentLibrary with a single stripe, where every book contends, must behave the same;
+     * - for LockFreeLibrary, the lock-free counts must match the copies once all threads are done.
+     */
+
+    private static final int THREADS = 8;
+
+    private static final Book BESTSELLER = new Book("Bestseller", Arrays.asList("Alice"), 2016);
+
+    private interface Task {
+        void run(int thread) throws Exception;
+    }
+
+    // Runs the task on THREADS threads released at the same time, and rethrows their failures
+    private static void runConcurrently(Task task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            int index = thread;
+            futures.add(executor.submit(() -> {
+                start.await();
+                task.run(index);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<Void> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void testCheckout_sameCopyOnlyOnce() throws Exception {
+        Library library = makeLibrary();
+        for (int round = 0; round < 200; round++) {
+            BookCopy copy = library.buy(BESTSELLER);
+            AtomicInteger checkouts = new AtomicInteger();
+            AtomicInteger checkins = new AtomicInteger();
+            runConcurrently(thread -> {
+                try {
+                    library.checkout(copy);
+                    checkouts.incrementAndGet();
+                } catch (IllegalArgumentException iae) {
+                    // Another thread was first
+                }
+            });
+            runConcurrently(thread -> {
+                try {
+                    library.checkin(copy);
+                    checkins.incrementAndGet();
+                } catch (IllegalArgumentException iae) {
+                    // Another thread was first
+                }
+            });
+            assertEquals(1, checkouts.get());
+            assertEquals(1, checkins.get());
+            assertTrue(library.isAvailable(copy));
+        }
+    }
+
+    @Test
+    public void testBuy_sameBook() throws Exception {
+        Library library = makeLibrary();
+        Set<BookCopy> bought = ConcurrentHashMap.newKeySet();
+        runConcurrently(thread -> {
+            for (int i = 0; i < 1000; i++) {
+                bought.add(library.buy(BESTSELLER));
+            }
+        });
+        assertEquals(THREADS * 1000, bought.size());
+        assertEquals(bought, library.allCopies(BESTSELLER));
+        assertEquals(bought, library.availableCopies(BESTSELLER));
+        assertEquals(Arrays.asList(BESTSELLER), library.find("Bestseller"));
+    }
+
+    @Test
+    public void testCheckinAll_racingBatches() throws Exception {
+        Library library = makeLibrary();
+        Book other = new Book("Other", Arrays.asList("Bob"), 2017);
+        for (int round = 0; round < 200; round++) {
+            BookCopy first = library.buy(BESTSELLER);
+            BookCopy second = library.buy(other);
+            library.checkout(first);
+            library.checkout(second);
+            AtomicInteger batches = new AtomicInteger();
+            AtomicInteger singles = new AtomicInteger();
+            runConcurrently(thread -> {
+                try {
+                    if (thread % 3 == 2) {
+                        library.checkin(first);
+                        singles.incrementAndGet();
+                    } else {
+                        library.checkinAll(thread % 3 == 0 ? Arrays.asList(first, second)
+                                : Arrays.asList(second, first));
+                        batches.incrementAndGet();
+                    }
+                } catch (IllegalArgumentException iae) {
+                    // Another thread was first
+                }
+            });
+            assertEquals(1, batches.get() + singles.get());
+            assertTrue(library.isAvailable(first));
+            assertEquals(batches.get() == 1, library.isAvailable(second));
+            library.lose(first);
+            library.lose(second);
+        }
+        assertEquals(0, library.totalCount(BESTSELLER));
+    }
+
+    @Test
+    public void testRandomOperations() throws Exception {
+        assertRandomOperationsLinearizable(makeLibrary());
+    }
+
+    @Test
+    public void testRandomOperations_singleStripe() throws Exception {
+        // Only ConcurrentLibrary has stripes
+        if (implementationClassName.equals(ConcurrentLibrary.class.getName())) {
+            assertRandomOperationsLinearizable(new ConcurrentLibrary(1));
+        }
+    }
+
+    private static void assertRandomOperationsLinearizable(Library library) throws Exception {
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            books.add(new Book("Book " + i, Arrays.asList("Author " + i % 2), 2000 + i));
+        }
+        Set<BookCopy> expectedAvailable = ConcurrentHashMap.newKeySet();
+        Set<BookCopy> expectedCheckedOut = ConcurrentHashMap.newKeySet();
+        runConcurrently(thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            List<BookCopy> available = new ArrayList<>();
+            List<BookCopy> checkedOut = new ArrayList<>();
+            for (int i = 0; i < 20_000; i++) {
+                int operation = random.nextInt(4);
+                if (operation == 0 || available.isEmpty() && checkedOut.isEmpty()) {
+                    available.add(library.buy(books.get(random.nextInt(books.size()))));
+                } else if (operation == 1 && !available.isEmpty()) {
+                    BookCopy copy = available.remove(random.nextInt(available.size()));
+                    library.checkout(copy);
+                    checkedOut.add(copy);
+                } else if (operation == 2 && !checkedOut.isEmpty()) {
+                    BookCopy copy = checkedOut.remove(random.nextInt(checkedOut.size()));
+                    library.checkin(copy);
+                    available.add(copy);
+                } else if (operation == 3) {
+                    List<BookCopy> from = available.isEmpty() || random.nextBoolean() && !checkedOut.isEmpty()
+                            ? checkedOut : available;
+                    library.lose(from.remove(random.nextInt(from.size())));
+                }
+            }
+            expectedAvailable.addAll(available);
+            expectedCheckedOut.addAll(checkedOut);
+        });
+
+        for (Book book : books) {
+            Set<BookCopy> available = library.availableCopies(book);
+            Set<BookCopy> all = library.allCopies(book);
+            for (BookCopy copy : all) {
+                assertEquals(expectedAvailable.contains(copy), library.isAvailable(copy));
+                assertEquals(expectedAvailable.contains(copy), available.contains(copy));
+                assertTrue(expectedAvailable.contains(copy) || expectedCheckedOut.contains(copy));
+            }
+            long expectedCount = expectedAvailable.stream().filter(copy -> copy.getBook().equals(book)).count()
+                    + expectedCheckedOut.stream().filter(copy -> copy.getBook().equals(book)).count();
+            assertEquals(expectedCount, all.size());
+            assertEquals(available.size(), library.availableCount(book));
+            assertEquals(expectedCount, library.totalCount(book));
+            assertEquals(expectedCount > 0, library.find(book.getTitle()).contains(book));
+        }
+    }
+
+    @Test
+    public void testFind_duringBuyAndLose() throws Exception {
+        Library library = makeLibrary();
+        runConcurrently(thread -> {
+            if (thread % 2 == 0) {
+                for (int i = 0; i < 2000; i++) {
+                    Book edition = new Book("Bestseller", Arrays.asList("Alice"), 1900 + (i + thread) % 100);
+                    BookCopy copy = library.buy(edition);
+                    if (i % 3 != 0) {
+                        library.lose(copy);
+                    }
+                }
+            } else {
+                for (int i = 0; i < 2000; i++) {
+                    for (Book book : library.find("Bestseller")) {
+                        assertTrue(book.getTitle().equals("Bestseller"));
+                    }
+                }
+            }
+        });
+        List<Book> found = library.find("Alice");
+        List<Book> sorted = new ArrayList<>(found);
+        sorted.sort(Collections.reverseOrder((x, y) -> Integer.compare(x.getYear(), y.getYear())));
+        assertEquals(sorted, found);
+        assertEquals(100, found.size());
+    }
+}
@@ -0,0 +1,343 @@
+package library;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test suite for DurableLibrary ADT. Its behavior as a Library is the one of its delegate, tested by LibraryTest.
+ */
+public class DurableLibraryTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     * Each test changes a library, closes it (or just drops it, like a crash), and reopens the same directory with a
+     * new delegate, which must hold the same copies, under the same ids, in the same states.
+     * Recovery will be tested from the log only, from a snapshot only, and from a snapshot followed by a log, with
+     * snapshots taken explicitly or every interval operations; and on an empty directory.
+     * The log will be tested with a torn last record, which must be dropped, and the library must go on logging
+     * after it. Operations failing on the delegate must not be logged.
+     * Lose will be tested on a copy of the library, and on a copy that is not: nothing happens.
+     * Batches of buys and checkins must be recovered, with the ids given to their copies, and a torn batch must be
+     * dropped whole.
+     * Group commit will be tested with many threads on a ConcurrentLibrary: every acknowledged operation must be
+     * recovered.
+     * A corrupt snapshot must fail the recovery, rather than losing the collection silently.
+     */
+
+    private final Book hobbit = new Book("The Hobbit", Arrays.asList("J. R. R. Tolkien"), 1937);
+
+    private final Book dune = new Book("Dune", Arrays.asList("Frank Herbert"), 1965);
+
+    private Path directory;
+
+    @Before
+    public void makeDirectory() throws IOException {
+        this.directory = Files.createTempDirectory("durable-library");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private DurableLibrary reopen(int snapshotInterval) throws IOException {
+        return DurableLibrary.open(this.directory, new BigLibrary(), snapshotInterval);
+    }
+
+    private static Set<Long> ids(DurableLibrary library, Set<BookCopy> copies) {
+        return copies.stream().map(library::idOf).collect(Collectors.toSet());
+    }
+
+    @Test
+    public void testOpen_emptyDirectory() throws IOException {
+        try (DurableLibrary library = reopen(10)) {
+            assertEquals(new HashSet<>(), library.allCopies(this.hobbit));
+            assertEquals(new ArrayList<>(), library.find("Hobbit"));
+        }
+    }
+
+    @Test
+    public void testRecover_fromLog() throws IOException {
+        long available;
+        long checkedOut;
+        try (DurableLibrary library = reopen(1000)) {
+            BookCopy first = library.buy(this.hobbit);
+            BookCopy second = library.buy(this.hobbit);
+            BookCopy lost = library.buy(this.dune);
+            library.checkout(first);
+            library.checkout(second);
+            library.checkin(second);
+            library.lose(lost);
+            available = library.idOf(second);
+            checkedOut = library.idOf(first);
+        }
+
+        try (DurableLibrary library = reopen(1000)) {
+            assertEquals(new HashSet<>(Arrays.asList(available, checkedOut)),
+                    ids(library, library.allCopies(this.hobbit)));
+            assertTrue(library.isAvailable(library.copyWithId(available)));
+            assertFalse(library.isAvailable(library.copyWithId(checkedOut)));
+            assertEquals(new HashSet<>(), library.allCopies(this.dune));
+            assertEquals(Arrays.asList(this.hobbit), library.find("The Hobbit"));
+            // New copies do not reuse the ids of the recovered ones
+            long id = library.idOf(library.buy(this.dune));
+            assertFalse(id == available || id == checkedOut);
+        }
+    }
+
+    @Test
+    public void testRecover_fromSnapshotAndLog() throws IOException {
+        long beforeSnapshot;
+        long afterSnapshot;
+        try (DurableLibrary library = reopen(1000)) {
+            BookCopy copy = library.buy(this.hobbit);
+            library.checkout(copy);
+            library.buy(this.dune);
+            library.lose(library.buy(this.dune));
+            library.snapshot();
+            library.checkin(copy);
+            BookCopy other = library.buy(this.dune);
+            library.checkout(other);
+            beforeSnapshot = library.idOf(copy);
+            afterSnapshot = library.idOf(other);
+        }
+
+        try (DurableLibrary library = reopen(1000)) {
+            assertTrue(library.isAvailable(library.copyWithId(beforeSnapshot)));
+            assertFalse(library.isAvailable(library.copyWithId(afterSnapshot)));
+            assertEquals(2, library.allCopies(this.dune).size());
+            assertEquals(1, library.availableCopies(this.dune).size());
+        }
+    }
+
+    @Test
+    public void testRecover_periodicSnapshots() throws IOException {
+        List<Long> checkedOut = new ArrayList<>();
+        try (DurableLibrary library = reopen(7)) {
+            for (int i = 0; i < 50; i++) {
+                BookCopy copy = library.buy(this.hobbit);
+                if (i % 3 == 0) {
+                    library.checkout(copy);
+                    checkedOut.add(library.idOf(copy));
+                }
+            }
+        }
+        try (Stream<Path> files = Files.list(this.directory)) {
+            assertTrue(files.count() <= 3);
+        }
+
+        try (DurableLibrary library = reopen(7)) {
+            assertEquals(50, library.allCopies(this.hobbit).size());
+            assertEquals(new HashSet<>(checkedOut), ids(library, library.allCopies(this.hobbit))
+                    .stream().filter(id -> !library.isAvailable(library.copyWithId(id))).collect(Collectors.toSet()));
+        }
+    }
+
+    @Test
+    public void testRecover_withoutClose() throws IOException {
+        DurableLibrary crashed = reopen(1000);
+        crashed.checkout(crashed.buy(this.hobbit));
+        long id = crashed.idOf(crashed.buy(this.hobbit));
+
+        try (DurableLibrary library = reopen(1000)) {
+            assertEquals(2, library.allCopies(this.hobbit).size());
+            assertTrue(library.isAvailable(library.copyWithId(id)));
+        }
+    }
+
+    @Test
+    public void testRecover_tornLastRecord() throws IOException {
+        try (DurableLibrary library = reopen(1000)) {
+            library.buy(this.hobbit);
+        }
+        Path log;
+        try (Stream<Path> files = Files.list(this.directory)) {
+            log = files.filter(file -> file.getFileName().toString().startsWith("log-")).max(Comparator.naturalOrder())
+                    .get();
+        }
+        // A record whose length says more than what was written before the crash
+        Files.write(log, new byte[]{0, 0, 0, 40, 1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+
+        try (DurableLibrary library = reopen(1000)) {
+            assertEquals(1, library.allCopies(this.hobbit).size());
+            library.buy(this.dune);
+        }
+        try (DurableLibrary library = reopen(1000)) {
+            assertEquals(1, library.allCopies(this.hobbit).size());
+            assertEquals(1, library.allCopies(this.dune).size());
+        }
+    }
+
+    @Test
+    public void testRecover_batches() throws IOException {
+        List<Long> hobbitIds;
+        long duneId;
+        try (DurableLibrary library = reopen(1000)) {
+            Map<Book, Integer> copiesByBook = new HashMap<>();
+            copiesByBook.put(this.hobbit, 3);
+            copiesByBook.put(this.dune, 1);
+            Map<Book, List<BookCopy>> newCopies = library.buyAll(copiesByBook);
+            newCopies.get(this.hobbit).forEach(library::checkout);
+            library.checkinAll(newCopies.get(this.hobbit).subList(0, 2));
+            hobbitIds = newCopies.get(this.hobbit).stream().map(library::idOf).collect(Collectors.toList());
+            duneId = library.idOf(newCopies.get(this.dune).get(0));
+        }
+
+        try (DurableLibrary library = reopen(1000)) {
+            assertEquals(new HashSet<>(hobbitIds), ids(library, library.allCopies(this.hobbit)));
+            assertEquals(new HashSet<>(hobbitIds.subList(0, 2)), ids(library, library.availableCopies(this.hobbit)));
+            assertTrue(library.isAvailable(library.copyWithId(duneId)));
+            long id = library.idOf(library.buy(this.dune));
+            assertFalse(hobbitIds.contains(id) || id == duneId);
+        }
+    }
+
+    @Test
+    public void testRecover_tornBatch() throws IOException {
+        Path log;
+        try (DurableLibrary library = reopen(1000)) {
+            library.buy(this.dune);
+            try (Stream<Path> files = Files.list(this.directory)) {
+                log = files.filter(file -> file.getFileName().toString().startsWith("log-"))
+                        .max(Comparator.naturalOrder()).get();
+            }
+            long length = Files.size(log);
+            library.buyAll(Collections.singletonMap(this.hobbit, 100));
+            // Cut the batch in the middle, as if the library crashed while writing it
+            byte[] bytes = Files.readAllBytes(log);
+            Files.write(log, Arrays.copyOf(bytes, (int) (length + bytes.length) / 2));
+        }
+
+        try (DurableLibrary library = reopen(1000)) {
+            assertEquals(1, library.allCopies(this.dune).size());
+            assertEquals(0, library.allCopies(this.hobbit).size());
+        }
+    }
+
+    @Test
+    public void testCheckout_failureNotLogged() throws IOException {
+        try (DurableLibrary library = reopen(1000)) {
+            BookCopy copy = library.buy(this.hobbit);
+            library.checkout(copy);
+            try {
+                library.checkout(copy);
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException iae) {
+                // The copy is already checked out
+            }
+        }
+        try (DurableLibrary library = reopen(1000)) {
+            assertEquals(0, library.availableCopies(this.hobbit).size());
+            assertEquals(1, library.allCopies(this.hobbit).size());
+        }
+    }
+
+    @Test
+    public void testLose_copyNotInLibrary() throws IOException {
+        try (DurableLibrary library = reopen(1000)) {
+            library.buy(this.hobbit);
+            library.lose(new BookCopy(this.hobbit));
+            assertEquals(1, library.allCopies(this.hobbit).size());
+        }
+    }
+
+    @Test
+    public void testGroupCommit_concurrentOperations() throws Exception {
+        int threads = 8;
+        Set<Long> expected = ConcurrentHashMap.newKeySet();
+        try (DurableLibrary library = DurableLibrary.open(this.directory, new ConcurrentLibrary(), 500)) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 300; i++) {
+                        BookCopy copy = library.buy(i % 2 == 0 ? this.hobbit : this.dune);
+                        library.checkout(copy);
+                        if (i % 5 == 0) {
+                            library.lose(copy);
+                        } else {
+                            expected.add(library.idOf(copy));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get(120, TimeUnit.SECONDS);
+            }
+            executor.shutdown();
+        }
+
+        try (DurableLibrary library = reopen(500)) {
+            Set<BookCopy> all = new HashSet<>(library.allCopies(this.hobbit));
+            all.addAll(library.allCopies(this.dune));
+            assertEquals(expected, ids(library, all));
+            for (BookCopy copy : all) {
+                assertFalse(library.isAvailable(copy));
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpen_corruptSnapshot() throws IOException {
+        try (DurableLibrary library = reopen(1000)) {
+            library.buy(this.hobbit);
+            library.snapshot();
+        }
+        try (Stream<Path> files = Files.list(this.directory)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                if (file.getFileName().toString().startsWith("snapshot-")) {
+                    byte[] bytes = Files.readAllBytes(file);
+                    bytes[bytes.length / 2] ^= 1;
+                    Files.write(file, bytes);
+                }
+            }
+        }
+        reopen(1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOpen_nonPositiveInterval() throws IOException {
+        reopen(0);
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testBuy_afterClose() throws IOException {
+        DurableLibrary library = reopen(1000);
+        library.close();
+        library.buy(this.hobbit);
+    }
+}
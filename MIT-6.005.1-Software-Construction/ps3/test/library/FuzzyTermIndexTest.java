@@ -0,0 +1,134 @@
+package library;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test suite for FuzzyTermIndex ADT.
+ */
+public class FuzzyTermIndexTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     * Edit distance will be tested on equal strings, empty strings, one insertion, deletion or substitution,
+     * a transposition (two edits), and strings further apart than the bound, where only exceeding it matters.
+     * Max distance will be tested on each of its three length ranges.
+     * Similar terms will be tested on an empty index, the term itself, a typo at the start, middle and end of a term,
+     * a term too short for any tolerance, terms too far away, and a removed term.
+     * On a random dictionary, similar terms must be exactly those found by brute force.
+     * Prefixed terms will be tested on no match, several matches in order, the limit, and the prefix being a term.
+     */
+
+    private static FuzzyTermIndex index(String... terms) {
+        FuzzyTermIndex index = new FuzzyTermIndex();
+        Arrays.asList(terms).forEach(index::add);
+        return index;
+    }
+
+    @Test
+    public void testEditDistance() {
+        assertEquals(0, FuzzyTermIndex.editDistance("tolkien", "tolkien", 2));
+        assertEquals(0, FuzzyTermIndex.editDistance("", "", 2));
+        assertEquals(2, FuzzyTermIndex.editDistance("", "ab", 2));
+        assertEquals(1, FuzzyTermIndex.editDistance("tolkien", "tolkiens", 2));
+        assertEquals(1, FuzzyTermIndex.editDistance("tolkien", "tolken", 2));
+        assertEquals(1, FuzzyTermIndex.editDistance("tolkien", "tolkian", 2));
+        assertEquals(2, FuzzyTermIndex.editDistance("tolkien", "tolkein", 2));
+        assertTrue(FuzzyTermIndex.editDistance("tolkien", "rowling", 2) > 2);
+        assertTrue(FuzzyTermIndex.editDistance("a", "abcdef", 2) > 2);
+    }
+
+    @Test
+    public void testMaxDistance() {
+        assertEquals(0, FuzzyTermIndex.maxDistance(2));
+        assertEquals(1, FuzzyTermIndex.maxDistance(3));
+        assertEquals(1, FuzzyTermIndex.maxDistance(5));
+        assertEquals(2, FuzzyTermIndex.maxDistance(6));
+    }
+
+    @Test
+    public void testSimilarTerms_emptyIndex() {
+        assertEquals(Collections.emptyMap(), index().similarTerms("tolkien"));
+    }
+
+    @Test
+    public void testSimilarTerms_typos() {
+        FuzzyTermIndex index = index("tolkien", "tolkiens", "token", "rowling", "hobbit", "of");
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("tolkien", 2);
+        expected.put("token", 2);
+        assertEquals(expected, index.similarTerms("tolkein"));
+        expected.clear();
+        expected.put("tolkien", 1);
+        expected.put("tolkiens", 2);
+        assertEquals(expected, index.similarTerms("olkien"));
+        assertEquals(Collections.singletonMap("hobbit", 1), index.similarTerms("hobbin"));
+        assertEquals(Collections.singletonMap("hobbit", 0), index.similarTerms("hobbit"));
+    }
+
+    @Test
+    public void testSimilarTerms_shortTerms() {
+        FuzzyTermIndex index = index("of", "on", "off");
+        assertEquals(Collections.singletonMap("of", 0), index.similarTerms("of"));
+        assertEquals(Collections.emptyMap(), index.similarTerms("in"));
+    }
+
+    @Test
+    public void testSimilarTerms_removed() {
+        FuzzyTermIndex index = index("tolkien", "hobbit");
+        index.remove("tolkien");
+        index.remove("absent");
+        assertEquals(1, index.size());
+        assertEquals(Collections.emptyMap(), index.similarTerms("tolkein"));
+    }
+
+    @Test
+    public void testSimilarTerms_sameAsBruteForce() {
+        Random random = new Random(6005);
+        String alphabet = "abcdeiou";
+        FuzzyTermIndex index = new FuzzyTermIndex();
+        String[] terms = new String[5000];
+        for (int i = 0; i < terms.length; i++) {
+            StringBuilder term = new StringBuilder();
+            for (int j = 0; j < 3 + random.nextInt(8); j++) {
+                term.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            terms[i] = term.toString();
+            index.add(terms[i]);
+        }
+        for (int i = 0; i < 200; i++) {
+            String query = terms[random.nextInt(terms.length)];
+            StringBuilder typo = new StringBuilder(query);
+            typo.setCharAt(random.nextInt(typo.length()), alphabet.charAt(random.nextInt(alphabet.length())));
+            if (random.nextBoolean()) {
+                typo.deleteCharAt(random.nextInt(typo.length()));
+            }
+            String misspelled = typo.toString();
+            int maxDistance = FuzzyTermIndex.maxDistance(misspelled.length());
+            Map<String, Integer> expected = new HashMap<>();
+            for (String term : terms) {
+                int distance = FuzzyTermIndex.editDistance(misspelled, term, maxDistance);
+                if (distance <= maxDistance) {
+                    expected.put(term, distance);
+                }
+            }
+            assertEquals(expected, index.similarTerms(misspelled));
+        }
+    }
+
+    @Test
+    public void testPrefixedTerms() {
+        FuzzyTermIndex index = index("hobbit", "hobbits", "hob", "hobnob", "holly", "a");
+        assertEquals(Collections.emptyList(), index.prefixedTerms("x", 10));
+        assertEquals(Arrays.asList("hob", "hobbit", "hobbits", "hobnob"), index.prefixedTerms("hob", 10));
+        assertEquals(Arrays.asList("hobbit", "hobbits"), index.prefixedTerms("hobb", 10));
+        assertEquals(Arrays.asList("hob", "hobbit"), index.prefixedTerms("hob", 2));
+    }
+}
@@ -0,0 +1,248 @@
+package library;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test suite for HoldQueueLibrary ADT. Its behavior as a Library is the one of its delegate, tested by LibraryTest.
+ */
+public class HoldQueueLibraryTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     * Hold will be tested on a book with an available copy (served at once), with no copy at all, and with all its
+     * copies checked out; the copies then come from checkin, checkinAll or buyForHold, and the served copies must
+     * be checked out. Buy and buyAll must keep the postcondition of Library, their new copies available, which the
+     * next hold on the book then hands to the holds waiting.
+     * Holds must be served by priority, then in the order they were placed; cancelled holds, first in line or
+     * behind others, must be skipped and no longer counted, and a book whose holds are all cancelled must be served
+     * at once again.
+     * A callback of a hold calling the library (checking the copy in again) must not deadlock.
+     * Many threads holding and checking in the copies of the same book must never hold the same copy at once, and
+     * must all be served.
+     * Checkin will be tested on a copy that is not checked out, and the constructor on a null delegate.
+     */
+
+    private final Book hobbit = new Book("The Hobbit", Arrays.asList("J. R. R. Tolkien"), 1937);
+
+    private final Book dune = new Book("Dune", Arrays.asList("Frank Herbert"), 1965);
+
+    private final HoldQueueLibrary library = new HoldQueueLibrary(new ConcurrentLibrary());
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testHold_availableCopy() {
+        BookCopy copy = this.library.buy(this.hobbit);
+        CompletableFuture<BookCopy> hold = this.library.hold(this.hobbit);
+        assertTrue(hold.isDone());
+        assertSame(copy, hold.join());
+        assertFalse(this.library.isAvailable(copy));
+        assertEquals(0, this.library.holdCount(this.hobbit));
+    }
+
+    @Test
+    public void testHold_servedByCheckinInOrder() {
+        BookCopy copy = this.library.buy(this.hobbit);
+        this.library.checkout(copy);
+        List<CompletableFuture<BookCopy>> holds = Arrays.asList(this.library.hold(this.hobbit),
+                this.library.hold(this.hobbit), this.library.hold(this.hobbit));
+        assertEquals(3, this.library.holdCount(this.hobbit));
+
+        for (CompletableFuture<BookCopy> hold : holds) {
+            assertFalse(hold.isDone());
+            this.library.checkin(copy);
+            assertSame(copy, hold.join());
+            assertFalse(this.library.isAvailable(copy));
+        }
+        this.library.checkin(copy);
+        assertTrue(this.library.isAvailable(copy));
+        assertEquals(0, this.library.holdCount(this.hobbit));
+    }
+
+    @Test
+    public void testHold_priority() {
+        BookCopy copy = this.library.buy(this.hobbit);
+        this.library.checkout(copy);
+        CompletableFuture<BookCopy> low = this.library.hold(this.hobbit);
+        CompletableFuture<BookCopy> high = this.library.hold(this.hobbit, 5);
+        CompletableFuture<BookCopy> otherHigh = this.library.hold(this.hobbit, 5);
+
+        this.library.checkin(copy);
+        assertTrue(high.isDone());
+        assertFalse(otherHigh.isDone() || low.isDone());
+        this.library.checkin(copy);
+        assertTrue(otherHigh.isDone());
+        assertFalse(low.isDone());
+        this.library.checkin(copy);
+        assertTrue(low.isDone());
+    }
+
+    @Test
+    public void testHold_servedByBuyForHold() {
+        CompletableFuture<BookCopy> hold = this.library.hold(this.hobbit);
+        assertFalse(hold.isDone());
+        BookCopy copy = this.library.buyForHold(this.hobbit);
+        assertSame(copy, hold.join());
+        assertFalse(this.library.isAvailable(copy));
+        assertEquals(0, this.library.availableCount(this.hobbit));
+        assertEquals(1, this.library.totalCount(this.hobbit));
+
+        BookCopy unheld = this.library.buyForHold(this.hobbit);
+        assertTrue(this.library.isAvailable(unheld));
+    }
+
+    @Test
+    public void testBuy_keepsCopyAvailable() {
+        CompletableFuture<BookCopy> first = this.library.hold(this.hobbit);
+        BookCopy copy = this.library.buy(this.hobbit);
+        assertTrue(this.library.isAvailable(copy));
+        assertFalse(first.isDone());
+        this.library.checkout(copy);
+        this.library.checkin(copy);
+        assertSame(copy, first.join());
+    }
+
+    @Test
+    public void testHold_servedByBatches() {
+        CompletableFuture<BookCopy> first = this.library.hold(this.hobbit);
+        CompletableFuture<BookCopy> second = this.library.hold(this.hobbit);
+        Map<Book, List<BookCopy>> newCopies = this.library.buyAll(Collections.singletonMap(this.hobbit, 2));
+        assertEquals(2, this.library.availableCount(this.hobbit));
+        assertFalse(first.isDone());
+        CompletableFuture<BookCopy> third = this.library.hold(this.hobbit);
+        assertEquals(new HashSet<>(newCopies.get(this.hobbit)), new HashSet<>(Arrays.asList(first.join(),
+                second.join())));
+        assertFalse(third.isDone());
+        assertEquals(0, this.library.availableCount(this.hobbit));
+
+        BookCopy duneCopy = this.library.buy(this.dune);
+        this.library.checkout(duneCopy);
+        this.library.checkinAll(Arrays.asList(duneCopy, first.join()));
+        assertSame(first.join(), third.join());
+        assertFalse(this.library.isAvailable(first.join()));
+        assertTrue(this.library.isAvailable(duneCopy));
+    }
+
+    @Test
+    public void testHold_cancelledSkipped() {
+        BookCopy copy = this.library.buy(this.hobbit);
+        this.library.checkout(copy);
+        CompletableFuture<BookCopy> cancelled = this.library.hold(this.hobbit);
+        CompletableFuture<BookCopy> waiting = this.library.hold(this.hobbit);
+        assertTrue(cancelled.cancel(false));
+        assertEquals(1, this.library.holdCount(this.hobbit));
+
+        this.library.checkin(copy);
+        assertSame(copy, waiting.join());
+    }
+
+    @Test
+    public void testHold_cancelledBehindOthers() {
+        BookCopy copy = this.library.buy(this.hobbit);
+        this.library.checkout(copy);
+        CompletableFuture<BookCopy> first = this.library.hold(this.hobbit);
+        List<CompletableFuture<BookCopy>> cancelled = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            cancelled.add(this.library.hold(this.hobbit));
+        }
+        CompletableFuture<BookCopy> last = this.library.hold(this.hobbit);
+        cancelled.forEach(hold -> hold.cancel(false));
+        assertEquals(2, this.library.holdCount(this.hobbit));
+
+        this.library.checkin(copy);
+        assertSame(copy, first.join());
+        assertEquals(1, this.library.holdCount(this.hobbit));
+        this.library.checkin(copy);
+        assertSame(copy, last.join());
+        assertEquals(0, this.library.holdCount(this.hobbit));
+    }
+
+    @Test
+    public void testHold_allCancelled() {
+        BookCopy copy = this.library.buy(this.hobbit);
+        this.library.checkout(copy);
+        this.library.hold(this.hobbit).cancel(false);
+        this.library.hold(this.hobbit).cancel(false);
+
+        this.library.checkin(copy);
+        assertTrue(this.library.isAvailable(copy));
+        CompletableFuture<BookCopy> hold = this.library.hold(this.hobbit);
+        assertSame(copy, hold.getNow(null));
+    }
+
+    @Test
+    public void testHold_callbackChecksCopyIn() {
+        BookCopy copy = this.library.buy(this.hobbit);
+        this.library.checkout(copy);
+        this.library.hold(this.hobbit).thenAccept(this.library::checkin);
+        CompletableFuture<BookCopy> next = this.library.hold(this.hobbit);
+
+        this.library.checkin(copy);
+        assertSame(copy, next.join());
+    }
+
+    @Test
+    public void testHold_concurrentHoldsAndCheckins() throws Exception {
+        int threads = 8;
+        for (int i = 0; i < 3; i++) {
+            this.library.buy(this.hobbit);
+        }
+        Set<BookCopy> held = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < 500; i++) {
+                    BookCopy copy = this.library.hold(this.hobbit, i % 3).get(60, TimeUnit.SECONDS);
+                    assertTrue(held.add(copy));
+                    assertFalse(this.library.isAvailable(copy));
+                    assertTrue(held.remove(copy));
+                    this.library.checkin(copy);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<Void> future : futures) {
+            future.get(120, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        assertEquals(3, this.library.availableCount(this.hobbit));
+        assertEquals(0, this.library.holdCount(this.hobbit));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCheckin_copyNotCheckedOut() {
+        BookCopy copy = this.library.buy(this.hobbit);
+        this.library.checkout(this.library.buy(this.dune));
+        this.library.hold(this.dune);
+        this.library.checkin(copy);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_nullDelegate() {
+        new HoldQueueLibrary(null);
+    }
+}
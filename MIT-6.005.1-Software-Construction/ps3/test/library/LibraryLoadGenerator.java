@@ -0,0 +1,241 @@
+package library;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Load generator for LibraryServer: opens many connections, each one keeping a few pipelined requests in flight
+ * (checkout and checkin of a copy of its own, count and find of a shared book), and prints the throughput and the
+ * latency percentiles of the responses.
+ * <p>
+ * All the connections are driven by one thread with a Selector, so that the client does not need a thread per
+ * connection. Without a port, a LibraryServer is started in another process, so that the client and the server
+ * have their own file descriptor limits.
+ * <p>
+ * Not a test: run its main method, with optional arguments
+ * [connections (default 10000) [seconds (default 10) [pipeline depth (default 4) [port [host]]]]].
+ */
+public class LibraryLoadGenerator {
+
+    private static final int BOOKS = 100;
+
+    private static final int WARMUP_SECONDS = 2;
+
+    /**
+     * Connection is the client side of one connection: its channel, its copy, and the send times of its requests
+     * in flight.
+     */
+    private static class Connection {
+
+        private final SocketChannel channel;
+
+        private final Book book;
+
+        private final ByteBuffer input = ByteBuffer.allocate(4096);
+
+        private final Deque<ByteBuffer> output = new ArrayDeque<>();
+
+        private final long[] sendTimes;
+
+        private int inFlight;
+
+        private int firstInFlight;
+
+        private int sent;
+
+        private byte[][] requests;
+
+        Connection(SocketChannel channel, Book book, int depth) {
+            this.channel = channel;
+            this.book = book;
+            this.sendTimes = new long[depth];
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int connectionCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        Process server = null;
+        InetSocketAddress address;
+        if (args.length > 3) {
+            InetAddress host = args.length > 4 ? InetAddress.getByName(args[4]) : InetAddress.getLoopbackAddress();
+            address = new InetSocketAddress(host, Integer.parseInt(args[3]));
+        } else {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    LibraryServer.class.getName(), "0", LibraryServer.LOOPBACK_OPTION, LibraryServer.EXIT_ON_EOF_OPTION)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(server.getInputStream(),
+                    StandardCharsets.UTF_8));
+            address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(reader.readLine()));
+        }
+        try {
+            run(address, connectionCount, seconds, depth);
+        } finally {
+            if (server != null) {
+                server.destroy();
+            }
+        }
+    }
+
+    private static void run(InetSocketAddress address, int connectionCount, int seconds, int depth)
+            throws IOException {
+        Selector selector = Selector.open();
+        List<Connection> connections = new ArrayList<>(connectionCount);
+        long connectStart = System.nanoTime();
+        for (int i = 0; i < connectionCount; i++) {
+            SocketChannel channel = SocketChannel.open(address);
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+            Book book = new Book("Book " + i % BOOKS, Arrays.asList("Author " + i % BOOKS), 2000);
+            Connection connection = new Connection(channel, book, depth);
+            channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.add(connection);
+        }
+        System.out.printf("%d connections opened in %d ms%n", connectionCount,
+                (System.nanoTime() - connectStart) / 1_000_000);
+
+        // Each connection first buys its copy, and starts its pipeline once it has its id
+        for (Connection connection : connections) {
+            send(connection, request(LibraryServer.BUY, connection.book, -1));
+            flush(connection, connection.channel.keyFor(selector));
+        }
+
+        long[] latencies = new long[1 << 20];
+        int latencyCount = 0;
+        long errors = 0;
+        // Measured from WARMUP_SECONDS after every connection has its copy
+        int started = 0;
+        long measureStart = Long.MAX_VALUE;
+        long end = Long.MAX_VALUE;
+        long requestsDone = 0;
+        while (System.nanoTime() < end) {
+            selector.select(100);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Connection connection = (Connection) key.attachment();
+                if (key.isWritable()) {
+                    flush(connection, key);
+                }
+                if (!key.isReadable()) {
+                    continue;
+                }
+                if (connection.channel.read(connection.input) < 0) {
+                    throw new EOFException("The server closed a connection");
+                }
+                connection.input.flip();
+                while (connection.input.remaining() >= 4
+                        && connection.input.remaining() >= 4 + connection.input.getInt(connection.input.position())) {
+                    int length = connection.input.getInt();
+                    byte status = connection.input.get();
+                    long now = System.nanoTime();
+                    long sentAt = connection.sendTimes[connection.firstInFlight];
+                    connection.firstInFlight = (connection.firstInFlight + 1) % depth;
+                    connection.inFlight--;
+                    if (status != LibraryServer.OK) {
+                        errors++;
+                    }
+                    if (connection.requests == null) {
+                        if (status != LibraryServer.OK) {
+                            throw new IOException("The server did not sell a copy");
+                        }
+                        long id = connection.input.getLong();
+                        connection.requests = new byte[][]{
+                                request(LibraryServer.CHECKOUT, null, id),
+                                request(LibraryServer.AVAILABLE_COUNT, connection.book, -1),
+                                request(LibraryServer.CHECKIN, null, id),
+                                request(LibraryServer.FIND, connection.book, -1)};
+                        if (++started == connectionCount) {
+                            measureStart = System.nanoTime() + WARMUP_SECONDS * 1_000_000_000L;
+                            end = measureStart + seconds * 1_000_000_000L;
+                        }
+                    } else {
+                        connection.input.position(connection.input.position() + length - 1);
+                        if (sentAt >= measureStart) {
+                            if (latencyCount == latencies.length) {
+                                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+                            }
+                            latencies[latencyCount++] = now - sentAt;
+                            requestsDone++;
+                        }
+                    }
+                    while (connection.inFlight < depth) {
+                        send(connection, connection.requests[connection.sent++ % connection.requests.length]);
+                    }
+                }
+                connection.input.compact();
+                flush(connection, key);
+            }
+        }
+
+        Arrays.sort(latencies, 0, latencyCount);
+        System.out.printf("%d requests in %d s: %.0f requests/s, %d errors%n", requestsDone, seconds,
+                (double) requestsDone / seconds, errors);
+        if (latencyCount > 0) {
+            System.out.printf("latency p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n",
+                    percentile(latencies, latencyCount, 0.50), percentile(latencies, latencyCount, 0.90),
+                    percentile(latencies, latencyCount, 0.99), percentile(latencies, latencyCount, 0.999),
+                    latencies[latencyCount - 1] / 1e6);
+        }
+        for (Connection connection : connections) {
+            connection.channel.close();
+        }
+        selector.close();
+    }
+
+    private static double percentile(long[] sortedLatencies, int count, double fraction) {
+        return sortedLatencies[Math.min(count - 1, (int) (count * fraction))] / 1e6;
+    }
+
+    // Frame of a request on a book, or on the copy of an id
+    private static byte[] request(byte opcode, Book book, long id) {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(request)) {
+            out.writeInt(0);
+            out.writeByte(opcode);
+            if (opcode == LibraryServer.FIND) {
+                out.writeUTF(book.getTitle());
+            } else if (book != null) {
+                DurableLibrary.writeBook(out, book);
+            } else {
+                out.writeLong(id);
+            }
+        } catch (IOException ioe) {
+            throw new AssertionError("Byte arrays do not throw", ioe);
+        }
+        byte[] frame = request.toByteArray();
+        ByteBuffer.wrap(frame).putInt(frame.length - 4);
+        return frame;
+    }
+
+    private static void send(Connection connection, byte[] frame) {
+        connection.sendTimes[(connection.firstInFlight + connection.inFlight) % connection.sendTimes.length] =
+                System.nanoTime();
+        connection.inFlight++;
+        connection.output.add(ByteBuffer.wrap(frame));
+    }
+
+    // Writes what the connection can take now, and waits to write the rest when it can take more
+    private static void flush(Connection connection, SelectionKey key) throws IOException {
+        while (!connection.output.isEmpty()) {
+            ByteBuffer buffer = connection.output.peek();
+            connection.channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            connection.output.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+}
@@ -0,0 +1,319 @@
+package library;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test suite for LibraryServer and RemoteLibrary ADTs.
+ */
+public class LibraryServerTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     * Each test starts a server on a ConcurrentLibrary and any free port, and talks to it through RemoteLibrary
+     * clients, or through a raw socket for the protocol itself.
+     * Every operation will be tested through a client, including the ones the library rejects, which must throw
+     * IllegalArgumentException without breaking the connection. Two clients must share the same collection.
+     * Pipelining will be tested with many threads sharing one client, and with several raw requests written at
+     * once, whose responses must come in order. A malformed request, and a request on which the library throws
+     * some other RuntimeException, must be answered by an error, and the connection must go on. A request longer
+     * than MAX_FRAME_LENGTH must close the connection. A closed server must fail its clients.
+     * Main will be tested in a child process, on loopback, which must exit once its standard input is closed.
+     */
+
+    private final Book hobbit = new Book("The Hobbit", Arrays.asList("J. R. R. Tolkien"), 1937);
+
+    private final Book dune = new Book("Dune", Arrays.asList("Frank Herbert"), 1965);
+
+    private LibraryServer server;
+
+    private InetSocketAddress address;
+
+    private final List<RemoteLibrary> clients = new ArrayList<>();
+
+    @Before
+    public void startServer() throws IOException {
+        this.server = new LibraryServer(new ConcurrentLibrary(), 0);
+        this.address = new InetSocketAddress(InetAddress.getLoopbackAddress(), this.server.getPort());
+        Thread serving = new Thread(() -> {
+            try {
+                this.server.serve();
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        });
+        serving.setDaemon(true);
+        serving.start();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        for (RemoteLibrary client : this.clients) {
+            client.close();
+        }
+        this.server.close();
+    }
+
+    private RemoteLibrary connect() throws IOException {
+        RemoteLibrary client = new RemoteLibrary(this.address);
+        this.clients.add(client);
+        return client;
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testOperations() throws IOException {
+        RemoteLibrary library = connect();
+        BookCopy first = library.buy(this.hobbit);
+        BookCopy second = library.buy(this.hobbit);
+        BookCopy lost = library.buy(this.dune);
+        assertEquals(new HashSet<>(Arrays.asList(first, second)), library.allCopies(this.hobbit));
+        assertEquals(2, library.totalCount(this.hobbit));
+
+        library.checkout(first);
+        assertFalse(library.isAvailable(first));
+        assertTrue(library.isAvailable(second));
+        assertEquals(new HashSet<>(Arrays.asList(second)), library.availableCopies(this.hobbit));
+        assertEquals(1, library.availableCount(this.hobbit));
+        library.checkin(first);
+        assertTrue(library.isAvailable(first));
+
+        assertEquals(this.hobbit, library.find("Tolkien").get(0));
+        library.lose(lost);
+        assertEquals(0, library.totalCount(this.dune));
+        assertFalse(library.isAvailable(lost));
+        assertTrue(library.find("Dune").isEmpty());
+    }
+
+    @Test
+    public void testCheckout_rejected() throws IOException {
+        RemoteLibrary library = connect();
+        BookCopy copy = library.buy(this.hobbit);
+        library.checkout(copy);
+        try {
+            library.checkout(copy);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            assertEquals("This book copy is not available in the library", iae.getMessage());
+        }
+        library.checkin(copy);
+        assertTrue(library.isAvailable(copy));
+    }
+
+    @Test
+    public void testClients_shareCollection() throws IOException {
+        RemoteLibrary library = connect();
+        RemoteLibrary other = connect();
+        BookCopy copy = library.buy(this.hobbit);
+
+        Set<BookCopy> otherCopies = other.allCopies(this.hobbit);
+        assertEquals(1, otherCopies.size());
+        BookCopy otherCopy = otherCopies.iterator().next();
+        assertEquals(this.hobbit, otherCopy.getBook());
+        other.checkout(otherCopy);
+        assertFalse(library.isAvailable(copy));
+        assertEquals(otherCopies, other.allCopies(this.hobbit));
+    }
+
+    @Test
+    public void testPipelining_threadsSharingClient() throws Exception {
+        int threads = 8;
+        RemoteLibrary library = connect();
+        Set<BookCopy> bought = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < 200; i++) {
+                    BookCopy copy = library.buy(i % 2 == 0 ? this.hobbit : this.dune);
+                    library.checkout(copy);
+                    assertFalse(library.isAvailable(copy));
+                    library.checkin(copy);
+                    bought.add(copy);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<Void> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        assertEquals(threads * 200, bought.size());
+        assertEquals(threads * 100, library.availableCount(this.hobbit));
+        assertEquals(threads * 100, library.totalCount(this.dune));
+    }
+
+    @Test
+    public void testPipelining_rawRequests() throws IOException {
+        try (Socket socket = new Socket(this.address.getAddress(), this.address.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            // Two buys, then a count, written at once before reading any response
+            ByteArrayOutputStream requests = new ByteArrayOutputStream();
+            DataOutputStream requestsOut = new DataOutputStream(requests);
+            byte[] buy = request(LibraryServer.BUY, this.hobbit);
+            byte[] count = request(LibraryServer.TOTAL_COUNT, this.hobbit);
+            for (byte[] request : Arrays.asList(buy, buy, count)) {
+                requestsOut.writeInt(request.length);
+                requestsOut.write(request);
+            }
+            requests.writeTo(out);
+            out.flush();
+
+            assertEquals(9, in.readInt());
+            assertEquals(LibraryServer.OK, in.readByte());
+            long firstId = in.readLong();
+            assertEquals(9, in.readInt());
+            assertEquals(LibraryServer.OK, in.readByte());
+            assertNotEquals(firstId, in.readLong());
+            assertEquals(5, in.readInt());
+            assertEquals(LibraryServer.OK, in.readByte());
+            assertEquals(2, in.readInt());
+        }
+    }
+
+    @Test
+    public void testMalformedRequest() throws IOException {
+        try (Socket socket = new Socket(this.address.getAddress(), this.address.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.writeInt(1);
+            out.writeByte(99);
+            out.writeInt(3);
+            out.writeByte(LibraryServer.CHECKOUT);
+            out.writeShort(0);
+            byte[] buy = request(LibraryServer.BUY, this.dune);
+            out.writeInt(buy.length);
+            out.write(buy);
+            out.flush();
+
+            for (int i = 0; i < 2; i++) {
+                int length = in.readInt();
+                assertEquals(LibraryServer.ERROR, in.readByte());
+                in.readFully(new byte[length - 1]);
+            }
+            assertEquals(9, in.readInt());
+            assertEquals(LibraryServer.OK, in.readByte());
+            in.readLong();
+        }
+        assertEquals(1, connect().totalCount(this.dune));
+    }
+
+    @Test
+    public void testLibraryFailure() throws IOException {
+        Library failing = new ConcurrentLibrary() {
+            @Override
+            public BookCopy buy(Book book) {
+                throw new UnsupportedOperationException("No budget left");
+            }
+        };
+        try (LibraryServer failingServer = new LibraryServer(failing, 0)) {
+            Thread serving = new Thread(() -> {
+                try {
+                    failingServer.serve();
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            });
+            serving.setDaemon(true);
+            serving.start();
+            try (RemoteLibrary library = new RemoteLibrary(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), failingServer.getPort()))) {
+                try {
+                    library.buy(this.hobbit);
+                    fail("expected IllegalArgumentException");
+                } catch (IllegalArgumentException iae) {
+                    assertTrue(iae.getMessage().contains("No budget left"));
+                }
+                assertEquals(0, library.totalCount(this.hobbit));
+            }
+        }
+    }
+
+    @Test
+    public void testRequestTooLong() throws IOException {
+        try (Socket socket = new Socket(this.address.getAddress(), this.address.getPort())) {
+            socket.setSoTimeout(10_000);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(LibraryServer.MAX_FRAME_LENGTH + 1);
+            out.flush();
+            assertEquals(-1, socket.getInputStream().read());
+        }
+        assertEquals(0, connect().totalCount(this.dune));
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testClose_failsClients() throws IOException {
+        RemoteLibrary library = connect();
+        library.buy(this.hobbit);
+        this.server.close();
+        for (int i = 0; i < 100; i++) {
+            library.buy(this.hobbit);
+        }
+    }
+
+    @Test
+    public void testMain_exitsOnEof() throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                LibraryServer.class.getName(), "0", LibraryServer.LOOPBACK_OPTION, LibraryServer.EXIT_ON_EOF_OPTION)
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        try {
+            String port = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))
+                    .readLine();
+            assertNotNull(port);
+            try (RemoteLibrary library = new RemoteLibrary(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(port)))) {
+                library.buy(this.hobbit);
+                assertEquals(1, library.totalCount(this.hobbit));
+            }
+            assertTrue(process.isAlive());
+            process.getOutputStream().close();
+            assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+        } finally {
+            process.destroy();
+        }
+    }
+
+    private static byte[] request(byte opcode, Book book) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(opcode);
+        DurableLibrary.writeBook(out, book);
+        return bytes.toByteArray();
+    }
+}
@@ -7,9 +7,15 @@ import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameter;
 import org.junit.runners.Parameterized.Parameters;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.junit.Assert.*;
 
@@ -35,7 +41,10 @@ public class LibraryTest {
     public static Object[] allImplementationClassNames() {
         return new Object[]{
                 "library.SmallLibrary",
-                "library.BigLibrary"
+                "library.BigLibrary",
+                "library.ConcurrentLibrary",
+                "library.LockFreeLibrary",
+                "library.ShardedLibrary"
         };
     }
 
@@ -66,13 +75,20 @@ public class LibraryTest {
      * ==================
      * Observer methods will not need to be tested individually, as they will serve to test others.
      * We can still check that they do not return wrong results.
+     * The counts must always be the sizes of allCopies and availableCopies, and changing (or trying to change) the
+     * returned sets of copies must not change the library.
      * Buy will be tested with a single copy, two copies of same book added repeatedly, and two copies of two different books added.
      * For checkout, we need to verify that a single copy is not available but still in all copies,
      * that only one copy of the same book is checked out, and that other books are still available.
      * Checkin is the exact opposite strategy as checkout.
+     * BuyAll will be tested with several copies of several books, and with a non-positive number of copies: nothing
+     * must be bought. CheckinAll will be tested with copies of several books, and with a batch holding a copy that
+     * is available, or the same copy twice: no copy must be checked in.
      * Find has the most test cases. We do not really know what should NOT be returned, but we know what should.
      * Any exact matching in title or authors or both, then sorting by date as required for similar books.
      * For equal books, check that only one is sent back. A more complex case with several found books.
+     * Books whose last copy was lost must not be found anymore, nor hide books still held that match less, whether
+     * the query has exact matches or not.
      * To test lose, we need to check that the lost book copy does not appear anywhere anymore, but that other copies are not impacted.
      * Equals and hashCode should not be overridden, so we test this as well.
      */
@@ -225,6 +241,78 @@ public class LibraryTest {
         assertTrue(library.isAvailable(bookCopy2));
     }
 
+    @Test
+    public void testBuyAll_severalBooks() {
+        Map<Book, Integer> copiesByBook = new HashMap<>();
+        copiesByBook.put(book1, 2);
+        copiesByBook.put(book2, 1);
+        Map<Book, List<BookCopy>> newCopies = library.buyAll(copiesByBook);
+        assertEquals(copiesByBook.keySet(), newCopies.keySet());
+        assertEquals(2, new HashSet<>(newCopies.get(book1)).size());
+        newCopies.values().forEach(copies -> copies.forEach(copy -> assertTrue(library.isAvailable(copy))));
+        assertAvailableContainsAndSize(book1, newCopies.get(book1), 2);
+        assertAllContainsAndSize(book2, newCopies.get(book2), 1);
+        assertEquals(book2, library.find("Another book").get(0));
+    }
+
+    @Test
+    public void testBuyAll_nonPositiveCount() {
+        Map<Book, Integer> copiesByBook = new LinkedHashMap<>();
+        copiesByBook.put(book1, 1);
+        copiesByBook.put(book2, 0);
+        try {
+            library.buyAll(copiesByBook);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            // No copy of book2 to buy
+        }
+        assertAllContainsAndSize(book1, Collections.emptyList(), 0);
+        assertAllContainsAndSize(book2, Collections.emptyList(), 0);
+    }
+
+    @Test
+    public void testCheckinAll_severalBooks() {
+        BookCopy bookCopy1 = library.buy(book1);
+        BookCopy bookCopy2 = library.buy(book1);
+        BookCopy bookCopy3 = library.buy(book2);
+        BookCopy bookCopy4 = library.buy(book2);
+        Arrays.asList(bookCopy1, bookCopy2, bookCopy3).forEach(library::checkout);
+        library.checkinAll(Arrays.asList(bookCopy3, bookCopy1, bookCopy2));
+        assertAvailableContainsAndSize(book1, Arrays.asList(bookCopy1, bookCopy2), 2);
+        assertAvailableContainsAndSize(book2, Arrays.asList(bookCopy3, bookCopy4), 2);
+    }
+
+    @Test
+    public void testCheckinAll_copyNotCheckedOut() {
+        BookCopy bookCopy1 = library.buy(book1);
+        BookCopy bookCopy2 = library.buy(book2);
+        library.checkout(bookCopy1);
+        try {
+            library.checkinAll(Arrays.asList(bookCopy1, bookCopy2));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            // bookCopy2 is available
+        }
+        assertFalse(library.isAvailable(bookCopy1));
+        assertTrue(library.isAvailable(bookCopy2));
+    }
+
+    @Test
+    public void testCheckinAll_sameCopyTwice() {
+        BookCopy bookCopy1 = library.buy(book1);
+        BookCopy bookCopy2 = library.buy(book1);
+        library.checkout(bookCopy1);
+        library.checkout(bookCopy2);
+        try {
+            library.checkinAll(Arrays.asList(bookCopy1, bookCopy2, bookCopy1));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            // bookCopy1 cannot be checked in twice
+        }
+        assertAvailableContainsAndSize(book1, Collections.emptyList(), 0);
+        assertAllContainsAndSize(book1, Arrays.asList(bookCopy1, bookCopy2), 2);
+    }
+
     @Test
     public void testFind_authorMatch() {
         library.buy(book1);
@@ -288,6 +376,37 @@ public class LibraryTest {
         assertTrue(foundBooks.contains(book6));
     }
 
+    @Test
+    public void testFind_lostBookNotFound() {
+        BookCopy bookCopy1 = library.buy(book1);
+        library.buy(book4);
+        library.lose(bookCopy1);
+        List<Book> foundBooks = library.find("Alice");
+        assertFalse(foundBooks.contains(book1));
+        assertTrue(foundBooks.contains(book4));
+    }
+
+    @Test
+    public void testFind_lostBooksDoNotHideHeldBooks() {
+        for (int i = 0; i < 60; i++) {
+            library.lose(library.buy(new Book("Saga " + i, Arrays.asList("Lost Author"), 2000)));
+        }
+        List<Book> held = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Book book = new Book("Saga of the long and winding roads, volume " + i, Arrays.asList("Kept Author"),
+                    2000);
+            library.buy(book);
+            held.add(book);
+        }
+        assertTrue(library.find("saga").containsAll(held));
+
+        Book exactMatch = new Book("Saga", Arrays.asList("Kept Author"), 2020);
+        library.buy(exactMatch);
+        List<Book> foundBooks = library.find("Saga");
+        assertEquals(exactMatch, foundBooks.get(0));
+        assertTrue(foundBooks.containsAll(held));
+    }
+
     @Test
     public void testLose_onlyBook() {
         BookCopy bookCopy = library.buy(book1);
@@ -343,6 +462,21 @@ public class LibraryTest {
         assertNotEquals(library, other);
     }
 
+    @Test
+    public void testAllCopies_changingResultDoesNotChangeLibrary() {
+        BookCopy bookCopy = library.buy(book1);
+        for (Set<BookCopy> copies : Arrays.asList(library.allCopies(book1), library.availableCopies(book1))) {
+            try {
+                copies.clear();
+            } catch (UnsupportedOperationException uoe) {
+                // Unmodifiable views are allowed
+            }
+        }
+        assertTrue(library.isAvailable(bookCopy));
+        assertAllContainsAndSize(book1, Arrays.asList(bookCopy), 1);
+        assertAvailableContainsAndSize(book1, Arrays.asList(bookCopy), 1);
+    }
+
     @Test(expected = AssertionError.class)
     public void testAssertionsEnabled() {
         assert false; // make sure assertions are enabled with VM argument: -ea
@@ -351,11 +485,13 @@ public class LibraryTest {
     private void assertAllContainsAndSize(Book book, List<BookCopy> bookCopies, int size) {
         bookCopies.forEach(bookCopy -> assertTrue(library.allCopies(book).contains(bookCopy)));
         assertEquals(library.allCopies(book).size(), size);
+        assertEquals(library.totalCount(book), size);
     }
 
     private void assertAvailableContainsAndSize(Book book, List<BookCopy> bookCopies, int size) {
         bookCopies.forEach(bookCopy -> assertTrue(library.availableCopies(book).contains(bookCopy)));
         assertEquals(library.availableCopies(book).size(), size);
+        assertEquals(library.availableCount(book), size);
     }
 
 
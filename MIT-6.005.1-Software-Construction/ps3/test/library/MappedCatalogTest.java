@@ -0,0 +1,210 @@
+package library;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test suite for MappedCatalog ADT, and for BigLibrary backed by a MappedCatalog.
+ */
+public class MappedCatalogTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     * Catalogs will be written, then opened, and must hold the same books: empty catalog, duplicate books, several
+     * editions of a title, several authors (and the same author twice), non-ASCII strings.
+     * Lookups will be tested on present and absent books, titles and authors, and on a title that is also an author;
+     * books come in the order of BigLibrary (newer editions first). Ids will be tested out of range.
+     * Ranked matches must be the ones of a BookSearchIndex of the same books, on a random catalog, and must only
+     * return books passing the filter.
+     * Opening will be tested on a file that is not a catalog, and on a truncated catalog.
+     * BigLibrary backed by a catalog will be tested on find of exact and partial matches, for books of the catalog
+     * that have copies, or had but lost them, or never had, and for books outside the catalog, with audits on.
+     */
+
+    private final Book hobbit1 = new Book("The Hobbit", Arrays.asList("J. R. R. Tolkien"), 1937);
+
+    private final Book hobbit2 = new Book("The Hobbit", Arrays.asList("J. R. R. Tolkien"), 1951);
+
+    private final Book rings = new Book("The Lord of the Rings", Arrays.asList("J. R. R. Tolkien"), 1954);
+
+    private final Book omens = new Book("Good Omens", Arrays.asList("Terry Pratchett", "Neil Gaiman"), 1990);
+
+    private final Book cafe = new Book("Caf\u00e9 Society", Arrays.asList("\u00c9mile Zola", "\u00c9mile Zola"), 1883);
+
+    private final Book tolkien = new Book("J. R. R. Tolkien", Arrays.asList("Humphrey Carpenter"), 1977);
+
+    private final List<Book> books = Arrays.asList(this.hobbit1, this.rings, this.omens, this.hobbit2, this.cafe,
+            this.tolkien, this.hobbit1);
+
+    private Path file;
+
+    @Before
+    public void makeFile() throws IOException {
+        this.file = Files.createTempFile("catalog", ".bin");
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.delete(this.file);
+    }
+
+    private MappedCatalog catalogOf(List<Book> books) throws IOException {
+        MappedCatalog.write(this.file, books);
+        return MappedCatalog.open(this.file);
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testWrite_emptyCatalog() throws IOException {
+        MappedCatalog catalog = catalogOf(Collections.emptyList());
+        assertEquals(0, catalog.size());
+        assertEquals(-1, catalog.idOf(this.hobbit1));
+        assertEquals(Collections.emptyList(), catalog.withTitle("The Hobbit"));
+        assertEquals(Collections.emptyList(), catalog.rankedMatches("Hobbit", 10, id -> true));
+    }
+
+    @Test
+    public void testWrite_booksInLibraryOrder() throws IOException {
+        MappedCatalog catalog = catalogOf(this.books);
+        List<Book> expected = new ArrayList<>(this.books.subList(0, 6));
+        expected.sort(BigLibrary.BOOK_SORTING_COMPARATOR);
+        assertEquals(6, catalog.size());
+        for (int id = 0; id < catalog.size(); id++) {
+            assertEquals(expected.get(id), catalog.book(id));
+            assertEquals(id, catalog.idOf(expected.get(id)));
+        }
+    }
+
+    @Test
+    public void testIdOf_absent() throws IOException {
+        MappedCatalog catalog = catalogOf(this.books);
+        assertEquals(-1, catalog.idOf(new Book("The Hobbit", Arrays.asList("J. R. R. Tolkien"), 1966)));
+        assertEquals(-1, catalog.idOf(new Book("The Hobbit", Arrays.asList("Someone Else"), 1937)));
+        assertEquals(-1, catalog.idOf(new Book("Dune", Arrays.asList("Frank Herbert"), 1965)));
+    }
+
+    @Test
+    public void testWithTitle() throws IOException {
+        MappedCatalog catalog = catalogOf(this.books);
+        assertEquals(Arrays.asList(this.hobbit2, this.hobbit1), catalog.withTitle("The Hobbit"));
+        assertEquals(Arrays.asList(this.cafe), catalog.withTitle("Caf\u00e9 Society"));
+        assertEquals(Arrays.asList(this.tolkien), catalog.withTitle("J. R. R. Tolkien"));
+        assertEquals(Collections.emptyList(), catalog.withTitle("the hobbit"));
+        assertEquals(Collections.emptyList(), catalog.withTitle("Terry Pratchett"));
+    }
+
+    @Test
+    public void testByAuthor() throws IOException {
+        MappedCatalog catalog = catalogOf(this.books);
+        assertEquals(Arrays.asList(this.hobbit2, this.hobbit1, this.rings), catalog.byAuthor("J. R. R. Tolkien"));
+        assertEquals(Arrays.asList(this.omens), catalog.byAuthor("Neil Gaiman"));
+        assertEquals(Arrays.asList(this.cafe), catalog.byAuthor("\u00c9mile Zola"));
+        assertEquals(Collections.emptyList(), catalog.byAuthor("The Hobbit"));
+        assertEquals(Collections.emptyList(), catalog.byAuthor("Zola"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBook_idOutOfRange() throws IOException {
+        catalogOf(this.books).book(6);
+    }
+
+    @Test
+    public void testRankedMatches_sameAsBookSearchIndex() throws IOException {
+        Random random = new Random(7);
+        String[] words = {"the", "of", "war", "peace", "hobbit", "ring", "night", "day", "river", "stone"};
+        List<Book> randomBooks = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            StringBuilder title = new StringBuilder(words[random.nextInt(words.length)]);
+            for (int j = random.nextInt(4); j > 0; j--) {
+                title.append(' ').append(words[random.nextInt(words.length)]);
+            }
+            randomBooks.add(new Book(title.toString(), Arrays.asList("Author " + random.nextInt(20)),
+                    1900 + random.nextInt(100)));
+        }
+        MappedCatalog catalog = catalogOf(randomBooks);
+        BookSearchIndex index = new BookSearchIndex(BigLibrary.BOOK_SORTING_COMPARATOR);
+        randomBooks.forEach(index::add);
+
+        for (String query : Arrays.asList("the war", "hobbit", "night river stone", "author 3", "dragon")) {
+            assertEquals(index.search(query, 15), catalog.rankedMatches(query, 15, id -> true).stream()
+                    .map(Map.Entry::getKey).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testRankedMatches_filter() throws IOException {
+        MappedCatalog catalog = catalogOf(this.books);
+        int hobbit2Id = catalog.idOf(this.hobbit2);
+        List<Book> matches = catalog.rankedMatches("tolkien hobbit", 10, id -> id != hobbit2Id).stream()
+                .map(Map.Entry::getKey).collect(Collectors.toList());
+        assertEquals(Arrays.asList(this.hobbit1, this.tolkien, this.rings), matches);
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpen_notACatalog() throws IOException {
+        Files.write(this.file, new byte[100]);
+        MappedCatalog.open(this.file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpen_truncated() throws IOException {
+        MappedCatalog.write(this.file, this.books);
+        byte[] bytes = Files.readAllBytes(this.file);
+        Files.write(this.file, Arrays.copyOf(bytes, bytes.length - 1));
+        MappedCatalog.open(this.file);
+    }
+
+    @Test
+    public void testBigLibrary_findExactMatches() throws IOException {
+        List<String> violations = new ArrayList<>();
+        BigLibrary library = new BigLibrary(catalogOf(this.books), 1, Runnable::run, violations::add);
+        Book dune = new Book("Dune", Arrays.asList("Frank Herbert"), 1965);
+        Book tolkienNotInCatalog = new Book("Letters", Arrays.asList("J. R. R. Tolkien"), 1981);
+        library.buy(this.hobbit1);
+        BookCopy lost = library.buy(this.rings);
+        library.buy(dune);
+        library.buy(tolkienNotInCatalog);
+        library.lose(lost);
+
+        assertEquals(Arrays.asList(this.hobbit1), library.find("The Hobbit"));
+        assertEquals(Arrays.asList(tolkienNotInCatalog, this.hobbit1), library.find("J. R. R. Tolkien")
+                .subList(0, 2));
+        assertEquals(Arrays.asList(dune), library.find("Dune"));
+        assertEquals(Collections.emptyList(), library.find("Good Omens"));
+        assertEquals(Collections.emptyList(), violations);
+    }
+
+    @Test
+    public void testBigLibrary_findRankedMatches() throws IOException {
+        BigLibrary library = new BigLibrary(catalogOf(this.books));
+        Book hobbitGuide = new Book("A Guide to the Hobbit", Arrays.asList("Someone"), 2001);
+        library.buy(this.hobbit2);
+        library.buy(this.omens);
+        library.buy(hobbitGuide);
+
+        List<Book> found = library.find("hobbit");
+        assertEquals(2, found.size());
+        assertTrue(found.containsAll(Arrays.asList(this.hobbit2, hobbitGuide)));
+        assertEquals(Arrays.asList(this.omens), library.find("gaiman"));
+        // Typos only match books outside the catalog
+        assertEquals(Arrays.asList(hobbitGuide), library.find("hobbitt"));
+    }
+}
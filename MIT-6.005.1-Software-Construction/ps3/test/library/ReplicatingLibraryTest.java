@@ -0,0 +1,258 @@
+package library;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test suite for ReplicatingLibrary and LibraryReplica ADTs.
+ */
+public class ReplicatingLibraryTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     * Each test starts a primary on a ConcurrentLibrary and any free port, and connects LibraryReplicas to it.
+     * A replica connecting to a primary with copies, available and checked out, must start with the same
+     * collection; every kind of change made on the primary afterwards (buy, checkout, checkin, lose, buyAll,
+     * checkinAll) must then reach it, and several replicas at once. Copies must be matched by their numbers.
+     * Changes made by many threads at once must reach the replica in an order giving the same collection.
+     * Mutators of a replica must throw UnsupportedOperationException.
+     * A replica whose library fails while loading the snapshot must fail to connect, rather than wait forever.
+     * The lag of a replica must stay within a few heartbeats while the primary is idle, and keep growing once the
+     * primary is closed.
+     */
+
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private final Book hobbit = new Book("The Hobbit", Arrays.asList("J. R. R. Tolkien"), 1937);
+
+    private final Book dune = new Book("Dune", Arrays.asList("Frank Herbert"), 1965);
+
+    private ReplicatingLibrary primary;
+
+    private final List<LibraryReplica> replicas = new ArrayList<>();
+
+    @Before
+    public void startPrimary() throws IOException {
+        this.primary = new ReplicatingLibrary(new ConcurrentLibrary(), 0);
+    }
+
+    @After
+    public void stopPrimary() throws IOException {
+        for (LibraryReplica replica : this.replicas) {
+            replica.close();
+        }
+        this.primary.close();
+    }
+
+    private LibraryReplica connect() throws IOException {
+        LibraryReplica replica = new LibraryReplica(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), this.primary.getPort()),
+                new ConcurrentLibrary());
+        this.replicas.add(replica);
+        return replica;
+    }
+
+    // Waits until the replica has applied every change made so far on the primary
+    private void awaitCaughtUp(LibraryReplica replica) throws InterruptedException {
+        assertTrue(replica.awaitRecords(this.primary.appendedRecords(), TIMEOUT_MILLIS));
+        assertEquals(this.primary.appendedRecords(), replica.appliedRecords());
+    }
+
+    private BookCopy replicaCopy(LibraryReplica replica, BookCopy copy) {
+        BookCopy replicaCopy = replica.copyWithId(this.primary.idOf(copy));
+        assertNotNull(replicaCopy);
+        assertEquals(copy.getBook(), replicaCopy.getBook());
+        return replicaCopy;
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testReplica_startsFromSnapshot() throws Exception {
+        BookCopy available = this.primary.buy(this.hobbit);
+        BookCopy checkedOut = this.primary.buy(this.hobbit);
+        this.primary.checkout(checkedOut);
+        this.primary.lose(this.primary.buy(this.dune));
+
+        LibraryReplica replica = connect();
+        assertEquals(this.primary.appendedRecords(), replica.appliedRecords());
+        assertEquals(2, replica.totalCount(this.hobbit));
+        assertEquals(1, replica.availableCount(this.hobbit));
+        assertTrue(replica.isAvailable(replicaCopy(replica, available)));
+        assertFalse(replica.isAvailable(replicaCopy(replica, checkedOut)));
+        assertEquals(0, replica.totalCount(this.dune));
+        assertEquals(Collections.singletonList(this.hobbit), replica.find("The Hobbit"));
+        assertTrue(replica.find("Dune").isEmpty());
+    }
+
+    @Test
+    public void testReplica_appliesEveryChange() throws Exception {
+        LibraryReplica replica = connect();
+        BookCopy copy = this.primary.buy(this.hobbit);
+        awaitCaughtUp(replica);
+        assertTrue(replica.isAvailable(replicaCopy(replica, copy)));
+        assertEquals(Collections.singletonList(this.hobbit), replica.find("J. R. R. Tolkien"));
+
+        this.primary.checkout(copy);
+        awaitCaughtUp(replica);
+        assertFalse(replica.isAvailable(replicaCopy(replica, copy)));
+        this.primary.checkin(copy);
+        awaitCaughtUp(replica);
+        assertTrue(replica.isAvailable(replicaCopy(replica, copy)));
+
+        Map<Book, Integer> counts = new HashMap<>();
+        counts.put(this.hobbit, 2);
+        counts.put(this.dune, 3);
+        Map<Book, List<BookCopy>> newCopies = this.primary.buyAll(counts);
+        List<BookCopy> batch = new ArrayList<>(newCopies.get(this.dune));
+        batch.add(copy);
+        for (BookCopy batchCopy : batch) {
+            this.primary.checkout(batchCopy);
+        }
+        awaitCaughtUp(replica);
+        assertEquals(3, replica.totalCount(this.hobbit));
+        assertEquals(0, replica.availableCount(this.dune));
+        for (BookCopy newCopy : newCopies.get(this.hobbit)) {
+            assertTrue(replica.isAvailable(replicaCopy(replica, newCopy)));
+        }
+
+        this.primary.checkinAll(batch);
+        this.primary.lose(copy);
+        awaitCaughtUp(replica);
+        assertEquals(3, replica.availableCount(this.dune));
+        assertEquals(2, replica.totalCount(this.hobbit));
+        assertNull(replica.copyWithId(this.primary.appendedRecords() + 100));
+    }
+
+    @Test
+    public void testReplicas_several() throws Exception {
+        LibraryReplica first = connect();
+        BookCopy copy = this.primary.buy(this.dune);
+        LibraryReplica second = connect();
+        this.primary.checkout(copy);
+        assertEquals(2, this.primary.replicaCount());
+        for (LibraryReplica replica : Arrays.asList(first, second)) {
+            awaitCaughtUp(replica);
+            assertEquals(1, replica.totalCount(this.dune));
+            assertFalse(replica.isAvailable(replicaCopy(replica, copy)));
+        }
+    }
+
+    @Test
+    public void testReplica_concurrentChanges() throws Exception {
+        int threads = 8;
+        LibraryReplica replica = connect();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < 200; i++) {
+                    BookCopy copy = this.primary.buy(i % 2 == 0 ? this.hobbit : this.dune);
+                    this.primary.checkout(copy);
+                    if (i % 3 != 0) {
+                        this.primary.checkin(copy);
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<Void> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        awaitCaughtUp(replica);
+        for (Book book : Arrays.asList(this.hobbit, this.dune)) {
+            assertEquals(this.primary.totalCount(book), replica.totalCount(book));
+            assertEquals(this.primary.availableCount(book), replica.availableCount(book));
+        }
+    }
+
+    @Test
+    public void testReplica_readOnly() throws IOException {
+        LibraryReplica replica = connect();
+        try {
+            replica.buy(this.hobbit);
+            fail("expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException uoe) {
+            // expected
+        }
+        this.primary.buy(this.hobbit);
+        try {
+            replica.checkinAll(Collections.emptyList());
+            fail("expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException uoe) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testReplica_libraryFailsLoadingSnapshot() throws Exception {
+        this.primary.buy(this.hobbit);
+        Library failing = new ConcurrentLibrary() {
+            @Override
+            public BookCopy buy(Book book) {
+                throw new UnsupportedOperationException("No budget left");
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<LibraryReplica> replica = executor.submit(() -> new LibraryReplica(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), this.primary.getPort()), failing));
+            replica.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            fail("expected IOException");
+        } catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof IOException);
+            assertTrue(ee.getCause().getCause() instanceof UnsupportedOperationException);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLag_idlePrimary() throws Exception {
+        LibraryReplica replica = connect();
+        this.primary.buy(this.hobbit);
+        awaitCaughtUp(replica);
+        Thread.sleep(5 * ReplicatingLibrary.HEARTBEAT_INTERVAL_MILLIS);
+        assertTrue(replica.lagMillis() <= 3 * ReplicatingLibrary.HEARTBEAT_INTERVAL_MILLIS);
+        assertEquals(this.primary.appendedRecords(), replica.appliedRecords());
+    }
+
+    @Test
+    public void testLag_growsWithoutPrimary() throws Exception {
+        LibraryReplica replica = connect();
+        this.primary.buy(this.hobbit);
+        awaitCaughtUp(replica);
+        this.primary.close();
+        long lagAtClose = replica.lagMillis();
+        Thread.sleep(5 * ReplicatingLibrary.HEARTBEAT_INTERVAL_MILLIS);
+        assertTrue(replica.lagMillis() >= lagAtClose + 4 * ReplicatingLibrary.HEARTBEAT_INTERVAL_MILLIS);
+        assertEquals(1, replica.totalCount(this.hobbit));
+    }
+}
@@ -0,0 +1,198 @@
+package library;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test suite for ShardedLibrary ADT. Its behavior as a Library is tested by LibraryTest.
+ */
+public class ShardedLibraryTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     * Each test but the last one makes a library over in-process BigLibrary shards, which it inspects.
+     * Buy will be tested with many books, whose copies must all be held by one shard, and with several editions of
+     * a work, which must share a shard.
+     * Find will be tested with exact matches of an author held by several shards, which must come first, newer
+     * editions first, and with ranked matches held by several shards, which must all be found, each shard's in its
+     * own order.
+     * BuyAll and checkinAll will be tested on batches spread across shards; checkinAll also with a copy of one shard
+     * not checked out, in which case no copy of any shard must be checked in.
+     * Launch will be tested with two worker processes, and the constructor with no shard.
+     */
+
+    private final List<BigLibrary> shards = Arrays.asList(new BigLibrary(), new BigLibrary(), new BigLibrary());
+
+    private final ShardedLibrary library = new ShardedLibrary(this.shards);
+
+    @After
+    public void closeLibrary() {
+        this.library.close();
+    }
+
+    private static List<Book> books(String title, int count) {
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            books.add(new Book(title + " " + i, Arrays.asList("Author " + i), 2000 + i));
+        }
+        return books;
+    }
+
+    // Index of the only shard holding copies of the book
+    private int shardHolding(Book book) {
+        int holding = -1;
+        for (int shard = 0; shard < this.shards.size(); shard++) {
+            if (this.shards.get(shard).totalCount(book) > 0) {
+                assertEquals("Copies of " + book + " in two shards", -1, holding);
+                holding = shard;
+            }
+        }
+        assertNotEquals("No copy of " + book, -1, holding);
+        return holding;
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Test
+    public void testBuy_copiesInOneShard() {
+        List<Book> books = books("Book", 30);
+        for (Book book : books) {
+            this.library.buy(book);
+            this.library.buy(book);
+        }
+        boolean[] used = new boolean[this.shards.size()];
+        for (Book book : books) {
+            int shard = shardHolding(book);
+            used[shard] = true;
+            assertEquals(2, this.shards.get(shard).totalCount(book));
+            assertEquals(2, this.library.totalCount(book));
+        }
+        for (boolean shardUsed : used) {
+            assertTrue(shardUsed);
+        }
+    }
+
+    @Test
+    public void testBuy_editionsShareShard() {
+        int shard = -1;
+        for (int year = 1960; year < 1980; year++) {
+            Book edition = new Book("Dune", Arrays.asList("Frank Herbert"), year);
+            this.library.buy(edition);
+            if (shard == -1) {
+                shard = shardHolding(edition);
+            }
+            assertEquals(shard, shardHolding(edition));
+        }
+    }
+
+    @Test
+    public void testFind_exactMatchesFirst() {
+        List<Book> exactMatches = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            exactMatches.add(new Book("Novel " + i, Arrays.asList("Frank Herbert"), 1970 + i));
+        }
+        exactMatches.add(new Book("Dune", Arrays.asList("Frank Herbert"), 1965));
+        exactMatches.add(new Book("Dune", Arrays.asList("Frank Herbert"), 1990));
+        Book otherHerbert = new Book("Dune: House Atreides", Arrays.asList("Brian Herbert"), 1999);
+        this.library.buy(otherHerbert);
+        exactMatches.forEach(this.library::buy);
+        assertTrue(exactMatches.stream().map(this::shardHolding).distinct().count() > 1);
+
+        List<Book> found = this.library.find("Frank Herbert");
+        exactMatches.sort(BigLibrary.BOOK_SORTING_COMPARATOR);
+        assertEquals(exactMatches, found.subList(0, exactMatches.size()));
+        assertTrue(found.indexOf(new Book("Dune", Arrays.asList("Frank Herbert"), 1990))
+                < found.indexOf(new Book("Dune", Arrays.asList("Frank Herbert"), 1965)));
+        assertEquals(Collections.singletonList(otherHerbert), found.subList(exactMatches.size(), found.size()));
+    }
+
+    @Test
+    public void testFind_rankedMatchesOfEveryShard() {
+        List<Book> books = books("Chronicles of the desert", 12);
+        books.forEach(this.library::buy);
+
+        List<Book> found = this.library.find("desert chronicles");
+        assertEquals(books.size(), found.size());
+        for (BigLibrary shard : this.shards) {
+            List<Book> shardFound = shard.find("desert chronicles");
+            assertEquals(shardFound, found.stream().filter(shardFound::contains).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testBuyAll_acrossShards() {
+        List<Book> books = books("Book", 10);
+        Map<Book, Integer> counts = new HashMap<>();
+        books.forEach(book -> counts.put(book, 3));
+        Map<Book, List<BookCopy>> newCopies = this.library.buyAll(counts);
+        assertEquals(counts.keySet(), newCopies.keySet());
+        for (Book book : books) {
+            assertEquals(3, newCopies.get(book).size());
+            assertEquals(3, this.shards.get(shardHolding(book)).availableCount(book));
+        }
+    }
+
+    @Test
+    public void testCheckinAll_acrossShardsAllOrNothing() {
+        List<BookCopy> copies = new ArrayList<>();
+        for (Book book : books("Book", 10)) {
+            BookCopy copy = this.library.buy(book);
+            this.library.checkout(copy);
+            copies.add(copy);
+        }
+        List<BookCopy> withAvailable = new ArrayList<>(copies);
+        withAvailable.add(this.library.buy(new Book("Dune", Arrays.asList("Frank Herbert"), 1965)));
+        try {
+            this.library.checkinAll(withAvailable);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            for (BookCopy copy : copies) {
+                assertFalse(this.library.isAvailable(copy));
+            }
+        }
+
+        this.library.checkinAll(copies);
+        for (BookCopy copy : copies) {
+            assertTrue(this.library.isAvailable(copy));
+        }
+    }
+
+    @Test
+    public void testLaunch_workerProcesses() throws IOException {
+        try (ShardedLibrary workers = ShardedLibrary.launch(2)) {
+            assertEquals(2, workers.getShardCount());
+            List<Book> books = books("Book", 6);
+            List<BookCopy> copies = new ArrayList<>();
+            for (Book book : books) {
+                BookCopy copy = workers.buy(book);
+                workers.checkout(copy);
+                copies.add(copy);
+            }
+            workers.checkinAll(copies);
+            for (Book book : books) {
+                assertEquals(1, workers.availableCount(book));
+                assertEquals(book, workers.find(book.getTitle()).get(0));
+            }
+            assertEquals(books.size(), workers.find("book").size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_noShards() {
+        new ShardedLibrary(Collections.emptyList());
+    }
+}